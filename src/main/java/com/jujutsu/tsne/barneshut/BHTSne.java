@@ -38,6 +38,7 @@ import static java.lang.Math.log;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.IntStream;
 
 import com.jujutsu.tsne.PrincipalComponentAnalysis;
 import com.jujutsu.utils.MatrixOps;
@@ -50,6 +51,26 @@ public class BHTSne implements BarnesHutTSne {
 	protected volatile boolean abort = false;
 	TaskMonitor monitor;
 
+	// Find the neighbors with NN-descent rather than the vantage point tree
+	protected boolean approximateNeighbors = false;
+	protected NNDescent.PointDistance neighborDistance = null;
+
+	/**
+	 * Find the nearest neighbors of the input points with NN-descent rather
+	 * than a vantage point tree.  This is much faster for large, high
+	 * dimensional data, and works with any distance, at the cost of missing
+	 * a few of the neighbors.
+	 *
+	 * @param approximate whether to use NN-descent
+	 * @param distance the distance between the rows of the input, or null
+	 *                 for the euclidean distance between the rows that t-SNE
+	 *                 works on (after the PCA and normalization)
+	 */
+	public void setApproximateNeighbors(boolean approximate, NNDescent.PointDistance distance) {
+		this.approximateNeighbors = approximate;
+		this.neighborDistance = distance;
+	}
+
 	@Override
 	public double[][] tsne(TSneConfiguration config, TaskMonitor monitor) {
 		this.monitor = monitor;
@@ -83,7 +104,7 @@ public class BHTSne implements BarnesHutTSne {
 	double [][] run(TSneConfiguration parameterObject) {
 		int D = parameterObject.getXStartDim();
 		double[][] Xin = parameterObject.getXin();
-		boolean exact = (parameterObject.getTheta() == .0);
+		boolean exact = exactGradient(parameterObject);
 		
 		if(exact) {
 			monitor.showMessage(TaskMonitor.Level.ERROR,"The Barnes Hut implementation does not support exact inference yet (theta==0.0), if you want exact t-SNE please use one of the standard t-SNE implementations (FastTSne for instance)");
@@ -175,7 +196,10 @@ public class BHTSne implements BarnesHutTSne {
 		else {
 
 			// Compute asymmetric pairwise input similarities
-			computeGaussianPerplexity(X, N, D, row_P, col_P, val_P, perplexity, K);
+			if(approximateNeighbors)
+				computeApproximateGaussianPerplexity(X, N, D, row_P, col_P, val_P, perplexity, K);
+			else
+				computeGaussianPerplexity(X, N, D, row_P, col_P, val_P, perplexity, K);
 
 			// Verified that val_P,col_P,row_P is the same at this point
 
@@ -261,6 +285,11 @@ public class BHTSne implements BarnesHutTSne {
 		return expand(Y,N,no_dims);
 	}
 
+	// Whether the gradient is calculated exactly, rather than approximated
+	boolean exactGradient(TSneConfiguration parameterObject) {
+		return parameterObject.getTheta() == .0;
+	}
+
 	void updateGradient(int N, int no_dims, double[] Y, double momentum, double eta, double[] dY, double[] uY,
 			double[] gains) {
 		for(int i = 0; i < N * no_dims; i++)  {
@@ -478,7 +507,7 @@ public class BHTSne implements BarnesHutTSne {
 		int [] row_P = _row_P;
 		int [] col_P = _col_P;
 		double [] val_P = _val_P;
-		double [] cur_P = new double[N - 1];
+		double [] cur_D = new double[N - 1];
 
 		row_P[0] = 0;
 		for(int n = 0; n < N; n++) row_P[n + 1] = row_P[n] + K;    
@@ -519,61 +548,97 @@ public class BHTSne implements BarnesHutTSne {
 			//System.out.println("Looking at: " + obj_X.get(n).index());
 			tree.search(obj_X[n], K + 1, indices, distances);
 
-			// Initialize some variables for binary search
-			boolean found = false;
-			double beta = 1.0;
-			double min_beta = -Double.MAX_VALUE;
-			double max_beta =  Double.MAX_VALUE;
-			double tol = 1e-5;
+			// Find the Gaussian kernel row with the right perplexity
+			for(int m = 0; m < K; m++) cur_D[m] = distances.get(m + 1);
+			gaussianRow(cur_D, 0, val_P, row_P[n], K, perplexity);
+			for(int m = 0; m < K; m++)
+				col_P[row_P[n] + m] = indices.get(m + 1).index();
+		}
+	}
 
-			// Iterate until we found a good perplexity
-			int iter = 0; 
-			double sum_P = 0.;
-			while(!found && iter < 200) {
+	// Compute input similarities with a fixed perplexity using approximate neighbors (NN-descent)
+	void computeApproximateGaussianPerplexity(double [] X, int N, int D, int [] row_P, int [] col_P, double [] val_P, double perplexity, int K) {
+		if(perplexity > K) 
+			monitor.showMessage(TaskMonitor.Level.WARN, "Perplexity should be lower than K!");
 
-				// Compute Gaussian kernel row and entropy of current row
-				sum_P = Double.MIN_VALUE;
-				double H = .0;
-				for(int m = 0; m < K; m++) {
-					cur_P[m] = exp(-beta * distances.get(m + 1));
-					sum_P += cur_P[m];
-					H += beta * (distances.get(m + 1) * cur_P[m]);
-				}
-				H = (H / sum_P) + log(sum_P);
+		monitor.showMessage(TaskMonitor.Level.INFO, "Finding approximate nearest neighbors...");
+		NNDescent.PointDistance pointDistance = neighborDistance != null ? neighborDistance : NNDescent.euclidean(X, D);
+		NNDescent nnDescent = new NNDescent(N, K, pointDistance, 42);
+		int iterations = nnDescent.run(0);
+		monitor.showMessage(TaskMonitor.Level.INFO, String.format(" - %d NN-descent iterations\n", iterations));
+		int [] indices = nnDescent.getIndices();
+		double [] distances = nnDescent.getDistances();
 
-				// Evaluate whether the entropy is within the tolerance level
-				double Hdiff = H - log(perplexity);
-				if(Hdiff < tol && -Hdiff < tol) {
-					found = true;
+		row_P[0] = 0;
+		for(int n = 0; n < N; n++) row_P[n + 1] = row_P[n] + K;
+
+		IntStream.range(0, N).parallel().forEach(n -> {
+			int offset = n * K;
+
+			gaussianRow(distances, offset, val_P, offset, K, perplexity);
+			for(int m = 0; m < K; m++)
+				col_P[offset + m] = indices[offset + m];
+		});
+	}
+
+	/*
+	 * Find the Gaussian kernel row for the K neighbor distances at
+	 * distances[from..], by a binary search on beta until its entropy matches
+	 * the perplexity, and store it row-normalized in P[offset..offset+K-1]
+	 */
+	static void gaussianRow(double [] distances, int from, double [] P, int offset, int K, double perplexity) {
+		// Initialize some variables for binary search
+		boolean found = false;
+		double beta = 1.0;
+		double min_beta = -Double.MAX_VALUE;
+		double max_beta =  Double.MAX_VALUE;
+		double tol = 1e-5;
+
+		// Iterate until we found a good perplexity
+		int iter = 0; 
+		double sum_P = 0.;
+		while(!found && iter < 200) {
+
+			// Compute Gaussian kernel row and entropy of current row
+			sum_P = Double.MIN_VALUE;
+			double H = .0;
+			for(int m = 0; m < K; m++) {
+				double p = exp(-beta * distances[from + m]);
+				P[offset + m] = p;
+				sum_P += p;
+				H += beta * (distances[from + m] * p);
+			}
+			H = (H / sum_P) + log(sum_P);
+
+			// Evaluate whether the entropy is within the tolerance level
+			double Hdiff = H - log(perplexity);
+			if(Hdiff < tol && -Hdiff < tol) {
+				found = true;
+			}
+			else {
+				if(Hdiff > 0) {
+					min_beta = beta;
+					if(max_beta == Double.MAX_VALUE || max_beta == -Double.MAX_VALUE)
+						beta *= 2.0;
+					else
+						beta = (beta + max_beta) / 2.0;
 				}
 				else {
-					if(Hdiff > 0) {
-						min_beta = beta;
-						if(max_beta == Double.MAX_VALUE || max_beta == -Double.MAX_VALUE)
-							beta *= 2.0;
-						else
-							beta = (beta + max_beta) / 2.0;
-					}
-					else {
-						max_beta = beta;
-						if(min_beta == -Double.MAX_VALUE || min_beta == Double.MAX_VALUE)
-							beta /= 2.0;
-						else
-							beta = (beta + min_beta) / 2.0;
-					}
+					max_beta = beta;
+					if(min_beta == -Double.MAX_VALUE || min_beta == Double.MAX_VALUE)
+						beta /= 2.0;
+					else
+						beta = (beta + min_beta) / 2.0;
 				}
-
-				// Update iteration counter
-				iter++;
 			}
 
-			// Row-normalize current row of P and store in matrix 
-			for(int m = 0; m < K; m++) {
-				cur_P[m] /= sum_P;
-				col_P[row_P[n] + m] = indices.get(m + 1).index();
-				val_P[row_P[n] + m] = cur_P[m];
-			}
+			// Update iteration counter
+			iter++;
 		}
+
+		// Row-normalize current row of P
+		for(int m = 0; m < K; m++)
+			P[offset + m] /= sum_P;
 	}
 
 	void computeGaussianPerplexity(double [] X, int N, int D, int [] _row_P, int [] _col_P, double [] _val_P, double perplexity, double threshold) {
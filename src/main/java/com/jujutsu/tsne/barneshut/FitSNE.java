@@ -0,0 +1,439 @@
+package com.jujutsu.tsne.barneshut;
+
+import static java.lang.Math.log;
+
+import java.util.function.IntToDoubleFunction;
+import java.util.stream.IntStream;
+
+/**
+ * t-SNE with the repulsive forces calculated by FFT-accelerated interpolation
+ * (FIt-SNE, Linderman et al., Nature Methods 2019) rather than with a
+ * Barnes-Hut tree.
+ * <p>
+ * The embedding is covered by a grid of boxes of the same size, with TERMS
+ * equispaced interpolation nodes along each dimension of each box, so all of
+ * the nodes together are equispaced.  The charges of the points are spread
+ * onto the nodes with Lagrange polynomials, the interactions between the nodes
+ * are a convolution with the kernel 1/(1+d^2)^2, which is done with FFTs,
+ * and the potentials are interpolated back to the points.  Each iteration
+ * takes O(N + M log M) time for M grid nodes, rather than O(N log N).
+ * <p>
+ * The charges are 1, y and |y|^2, so that both the repulsive forces and the
+ * normalization sum come from the one kernel.  Two real charges are
+ * transformed together as one complex array, as the transform of the kernel
+ * is real.  The attractive forces are calculated from the sparse P matrix in
+ * parallel.  Only 1, 2 and 3 output dimensions are supported.
+ * <p>
+ * The size of the FFTs is limited (mostly for 3 dimensions, where the grid
+ * grows fastest), so if the embedding is too wide for boxes of at most
+ * MAX_BOX_WIDTH, the Barnes-Hut forces are used for that iteration.
+ */
+public class FitSNE extends ParallelBHTsne {
+
+	/* interpolation nodes per box, along each dimension */
+	static final int TERMS = 3;
+
+	/* the minimum number of boxes along each dimension, by output dimension */
+	private static final int[] MIN_INTERVALS = {0, 50, 50, 10};
+
+	/* the largest FFT along each dimension, by output dimension */
+	private static final int[] MAX_GRID = {0, 1 << 16, 1024, 128};
+
+	/* wider boxes aren't accurate, so Barnes-Hut is used instead */
+	private static final double MAX_BOX_WIDTH = 2.0;
+	private static final double DEFAULT_THETA = 0.5;
+
+	@Override
+	boolean exactGradient(TSneConfiguration config) {
+		// Theta isn't used by the interpolation
+		return false;
+	}
+
+	@Override
+	double[][] run(TSneConfiguration config) {
+		int no_dims = config.getOutputDims();
+		if (no_dims < 1 || no_dims > 3)
+			throw new IllegalArgumentException("FIt-SNE supports only 1, 2 or 3 output dimensions");
+		return super.run(config);
+	}
+
+	// Compute gradient of the t-SNE cost function (using FFT-accelerated interpolation)
+	@Override
+	void computeGradient(double [] P, int [] inp_row_P, int [] inp_col_P, double [] inp_val_P,
+			double [] Y, int N, int D, double [] dC, double theta)
+	{
+		Grid grid = Grid.create(Y, N, D);
+		if(grid == null) {
+			super.computeGradient(P, inp_row_P, inp_col_P, inp_val_P, Y, N, D, dC, theta > 0 ? theta : DEFAULT_THETA);
+			return;
+		}
+
+		double [] neg_f = new double[N * D];
+		double sum_Q = computeRepulsiveForces(grid, Y, N, D, neg_f);
+
+		IntStream.range(0, N).parallel().forEach(n -> {
+			double [] buff = new double[D];
+			double [] pos_f = new double[D];
+			int ind1 = n * D;
+			for(int i = inp_row_P[n]; i < inp_row_P[n + 1]; i++) {
+				double q = 1.0;
+				int ind2 = inp_col_P[i] * D;
+				for(int d = 0; d < D; d++) {
+					buff[d] = Y[ind1 + d] - Y[ind2 + d];
+					q += buff[d] * buff[d];
+				}
+				q = inp_val_P[i] / q;
+				for(int d = 0; d < D; d++) pos_f[d] += q * buff[d];
+			}
+			for(int d = 0; d < D; d++)
+				dC[ind1 + d] = pos_f[d] - (neg_f[ind1 + d] / sum_Q);
+		});
+	}
+
+	// Evaluate t-SNE cost function (with the normalization from the interpolation)
+	@Override
+	double evaluateError(int [] row_P, int [] col_P, double [] val_P, double [] Y, int N, int D, double theta)
+	{
+		Grid grid = Grid.create(Y, N, D);
+		if(grid == null)
+			return super.evaluateError(row_P, col_P, val_P, Y, N, D, theta > 0 ? theta : DEFAULT_THETA);
+
+		double sum_Q = computeRepulsiveForces(grid, Y, N, D, new double[N * D]);
+		double [] errors = new double[N];
+		IntStream.range(0, N).parallel().forEach(n -> {
+			int ind1 = n * D;
+			double C = .0;
+			for(int i = row_P[n]; i < row_P[n + 1]; i++) {
+				int ind2 = col_P[i] * D;
+				double Q = .0;
+				for(int d = 0; d < D; d++) {
+					double diff = Y[ind1 + d] - Y[ind2 + d];
+					Q += diff * diff;
+				}
+				Q = (1.0 / (1.0 + Q)) / sum_Q;
+				C += val_P[i] * log((val_P[i] + Double.MIN_VALUE) / (Q + Double.MIN_VALUE));
+			}
+			errors[n] = C;
+		});
+		double C = .0;
+		for(double error : errors) C += error;
+		return C;
+	}
+
+	/**
+	 * Calculate the unnormalized repulsive forces, sum_j q_ij^2 (y_i - y_j)
+	 * with q_ij = 1/(1+|y_i - y_j|^2), into neg_f, and return the
+	 * normalization sum, sum_{i != j} q_ij.
+	 */
+	double computeRepulsiveForces(Grid grid, double [] Y, int N, int D, double [] neg_f) {
+		int charges = D + 2;
+		double [][] potentials = new double[charges][];
+
+		// Charge 0 is 1, charges 1..D are the coordinates, charge D+1 is |y|^2
+		for(int c = 0; c < charges; c += 2) {
+			final int first = c;
+			final boolean pair = c + 1 < charges;
+			double [][] result = grid.convolve(
+					n -> charge(Y, n, D, first),
+					pair ? n -> charge(Y, n, D, first + 1) : null);
+			potentials[c] = result[0];
+			if(pair) potentials[c + 1] = result[1];
+		}
+
+		double [] sums = new double[N];
+		IntStream.range(0, N).parallel().forEach(n -> {
+			int ind = n * D;
+			double phi = potentials[0][n];
+			double norm = 0;
+			double dot = 0;
+			for(int d = 0; d < D; d++) {
+				double y = Y[ind + d];
+				norm += y * y;
+				dot += y * potentials[d + 1][n];
+				neg_f[ind + d] = y * phi - potentials[d + 1][n];
+			}
+			// sum_j (1 + |y_i - y_j|^2) q_ij^2, less the point itself
+			sums[n] = (1 + norm) * phi - 2 * dot + potentials[D + 1][n] - 1;
+		});
+		double sum_Q = .0;
+		for(double sum : sums) sum_Q += sum;
+		return sum_Q;
+	}
+
+	private static double charge(double [] Y, int n, int D, int c) {
+		if(c == 0) return 1.0;
+		if(c <= D) return Y[n * D + c - 1];
+		double norm = 0;
+		for(int d = 0; d < D; d++) norm += Y[n * D + d] * Y[n * D + d];
+		return norm;
+	}
+
+	/*
+	 * The interpolation grid for one iteration: the box and the Lagrange
+	 * weights of each point along each dimension, and the transform of the
+	 * kernel
+	 */
+	static class Grid {
+		final int N;
+		final int D;
+		final int nodes;	// interpolation nodes along each dimension
+		final int size;	// the FFT size along each dimension
+		final int cells;	// size^D
+		final int [] box;	// n*D+d
+		final double [] weights;	// (n*D+d)*TERMS+t
+		final double [] kernel;	// the (real) transform of the kernel
+		final double [] cos;
+		final double [] sin;
+
+		/**
+		 * The grid for the current positions, or null if the grid would need
+		 * boxes wider than MAX_BOX_WIDTH.
+		 */
+		static Grid create(double [] Y, int N, int D) {
+			double [] min = new double[D];
+			double width = 0;
+			for(int d = 0; d < D; d++) {
+				double lo = Double.MAX_VALUE;
+				double hi = -Double.MAX_VALUE;
+				for(int n = 0; n < N; n++) {
+					lo = Math.min(lo, Y[n * D + d]);
+					hi = Math.max(hi, Y[n * D + d]);
+				}
+				min[d] = lo;
+				width = Math.max(width, hi - lo);
+			}
+
+			// One box per unit of the embedding, but at least MIN_INTERVALS, and
+			// as many as fit in the FFT that is needed anyway
+			int wanted = Math.max(MIN_INTERVALS[D], (int) Math.ceil(width));
+			int fftSize = 2;
+			while(fftSize < 2 * wanted * TERMS && fftSize < MAX_GRID[D]) fftSize *= 2;
+			int intervals = fftSize / 2 / TERMS;
+			if(width / intervals > MAX_BOX_WIDTH)
+				return null;
+			return new Grid(Y, N, D, min, width, intervals, fftSize);
+		}
+
+		private Grid(double [] Y, int N, int D, double [] min, double width, int intervals, int fftSize) {
+			this.N = N;
+			this.D = D;
+			this.nodes = intervals * TERMS;
+			this.size = fftSize;
+			int cells = 1;
+			for(int d = 0; d < D; d++) cells *= size;
+			this.cells = cells;
+
+			// Make the boxes a little larger than the points, so the points
+			// on the upper edge fall in the last box
+			double boxWidth = Math.max(width, 1e-10) * (1 + 1e-8) / intervals;
+			double h = boxWidth / TERMS;
+
+			cos = new double[size / 2];
+			sin = new double[size / 2];
+			for(int k = 0; k < size / 2; k++) {
+				cos[k] = Math.cos(2 * Math.PI * k / size);
+				sin[k] = Math.sin(2 * Math.PI * k / size);
+			}
+
+			// The Lagrange weights, with the nodes of a box at (t + 0.5) * h
+			box = new int[N * D];
+			weights = new double[N * D * TERMS];
+			double [] denominators = new double[TERMS];
+			for(int t = 0; t < TERMS; t++) {
+				denominators[t] = 1;
+				for(int s = 0; s < TERMS; s++)
+					if(s != t) denominators[t] *= (t - s) * h;
+			}
+			IntStream.range(0, N).parallel().forEach(n -> {
+				for(int d = 0; d < D; d++) {
+					int i = n * D + d;
+					double offset = Y[i] - min[d];
+					int b = Math.min(intervals - 1, (int) (offset / boxWidth));
+					box[i] = b;
+					double x = offset - b * boxWidth;
+					for(int t = 0; t < TERMS; t++) {
+						double w = 1;
+						for(int s = 0; s < TERMS; s++)
+							if(s != t) w *= x - (s + 0.5) * h;
+						weights[i * TERMS + t] = w / denominators[t];
+					}
+				}
+			});
+
+			// The kernel between the nodes, as a circulant array
+			double [] re = new double[cells];
+			double [] im = new double[cells];
+			IntStream.range(0, cells).parallel().forEach(cell -> {
+				double distance = 0;
+				int rest = cell;
+				for(int d = 0; d < D; d++) {
+					int o = rest % size;
+					rest /= size;
+					int delta;
+					if(o < nodes) delta = o;
+					else if(o > size - nodes) delta = o - size;
+					else return;
+					distance += (double) delta * delta;
+				}
+				double q = 1.0 / (1.0 + h * h * distance);
+				re[cell] = q * q;
+			});
+			transform(re, im, false, false);
+			kernel = re;
+		}
+
+		/**
+		 * The potentials at the points of the charges a and b (b may be null).
+		 */
+		double [][] convolve(IntToDoubleFunction a, IntToDoubleFunction b) {
+			double [] re = new double[cells];
+			double [] im = new double[cells];
+			int [] corners = new int[D];
+			int [] strides = new int[D];
+			int stride = 1;
+			for(int d = 0; d < D; d++) {
+				strides[d] = stride;
+				stride *= size;
+			}
+
+			// Spread the charges onto the nodes
+			int block = 1;
+			for(int d = 0; d < D; d++) block *= TERMS;
+			for(int n = 0; n < N; n++) {
+				double ca = a.applyAsDouble(n);
+				double cb = b != null ? b.applyAsDouble(n) : 0;
+				for(int k = 0; k < block; k++) {
+					int cell = 0;
+					double w = 1;
+					int rest = k;
+					for(int d = 0; d < D; d++) {
+						int t = rest % TERMS;
+						rest /= TERMS;
+						int i = n * D + d;
+						cell += (box[i] * TERMS + t) * strides[d];
+						w *= weights[i * TERMS + t];
+					}
+					re[cell] += w * ca;
+					im[cell] += w * cb;
+				}
+			}
+
+			transform(re, im, false, true);
+			for(int cell = 0; cell < cells; cell++) {
+				re[cell] *= kernel[cell];
+				im[cell] *= kernel[cell];
+			}
+			transform(re, im, true, true);
+
+			// Interpolate the potentials back to the points
+			double [] pa = new double[N];
+			double [] pb = b != null ? new double[N] : null;
+			final int blockSize = block;
+			IntStream.range(0, N).parallel().forEach(n -> {
+				double sa = 0;
+				double sb = 0;
+				for(int k = 0; k < blockSize; k++) {
+					int cell = 0;
+					double w = 1;
+					int rest = k;
+					for(int d = 0; d < D; d++) {
+						int t = rest % TERMS;
+						rest /= TERMS;
+						int i = n * D + d;
+						cell += (box[i] * TERMS + t) * strides[d];
+						w *= weights[i * TERMS + t];
+					}
+					sa += w * re[cell];
+					sb += w * im[cell];
+				}
+				pa[n] = sa;
+				if(pb != null) pb[n] = sb;
+			});
+			return new double[][] {pa, pb};
+		}
+
+		/*
+		 * The D-dimensional FFT of (re, im), one dimension at a time.  The
+		 * inverse transform is scaled by 1/cells.  If onlyNodes is true, the
+		 * input of the forward transform is zero outside of the nodes, and
+		 * only the output of the inverse transform at the nodes is needed, so
+		 * the lines that are known to be zero or aren't needed are skipped.
+		 */
+		void transform(double [] re, double [] im, boolean inverse, boolean onlyNodes) {
+			int stride = 1;
+			for(int d = 0; d < D; d++) {
+				final int lineStride = stride;
+				final int before = d;
+				final int after = D - d - 1;
+				int lines = cells / size;
+				IntStream.range(0, lines).parallel().forEach(line -> {
+					// The first cell of the line: line split around dimension d
+					int low = line % lineStride;
+					int high = line / lineStride;
+					if(onlyNodes && (inverse ? outside(low, before) : outside(high, after)))
+						return;
+					int first = high * lineStride * size + low;
+					double [] lineRe = new double[size];
+					double [] lineIm = new double[size];
+					for(int k = 0; k < size; k++) {
+						lineRe[k] = re[first + k * lineStride];
+						lineIm[k] = im[first + k * lineStride];
+					}
+					fft(lineRe, lineIm, inverse);
+					for(int k = 0; k < size; k++) {
+						re[first + k * lineStride] = lineRe[k];
+						im[first + k * lineStride] = lineIm[k];
+					}
+				});
+				stride *= size;
+			}
+			if(inverse) {
+				for(int cell = 0; cell < cells; cell++) {
+					re[cell] /= cells;
+					im[cell] /= cells;
+				}
+			}
+		}
+
+		// Whether any of the first count coordinates in index are beyond the nodes
+		private boolean outside(int index, int count) {
+			for(int k = 0; k < count; k++) {
+				if(index % size >= nodes) return true;
+				index /= size;
+			}
+			return false;
+		}
+
+		// In-place iterative radix-2 FFT of one line
+		private void fft(double [] re, double [] im, boolean inverse) {
+			int n = re.length;
+			for(int i = 1, j = 0; i < n; i++) {
+				int bit = n >> 1;
+				for(; (j & bit) != 0; bit >>= 1) j ^= bit;
+				j ^= bit;
+				if(i < j) {
+					double t = re[i]; re[i] = re[j]; re[j] = t;
+					t = im[i]; im[i] = im[j]; im[j] = t;
+				}
+			}
+			for(int length = 2; length <= n; length <<= 1) {
+				int half = length >> 1;
+				int step = n / length;
+				for(int i = 0; i < n; i += length) {
+					for(int k = 0; k < half; k++) {
+						double wr = cos[k * step];
+						double wi = inverse ? sin[k * step] : -sin[k * step];
+						int u = i + k;
+						int v = u + half;
+						double xr = re[v] * wr - im[v] * wi;
+						double xi = re[v] * wi + im[v] * wr;
+						re[v] = re[u] - xr;
+						im[v] = im[u] - xi;
+						re[u] += xr;
+						im[u] += xi;
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,304 @@
+package com.jujutsu.tsne.barneshut;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Approximate k nearest neighbors by NN-descent (Dong, Charikar and Li, 2011):
+ * starting from random neighbors, the neighbors of the neighbors of each point
+ * are compared, and any closer points replace the furthest neighbors, until
+ * few neighbors change.
+ * <p>
+ * The neighbors of each point are kept in a max-heap in flat arrays (point
+ * i has entries i*K..i*K+K-1), as are the candidate lists, so the iterations
+ * don't allocate anything.  The candidates of each point are a random sample
+ * of at most MAX_CANDIDATES of its new and old neighbors and reverse
+ * neighbors.  The points are processed in parallel, and the heaps are updated
+ * under striped locks.  The distance is any function of two point indices,
+ * so it doesn't have to be a metric.
+ */
+public class NNDescent {
+
+	/**
+	 * The distance between two points, given by their index.  This is called
+	 * from multiple threads.
+	 */
+	public interface PointDistance {
+		double distance(int i, int j);
+	}
+
+	private static final int MAX_CANDIDATES = 25;
+	private static final double DELTA = 0.001;
+	private static final int LOCKS = 4096;
+
+	private final int N;
+	private final int K;
+	private final int C;
+	private final PointDistance distance;
+	private final long seed;
+
+	// The neighbor heaps
+	private final int [] indices;
+	private final double [] distances;
+	private final boolean [] isNew;
+
+	// The candidate lists, with random priorities for sampling
+	private final int [] newCandidates;
+	private final float [] newPriorities;
+	private final int [] newCounts;
+	private final int [] oldCandidates;
+	private final float [] oldPriorities;
+	private final int [] oldCounts;
+
+	private final Object [] locks = new Object[LOCKS];
+
+	/**
+	 * @param N the number of points
+	 * @param K the number of neighbors of each point (not counting itself),
+	 *          less than N
+	 * @param distance the distance between points
+	 * @param seed the seed for the random neighbors and samples
+	 */
+	public NNDescent(int N, int K, PointDistance distance, long seed) {
+		if (K >= N)
+			throw new IllegalArgumentException("NN-descent needs more than "+K+" points");
+		this.N = N;
+		this.K = K;
+		this.C = Math.min(K, MAX_CANDIDATES);
+		this.distance = distance;
+		this.seed = seed;
+		indices = new int[N * K];
+		distances = new double[N * K];
+		isNew = new boolean[N * K];
+		newCandidates = new int[N * C];
+		newPriorities = new float[N * C];
+		newCounts = new int[N];
+		oldCandidates = new int[N * C];
+		oldPriorities = new float[N * C];
+		oldCounts = new int[N];
+		for (int i = 0; i < LOCKS; i++) locks[i] = new Object();
+	}
+
+	/**
+	 * The euclidean distance between the rows of a flat row-major matrix.
+	 */
+	public static PointDistance euclidean(double [] X, int D) {
+		return (i, j) -> {
+			int a = i * D;
+			int b = j * D;
+			double dd = .0;
+			for (int d = 0; d < D; d++) {
+				double diff = X[a + d] - X[b + d];
+				dd += diff * diff;
+			}
+			return Math.sqrt(dd);
+		};
+	}
+
+	/**
+	 * Find the neighbors.  Afterwards, the neighbors of point i are at
+	 * i*K..i*K+K-1 in getIndices() and getDistances(), nearest first.
+	 *
+	 * @param maxIterations the largest number of iterations, or 0 for the default
+	 * @return the number of iterations
+	 */
+	public int run(int maxIterations) {
+		if (maxIterations <= 0)
+			maxIterations = Math.max(5, (int) Math.round(Math.log(N) / Math.log(2)));
+
+		// Start with random neighbors
+		IntStream.range(0, N).parallel().forEach(i -> {
+			SplittableRandom random = new SplittableRandom(seed + i);
+			int offset = i * K;
+			for (int k = 0; k < K; k++)
+				distances[offset + k] = Double.MAX_VALUE;
+			int added = 0;
+			while (added < K) {
+				int j = random.nextInt(N);
+				if (j == i || contains(offset, added, j)) continue;
+				indices[offset + added] = j;
+				distances[offset + added] = distance.distance(i, j);
+				isNew[offset + added] = true;
+				added++;
+			}
+			heapify(offset);
+		});
+
+		int iteration = 0;
+		while (iteration < maxIterations) {
+			iteration++;
+			buildCandidates(iteration);
+			long updates = join();
+			if (updates <= DELTA * N * K)
+				break;
+		}
+
+		// Sort the heaps, nearest first
+		IntStream.range(0, N).parallel().forEach(i -> {
+			int offset = i * K;
+			for (int size = K - 1; size > 0; size--) {
+				swap(offset, offset + size);
+				siftDown(offset, 0, size);
+			}
+		});
+		return iteration;
+	}
+
+	public int [] getIndices() { return indices; }
+
+	public double [] getDistances() { return distances; }
+
+	/*
+	 * Sample the new and old neighbors and reverse neighbors of each point,
+	 * and mark the sampled new neighbors as old
+	 */
+	private void buildCandidates(int iteration) {
+		Arrays.fill(newCounts, 0);
+		Arrays.fill(oldCounts, 0);
+		IntStream.range(0, N).parallel().forEach(i -> {
+			SplittableRandom random = new SplittableRandom(seed * 31 + (long) iteration * N + i);
+			int offset = i * K;
+			for (int k = 0; k < K; k++) {
+				int j = indices[offset + k];
+				float priority = (float) random.nextDouble();
+				if (isNew[offset + k]) {
+					addCandidate(newCandidates, newPriorities, newCounts, i, j, priority);
+					addCandidate(newCandidates, newPriorities, newCounts, j, i, priority);
+				} else {
+					addCandidate(oldCandidates, oldPriorities, oldCounts, i, j, priority);
+					addCandidate(oldCandidates, oldPriorities, oldCounts, j, i, priority);
+				}
+			}
+		});
+		IntStream.range(0, N).parallel().forEach(i -> {
+			int offset = i * K;
+			int candidates = i * C;
+			for (int k = 0; k < K; k++) {
+				if (isNew[offset + k] &&
+				    containsCandidate(newCandidates, candidates, newCounts[i], indices[offset + k]))
+					isNew[offset + k] = false;
+			}
+		});
+	}
+
+	/*
+	 * Add j to the candidates of i, keeping the C with the lowest priority
+	 */
+	private void addCandidate(int [] candidates, float [] priorities, int [] counts,
+			int i, int j, float priority) {
+		synchronized (locks[i & (LOCKS - 1)]) {
+			int offset = i * C;
+			int count = counts[i];
+			if (containsCandidate(candidates, offset, count, j))
+				return;
+			if (count < C) {
+				candidates[offset + count] = j;
+				priorities[offset + count] = priority;
+				counts[i] = count + 1;
+				return;
+			}
+			// Replace the candidate with the highest priority, if it's higher
+			int highest = 0;
+			for (int c = 1; c < C; c++)
+				if (priorities[offset + c] > priorities[offset + highest]) highest = c;
+			if (priority < priorities[offset + highest]) {
+				candidates[offset + highest] = j;
+				priorities[offset + highest] = priority;
+			}
+		}
+	}
+
+	/*
+	 * Compare the candidates of each point with each other, where at least
+	 * one of them is new
+	 */
+	private long join() {
+		long [] updates = new long[N];
+		IntStream.range(0, N).parallel().forEach(i -> {
+			int offset = i * C;
+			int newCount = newCounts[i];
+			int oldCount = oldCounts[i];
+			long count = 0;
+			for (int a = 0; a < newCount; a++) {
+				int p = newCandidates[offset + a];
+				for (int b = a + 1; b < newCount; b++) {
+					int q = newCandidates[offset + b];
+					count += update(p, q);
+				}
+				for (int b = 0; b < oldCount; b++) {
+					int q = oldCandidates[offset + b];
+					if (p != q) count += update(p, q);
+				}
+			}
+			updates[i] = count;
+		});
+		long total = 0;
+		for (long count : updates) total += count;
+		return total;
+	}
+
+	private int update(int p, int q) {
+		// Check the furthest neighbors first without the locks.  They only
+		// get closer, so this never misses an update.
+		double bound = Math.max(distances[p * K], distances[q * K]);
+		if (bound == 0)
+			return 0;
+		double d = distance.distance(p, q);
+		if (d >= bound)
+			return 0;
+		return push(p, q, d) + push(q, p, d);
+	}
+
+	private int push(int i, int j, double d) {
+		int offset = i * K;
+		if (d >= distances[offset])
+			return 0;
+		synchronized (locks[i & (LOCKS - 1)]) {
+			if (d >= distances[offset] || contains(offset, K, j))
+				return 0;
+			indices[offset] = j;
+			distances[offset] = d;
+			isNew[offset] = true;
+			siftDown(offset, 0, K);
+			return 1;
+		}
+	}
+
+	private boolean contains(int offset, int count, int j) {
+		for (int k = 0; k < count; k++)
+			if (indices[offset + k] == j) return true;
+		return false;
+	}
+
+	private static boolean containsCandidate(int [] candidates, int offset, int count, int j) {
+		for (int c = 0; c < count; c++)
+			if (candidates[offset + c] == j) return true;
+		return false;
+	}
+
+	private void heapify(int offset) {
+		for (int k = K / 2 - 1; k >= 0; k--)
+			siftDown(offset, k, K);
+	}
+
+	// Max-heap on the distances of the first size entries
+	private void siftDown(int offset, int k, int size) {
+		while (true) {
+			int largest = k;
+			int left = 2 * k + 1;
+			int right = left + 1;
+			if (left < size && distances[offset + left] > distances[offset + largest]) largest = left;
+			if (right < size && distances[offset + right] > distances[offset + largest]) largest = right;
+			if (largest == k) return;
+			swap(offset + k, offset + largest);
+			k = largest;
+		}
+	}
+
+	private void swap(int a, int b) {
+		int index = indices[a]; indices[a] = indices[b]; indices[b] = index;
+		double d = distances[a]; distances[a] = distances[b]; distances[b] = d;
+		boolean flag = isNew[a]; isNew[a] = isNew[b]; isNew[b] = flag;
+	}
+}
@@ -49,8 +49,9 @@ import org.cytoscape.model.CyNode;
 import org.cytoscape.work.TaskMonitor;
 
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.AbstractClusterAlgorithm;
-import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.silhouette.SilhouetteCalculator;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.silhouette.SilhouetteEngine;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.silhouette.Silhouettes;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.CondensedDistanceMatrix;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.CyMatrixFactory;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.MatrixUtils;
 
@@ -81,6 +82,8 @@ public abstract class AbstractKClusterAlgorithm {
 	protected Silhouettes sResult;
 	private AbstractClusterAlgorithm parentTask = null;
 	private Silhouettes[] silhouetteResults = null;
+	private SilhouetteEngine silhouetteEngine = null;
+	private SilhouetteEngine estimateEngine = null;
 
 
 	/**
@@ -139,6 +142,15 @@ public abstract class AbstractKClusterAlgorithm {
 		if (monitor != null)
 			monitor.setStatusMessage("Clustering...");
 
+		// The distances are only calculated once for all of the silhouettes.  The
+		// simplified silhouette is only used to estimate k; the silhouette of the
+		// final clustering is always the full one.
+		silhouetteEngine = new SilhouetteEngine(matrix, metric, false);
+		if (context.useSilhouette && context.simplifiedSilhouette)
+			estimateEngine = new SilhouetteEngine(matrix, metric, true);
+		else
+			estimateEngine = silhouetteEngine;
+
 		if (context.useSilhouette) {
 			TaskMonitor saveMonitor = monitor;
 			monitor = null;
@@ -181,7 +193,7 @@ public abstract class AbstractKClusterAlgorithm {
 		if (nClusters == 0) nClusters = nClustersFound;
 
 		// OK, now run our silhouette on our final result
-		sResult = SilhouetteCalculator.calculate(matrix, metric, clusters);
+		sResult = silhouetteEngine.calculate(clusters);
 		// System.out.println("Average silhouette = "+sResult.getAverageSilhouette());
 		// SilhouetteUtil.printSilhouette(sResult, clusters);
 
@@ -329,21 +341,17 @@ public abstract class AbstractKClusterAlgorithm {
 			}
 		}
 
-	protected int[] chooseCentralElementsAsCenters(int nElements, int nClusters, double[][] distances, int[] tclusterid) {
+	protected int[] chooseCentralElementsAsCenters(int nElements, int nClusters, 
+	                                               CondensedDistanceMatrix distances, int[] tclusterid) {
 		int[] centers = new int[nClusters];
 
-		// calculate normalized distances
-		double[][] normalized = new double[nElements][nElements];
+		// calculate the row sums we use to normalize the distances
+		double[] rowSums = new double[nElements];
 		for (int i = 0; i < nElements; i++) {
 			double sum = 0;
-			for (int j = 0; j < nElements; j++) {
-				double x = distances[i][j];
-				normalized[i][j] = x;
-				sum += x;
-			}
-			for (int j = 0; j < nElements; j++) {
-				normalized[i][j] /= sum;
-			}
+			for (int j = 0; j < nElements; j++)
+				sum += distances.get(i, j);
+			rowSums[i] = sum;
 		}
 
 		// sum the normalized distances across all rows
@@ -353,7 +361,7 @@ public abstract class AbstractKClusterAlgorithm {
 		for (int i = 0; i < nElements; i++) {
 			pairs[i] = new KeyValuePair(0.0, i);
 			for (int j = 0; j < nElements; j++) {
-				pairs[i].key += normalized[i][j];
+				pairs[i].key += distances.get(i, j)/rowSums[i];
 			}
 		}
 
@@ -373,8 +381,9 @@ public abstract class AbstractKClusterAlgorithm {
 			for (int j = 0; j < nElements; j++) {
 				double distance = Double.MAX_VALUE;
 				for (int cluster = 0; cluster < nClusters; cluster++) {
-					if (normalized[j][centers[cluster]] < distance) {
-						distance = normalized[j][centers[cluster]];
+					double normalized = distances.get(j, centers[cluster])/rowSums[j];
+					if (normalized < distance) {
+						distance = normalized;
 						tclusterid[j] = cluster;
 					}
 				}
@@ -585,7 +594,7 @@ public abstract class AbstractKClusterAlgorithm {
 			if (parentTask.cancelled()) return;
 			if (saveMonitor != null) saveMonitor.setStatusMessage("Getting silhouette with a k estimate of "+kEstimate);
 			int ifound = kcluster(kEstimate, nIterations, matrix, metric, clusters);
-			silhouetteResults[kEstimate] = SilhouetteCalculator.calculate(matrix, metric, clusters);
+			silhouetteResults[kEstimate] = estimateEngine.calculate(clusters);
 		}
 	}
 
@@ -646,7 +655,7 @@ public abstract class AbstractKClusterAlgorithm {
 				int ifound = kcluster(kEstimate, nIterations, matrix, metric, clusters);
 				// System.out.println("Got silhouette with a k estimate of "+kEstimate);
 				if (parentTask.cancelled()) return;
-				silhouetteResults[kEstimate] = SilhouetteCalculator.calculate(matrix, metric, clusters);
+				silhouetteResults[kEstimate] = estimateEngine.calculate(clusters);
 			} catch (Exception e) { e.printStackTrace(); }
 		}
 	}
@@ -0,0 +1,308 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.ChengChurch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * The node deletion and addition steps of Cheng and Church (2000) on a
+ * bicluster of a double[][] matrix.
+ * <p>
+ * The bicluster is kept as an active mask and an ordered list of its rows and
+ * columns.  The sums of every row over the active columns, of every column
+ * over the active rows and of the whole bicluster are kept in arrays and
+ * updated as rows and columns are deleted or added, so the means never have
+ * to be recalculated.  Each step then takes one pass over the residues, which
+ * gives the mean squared residue of every row and column and of the
+ * bicluster, and the passes are parallel across rows or columns.
+ */
+class ChengChurchEngine {
+	private final double[][] arr;
+	private final int nRows;
+	private final int nCols;
+	private final double delta;
+	private final double alpha;
+
+	private final boolean[] rowActive;
+	private final boolean[] colActive;
+	private final int[] rows;
+	private final int[] cols;
+	private int rowCount;
+	private int colCount;
+
+	private final double[] rowSums;
+	private final double[] colSums;
+	private double total;
+
+	// The mean squared residue of each row and column in the bicluster
+	private final double[] rowMSRs;
+	private final double[] colMSRs;
+
+	/**
+	 * @param arr the data, which may change between calls to reset()
+	 * @param delta the maximum mean squared residue of a bicluster
+	 * @param alpha the threshold for multiple node deletion
+	 */
+	ChengChurchEngine(double[][] arr, double delta, double alpha) {
+		this.arr = arr;
+		this.nRows = arr.length;
+		this.nCols = nRows > 0 ? arr[0].length : 0;
+		this.delta = delta;
+		this.alpha = alpha;
+		rowActive = new boolean[nRows];
+		colActive = new boolean[nCols];
+		rows = new int[nRows];
+		cols = new int[nCols];
+		rowSums = new double[nRows];
+		colSums = new double[nCols];
+		rowMSRs = new double[nRows];
+		colMSRs = new double[nCols];
+	}
+
+	/**
+	 * Start a new bicluster with all of the rows and columns
+	 */
+	void reset() {
+		rowCount = nRows;
+		colCount = nCols;
+		for (int i = 0; i < nRows; i++) {
+			rowActive[i] = true;
+			rows[i] = i;
+		}
+		for (int j = 0; j < nCols; j++) {
+			colActive[j] = true;
+			cols[j] = j;
+		}
+
+		total = 0;
+		for (int j = 0; j < nCols; j++)
+			colSums[j] = 0;
+		for (int i = 0; i < nRows; i++) {
+			double rowSum = 0;
+			for (int j = 0; j < nCols; j++) {
+				rowSum += arr[i][j];
+				colSums[j] += arr[i][j];
+			}
+			rowSums[i] = rowSum;
+			total += rowSum;
+		}
+	}
+
+	List<Integer> getRows() { return toList(rows, rowCount); }
+	List<Integer> getCols() { return toList(cols, colCount); }
+
+	/**
+	 * Remove all of the rows, then all of the columns, whose mean squared
+	 * residue is more than alpha times that of the bicluster, until the
+	 * bicluster's is at most delta or nothing is removed.
+	 *
+	 * @return true if anything was removed in the last round
+	 */
+	boolean multipleNodeDeletion() {
+		double msr = calcMSR();
+		boolean changed = false;
+
+		while (msr > delta) {
+			changed = false;
+			double cutoff = alpha*msr;
+
+			for (int r = 0; r < rowCount; r++) {
+				if (rowMSRs[rows[r]] > cutoff) {
+					rowActive[rows[r]] = false;
+					changed = true;
+				}
+			}
+			removeRows();
+
+			calcColMSRs();
+			for (int c = 0; c < colCount; c++) {
+				if (colMSRs[cols[c]] > cutoff) {
+					colActive[cols[c]] = false;
+					changed = true;
+				}
+			}
+			removeCols();
+
+			if (!changed) break;
+			msr = calcMSR();
+		}
+		return changed;
+	}
+
+	/**
+	 * Remove the row or column with the largest mean squared residue, one
+	 * at a time, until the bicluster's is at most delta.
+	 */
+	void singleNodeDeletion() {
+		double msr = calcMSR();
+
+		while (msr > delta && rowCount > 0 && colCount > 0) {
+			calcColMSRs();
+			int maxRow = rows[0];
+			for (int r = 1; r < rowCount; r++)
+				if (rowMSRs[rows[r]] > rowMSRs[maxRow]) maxRow = rows[r];
+			int maxCol = cols[0];
+			for (int c = 1; c < colCount; c++)
+				if (colMSRs[cols[c]] > colMSRs[maxCol]) maxCol = cols[c];
+
+			if (rowMSRs[maxRow] > colMSRs[maxCol]) {
+				rowActive[maxRow] = false;
+				removeRows();
+			} else {
+				colActive[maxCol] = false;
+				removeCols();
+			}
+			msr = calcMSR();
+		}
+	}
+
+	/**
+	 * Add the columns, then the rows or inverted rows, whose mean squared
+	 * residue with the bicluster is at most the bicluster's, until none are
+	 * added.
+	 */
+	void nodeAddition() {
+		while (rowCount > 0 && colCount > 0) {
+			int rowSize = rowCount;
+			int colSize = colCount;
+
+			double msr = calcMSR();
+			double[] colScores = new double[nCols];
+			IntStream.range(0, nCols).parallel().forEach(j -> {
+				if (!colActive[j]) colScores[j] = colScore(j);
+			});
+			for (int j = 0; j < nCols; j++) {
+				if (!colActive[j] && colScores[j] <= msr)
+					addCol(j);
+			}
+
+			msr = calcMSR();
+			double[] rowScores = new double[nRows];
+			double[] invertedScores = new double[nRows];
+			IntStream.range(0, nRows).parallel().forEach(i -> {
+				if (rowActive[i]) return;
+				rowScores[i] = rowScore(i, false);
+				invertedScores[i] = rowScore(i, true);
+			});
+			boolean[] candidate = new boolean[nRows];
+			for (int i = 0; i < nRows; i++)
+				candidate[i] = !rowActive[i];
+			for (int i = 0; i < nRows; i++) {
+				if (candidate[i] && rowScores[i] <= msr)
+					addRow(i);
+			}
+			for (int i = 0; i < nRows; i++) {
+				if (candidate[i] && !rowActive[i] && invertedScores[i] <= msr)
+					addRow(i);
+			}
+
+			//end iteration if nothing is added to either rows or columns
+			if (rowSize == rowCount && colSize == colCount) break;
+		}
+	}
+
+	/*
+	 * The mean squared residue of the bicluster, which also sets the mean
+	 * squared residue of each of its rows
+	 */
+	double calcMSR() {
+		IntStream.range(0, rowCount).parallel().forEach(r -> rowMSRs[rows[r]] = rowScore(rows[r], false));
+		double msr = 0;
+		for (int r = 0; r < rowCount; r++)
+			msr += rowMSRs[rows[r]];
+		return msr/rowCount;
+	}
+
+	private void calcColMSRs() {
+		IntStream.range(0, colCount).parallel().forEach(c -> colMSRs[cols[c]] = colScore(cols[c]));
+	}
+
+	/*
+	 * The mean squared residue of row i, or of its inverse, over the columns
+	 * of the bicluster, from the sums.  The row doesn't have to be in the
+	 * bicluster.
+	 */
+	double rowScore(int i, boolean inverted) {
+		double aIJ = total/((double)rowCount*colCount);
+		double aiJ = rowSums[i]/colCount;
+		double rowMsr = 0.0;
+		for (int c = 0; c < colCount; c++) {
+			int j = cols[c];
+			double aIj = colSums[j]/rowCount;
+			double residue = inverted ? -arr[i][j] + aiJ - aIj + aIJ : arr[i][j] - aiJ - aIj + aIJ;
+			rowMsr += residue*residue;
+		}
+		return rowMsr/colCount;
+	}
+
+	// The mean squared residue of column j over the rows of the bicluster
+	double colScore(int j) {
+		double aIJ = total/((double)rowCount*colCount);
+		double aIj = colSums[j]/rowCount;
+		double colMsr = 0.0;
+		for (int r = 0; r < rowCount; r++) {
+			int i = rows[r];
+			double residue = arr[i][j] - rowSums[i]/colCount - aIj + aIJ;
+			colMsr += residue*residue;
+		}
+		return colMsr/rowCount;
+	}
+
+	// Take the rows that are no longer active out of the bicluster and its sums
+	private void removeRows() {
+		int kept = 0;
+		for (int r = 0; r < rowCount; r++) {
+			int i = rows[r];
+			if (rowActive[i]) {
+				rows[kept++] = i;
+				continue;
+			}
+			for (int c = 0; c < colCount; c++)
+				colSums[cols[c]] -= arr[i][cols[c]];
+			for (int j = 0; j < nCols; j++)
+				if (!colActive[j]) colSums[j] -= arr[i][j];
+			total -= rowSums[i];
+		}
+		rowCount = kept;
+	}
+
+	private void removeCols() {
+		int kept = 0;
+		for (int c = 0; c < colCount; c++) {
+			int j = cols[c];
+			if (colActive[j]) {
+				cols[kept++] = j;
+				continue;
+			}
+			for (int r = 0; r < rowCount; r++)
+				total -= arr[rows[r]][j];
+			for (int i = 0; i < nRows; i++)
+				rowSums[i] -= arr[i][j];
+		}
+		colCount = kept;
+	}
+
+	private void addRow(int i) {
+		rowActive[i] = true;
+		rows[rowCount++] = i;
+		for (int j = 0; j < nCols; j++)
+			colSums[j] += arr[i][j];
+		total += rowSums[i];
+	}
+
+	private void addCol(int j) {
+		colActive[j] = true;
+		cols[colCount++] = j;
+		for (int r = 0; r < rowCount; r++)
+			total += arr[rows[r]][j];
+		for (int i = 0; i < nRows; i++)
+			rowSums[i] += arr[i][j];
+	}
+
+	private static List<Integer> toList(int[] values, int count) {
+		List<Integer> list = new ArrayList<Integer>(count);
+		for (int k = 0; k < count; k++)
+			list.add(values[k]);
+		return list;
+	}
+}
@@ -106,25 +106,21 @@ public class RunChengChurch {
 		int totalCols = 0;
 
 		//The Cheng and Church algorithm
+		ChengChurchEngine engine = new ChengChurchEngine(arr, delta, alpha);
 		for(int iter = 0; iter < nClusters; iter++){
-			List<Integer> rows = new ArrayList<Integer>();
-			List<Integer> cols = new ArrayList<Integer>();
-
 			//Initialize rows and cols to all rows and columns
-			for(int i = 0; i < nelements; i++){
-				rows.add(i);
-			}
-			for(int j = 0; j < nattrs; j++){
-				cols.add(j);
-			}
+			engine.reset();
 
-			boolean changed = multipleNodeDeletion(rows,cols);
+			boolean changed = engine.multipleNodeDeletion();
 
 			if(changed == false){
-				singleNodeDeletion(rows,cols);
+				engine.singleNodeDeletion();
 			}
 
-			nodeAddition(rows,cols);
+			engine.nodeAddition();
+
+			List<Integer> rows = engine.getRows();
+			List<Integer> cols = engine.getCols();
 
 			List<Long> nodes = new ArrayList<Long>();
 			for (int i = 0; i < rows.size(); i++){
@@ -211,398 +207,6 @@ public class RunChengChurch {
 		}
 	}
 
-	//For computing the MSR of a bicluster
-	public double calcMSR(List<Integer> rows, List<Integer> cols){
-		double msr = 0;
-		int rowSize = rows.size();
-		int colSize = cols.size();
-
-		Map<Integer,Double> rowMeans = getRowMeans(rows,cols);
-		Map<Integer,Double> colMeans = getColMeans(rows,cols);
-
-		//normalized sum of all elements of sub matrix
-		double aIJ = 0;
-		for(Integer i: rowMeans.keySet()){
-			aIJ += rowMeans.get(i);
-		}
-
-		aIJ = aIJ/rowSize;
-
-		for(Integer i: rows){
-			double aiJ = rowMeans.get(i);
-			for(Integer j: cols){
-
-				double aIj = colMeans.get(j);
-				double residue = arr[i][j] - aiJ - aIj + aIJ;
-
-				msr += Math.pow(residue, 2);
-			}
-		}
-		msr = msr/(rowSize*colSize);
-
-		return msr;
-	}
-
-	public Map<Integer,Double> getRowSums(List<Integer> rows, List<Integer> cols){
-		Map<Integer,Double> rowSums = new HashMap<Integer,Double>();
-
-		for(Integer i : rows){
-			double rowSum = 0;
-			for(Integer j : cols){
-				rowSum += arr[i][j];
-			}
-			rowSums.put(i, rowSum);
-		}
-		return rowSums;
-	}
-	
-	public Map<Integer, Double> getRowMeans(List<Integer> rows, List<Integer> cols){
-		Map<Integer,Double> rowMeans = new HashMap<Integer,Double>();
-		int colSize = cols.size();
-
-		for(Integer i : rows){
-			double rowSum = 0;
-			for(Integer j : cols){
-				rowSum += arr[i][j];
-			}
-			rowMeans.put(i, rowSum/colSize);
-		}
-		return rowMeans;
-	}
-
-	public Map<Integer,Double> getColSums(List<Integer> rows, List<Integer> cols){
-		Map<Integer,Double> colSums = new HashMap<Integer,Double>();
-
-		for(Integer j : cols){
-			double colSum = 0;
-			for(Integer i : rows){
-				colSum += arr[i][j];
-			}
-			colSums.put(j, colSum);
-		}
-		return colSums;
-	}
-
-	public Map<Integer,Double> getColMeans(List<Integer> rows, List<Integer> cols){
-		Map<Integer,Double> colMeans = new HashMap<Integer,Double>();
-		int rowSize = rows.size();
-
-		for(Integer j : cols){
-			double colSum = 0;
-			for(Integer i : rows){
-				colSum += arr[i][j];
-			}
-			colMeans.put(j, colSum/rowSize);
-		}
-		return colMeans;
-	}
-
-	public Map<Integer,Double> calcRowMSR(List<Integer> rows, List<Integer> cols){
-
-		int rowSize = rows.size();
-		int colSize = cols.size();
-		Map<Integer,Double> rowMSRs = new HashMap<Integer,Double>();
-
-		Map<Integer,Double> rowMeans = getRowMeans(rows,cols);
-		Map<Integer,Double> colMeans = getColMeans(rows,cols);
-
-		//normalized sum of all elements of sub matrix
-		double aIJ = 0;
-		for(Integer i: rowMeans.keySet()){
-			aIJ += rowMeans.get(i);
-		}
-
-		aIJ = aIJ/rowSize;
-
-		for(Integer i: rows){
-			double rowMsr = 0.0;
-			double aiJ = rowMeans.get(i);
-			for(Integer j: cols){
-				double aIj = colMeans.get(j);
-				double residue = arr[i][j] - aiJ - aIj + aIJ;
-
-				rowMsr += Math.pow(residue, 2);
-			}
-			rowMsr = rowMsr/colSize;
-			rowMSRs.put(i, rowMsr);
-		}
-
-		return rowMSRs;
-	}
-
-	public Map<Integer,Double> calcColMSR(List<Integer> rows, List<Integer> cols){
-
-		int rowSize = rows.size();
-		int colSize = cols.size();
-		Map<Integer,Double> colMSRs = new HashMap<Integer,Double>();
-
-		Map<Integer,Double> rowMeans = getRowMeans(rows,cols);
-		Map<Integer,Double> colMeans = getColMeans(rows,cols);
-
-		//normalized sum of all elements of sub matrix
-		double aIJ = 0;
-		for(Integer i: rowMeans.keySet()){
-			aIJ += rowMeans.get(i);
-		}
-
-		aIJ = aIJ/rowSize;
-
-		for(Integer j: cols){
-			double colMsr = 0.0;
-			double aIj = colMeans.get(j);
-
-			for(Integer i: rows){
-				double aiJ = rowMeans.get(i);
-				double residue = arr[i][j] - aiJ - aIj + aIJ;
-
-				colMsr += Math.pow(residue, 2);
-			}
-			colMsr = colMsr/rowSize;
-			colMSRs.put(j, colMsr);
-		}
-
-		return colMSRs;
-	}
-
-	public Map<Integer,Double> calcOtherRowMSR(List<Integer> rows, List<Integer> cols, boolean inverted){
-		List<Integer> otherRows = new ArrayList<Integer>();
-		List<Integer> otherCols = new ArrayList<Integer>();
-
-		int nRows = matrix.nRows();
-		int nCols = matrix.nColumns();
-
-		for(int i = 0; i< nRows; i++ ){
-			if( !(rows.contains(i)) ){
-				otherRows.add(i);
-			}
-		}
-
-		for(int j = 0; j< nCols; j++ ){
-			if( !(cols.contains(j)) ){
-				otherCols.add(j);
-			}
-		}
-
-		int rowSize = rows.size();
-		int colSize = cols.size();
-		int otherRowSize = otherRows.size();
-		int otherColSize = otherCols.size();
-
-		Map<Integer,Double> rowMSRs = new HashMap<Integer,Double>();
-
-		Map<Integer,Double> rowMeans = getRowMeans(rows,cols);
-		Map<Integer,Double> colMeans = getColMeans(rows,cols);
-
-		//normalized sum of all elements of sub matrix
-		double aIJ = 0;
-		for(Integer i: rowMeans.keySet()){
-			aIJ += rowMeans.get(i);
-		}
-
-		aIJ = aIJ/rowSize;
-
-		Map<Integer,Double> otherRowMeans = getRowMeans(otherRows,cols);
-
-		for(Integer i: otherRows){
-			double rowMsr = 0.0;
-			double aiJ = otherRowMeans.get(i);
-
-			for(Integer j: cols){
-				double aIj = colMeans.get(j);
-				double residue = 0.0;
-
-				if(!inverted){
-					residue = arr[i][j] - aiJ - aIj + aIJ;
-				}
-				else{
-					residue = -arr[i][j] + aiJ - aIj + aIJ;
-				}
-
-				rowMsr += Math.pow(residue, 2);
-			}
-			rowMsr = rowMsr/colSize;
-			rowMSRs.put(i, rowMsr);
-		}
-
-		return rowMSRs;
-	}
-
-	public Map<Integer,Double> calcOtherColMSR(List<Integer> rows, List<Integer> cols){
-
-		List<Integer> otherRows = new ArrayList<Integer>();
-		List<Integer> otherCols = new ArrayList<Integer>();
-
-		int nRows = matrix.nRows();
-		int nCols = matrix.nColumns();
-
-		for(int i = 0; i< nRows; i++ ){
-			if( !(rows.contains(i)) ){
-				otherRows.add(i);
-			}
-		}
-
-		for(int j = 0; j< nCols; j++ ){
-			if( !(cols.contains(j)) ){
-				otherCols.add(j);
-			}
-		}
-
-		int rowSize = rows.size();
-		int colSize = cols.size();
-		int otherRowSize = otherRows.size();
-		int otherColSize = otherCols.size();
-
-		Map<Integer,Double> colMSRs = new HashMap<Integer,Double>();
-
-		Map<Integer,Double> rowMeans = getRowMeans(rows,cols);
-		Map<Integer,Double> colMeans = getColMeans(rows,cols);
-
-		//normalized sum of all elements of sub matrix
-		double aIJ = 0;
-		for(Integer i: rowMeans.keySet()){
-			aIJ += rowMeans.get(i);
-		}
-
-		aIJ = aIJ/rowSize;
-
-		Map<Integer,Double> otherColMeans = getColMeans(rows,otherCols);
-
-		for(Integer j: otherCols){
-			double colMsr = 0.0;
-			double aIj = otherColMeans.get(j);
-
-			for(Integer i: rows){
-				double aiJ = rowMeans.get(i);
-				double residue = arr[i][j] - aiJ - aIj + aIJ;
-
-				colMsr += Math.pow(residue, 2);
-			}
-			colMsr = colMsr/rowSize;
-			colMSRs.put(j, colMsr);
-		}
-
-		return colMSRs;
-
-	}
-
-	public boolean multipleNodeDeletion(List<Integer> rows, List<Integer> cols){
-		double msr = calcMSR(rows,cols);
-		boolean changed = false;
-
-		while(msr > delta){
-			changed = false;
-			Map<Integer,Double> rowMSRs = calcRowMSR(rows,cols);
-			double cutoff = alpha*msr;
-
-			List<Integer> remRows = new ArrayList<Integer>();
-
-			for(Integer i : rows){
-				if(rowMSRs.get(i) > cutoff){
-					//rows.remove(rows.indexOf(i));
-					remRows.add(i);
-					changed = true;
-				}
-			}
-
-			for(Integer i : remRows){
-				rows.remove(rows.indexOf(i));
-			}
-
-			List<Integer> remCols = new ArrayList<Integer>();
-			Map<Integer,Double> colMSRs = calcColMSR(rows,cols);
-			for(Integer j : cols){
-				if(colMSRs.get(j) > cutoff){
-					//cols.remove(cols.indexOf(j));
-					remCols.add(j);
-					changed = true;
-				}
-			}
-
-			for(Integer j : remCols){
-				cols.remove(cols.indexOf(j));
-			}
-
-			if(changed == false) break;
-			msr = calcMSR(rows,cols);
-
-		}
-		return changed;
-	}
-
-	public void singleNodeDeletion(List<Integer> rows, List<Integer> cols){
-		double msr = calcMSR(rows,cols);
-
-		while(msr > delta){
-			Map<Integer,Double> rowMSRs = calcRowMSR(rows,cols);
-			Map<Integer,Double> colMSRs = calcColMSR(rows,cols);
-
-			int maxRow = getMax(rowMSRs);
-			int maxCol = getMax(colMSRs);
-
-			if(rowMSRs.get(maxRow) > colMSRs.get(maxCol) ){
-				rows.remove(rows.indexOf(maxRow));
-			}
-			else{
-				cols.remove(cols.indexOf(maxCol));
-			}
-			msr = calcMSR(rows,cols);
-		}
-	}
-
-	public void nodeAddition(List<Integer> rows, List<Integer> cols){
-
-		while (true){
-			int rowSize = rows.size();
-			int colSize = cols.size();
-
-			double msr = calcMSR(rows,cols);
-
-			Map<Integer,Double> otherColMSRs = calcOtherColMSR(rows,cols);
-			for (Integer j : otherColMSRs.keySet()){
-				if(otherColMSRs.get(j) <= msr){
-					cols.add(j);
-				}
-			}
-
-			msr = calcMSR(rows,cols);
-			Map<Integer,Double> otherRowMSRs = calcOtherRowMSR(rows,cols,false);
-			Map<Integer,Double> otherRowMSRs_inverted = calcOtherRowMSR(rows,cols,true);
-
-			for (Integer i : otherRowMSRs.keySet()){
-				if(otherRowMSRs.get(i) <= msr){
-					rows.add(i);
-				}
-			}
-
-			for (Integer i : otherRowMSRs_inverted.keySet()){
-				if( rows.contains(i) ) continue;
-
-				if(otherRowMSRs_inverted.get(i) <= msr){
-					rows.add(i);
-				}
-			}
-
-			//end iteration if nothing is added to either rows or columns
-			if(rowSize == rows.size() && colSize == cols.size()) break;
-		}
-
-	}
-
-	public int getMax(Map<Integer,Double> map){
-		Integer maxkey = null;
-		Map.Entry<Integer,Double> maxEntry = null;
-
-		for (Map.Entry<Integer,Double> entry : map.entrySet())
-		{
-		    if (maxEntry == null || entry.getValue().compareTo(maxEntry.getValue()) > 0)
-		    {
-		        maxEntry = entry;
-		    }
-		}
-		maxkey = maxEntry.getKey();
-		return maxkey;
-	}
-
 	public Map<Integer, List<Integer>> getClusterRows(){
 		return clusterRows;
 	}
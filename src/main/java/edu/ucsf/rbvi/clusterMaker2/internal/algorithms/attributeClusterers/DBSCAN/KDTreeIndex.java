@@ -0,0 +1,179 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.DBSCAN;
+
+import java.util.Arrays;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMetric;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
+
+/**
+ * A KD-tree over the rows of a matrix with no missing values, for the
+ * EUCLIDEAN and EUCLIDEANSQ metrics.  Note that those metrics are averaged
+ * over the number of columns, so the radius is scaled to match.
+ *
+ * The tree is stored in flat arrays: the rows are permuted so that every
+ * node covers a contiguous range of the permutation, split at the median
+ * of the widest dimension.
+ */
+public class KDTreeIndex implements NeighborhoodIndex {
+	private static final int LEAF_SIZE = 16;
+
+	private final DistanceMetric metric;
+	private final int nRows;
+	private final int nColumns;
+	private final double[] values;	// Row-major copy of the data
+	private final int[] order;		// Permutation of the rows
+
+	// Node arrays
+	private int nNodes = 0;
+	private int[] start;
+	private int[] end;
+	private int[] splitDimension;	// -1 for leaves
+	private double[] splitValue;
+	private int[] left;
+	private int[] right;
+
+	public KDTreeIndex(Matrix data, DistanceMetric metric) {
+		this.metric = metric;
+		this.nRows = data.nRows();
+		this.nColumns = data.nColumns();
+		values = new double[nRows*nColumns];
+		for (int row = 0; row < nRows; row++) {
+			for (int column = 0; column < nColumns; column++)
+				values[row*nColumns+column] = data.doubleValue(row, column);
+		}
+
+		order = new int[nRows];
+		for (int i = 0; i < nRows; i++)
+			order[i] = i;
+
+		// Every leaf has at least LEAF_SIZE/2 rows
+		int maxNodes = 2*(nRows/(LEAF_SIZE/2)+1);
+		start = new int[maxNodes];
+		end = new int[maxNodes];
+		splitDimension = new int[maxNodes];
+		splitValue = new double[maxNodes];
+		left = new int[maxNodes];
+		right = new int[maxNodes];
+		build(0, nRows);
+	}
+
+	public int[] regionQuery(int point, double eps) {
+		// The (unscaled) sum of squares that corresponds to eps
+		double limit = (metric == DistanceMetric.EUCLIDEANSQ) ? eps*nColumns : eps*eps*nColumns;
+		// A little slack, so rounding never prunes a real neighbor
+		double pruneLimit = limit*(1.0+1e-9);
+
+		int[] neighbors = new int[16];
+		int count = 0;
+		neighbors[count++] = point;
+
+		int[] stack = new int[64];
+		int top = 0;
+		stack[top++] = 0;
+		int offset = point*nColumns;
+		while (top > 0) {
+			int node = stack[--top];
+			int dim = splitDimension[node];
+			if (dim < 0) {
+				for (int i = start[node]; i < end[node]; i++) {
+					int row = order[i];
+					if (row == point) continue;
+					if (distance(offset, row*nColumns) <= eps) {
+						if (count == neighbors.length)
+							neighbors = Arrays.copyOf(neighbors, count*2);
+						neighbors[count++] = row;
+					}
+				}
+				continue;
+			}
+
+			double diff = values[offset+dim] - splitValue[node];
+			if (top+2 > stack.length)
+				stack = Arrays.copyOf(stack, stack.length*2);
+			// Left holds values <= split, right holds values >= split
+			if (diff <= 0 || diff*diff <= pruneLimit)
+				stack[top++] = left[node];
+			if (diff >= 0 || diff*diff <= pruneLimit)
+				stack[top++] = right[node];
+		}
+		return Arrays.copyOf(neighbors, count);
+	}
+
+	// Same arithmetic as DistanceMetric, so the results agree with the
+	// full distance matrix
+	private double distance(int offset1, int offset2) {
+		double result = 0.0;
+		for (int i = 0; i < nColumns; i++) {
+			double term = values[offset1+i] - values[offset2+i];
+			result += term*term;
+		}
+		if (nColumns == 0) return 0;
+		result = result/nColumns;
+		if (metric == DistanceMetric.EUCLIDEAN)
+			return Math.sqrt(result);
+		return result;
+	}
+
+	private int build(int from, int to) {
+		int node = nNodes++;
+		start[node] = from;
+		end[node] = to;
+		splitDimension[node] = -1;
+		if (to - from <= LEAF_SIZE)
+			return node;
+
+		// Split on the widest dimension
+		int dim = -1;
+		double widest = 0.0;
+		for (int column = 0; column < nColumns; column++) {
+			double min = Double.MAX_VALUE;
+			double max = -Double.MAX_VALUE;
+			for (int i = from; i < to; i++) {
+				double v = values[order[i]*nColumns+column];
+				if (v < min) min = v;
+				if (v > max) max = v;
+			}
+			if (max - min > widest) {
+				widest = max - min;
+				dim = column;
+			}
+		}
+		// All of the points are the same
+		if (dim < 0)
+			return node;
+
+		int mid = (from + to) >>> 1;
+		select(from, to-1, mid, dim);
+		splitDimension[node] = dim;
+		splitValue[node] = values[order[mid]*nColumns+dim];
+		left[node] = build(from, mid);
+		right[node] = build(mid, to);
+		return node;
+	}
+
+	// Quickselect, so that order[k] holds the k'th smallest value in dimension dim
+	private void select(int lo, int hi, int k, int dim) {
+		while (hi > lo) {
+			double pivot = values[order[(lo+hi) >>> 1]*nColumns+dim];
+			int i = lo;
+			int j = hi;
+			while (i <= j) {
+				while (values[order[i]*nColumns+dim] < pivot) i++;
+				while (values[order[j]*nColumns+dim] > pivot) j--;
+				if (i <= j) {
+					int tmp = order[i];
+					order[i] = order[j];
+					order[j] = tmp;
+					i++;
+					j--;
+				}
+			}
+			if (k <= j)
+				hi = j;
+			else if (k >= i)
+				lo = i;
+			else
+				return;
+		}
+	}
+}
@@ -0,0 +1,37 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.DBSCAN;
+
+import java.util.Arrays;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMetric;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
+
+/**
+ * The fallback neighborhood index: compare the point to every other row.
+ * This is still O(n^2) work overall, but only O(n) memory, and the queries
+ * can run in parallel.
+ */
+public class LinearScanIndex implements NeighborhoodIndex {
+	private final Matrix data;
+	private final DistanceMetric metric;
+
+	public LinearScanIndex(Matrix data, DistanceMetric metric) {
+		this.data = data;
+		this.metric = metric;
+	}
+
+	public int[] regionQuery(int point, double eps) {
+		int nelements = data.nRows();
+		int[] neighbors = new int[16];
+		int count = 0;
+		neighbors[count++] = point;
+		for (int i = 0; i < nelements; i++) {
+			if (i == point) continue;
+			if (metric.getMetric(data, data, point, i) <= eps) {
+				if (count == neighbors.length)
+					neighbors = Arrays.copyOf(neighbors, count*2);
+				neighbors[count++] = i;
+			}
+		}
+		return Arrays.copyOf(neighbors, count);
+	}
+}
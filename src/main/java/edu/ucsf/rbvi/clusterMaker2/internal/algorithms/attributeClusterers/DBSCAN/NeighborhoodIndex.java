@@ -0,0 +1,65 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.DBSCAN;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMetric;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
+
+/**
+ * An index over the rows of a matrix that answers DBSCAN's region
+ * queries (all of the rows within eps of a given row) without having
+ * to keep all of the pairwise distances around.
+ */
+public interface NeighborhoodIndex {
+	// KD-trees stop pruning well past this many dimensions
+	static final int MAX_KDTREE_DIMENSIONS = 16;
+
+	/**
+	 * Return all of the rows whose distance to point is <= eps.  The point
+	 * itself is always included, and comes first.
+	 *
+	 * @param point the row to find the neighbors of
+	 * @param eps the neighborhood distance
+	 * @return the neighboring rows
+	 */
+	public int[] regionQuery(int point, double eps);
+
+	/**
+	 * Choose an index for this data and metric.  Euclidean data with no
+	 * missing values gets a KD-tree when it's low dimensional, and the
+	 * other true metrics get a vantage point tree.  Everything else (e.g.
+	 * the correlations, or data with missing values, where the triangle
+	 * inequality doesn't hold) falls back to a linear scan.
+	 *
+	 * @param data the matrix to index the rows of
+	 * @param metric the distance metric
+	 * @return the index
+	 */
+	public static NeighborhoodIndex getIndex(Matrix data, DistanceMetric metric) {
+		if (!isComplete(data))
+			return new LinearScanIndex(data, metric);
+
+		switch (metric) {
+			case EUCLIDEANSQ:
+				return new KDTreeIndex(data, metric);
+			case EUCLIDEAN:
+				if (data.nColumns() <= MAX_KDTREE_DIMENSIONS)
+					return new KDTreeIndex(data, metric);
+				return new VPTreeIndex(data, metric);
+			case CITYBLOCK:
+			case CHEBYSHEV:
+			case MINKOWSKI:
+				return new VPTreeIndex(data, metric);
+			default:
+				return new LinearScanIndex(data, metric);
+		}
+	}
+
+	static boolean isComplete(Matrix data) {
+		for (int row = 0; row < data.nRows(); row++) {
+			for (int column = 0; column < data.nColumns(); column++) {
+				if (!data.hasValue(row, column))
+					return false;
+			}
+		}
+		return true;
+	}
+}
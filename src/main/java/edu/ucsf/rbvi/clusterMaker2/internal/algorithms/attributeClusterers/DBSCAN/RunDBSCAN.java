@@ -1,7 +1,7 @@
 package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.DBSCAN;
 
-import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.stream.IntStream;
 
 import org.cytoscape.model.CyNetwork;
 import org.cytoscape.work.TaskMonitor;
@@ -27,8 +27,13 @@ public class RunDBSCAN  {
 	protected int nClusters;
 	double eps;
 	int minPts;
-	ArrayList<Integer> unvisited;
-	double distanceMatrix[][];
+	boolean[] visited;
+	int[] queued;
+	NeighborhoodIndex index;
+
+	// The region queries during cluster expansion are run in parallel in
+	// batches of this many points, so only a batch of neighborhoods is kept
+	private static final int BATCH_SIZE = 1024;
 
 	public RunDBSCAN(CyNetwork network, String weightAttributes[], DistanceMetric metric, 
             TaskMonitor monitor, DBSCANContext context) {
@@ -60,102 +65,112 @@ public class RunDBSCAN  {
 			monitor.setStatusMessage("Clustering...");
 
 		int nelements = matrix.nRows();
-		int ifound = 1;
 		int currentC = -1;
 		int[] clusters = new int[nelements];
+		Arrays.fill(clusters, -1);
 
-		// calculate the distances and store in distance matrix
-		// Do we want to normalize the matrix?
-		// Matrix normMatrix = matrix.getDistanceMatrix(metric);
-		// normMatrix.ops().normalize();
-		// distanceMatrix = normMatrix.toArray();
-		distanceMatrix = matrix.getDistanceMatrix(metric).toArray();
-
-		unvisited = new ArrayList<Integer>();
-
-		//Initializing all nodes as unvisited and clusters to -1
-		for(int i = 0; i < nelements; i++){
-			unvisited.add(i);
-			clusters[i] = -1;
-		}
+		// We don't calculate the full distance matrix, but use an index over
+		// the rows for the region queries
+		index = NeighborhoodIndex.getIndex(matrix, metric);
+		monitor.showMessage(TaskMonitor.Level.INFO,"Finding neighborhoods using "+index.getClass().getSimpleName());
 
-		while(unvisited.size() > 0){
-			int p = unvisited.get(0);
-			unvisited.remove(0);
+		visited = new boolean[nelements];
+		queued = new int[nelements];
+		Arrays.fill(queued, -1);
 
-			ArrayList<Integer> neighborPts = regionQuery(p);
-			// System.out.println("Node "+p+" has "+neighborPts.size()+" neighbors");
+		for (int p = 0; p < nelements; p++) {
+			if (visited[p]) continue;
+			visited[p] = true;
 
-			if(neighborPts.size() < minPts){
+			int[] neighborPts = index.regionQuery(p, eps);
+			if(neighborPts.length < minPts){
 				clusters[p] = -1;
 			}
 			else{
 				currentC += 1;
 				expandCluster(p,neighborPts,currentC,clusters);
-				// System.out.println("Node "+p+" has "+neighborPts.size()+" neighbors after expansion");
 			}
 		}
+		index = null;
 		nClusters = currentC+1;
 		// System.out.println("nClusters = "+nClusters);
 		return clusters;
 	}
 
-	private void expandCluster(int p, ArrayList<Integer> neighborPts,
-	                           int currentC, int[] clusters) {
+	private void expandCluster(int p, int[] neighborPts, int currentC, int[] clusters) {
 
 		//Add p to current cluster
 		clusters[p] = currentC;
 
-		//Now expand for each neighbor
-		for(int i = 0; i < neighborPts.size(); i++ ){
-			int np = neighborPts.get(i);
+		// The queue of neighboring points.  queued[] remembers which cluster
+		// a point was last queued for, so each point is only queued once
+		IntArrayQueue queue = new IntArrayQueue();
+		for (int np: neighborPts) {
+			queued[np] = currentC;
+			queue.add(np);
+		}
 
-			if(unvisited.contains(np)){
+		int[] batch = new int[BATCH_SIZE];
+		boolean[] batchQueried = new boolean[BATCH_SIZE];
+		int[][] batchNeighborPts = new int[BATCH_SIZE][];
 
+		//Now expand for each neighbor
+		while (!queue.isEmpty()) {
+			// Take the next batch off of the queue and fetch the neighboring
+			// points of the ones we haven't visited.  Points queued while
+			// handling this batch go behind it, so this is the same order as
+			// handling them one at a time.
+			int count = 0;
+			while (count < BATCH_SIZE && !queue.isEmpty()) {
+				int np = queue.remove();
+				batch[count] = np;
+				batchQueried[count] = !visited[np];
 				//make neighboring point visited
-				unvisited.remove(unvisited.indexOf(np));
+				visited[np] = true;
+				count++;
+			}
+			IntStream.range(0, count).parallel().forEach(k -> {
+				if (batchQueried[k])
+					batchNeighborPts[k] = index.regionQuery(batch[k], eps);
+			});
 
-				//Now fetch new neighboring points
-				ArrayList<Integer> newNeighborPts = regionQuery(np);
+			for (int k = 0; k < count; k++) {
+				int np = batch[k];
+				int[] newNeighborPts = batchNeighborPts[k];
+				batchNeighborPts[k] = null;
 
-				if(newNeighborPts.size() >= minPts){
+				if(batchQueried[k] && newNeighborPts.length >= minPts){
 					//Merge neighboring points
-					for(Integer newNp: newNeighborPts){
-						if (!neighborPts.contains(newNp))
-							neighborPts.add(newNp);
+					for(int newNp: newNeighborPts){
+						if (queued[newNp] != currentC) {
+							queued[newNp] = currentC;
+							queue.add(newNp);
+						}
 					}
 				}
-			}
 
-			//Check if neighboring point is not assigned to any cluster
-			if (clusters[np] == -1){
-				clusters[np] = currentC;
+				//Check if neighboring point is not assigned to any cluster
+				if (clusters[np] == -1){
+					clusters[np] = currentC;
+				}
 			}
 		}
 	}
 
-	private ArrayList<Integer> regionQuery(int p) {
-
-		ArrayList<Integer> neighborPts = new ArrayList<Integer>();
-		int nelements = distanceMatrix[p].length;
-
-		// always true (what's the purpose of this test?)
-		// if (!neighborPts.contains(p))
-			neighborPts.add(p);
-
-		for(int i = 0; i < nelements; i++){
-			if (i == p) continue;
+	// A simple growable queue of ints
+	private static class IntArrayQueue {
+		int[] values = new int[64];
+		int head = 0;
+		int tail = 0;
 
-			if(distanceMatrix[p][i] <= eps){
-				// System.out.println("distanceMatrix["+p+"]["+i+"] = "+distanceMatrix[p][i]+"<="+eps);
-				if (!neighborPts.contains(i))
-					neighborPts.add(i);
-			} // else 
-				// System.out.println("distanceMatrix["+p+"]["+i+"] = "+distanceMatrix[p][i]+">"+eps);
+		void add(int value) {
+			if (tail == values.length)
+				values = Arrays.copyOf(values, values.length*2);
+			values[tail++] = value;
 		}
 
-		// System.out.println("regionQuery returns "+neighborPts.size()+" points for "+p);
+		int remove() { return values[head++]; }
 
-		return neighborPts;
+		boolean isEmpty() { return head == tail; }
 	}
 }
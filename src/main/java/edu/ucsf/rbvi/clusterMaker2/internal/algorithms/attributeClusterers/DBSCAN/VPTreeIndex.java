@@ -0,0 +1,146 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.DBSCAN;
+
+import java.util.Arrays;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMetric;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
+
+/**
+ * A vantage point tree over the rows of a matrix.  This only relies on the
+ * triangle inequality, so it works for any true metric (CITYBLOCK, CHEBYSHEV,
+ * MINKOWSKI, and EUCLIDEAN in high dimensions), but not for the correlations.
+ *
+ * Each node picks a vantage point and splits the rest of its rows at the
+ * median distance to it, with the rows kept in a single permutation array as
+ * in {@link KDTreeIndex}.
+ */
+public class VPTreeIndex implements NeighborhoodIndex {
+	private static final int LEAF_SIZE = 16;
+
+	private final Matrix data;
+	private final DistanceMetric metric;
+	private final int[] order;
+
+	// Node arrays
+	private int nNodes = 0;
+	private int[] start;
+	private int[] end;
+	private int[] vantage;	// -1 for leaves
+	private double[] radius;
+	private int[] inner;
+	private int[] outer;
+
+	public VPTreeIndex(Matrix data, DistanceMetric metric) {
+		this.data = data;
+		this.metric = metric;
+		int nRows = data.nRows();
+		order = new int[nRows];
+		for (int i = 0; i < nRows; i++)
+			order[i] = i;
+
+		// Every leaf has at least LEAF_SIZE/2 rows
+		int maxNodes = 2*(nRows/(LEAF_SIZE/2)+1);
+		start = new int[maxNodes];
+		end = new int[maxNodes];
+		vantage = new int[maxNodes];
+		radius = new double[maxNodes];
+		inner = new int[maxNodes];
+		outer = new int[maxNodes];
+		build(0, nRows, new double[nRows]);
+	}
+
+	public int[] regionQuery(int point, double eps) {
+		int[] neighbors = new int[16];
+		int count = 0;
+		neighbors[count++] = point;
+
+		int[] stack = new int[64];
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int node = stack[--top];
+			if (vantage[node] < 0) {
+				for (int i = start[node]; i < end[node]; i++) {
+					int row = order[i];
+					if (row == point) continue;
+					if (metric.getMetric(data, data, point, row) <= eps) {
+						if (count == neighbors.length)
+							neighbors = Arrays.copyOf(neighbors, count*2);
+						neighbors[count++] = row;
+					}
+				}
+				continue;
+			}
+
+			int vp = vantage[node];
+			double d = metric.getMetric(data, data, point, vp);
+			if (vp != point && d <= eps) {
+				if (count == neighbors.length)
+					neighbors = Arrays.copyOf(neighbors, count*2);
+				neighbors[count++] = vp;
+			}
+
+			// A little slack, so rounding never prunes a real neighbor
+			double mu = radius[node];
+			double slack = 1e-9*(Math.abs(d)+Math.abs(eps)+Math.abs(mu));
+			if (top+2 > stack.length)
+				stack = Arrays.copyOf(stack, stack.length*2);
+			if (d - eps <= mu + slack)
+				stack[top++] = inner[node];
+			if (d + eps >= mu - slack)
+				stack[top++] = outer[node];
+		}
+		return Arrays.copyOf(neighbors, count);
+	}
+
+	private int build(int from, int to, double[] distances) {
+		int node = nNodes++;
+		start[node] = from;
+		end[node] = to;
+		vantage[node] = -1;
+		if (to - from <= LEAF_SIZE)
+			return node;
+
+		int vp = order[from];
+		for (int i = from+1; i < to; i++)
+			distances[i] = metric.getMetric(data, data, vp, order[i]);
+
+		// Inner gets the rows at or below the median distance, outer the rest
+		int mid = (from + 1 + to) >>> 1;
+		select(from+1, to-1, mid, distances);
+		vantage[node] = vp;
+		radius[node] = distances[mid];
+		inner[node] = build(from+1, mid, distances);
+		outer[node] = build(mid, to, distances);
+		return node;
+	}
+
+	// Quickselect on the distances, carrying the permutation along
+	private void select(int lo, int hi, int k, double[] distances) {
+		while (hi > lo) {
+			double pivot = distances[(lo+hi) >>> 1];
+			int i = lo;
+			int j = hi;
+			while (i <= j) {
+				while (distances[i] < pivot) i++;
+				while (distances[j] > pivot) j--;
+				if (i <= j) {
+					double tmpD = distances[i];
+					distances[i] = distances[j];
+					distances[j] = tmpD;
+					int tmp = order[i];
+					order[i] = order[j];
+					order[j] = tmp;
+					i++;
+					j--;
+				}
+			}
+			if (k <= j)
+				hi = j;
+			else if (k >= i)
+				lo = i;
+			else
+				return;
+		}
+	}
+}
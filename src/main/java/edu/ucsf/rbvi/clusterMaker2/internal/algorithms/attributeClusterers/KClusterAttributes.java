@@ -75,6 +75,14 @@ public class KClusterAttributes {
 	          groups={"K-Cluster parameters"}, dependsOn="useSilhouette=true", gravity=2.0)
 	public int kMax = 0;
 
+	@Tunable (description="Use simplified silhouette", 
+	          longDescription = "If set to ```true``` then the silhouette used to estimate ```k``` is calculated from the distance "+
+	                            "of each element to the cluster centroids, rather than to all of the other elements.  This is much "+
+	                            "faster for large data sets.",
+	          exampleStringValue = "false",
+	          groups={"K-Cluster parameters"}, dependsOn="useSilhouette=true", gravity=2.5)
+	public boolean simplifiedSilhouette = false;
+
 	@Tunable (description="Number of clusters", 
 	          longDescription = "The number of clusters (```k```) to produce.  Note that this value is set automatically "+
 	                            "if ```useSilhouette``` is set to ```true```",
@@ -117,6 +125,7 @@ public class KClusterAttributes {
 	public void addParams(List<String> params) {
 		params.add("useSilhouette="+useSilhouette);
 		params.add("kMax="+kMax);
+		params.add("simplifiedSilhouette="+simplifiedSilhouette);
 		params.add("kNumber="+kNumber);
 		params.add("initializeNearCenter="+initializeNearCenter);
 	}
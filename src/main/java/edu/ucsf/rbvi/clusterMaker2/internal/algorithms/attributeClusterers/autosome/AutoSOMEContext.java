@@ -75,6 +75,9 @@ public class AutoSOMEContext  {
 
 	@Tunable(description="Number of Threads (No. CPUs)", groups={"AutoSOME Basic Tuning"}, gravity=68)
 	public int numThreads = 1;
+
+	@Tunable(description="Batch SOM training", groups={"AutoSOME Basic Tuning"}, gravity=69)
+	public boolean batchSOM = false;
 	
 	@Tunable(description="Normalization mode", groups={"Data Normalization"}, 
 			 params="displayState=expanded", gravity=75)
@@ -161,6 +164,7 @@ public class AutoSOMEContext  {
 		params.add("logscaling="+logscaling);
 		params.add("normalization="+normalization.getSelectedValue());
 		params.add("numThreads="+numThreads);
+		params.add("batchSOM="+batchSOM);
 		params.add("pvalue="+pvalue);
 		params.add("ensembleRuns"+ensembleRuns);
 		params.add("mode="+mode.getSelectedValue());
@@ -175,6 +179,7 @@ public class AutoSOMEContext  {
 		settings.ensemble_runs = ensembleRuns;
 		settings.mst_pval = pvalue;
 		settings.threads = numThreads;
+		settings.som_batch = batchSOM;
 		settings.logNorm = logscaling;
 		settings.unitVar = unitvar;
 		settings.distMatrix = performFuzzy;
@@ -154,6 +154,7 @@ public class RunAutoSOME {
 		s.sumSqrRows=settings.sumSqrRows;
 		s.sumSqrCol=settings.sumSqrCol;
 		s.som_iters=settings.som_iters;
+		s.som_batch=settings.som_batch;
 		s.de_resolution=settings.de_resolution;
 		s.distMatrix=settings.distMatrix;
 		s.dmDist=settings.dmDist;
@@ -238,6 +239,11 @@ public class RunAutoSOME {
 		autRun = new Run();
 		cr = autRun.runAutoSOMEBasic(s, monitor);
 
+		if (canceled) {
+			monitor.setStatusMessage("canceled");
+			return null;
+		}
+
 		if(cr==null) {
 			monitor.setStatusMessage("Clustering failed!");
 			return null;
@@ -29,143 +29,164 @@ written using Java and may be subject to certain additional restrictions as a re
 
 
 import java.util.*;
+import java.util.stream.IntStream;
 import java.io.*;
 
 import org.cytoscape.work.TaskMonitor;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.autosome.cluststruct.*;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.autosome.launch.Settings;
 /**
+ * merge the cluster runs of an ensemble into a fuzzy clustering
+ *
+ * Runs are added from the threads as they finish.  If the cluster number
+ * doesn't need to be equalized, each run is merged into the fuzzy cluster
+ * membership matrix as soon as all earlier runs have been, so the result
+ * doesn't depend on which thread finishes first.  Otherwise, the clusters of
+ * each run are found as it is added, and the runs are held until the average
+ * cluster number is known; runs beyond Settings.ensembleMemory are written
+ * to disk until then.  Overlaps between clusters are computed from the
+ * cluster label of each data item.
  *
  * @author Aaron
  */
 public class Ensemble {
     
-    private clusterRun[] cr;
     private boolean general;  
     private int clustNum = 0;
     private boolean equalizeNum = true;
     private boolean hierarchical = true;
     private Settings s;
-    private boolean[] merged;
-    private int[] reLabel;
     private int ave = 0; //average cluster number across all runs
     
+    private clusterRun mega; //fuzzy clustering of the runs merged so far
+    private int mergedRuns = 0; //how many runs have been merged?
+    private int nextRun = 0; //next run to merge, if cluster number isn't equalized
+    private Map<Integer,pendingRun> pending = new HashMap<Integer,pendingRun>(); //runs waiting for earlier runs
+    
+    private heldRun[] held; //runs waiting for the average cluster number
+    private int heldCount = 0;
+    private int clusterTotal = 0;
+    private int minNodes = Integer.MAX_VALUE;
+    private long heldBytes = 0; //estimated size of the runs held in memory
+    
     private double[][] consensusMatrix;
-    private boolean[][] added;
     private boolean printConsMatrix = false;
     private TaskMonitor monitor;
+    private volatile boolean cancelled = false;
    
 
     
-    public Ensemble(List<clusterRun> clusterRuns, boolean general, int clustNum, boolean equalizeNum, Settings s, TaskMonitor monitor){
+    public Ensemble(int runs, boolean general, int clustNum, boolean equalizeNum, Settings s, TaskMonitor monitor){
         this.general = general;
         this.monitor=monitor;
-
-        monitor.setStatusMessage("Computing cluster number");
-        if(!s.writeTemp){
-            cr = new clusterRun[clusterRuns.size()];
-            for(int i = 0; i < cr.length; i++) cr[i] = (clusterRun) clusterRuns.get(i);
-        }else cr = new clusterRun[1];
         this.clustNum = clustNum;
         this.equalizeNum = equalizeNum;
         this.s = s;
         printConsMatrix = s.printConsMatrix;
+        if(equalizeNum) held = new heldRun[runs];
+        if(s.distMatrix) consensusMatrix = new double[s.input.length][s.input.length];
+    }
+    
+    //add cluster run 'run', or null if it failed.  Called from the threads as each run finishes
+    public void add(int run, clusterRun cRun){
+        if(cancelled) return;
+        if(equalizeNum){
+            if(cRun != null){
+                getClusters gc = new getClusters(cRun,s);
+                gc.findClusters(general);
+                cRun.c = gc.getClust();
+            }
+            hold(run, cRun);
+            return;
+        }
+        
+        pendingRun p = new pendingRun();
+        if(cRun != null && cRun.c != null){
+            p.run = cRun;
+            p.labels = getLabels(cRun);
+            p.clusters = cRun.c.length;
+        }
+        synchronized(this){
+            if(mega != null) p.run = null; //only the first run becomes the fuzzy clustering
+            pending.put(run, p);
+            while(!cancelled && pending.containsKey(nextRun)) merge(pending.remove(nextRun++));
+        }
     }
     
+    public void cancel() {cancelled = true;}
+    
     public clusterRun run(){
 
       //  if(!s.batch) System.out.println("...ensemble merging\n\n          |100%");
         monitor.setStatusMessage("Performing ensemble averaging");
-        if(equalizeNum) {                
-              getAverage();
-              if(!s.writeTemp) equalizeClusterNumber(ave);
+        if(equalizeNum) {
+            if(heldCount == 0) return null;
+            ave = clusterTotal / heldCount;
+            if(clustNum > 0) ave = clustNum; //combine ensemble runs
+            if(ave > minNodes) ave = minNodes;
             //ave = s.known_clusters;           
             //if(hierarchical) runAgg(ave);
-
-        }        
-        return combineRuns();
-    }
-    
-    //find average cluster number
-    private void getAverage(){
-
-        int min = Integer.MAX_VALUE;
-
-
-
-        try{
-
-            int runs = 0;
-                   
-            File[] f = new File[1];
-            
-            if(s.writeTemp) {
-                f = new File(s.outputDirectory+s.getFolderDivider()+s.getName()+"_temp").listFiles();
-                runs = f.length;
-
-            }else runs = cr.length;
             
-       
-            for(int i = 0; i < runs; i++){
-                
-                clusterRun cRun = new clusterRun();
-                
-                if(s.writeTemp){
-                    FileInputStream fis = new FileInputStream(f[i]);
-                    ObjectInputStream ois = new ObjectInputStream(fis);
-                    cRun = (clusterRun) ois.readObject();
-                }else cRun = cr[i];
-             
-                if(min > cRun.nodes.length){
-                    min = cRun.nodes.length;
+            //using MST approach, equalize cluster number in all cluster runs using average cluster number,
+            //a batch of runs at a time, and merge them in order
+            int batch = Math.max(1, s.threads);
+            for(int first = 0; first < held.length && !cancelled; first += batch){
+                final int start = first;
+                clusterRun[] equalized = new clusterRun[Math.min(batch, held.length-first)];
+                IntStream.range(0, equalized.length).parallel().forEach(i -> {
+                    heldRun h = held[start+i];
+                    held[start+i] = null;
+                    if(h == null) return;
+                    clusterRun cRun = (h.file != null) ? readTemp(h.file) : h.run;
+                    if(cRun != null) equalized[i] = DoEqualize(cRun, h.clusters);
+                });
+                for(int i = 0; i < equalized.length && !cancelled; i++){
+                    if(equalized[i] == null) continue;
+                    pendingRun p = new pendingRun();
+                    p.run = (mega == null) ? equalized[i] : null;
+                    p.labels = getLabels(equalized[i]);
+                    p.clusters = equalized[i].c.length;
+                    equalized[i] = null;
+                    merge(p);
+                    monitor.setProgress(((double)(first+i+1)/held.length));
                 }
-            
-                getClusters gc = new getClusters(cRun,s);
-                gc.findClusters(general);
-                //  gc.getClusterValidity();
-                cRun.c = gc.getClust();
-
-                if(s.writeTemp && i==0) cr[0]=cRun;
-               // System.out.println(cRun.c.length);
-                ave += cRun.c.length;           
-            
             }
-            ave /= runs;
-           
-            if(clustNum > 0) ave = clustNum; //combine ensemble runs
-
-            if(ave > min) ave = min;
-        
-        }catch(Exception err){System.err.println(err);};
-
+        }else{
+            //merge any runs still waiting for a run that didn't finish
+            synchronized(this){
+                List<Integer> remaining = new ArrayList<Integer>(pending.keySet());
+                Collections.sort(remaining);
+                for(int run : remaining) if(!cancelled) merge(pending.remove(run));
+            }
+        }
+        if(cancelled || mega == null) return null;
+        return combineRuns();
     }
     
-    //using MST approach, equalize cluster number in all cluster runs using average cluster number
-    private void equalizeClusterNumber(int ave){
-     
-            int runs = cr.length;
-        
-            for(int i = 0; i < runs; i++){
-                
-            
-                clusterRun cRun = cr[i];
-                
-                cRun = cr[i];
-            
-                cRun = DoEqualize(cRun);
-                
+    //keep a run until the average cluster number is known
+    private void hold(int run, clusterRun cRun){
+        heldRun h = new heldRun();
+        if(cRun != null){
+            h.clusters = cRun.c.length;
+            cRun.c = null; //found again after equalizing
+            long bytes = estimateBytes(cRun);
+            boolean write;
+            synchronized(this){
+                heldCount++;
+                clusterTotal += h.clusters;
+                if(minNodes > cRun.nodes.length) minNodes = cRun.nodes.length;
+                write = s.writeTemp || heldBytes + bytes > s.ensembleMemory;
+                if(!write) heldBytes += bytes;
             }
-
+            if(write) h.file = writeTemp(cRun);
+            if(h.file == null) h.run = cRun;
+        }
+        synchronized(this){
+            held[run] = h;
+        }
     }
     
-    private clusterRun DoEqualize(clusterRun cRun){
-        
-                if(s.writeTemp){
-                    getClusters gc = new getClusters(cRun,s);
-                    gc.findClusters(general);
-                    //gc.printClusters(j+"");
-                    cRun.c = gc.getClust();
-                }
+    private clusterRun DoEqualize(clusterRun cRun, int clusters){
         
                 boolean[] validEdges = new boolean[cRun.edges.length];
 
@@ -175,7 +196,7 @@ public class Ensemble {
                 for(; index < cRun.edges.length; index++){
                     if(cRun.edges[index][2] > cRun.thresh * cRun.edges[cRun.edges.length-1][2]) break;
                 }
-                index += (cRun.c.length - ave);
+                index += (clusters - ave);
                 //System.out.println(index+" "+cr[j].c.length+" "+ave);
                 for(; index < validEdges.length; index++) validEdges[index] = false;
                 
@@ -187,118 +208,93 @@ public class Ensemble {
                 return cRun;
     }
     
-    //create fuzzy clustering of all cluster runs
-    private clusterRun combineRuns(){
-       
-        if(s.distMatrix) {
-            System.out.println("initialize");
-            if(s.writeTemp) cr[0] = DoEqualize(cr[0]);
-            consensusMatrix = new double[s.input.length][s.input.length];
-            added = new boolean[consensusMatrix.length][consensusMatrix.length];
-            for(int w = 0; w < added.length; w++)
-                  for(int y = 0; y < added.length; y++)
-                        added[w][y] = false;
-            for(int k = 0; k < cr[0].c.length; k++){          
-                for(int i = 0; i < cr[0].c[k].ids.size(); i++){   
-                    for(int j = 0; j < cr[0].c[k].ids.size(); j++){
-                        int a = Integer.valueOf(cr[0].c[k].ids.get(i).toString());
-                        int b = Integer.valueOf(cr[0].c[k].ids.get(j).toString());
-                        if(added[a][b]) continue;
-                        consensusMatrix[a][b]++;
-                        added[a][b] = true;
-                    }  
-                }               
-            }
-            for(int w = 0; w < added.length; w++)
-                  for(int y = 0; y < added.length; y++)
-                        added[w][y] = false;
+    //merge a run into the fuzzy clustering 'mega'
+    private void merge(pendingRun p){
+        if(p.labels == null) return;
+        
+        if(mega == null){
+             mega = p.run;
+             mega.makeMembership(s); //create fuzzy cluster membership matrix
+             if(s.distMatrix) addConsensus(p.labels, p.clusters);
+             mergedRuns = 1;
+             return;
         }
-       // long t = System.currentTimeMillis();
-        int progressCount = 0;
-              
-        int runCount = 0;
         
-        clusterRun mega = new clusterRun();
+        int j = mergedRuns;
+        mega.sumMembership();
         
-        try{
+        //percent of common cluster membership between each cluster of the run and each cluster of mega
+        int q = mega.membership[0].length;
+        double[] common = new double[p.clusters*q];
+        int[] sizes = new int[p.clusters];
+        for(int id = 0; id < p.labels.length; id++){
+            int k = p.labels[id];
+            if(k < 0) continue;
+            sizes[k]++;
+            double[] weights = mega.membership[id];
+            for(int r = 0; r < q; r++){
+                if(weights[r] > 0) common[k*q+r] += (1+weights[r]);
+            }
+        }
         
-            int runs = 0;
-            
-            File[] f = new File[1];
- 
-            if(s.writeTemp) {
-                f = new File(s.outputDirectory+s.getFolderDivider()+s.getName()+"_temp").listFiles();
-                runs = f.length;
-            }else runs = cr.length;
-    
-            for(int i = 0; i < runs; i++){
-                         
-                clusterRun cRun = new clusterRun();
-
-                if(s.writeTemp){
-                    FileInputStream fis = new FileInputStream(f[i]);
-                    ObjectInputStream ois = new ObjectInputStream(fis);
-                    cRun = (clusterRun) ois.readObject();
-                    cRun = DoEqualize(cRun);                     
-                }else cRun = cr[i];
-
-                
-                if(i==0){
-                     mega = cRun;
-                     mega.makeMembership(s); //create fuzzy cluster membership matrix
-                     continue;        
-                }
-                
-                merged = new boolean[cRun.c.length];
-                for(int y = 0; y < merged.length; y++) merged[y] = false;
-                reLabel = new int[cRun.c.length];
-                mega.sumMembership();
-                
-                for(int k = 0; k < cRun.c.length; k++){
-                    double commonPerc = 0;
-                    int pos = 0;
-                    for(int q = 0; q < mega.c.length; q++){
-                        if(merged[q]) continue;
-                        double comm = getCommonPerc(cRun.c[k], mega, q);
-                        if(comm >= commonPerc) {commonPerc = comm; pos = q;}
-                    }
-                    
-                    reLabel[k] = pos;
-                    merged[pos] = true;  
-                                     
-                }
-              
-                mega = updateFuzzyClusters(mega, reLabel, i, cRun);
-                monitor.setProgress(((double)(i+1)/s.ensemble_runs));
-                if(!s.batch) if(Math.floor((runCount++) %((double)(runs)/10)) == 0) {
-                   // System.out.print("*");
-                    progressCount++;
-                }
-                
-                if(s.distMatrix){
-                    for(int w = 0; w < added.length; w++)
-                        for(int y = 0; y < added.length; y++)
-                            added[w][y] = false;
-                    }         
+        boolean[] merged = new boolean[Math.max(p.clusters, q)];
+        int[] reLabel = new int[p.clusters];
+        for(int k = 0; k < p.clusters; k++){
+            double commonPerc = 0;
+            int pos = 0;
+            for(int r = 0; r < q; r++){
+                if(merged[r]) continue;
+                double comm = common[k*q+r]/(sizes[k]+mega.memTotal[r]);
+                if(comm >= commonPerc) {commonPerc = comm; pos = r;}
             }
-         }catch(IOException err){System.err.println(err);
-         }catch(ClassNotFoundException err2){System.err.println(err2);};
-            int currVal = 0;//jpb.jProgressBar1.getValue();
             
-            if(progressCount < 10 && !s.batch){
-                for(; progressCount < 10; progressCount++){
-                   // System.out.print("*");
-                }
+            reLabel[k] = pos;
+            merged[pos] = true;  
+        }
+        
+        //update combined cluster 'mega' with the run
+        mega.updateFuzzy((double)j/(j+1));
+        for(int id = 0; id < p.labels.length; id++){
+            if(p.labels[id] >= 0) mega.membership[id][reLabel[p.labels[id]]] += (double)1/(j+1);
+        }
+        if(s.distMatrix) addConsensus(p.labels, p.clusters);
+        mergedRuns++;
+    }
+    
+    //cluster of each data item in a run, or -1 if none
+    private int[] getLabels(clusterRun cRun){
+        int[] labels = new int[s.input.length];
+        Arrays.fill(labels, -1);
+        for(int k = 0; k < cRun.c.length; k++){
+            for(int i = 0; i < cRun.c[k].ids.size(); i++) labels[cRun.c[k].ids.get(i).intValue()] = k;
+        }
+        return labels;
+    }
+    
+    //count the pairs of data items that are in the same cluster of a run
+    private void addConsensus(int[] labels, int clusters){
+        int[] start = new int[clusters+1];
+        for(int i = 0; i < labels.length; i++) if(labels[i] >= 0) start[labels[i]+1]++;
+        for(int k = 0; k < clusters; k++) start[k+1] += start[k];
+        int[] members = new int[start[clusters]];
+        int[] next = Arrays.copyOf(start, clusters);
+        for(int i = 0; i < labels.length; i++) if(labels[i] >= 0) members[next[labels[i]]++] = i;
+        for(int k = 0; k < clusters; k++){
+            for(int a = start[k]; a < start[k+1]; a++){
+                for(int b = start[k]; b < start[k+1]; b++) consensusMatrix[members[a]][members[b]]++;
             }
+        }
+    }
+    
+    //create fuzzy clustering of all cluster runs
+    private clusterRun combineRuns(){
 
-          //  if(!s.batch) System.out.println("\n");
             mega = fuzzyCluster(mega);                   
 
             getClusters gc = new getClusters(mega,s);
         
             mega.c = gc.getClust();
             
-           // System.out.println(mega.c.length+"\t"+(System.currentTimeMillis()-t));
           // if(printConsMatrix){
             if(s.distMatrix)  printConsensusMatrix(mega);
           // }
@@ -307,49 +303,40 @@ public class Ensemble {
 
     }
     
- 
+    //rough size of a cluster run in memory
+    private static long estimateBytes(clusterRun cRun){
+        long bytes = 64;
+        if(cRun.nodes != null) for(Point p : cRun.nodes) bytes += 32 + 4L*p.getPoint().length;
+        if(cRun.edges != null) for(double[] e : cRun.edges) bytes += 24 + 8L*e.length;
+        if(cRun.ids != null) for(List<Integer> l : cRun.ids) if(l != null) bytes += 40 + 20L*l.size();
+        if(cRun.DEC != null) for(float[] d : cRun.DEC) bytes += 16 + 4L*d.length;
+        if(cRun.usedEdges != null) bytes += cRun.usedEdges.length;
+        return bytes;
+    }
     
-    //return percent of common cluster membership between cluster p and cluster q in combined cluster mega
-    private double getCommonPerc(cluster p, clusterRun mega, int q){
-        double common = 0;
-        double countClustQ = mega.memTotal[q];
-
-        for(int i = 0; i < p.ids.size(); i++){
-   
-              double weight = mega.membership[Integer.valueOf(p.ids.get(i).toString())][q];
-              if(weight > 0) common+=(1+weight);   
-
-        }
-        
-        if(s.distMatrix){
-            for(int i = 0; i < p.ids.size(); i++){   
-                for(int j = 0; j < p.ids.size(); j++){
-                    int a = p.ids.get(i).intValue();
-                    int b = p.ids.get(j).intValue();
-                    if(added[a][b]) continue;
-                    consensusMatrix[a][b]++;
-                    added[a][b] = true;
-                }  
-            }
-        }
-
-        return common/(p.ids.size()+countClustQ);
+    //write a cluster run to disk to save memory
+    private static File writeTemp(clusterRun cRun){
+        try{
+            File f = File.createTempFile("autosome", ".run");
+            f.deleteOnExit();
+            ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+            oos.writeObject(cRun);
+            oos.close();
+            return f;
+        }catch(IOException err){System.err.println(err);}
+        return null;
     }
     
-    //update combined cluster 'mega' with current cluster j
-    private clusterRun updateFuzzyClusters(clusterRun mega, int[] reLabel, int j, clusterRun cRun){
-        
-        mega.updateFuzzy((double)j/(j+1));
-   
-        for(int i = 0; i < cRun.c.length; i++){
-            int index = reLabel[i];
-            for(int k = 0; k < cRun.c[i].ids.size(); k++){
-                int id = cRun.c[i].ids.get(k).intValue();
-                mega.membership[id][index] += (double)1/(j+1);
-            }
-        }
-
-        return mega;
+    private static clusterRun readTemp(File f){
+        try{
+            ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(f)));
+            clusterRun cRun = (clusterRun) ois.readObject();
+            ois.close();
+            return cRun;
+        }catch(IOException err){System.err.println(err);
+        }catch(ClassNotFoundException err2){System.err.println(err2);
+        }finally{f.delete();}
+        return null;
     }
     
    
@@ -432,7 +419,7 @@ public class Ensemble {
                 for(int j = i+1; j < consensusMatrix.length; j++){
                     String labelJ = new StringTokenizer(mega.labelsSorted[j],",").nextToken();
                     //outEdges.writeBytes(i+"\t"+j+"\t"+consensusMatrix[i][j]+"\t"+cr.length+"\n");
-                    consensusMatrix[i][j] /= cr.length;
+                    consensusMatrix[i][j] /= mergedRuns;
                     consensusMatrix[i][j] -= .5;
                     /*if(j < consensusMatrix.length-1) out.writeBytes(consensusMatrix[i][j]+"\t");
                     else out.writeBytes(String.valueOf(consensusMatrix[i][j]));*/
@@ -578,6 +565,20 @@ public class Ensemble {
     }
     
   
+  //a finished run, as the cluster of each data item
+  private static class pendingRun{
+      clusterRun run; //kept only if it may become the fuzzy clustering
+      int[] labels;
+      int clusters;
+  }
+  
+  //a finished run waiting for the average cluster number, in memory or on disk
+  private static class heldRun{
+      clusterRun run;
+      File file;
+      int clusters;
+  }
+  
   private class sortBySize implements Comparable{
 
       public int size;
@@ -29,6 +29,8 @@ package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.auto
 import java.io.*;
 import java.util.*;
 import java.text.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.swing.*;
 
@@ -127,10 +129,11 @@ public class Run {
  
 
         invokeAutoSOME(s);
+        if(cancelled) return null;
         s.runTime = getrunTime(t);
       //  System.out.println(">Running time: "+s.runTime);
         try{
-             return doOutput(s, clusterRuns);
+             return doOutput(s, (completedRuns.get() > 1) ? ensemble : firstRun, completedRuns.get());
         }catch(Exception err){};
 
         return new clusterRun();
@@ -143,7 +146,7 @@ public class Run {
      
 
 
-    //allocate threads to ensemble process and start AutoSOME
+    //submit each cluster run of the ensemble as a task to a work-stealing pool and start AutoSOME
     private void invokeAutoSOME(Settings s){
 
 
@@ -157,99 +160,61 @@ public class Run {
         }
                 
         if(s.ensemble_runs>1) {
-            clusterRuns = new ArrayList<clusterRun>(); //store output of each cluster run
             // if(!s.batch) System.out.println(">Running Ensemble Clustering\n\n...computing clusters\n\n          |100%");
              monitor.setStatusMessage("Clustering "+s.input.length+" rows by "+s.input[0].getValues().length+" columns");
+             //runs are merged as they finish
+             if(!s.batch) merger = new Ensemble(s.ensemble_runs, true, 0, (!s.doKmeans && !s.doHierarchical) ? true : false, s, monitor);
         }
 
-        long maxMemory = Runtime.getRuntime().maxMemory()/(1024*1024);
-
-        if(!s.writeTemp && ((s.input.length>=100000) || ((s.input.length >= 50000 || (s.input.length * s.input[0].getValues().length >= 1200000)) && s.ensemble_runs>500 && maxMemory<=1600))){
-
-            if(runGUI){
-                                        
-             }
-
-          //  System.out.println(">You may need to write intermediate data to disk to avoid running out of memory (AutoSOME will hang if this happens).\nTo do this, go to Advanced Fields, then select the 'Write Ensemble Runs to Disk' checkbox.");
-
+        pool = new ForkJoinPool(Math.max(1, s.threads));
+        List<Future<?>> tasks = new ArrayList<Future<?>>();
+        for(int q = 0; q < s.ensemble_runs; q++){
+              final int run = q;
+              tasks.add(pool.submit(() -> runAutoSOME(s, run)));
         }
-
-        
-
-
-
-        threads = new Thread[s.threads];
-        
-        for(int q = 0; q < threads.length; q++){
-              threads[q] = new Thread(new runAutoSOME(s, q*s.ensemble_runs/(threads.length), (q+1)*s.ensemble_runs/(threads.length)));
-              threads[q].start();
+        for(Future<?> task : tasks){
+             try{
+                   task.get();
+             }catch(Exception err){}; //cancelled
         }
-        try{
-             for(int q = 0; q < threads.length; q++){
-                   threads[q].join();
-             }
-             
-             if(progressCount < 10 && !s.batch && s.ensemble_runs>1){
-                 for(; progressCount < 10; progressCount++) {
-                     //System.out.print("*");
-                     int currVal = 0;//jpb.jProgressBar1.getValue();
-                    
-                 }
-             }
-             //if(!s.batch) System.out.println("\n");
-            
-        }catch(Exception err){};
-         if(s.ensemble_runs>1 && !s.batch) ensemble = (new Ensemble(clusterRuns, true, 0, (!s.doKmeans && !s.doHierarchical) ? true : false, s, monitor)).run();
+        pool.shutdown();
+
+        if(!cancelled && merger != null) ensemble = merger.run();
 
     }
     
     
-     //run an instance of AutoSOME in single thread
-     public class runAutoSOME implements Runnable{
-        Settings s;
-        int start;
-        int end;
-        
-        public runAutoSOME(Settings s, int start, int end) {
-            this.s = s;
-            this.start = start;
-            this.end = end;
-        }
-        public void run(){
-            
-            for(;start<end;start++){
-                try{
+     //run one instance of AutoSOME, and pass it to the ensemble
+     private void runAutoSOME(Settings s, int run){
+            if(cancelled) return;
+            clusterRun cr = null;
+            try{
                     
                     //mapping to lower dimensional space
                     Object[] results = doMapping(s);
 
-                    storeMapping.add(results);
+                    synchronized(storeMapping) {storeMapping.add(results);}
+                    if(cancelled) return;
 
                     float[][] coors = (float[][]) results[0];
                     ArrayList dataLabels = (ArrayList) results[1];
                     //clustering
-                    clusterRun cr = doClustering(s, coors, dataLabels);
-                    if(start>=10) cr.DEC = null;
-                    if(!s.writeTemp) clusterRuns.add(cr);
-                    // Not used
-                    // else {
-                    //     if(clusterRuns.size()==0) clusterRuns.add(cr);
-                    //     else clusterRuns.add("1");
-                    //     writeTemp(cr, clusterRuns.size(), s);
-                    // }
-
-                    totalProgress++;
-                   // System.out.println(((int)(100*(double)start/s.ensemble_runs))+" "+jpb.jProgressBar1.getValue());
-                    //jpb.jProgressBar1.setValue((int)(100*((double)totalProgress/s.ensemble_runs)));
-                    monitor.setProgress((double)totalProgress/s.ensemble_runs);
-                    if(!s.batch) if(s.ensemble_runs>1 && Math.floor((runCount++) %((double)(s.ensemble_runs)/10)) == 0) {
-                    //    System.out.print("*");
-                        
-                        progressCount++;
-                    }
-                }catch(Exception err){};
+                    cr = doClustering(s, coors, dataLabels);
+                    if(run>=10) cr.DEC = null;
+            }catch(Exception err){};
+            if(cancelled) return;
+
+            if(cr != null){
+                completedRuns.incrementAndGet();
+                if(merger == null) synchronized(this){
+                    if(firstRun == null || run < firstIndex) {firstRun = cr; firstIndex = run;}
+                }
             }
-        }
+            try{
+                if(merger != null) merger.add(run, cr);
+            }catch(Exception err){System.err.println(err);};
+
+            monitor.setProgress((double)finishedRuns.incrementAndGet()/s.ensemble_runs);
     }
      
      
@@ -307,21 +272,19 @@ public class Run {
      
      
     //output of clustering
-    public clusterRun doOutput(Settings s, List<clusterRun> clusterRuns){
+    public clusterRun doOutput(Settings s, clusterRun cr, int runs){
         
-        if(clusterRuns.isEmpty()) return null;
-        clusterRun cr = clusterRuns.get(0);
-        if(clusterRuns.size() > 1) cr.c=ensemble.c;
+        if(cr == null) return null;
         getClusters clust = new getClusters(cr,s);
         
-        if(clusterRuns.size() == 1 && !s.doKmeans && !s.doHierarchical){       
+        if(runs == 1 && !s.doKmeans && !s.doHierarchical){       
             clust.findClusters(true);
             cr.c = clust.getClust();
         }
       
        
         
-        if(s.confidence && s.ensemble_runs > 1 && clusterRuns.size() > 1){
+        if(s.confidence && s.ensemble_runs > 1 && runs > 1){
             sortCluster sc = new sortCluster();
             for(int i = 0; i < cr.c.length; i++) {
                 cr.c[i] = sc.sortConf(cr.c[i],s);
@@ -330,7 +293,7 @@ public class Run {
                     s.input[id].setConf(Integer.valueOf(cr.c[i].confidence.get(j).toString()));
                 }
             }
-        }if(s.ensemble_runs == 1 || clusterRuns.size() == 1) s.confidence = false;
+        }if(s.ensemble_runs == 1 || runs == 1) s.confidence = false;
         
 
         Arrays.sort(cr.c);
@@ -561,21 +524,10 @@ public class Run {
          return d;
      }
      
-     //write clusterRuns to disk to save memory
-     private void writeTemp(clusterRun cr, int start, Settings s){
-         try{
-             FileOutputStream fos = new FileOutputStream(s.outputDirectory+s.getFolderDivider()+s.getName()+"_temp"+s.getFolderDivider()+start);
-             ObjectOutputStream oos = new ObjectOutputStream(fos);
-             oos.writeObject(cr);
-             oos.close();
-         }catch(IOException err){};
-     }
-
      public void kill(){
-         if(threads==null) return;
-         for(int i = 0; i < threads.length; i++){
-             threads[i].stop();
-         }
+         cancelled = true;
+         if(merger != null) merger.cancel();
+         if(pool != null) pool.shutdownNow();
      }
 
 
@@ -612,12 +564,14 @@ public class Run {
     }
 
      
-    private int runCount = 0; //how many clusters runs so far?
-    private int progressCount = 0;
-    private int totalProgress = 0;
-    private List<clusterRun> clusterRuns = new ArrayList<clusterRun>(); //store all cluster runs
+    private AtomicInteger completedRuns = new AtomicInteger(); //how many clusters runs so far?
+    private AtomicInteger finishedRuns = new AtomicInteger(); //including those that failed
+    private clusterRun firstRun; //first cluster run, if there is no ensemble
+    private int firstIndex;
+    private Ensemble merger; //merges the cluster runs as they finish
     private clusterRun ensemble; //combined clustering from ensemble
-    private Thread[] threads; //all AutoSOME threads
+    private ForkJoinPool pool; //runs the cluster runs
+    private volatile boolean cancelled = false;
     private ArrayList storeMapping = new ArrayList(); //store mapping results before MST clustering
     private static boolean runGUI = false;
 }
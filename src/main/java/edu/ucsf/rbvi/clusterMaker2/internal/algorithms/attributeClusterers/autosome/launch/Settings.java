@@ -43,6 +43,7 @@ public class Settings implements Serializable{
     public int som_maxGrid = 30; //maximum single dimension grid size of SOM (x or y)
     public int som_gridSize = 0; //If 0, automatically set x/y to sqrt(number of data points * 2), o.w. use user value
     public boolean som_circle = true; //use SOM circular topology if true, square if false
+    public boolean som_batch = false; //train SOM in batch epochs over all data points instead of online
     public double som_theta = 1.5; //error dampening factor; error is divided by theta
     public double som_DEScale = 3; //set error to this number as an exponent
     public int de_resolution = 32; //diffusion resolution: must be a power of 2
@@ -95,6 +96,7 @@ public class Settings implements Serializable{
     public boolean unitVarAfterDM = false; //if true, apply unit variance normalization to distance matrix
     public boolean printConsMatrix = false; //if true, print cluster consensus matrix
     public boolean writeTemp = false; //if true, write intermediate data to disk to save memory
+    public long ensembleMemory = Runtime.getRuntime().maxMemory()/4; //bytes of ensemble runs to hold in memory before writing them to disk
     public boolean sumSqrRows = false; //if true, sum of squares of data row = 1
     public boolean sumSqrCol = false; //if true, sum of squares of data column = 1
     public String add = new String(); //run information to be added to output files
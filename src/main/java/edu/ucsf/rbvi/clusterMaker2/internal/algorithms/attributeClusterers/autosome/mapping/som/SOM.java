@@ -2,6 +2,7 @@ package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.auto
 
 
 import java.util.*;
+import java.util.stream.IntStream;
 
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.autosome.cluststruct.Point;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.autosome.cluststruct.dataItem;
@@ -38,6 +39,15 @@ written using Java and may be subject to certain additional restrictions as a re
 
 /**
  * Self-Organizing Map with circular or rectangular topology
+ *
+ * The node weights are kept in one flat codebook, node (i,j) at
+ * (i*gridSize+j)*dim, and the input in a flat array of the same layout, so
+ * training doesn't go through a Node per weight.  The map is trained online,
+ * one random sample at a time, or, if Settings.som_batch is set, in batch
+ * epochs: the best-matching unit of every sample is found in parallel, and
+ * each node becomes the neighborhood-weighted mean of the samples, with the
+ * neighborhood kernel computed once per epoch.  The best-matching units of the
+ * final mapping are also found in parallel.
  * @author Aaron
  */
 
@@ -47,6 +57,8 @@ written using Java and may be subject to certain additional restrictions as a re
 public class SOM implements Runnable{
     
 
+    private static final int BATCH_EPOCH_ITERS = 25; //online iterations per batch epoch
+    private static final double BATCH_MIN_RADIUS = 1.5; //batch neighborhood always includes the 8 adjacent nodes
     private int iterations = 1000;
     private double learnRate = 0.9;
     private double learningRate = 0;
@@ -58,13 +70,15 @@ public class SOM implements Runnable{
     private int gridSize = 30;
     private boolean autoGrid = true;
     private boolean circle = true; //SOM topology; false = square
+    private boolean batch = false; //batch training
     private double theta = 1.5; //dampen error surface
     private dataItem[] input; //store input data
-    private Node[] trainingData; //input data stored as feature vectors
+    private int dim; //number of attributes
+    private float[] trainingData; //input data stored as feature vectors, one row per data item
+    private float[] codebook; //SOM weights, one row per node
+    private boolean[] outside; //nodes outside of circular SOM
     private Node[][] map; //SOM
     private Settings s; //user parameters
-    private Node center; //mean of each attribute
-    private int nodeNum = 0; //number of nodes to be trained
     
     public SOM (Settings s) {
         this.input = s.input;
@@ -75,6 +89,7 @@ public class SOM implements Runnable{
         gridSize = s.som_gridSize;
         autoGrid = (gridSize > 0) ? false : true;
         circle = s.som_circle;
+        batch = s.som_batch;
         theta = s.som_theta;      
     } //instantiate with input data
     
@@ -83,7 +98,8 @@ public class SOM implements Runnable{
 
         init();
 
-        doTraining();
+        if(batch) doBatchTraining();
+        else doTraining();
         
         doMapping();
 
@@ -95,45 +111,46 @@ public class SOM implements Runnable{
  
     
     private void init(){
-        trainingData = new Node[input.length];
-        if(s.Pearson) center = new Node(input[0].getValues());        
+        dim = input[0].getValues().length;
+        trainingData = new float[input.length*dim];
         
         ///store max and min values of each column from input
-        float[] max = new float[input[0].getValues().length];
-        float[] min = new float[input[0].getValues().length];
+        float[] max = new float[dim];
+        float[] min = new float[dim];
         for(int j = 0; j < max.length; j++) {
             max[j] = -Float.MAX_VALUE;
             min[j] = Float.MAX_VALUE;
         }
-        for(int i = 0; i < trainingData.length; i++){
+        for(int i = 0; i < input.length; i++){
             //store data point i
-            trainingData[i] = new Node(input[i].getValues());
+            float[] values = input[i].getValues();
             //update max, min values
-            for(int k = 0; k < trainingData[i].getSize(); k++){
-                if(trainingData[i].getWeight(k) > max[k]) max[k] = trainingData[i].getWeight(k);
-                if(trainingData[i].getWeight(k) < min[k]) min[k] = trainingData[i].getWeight(k);
+            for(int k = 0; k < dim; k++){
+                trainingData[i*dim+k] = values[k];
+                if(values[k] > max[k]) max[k] = values[k];
+                if(values[k] < min[k]) min[k] = values[k];
             }            
         }
 
         //randomly initialize SOM
-        if(gridSize == 0) gridSize = (int)Math.min(maxGridSize, Math.max(minGridSize, Math.sqrt(trainingData.length*2)));        
+        if(gridSize == 0) gridSize = (int)Math.min(maxGridSize, Math.max(minGridSize, Math.sqrt(input.length*2)));        
 
         map = new Node[gridSize][gridSize];
+        codebook = new float[gridSize*gridSize*dim];
+        outside = new boolean[gridSize*gridSize];
         for(int i = 0; i < map.length; i++){
             for(int j = 0; j < map[i].length; j++){
-                map[i][j] = new Node(trainingData[0].getSize(),max,min);
+                map[i][j] = new Node(dim,max,min);
                 map[i][j].pos[0] = i;
                 map[i][j].pos[1] = j;
-                //set center weights
-                if(s.Pearson) for(int q = 0; q < center.getSize(); q++) center.setWeight(map[i][j].getWeight(q), q);
+                int node = i*gridSize+j;
+                for(int q = 0; q < dim; q++) codebook[node*dim+q] = map[i][j].getWeight(q);
+                outside[node] = checkCircle(i, j);
             }
         }
 
         halfWidth = gridSize;
         lambda = iterations / Math.log(halfWidth);
-        
-        
-        nodeNum = (int)((s.som_circle) ? Math.PI*Math.pow(map.length/2,2) : Math.pow(map.length,2));
     }
 
     
@@ -146,17 +163,17 @@ public class SOM implements Runnable{
         for(int m = 0; m < 2; m++){
             for(int i = 0; i < iterations; i++){
 
-                int sample = r.nextInt(trainingData.length);
+                int sample = r.nextInt(input.length);
 
                 decay = Math.exp(-i / lambda);     
 
-                int[] minCoord = findBMU(trainingData[sample]);
+                int bmu = findBMU(trainingData, sample*dim);
 
                 double radius = calcRadius();
         
                 learningRate = learnRate * decay;
 
-                updateWeights(trainingData[sample], minCoord, radius, i);
+                updateWeights(sample*dim, bmu, radius);
                // if(progress++ %((double)(iterations*2)/20) == 0) System.out.print("*");
 
             }
@@ -170,29 +187,151 @@ public class SOM implements Runnable{
             }
           }
         }
+        copyWeights();
     }
     
     
-    private int[] findBMU(Node input){
+    //batch training: same two stages and neighborhood radius as online training, in epochs over all samples
+    public void doBatchTraining(){
+
+        int epochs = Math.max(1, iterations/BATCH_EPOCH_ITERS);
+        int nodes = gridSize*gridSize;
+        int[] bmus = new int[input.length];
+        double[] sums = new double[nodes*dim];
+        int[] counts = new int[nodes];
+        for(int m = 0; m < 2; m++){
+            for(int e = 0; e < epochs; e++){
+
+                decay = Math.exp(-((double)e*iterations/epochs) / lambda);
+                double radius = Math.max(BATCH_MIN_RADIUS, calcRadius());
+
+                //best-matching unit of each sample
+                IntStream.range(0, input.length).parallel().forEach(i -> bmus[i] = findBMU(trainingData, i*dim));
+
+                Arrays.fill(sums, 0);
+                Arrays.fill(counts, 0);
+                for(int i = 0; i < input.length; i++){
+                    counts[bmus[i]]++;
+                    for(int q = 0; q < dim; q++) sums[bmus[i]*dim+q] += trainingData[i*dim+q];
+                }
+
+                //each node is the mean of the samples, weighted by the neighborhood of their best-matching units
+                int reach = (int)radius;
+                double[] kernel = getKernel(radius, reach);
+                int width = 2*reach+1;
+                IntStream.range(0, nodes).parallel().forEach(node -> {
+                    if(outside[node]) return;
+                    int i = node/gridSize, j = node%gridSize;
+                    double[] weight = new double[dim];
+                    double total = 0;
+                    for(int k = Math.max(0, i-reach); k <= Math.min(gridSize-1, i+reach); k++){
+                        for(int w = Math.max(0, j-reach); w <= Math.min(gridSize-1, j+reach); w++){
+                            int b = k*gridSize+w;
+                            double h = kernel[(k-i+reach)*width+(w-j+reach)];
+                            if(h == 0 || counts[b] == 0) continue;
+                            total += h*counts[b];
+                            for(int q = 0; q < dim; q++) weight[q] += h*sums[b*dim+q];
+                        }
+                    }
+                    if(total == 0) return;
+                    for(int q = 0; q < dim; q++) codebook[node*dim+q] = (float)(weight[q]/total);
+                });
+            }
+            if(m == 0) halfWidth = gridSize/4;
+        }
+        copyWeights();
+    }
+    
+    
+    //gaussian neighborhood weight of each grid offset within the radius
+    private static double[] getKernel(double radius, int reach){
+        int width = 2*reach+1;
+        double[] kernel = new double[width*width];
+        for(int di = -reach; di <= reach; di++){
+            for(int dj = -reach; dj <= reach; dj++){
+                double dist = Math.sqrt(di*di+dj*dj);
+                if(dist > radius) continue;
+                kernel[(di+reach)*width+(dj+reach)] = (radius > 0) ? Math.exp(-(dist*dist) / (2 * radius * radius)) : 1;
+            }
+        }
+        return kernel;
+    }
+    
+    
+    //copy the trained codebook to the map nodes
+    private void copyWeights(){
+        for(int i = 0; i < map.length; i++){
+            for(int j = 0; j < map[i].length; j++){
+                for(int q = 0; q < dim; q++) map[i][j].setWeight(codebook[(i*gridSize+j)*dim+q], q);
+            }
+        }
+    }
+    
+    
+    //node closest to the vector at 'offset' in 'values'
+    private int findBMU(float[] values, int offset){
         
-        int[] minCoord = new int[2];
+        int minNode = 0;
         double minDist = Double.MAX_VALUE;
         
-        for(int i = 0; i < map.length; i++){
-            for(int j = 0; j < map[i].length; j++){
-                if(checkCircle(i, j)) continue;
-                double dist = (!s.Pearson && !s.unCentered) ? map[i][j].getEuclideanDist(input)
-                               : (s.unCentered) ? map[i][j].getUnCenteredDist(input)
-                               : map[i][j].getPearsonDist(input);
+        for(int node = 0; node < outside.length; node++){
+                if(outside[node]) continue;
+                double dist = (!s.Pearson && !s.unCentered) ? getEuclideanDist(node*dim, values, offset)
+                               : (s.unCentered) ? getUnCenteredDist(node*dim, values, offset)
+                               : getPearsonDist(node*dim, values, offset);
                 if(dist < minDist) {
                     minDist = dist;
-                    minCoord[0] = i;
-                    minCoord[1] = j;
+                    minNode = node;
                 }
-            }
         }
         
-        return minCoord;
+        return minNode;
+    }
+
+    
+    //distances between a node and an input vector, as in Node
+    private double getEuclideanDist(int node, float[] values, int offset){
+        float dist = 0;
+        for(int q = 0; q < dim; q++){
+            float diff = codebook[node+q] - values[offset+q];
+            dist += (double)diff*diff;
+        }
+        return ((double)dist);
+    }
+    
+    private double getUnCenteredDist(int node, float[] values, int offset){
+        float dist = 0;
+        float distSqr1 = 0;
+        float distSqr2 = 0;
+        for(int q = 0; q < dim; q++){ 
+            dist += (codebook[node+q])*(values[offset+q]);
+            distSqr1 += (double)codebook[node+q]*codebook[node+q];
+            distSqr2 += (double)values[offset+q]*values[offset+q];
+        }
+        return ((double)(1-(dist/Math.sqrt(distSqr1*distSqr2))));
+    }
+    
+    private double getPearsonDist(int node, float[] values, int offset){
+        float dist = 0;
+        float distSqr1 = 0;
+        float distSqr2 = 0;
+        float meanInput = 0;
+        float meanNode = 0;
+        for(int q = 0; q < dim; q++){
+            meanInput += values[offset+q];
+            meanNode += codebook[node+q];
+        }
+        meanInput /= dim;
+        meanNode /= dim;
+        
+        for(int q = 0; q < dim; q++){ 
+            float a = codebook[node+q] - meanNode;
+            float b = values[offset+q] - meanInput;
+            dist += a*b;
+            distSqr1 += (double)a*a;
+            distSqr2 += (double)b*b;
+        }
+        return ((double)(1-(dist/Math.sqrt(distSqr1*distSqr2))));
     }
 
     
@@ -210,32 +349,25 @@ public class SOM implements Runnable{
     }
     
     
-    private void updateWeights(Node input, int[] minCoord, double radius, int iteration){
+    private void updateWeights(int sample, int bmu, double radius){
         
-          for(int i = 0; i < map.length; i++){
-              for(int j = 0; j < map[0].length; j++){
-                    if((Math.abs(i-minCoord[0])) > radius || (Math.abs(j-minCoord[1])) > radius) continue;
-                    if(checkCircle(i,j)) continue;
-                    double dist = Math.sqrt(Math.pow(i-minCoord[0],2)+Math.pow(j-minCoord[1],2));
+          int bmuI = bmu/gridSize, bmuJ = bmu%gridSize;
+          int reach = (int)radius;
+          float[] bmuPos = map[bmuI][bmuJ].pos;
+          for(int i = Math.max(0, bmuI-reach); i <= Math.min(gridSize-1, bmuI+reach); i++){
+              for(int j = Math.max(0, bmuJ-reach); j <= Math.min(gridSize-1, bmuJ+reach); j++){
+                    int node = i*gridSize+j;
+                    if(outside[node]) continue;
+                    double dist = Math.sqrt((i-bmuI)*(i-bmuI)+(j-bmuJ)*(j-bmuJ));
                     if(dist > radius) continue;
-                    for(int q = 0; q < map[i][j].getSize(); q++){
-                        float weight = map[i][j].getWeight(q);                        
-                        map[i][j].setWeight((float)(weight+(Math.exp(-Math.pow(dist, 2) / (2 * Math.pow(radius, 2))) * learningRate * (input.getWeight(q) - weight))),q);
-                         //update mean weights
-                        if(s.Pearson) center.setWeight((((center.getWeight(q)*nodeNum)-weight)+map[i][j].getWeight(q))/nodeNum,q);
+                    double h = Math.exp(-(dist*dist) / (2 * radius * radius));
+                    double rate = h * learningRate;
+                    for(int q = 0; q < dim; q++){
+                        float weight = codebook[node*dim+q];                        
+                        codebook[node*dim+q] = (float)(weight+(rate * (trainingData[sample+q] - weight)));
                     }
-                   // System.out.println(map[i][j].pos[0]+" "+map[minCoord[0]][minCoord[1]].pos[0]+" "+(map[minCoord[0]][minCoord[1]].pos[0] - map[i][j].pos[0])+" "+(float)(map[i][j].pos[0]+(Math.exp(-Math.pow(dist, 2) / (2 * Math.pow(radius, 2))) * learningRate * (map[minCoord[0]][minCoord[1]].pos[0] - map[i][j].pos[0]))));
-                    map[i][j].pos[0] = (float)(map[i][j].pos[0]+(Math.exp(-Math.pow(dist, 2) / (2 * Math.pow(radius, 2))) * .9 * decay * (map[minCoord[0]][minCoord[1]].pos[0] - map[i][j].pos[0])));                        
-                    map[i][j].pos[1] = (float)(map[i][j].pos[1]+(Math.exp(-Math.pow(dist, 2) / (2 * Math.pow(radius, 2))) * .9 * decay * (map[minCoord[0]][minCoord[1]].pos[1] - map[i][j].pos[1])));
-                  /*  map[i][j].pos[0] = map[i][j].pos[0]+(float)((.9/(1+iteration))
-                            *Math.exp(-.01*(1+(iteration/iterations))*Math.sqrt(Math.pow(map[minCoord[0]][minCoord[1]].pos[0] - map[i][j].pos[0],2)))
-                            *Math.exp(-(1+(iteration/iterations))*Math.pow(Math.sqrt(map[i][j].getEuclideanDist(input))-Math.sqrt(map[minCoord[0]][minCoord[1]].getEuclideanDist(input)),2))
-                            *(map[minCoord[0]][minCoord[1]].pos[1] - map[i][j].pos[0]));
-                    map[i][j].pos[1] = map[i][j].pos[1]+(float)((.9/(1+iteration))
-                            *Math.exp(-.01*(1+(iteration/iterations))*Math.sqrt(Math.pow(map[minCoord[0]][minCoord[1]].pos[1] - map[i][j].pos[1],2)))
-                            *Math.exp(-(1+(iteration/iterations))*Math.pow(Math.sqrt(map[i][j].getEuclideanDist(input))-Math.sqrt(map[minCoord[0]][minCoord[1]].getEuclideanDist(input)),2))
-                            *(map[minCoord[0]][minCoord[1]].pos[1] - map[i][j].pos[1]));*/
-                    //System.out.println(map[i][j].pos[0]);
+                    map[i][j].pos[0] = (float)(map[i][j].pos[0]+(h * .9 * decay * (bmuPos[0] - map[i][j].pos[0])));                        
+                    map[i][j].pos[1] = (float)(map[i][j].pos[1]+(h * .9 * decay * (bmuPos[1] - map[i][j].pos[1])));
               }
           }
     }
@@ -244,24 +376,13 @@ public class SOM implements Runnable{
     
  
     public void doMapping(){
-        for(int i = 0; i < trainingData.length; i++){
-            int[] coordinates = findBMU(trainingData[i]);
+        int[] bmus = new int[input.length];
+        IntStream.range(0, input.length).parallel().forEach(i -> bmus[i] = findBMU(trainingData, i*dim));
+        for(int i = 0; i < input.length; i++){
+            int[] coordinates = new int[]{bmus[i]/gridSize, bmus[i]%gridSize};
             map[coordinates[0]][coordinates[1]].addDataItem(i);
             input[i].setPoint(new Point(coordinates));
         }
-       /* for(int i = 0; i < map.length; i++){
-            for(int j = 0; j < map[i].length; j++){
-                if(checkCircle(i,j)) continue;
-                if(map[i][j].getDataItems().size()>0){
-                    for(int k = 0; k < map[i][j].getDataItems().size(); k++){
-                        System.out.print("\n"+map[i][j].getDataItems().get(k).toString()+" ");
-                        for(int h = 0; h < map[i][j].getSize(); h++){
-                            System.out.print(map[i][j].getWeight(h)+" ");
-                        }
-                    }
-                }
-            }
-        }*/
     }
     
     
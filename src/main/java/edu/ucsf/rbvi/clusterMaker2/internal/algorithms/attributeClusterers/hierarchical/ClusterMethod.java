@@ -36,6 +36,7 @@ enum ClusterMethod {
 	SINGLE_LINKAGE("pairwise single-linkage"),
 	MAXIMUM_LINKAGE("pairwise maximum-linkage"),
 	AVERAGE_LINKAGE("pairwise average-linkage"),
+	WARDS_LINKAGE("pairwise Ward's linkage"),
 	CENTROID_LINKAGE("pairwise centroid-linkage");
 
 	private String keyword;
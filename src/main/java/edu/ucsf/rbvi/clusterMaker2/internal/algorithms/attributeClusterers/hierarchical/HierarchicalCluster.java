@@ -78,10 +78,9 @@ public class HierarchicalCluster extends AbstractAttributeClusterer implements O
 	public static ClusterMethod[] linkageTypes = { ClusterMethod.AVERAGE_LINKAGE,
 	                                               ClusterMethod.SINGLE_LINKAGE,
 	                                               ClusterMethod.MAXIMUM_LINKAGE,
+	                                               ClusterMethod.WARDS_LINKAGE,
 	                                               ClusterMethod.CENTROID_LINKAGE };
 
-	ClusterMethod clusterMethod =  ClusterMethod.AVERAGE_LINKAGE;
-
 	@Tunable(description="Network to cluster", context="nogui")
 	public CyNetwork network = null;
 
@@ -148,6 +147,7 @@ public class HierarchicalCluster extends AbstractAttributeClusterer implements O
 
 		// Create a new clusterer
 		DistanceMetric metric = context.metric.getSelectedValue();
+		ClusterMethod clusterMethod = context.getLinkage();
 		RunHierarchical algorithm = new RunHierarchical(network, attributeArray, metric, 
 		                                                clusterMethod, monitor, context);
 
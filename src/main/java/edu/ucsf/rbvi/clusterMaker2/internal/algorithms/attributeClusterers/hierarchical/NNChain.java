@@ -0,0 +1,168 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.hierarchical;
+
+import java.util.Arrays;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.CondensedDistanceMatrix;
+
+/**
+ * Hierarchical clustering in O(n^2) time on a condensed distance matrix.
+ * <p>
+ * Average, maximum and Ward's linkage are reducible, so they can use the
+ * nearest-neighbor chain algorithm (Murtagh, 1983): follow a chain of
+ * nearest neighbors from any cluster until two clusters are each other's
+ * nearest neighbors, merge them, and carry on from the rest of the chain.
+ * The distances to the merged cluster are calculated with the Lance-Williams
+ * formula, in place.  Single linkage is the minimum spanning tree, which is
+ * found with Prim's algorithm and doesn't change the distances.
+ * <p>
+ * Neither finds the merges in order of distance, so they are sorted and
+ * labeled afterwards.  The result is the same as from the pairwise routines
+ * in RunHierarchical: the TreeNode's in order of distance, where a left or
+ * right of i >= 0 is row i and a left or right of -i-1 is the cluster made
+ * by TreeNode i.
+ */
+class NNChain {
+
+	/**
+	 * Cluster with average, maximum or Ward's linkage.  The distance
+	 * matrix will be modified by this routine.
+	 *
+	 * @param distanceMatrix the distances between the rows
+	 * @param clusterMethod AVERAGE_LINKAGE, MAXIMUM_LINKAGE or WARDS_LINKAGE
+	 * @return the array of TreeNode's that describe the hierarchical clustering solution
+	 */
+	static TreeNode[] cluster(CondensedDistanceMatrix distanceMatrix, ClusterMethod clusterMethod) {
+		int nRows = distanceMatrix.size();
+		int[] size = new int[nRows];
+		boolean[] active = new boolean[nRows];
+		int[] chain = new int[nRows];
+		int chainLength = 0;
+		Arrays.fill(size, 1);
+		Arrays.fill(active, true);
+
+		TreeNode[] nodeList = new TreeNode[nRows-1];
+		int first = 0;
+		for (int node = 0; node < nRows-1; node++) {
+			if (chainLength == 0) {
+				while (!active[first]) first++;
+				chain[chainLength++] = first;
+			}
+
+			// Follow the nearest neighbors until they are reciprocal.  On ties,
+			// we prefer the previous cluster in the chain, so the chain ends.
+			int a, b;
+			double distance;
+			while (true) {
+				a = chain[chainLength-1];
+				b = chainLength > 1 ? chain[chainLength-2] : -1;
+				distance = b >= 0 ? distanceMatrix.get(a, b) : Double.MAX_VALUE;
+				int previous = b;
+				for (int k = 0; k < nRows; k++) {
+					if (k == a || !active[k]) continue;
+					double d = distanceMatrix.get(a, k);
+					if (d < distance || b < 0) {
+						distance = d;
+						b = k;
+					}
+				}
+				if (b == previous)
+					break;
+				chain[chainLength++] = b;
+			}
+			chainLength -= 2;
+
+			// Merge a into b
+			nodeList[node] = new TreeNode(a, b, distance);
+			for (int k = 0; k < nRows; k++) {
+				if (k == a || k == b || !active[k]) continue;
+				double da = distanceMatrix.get(k, a);
+				double db = distanceMatrix.get(k, b);
+				distanceMatrix.set(k, b, linkage(clusterMethod, da, db, distance, size[a], size[b], size[k]));
+			}
+			size[b] += size[a];
+			active[a] = false;
+		}
+		return label(nodeList, nRows);
+	}
+
+	/**
+	 * Cluster with single linkage, using the minimum spanning tree.  The
+	 * distance matrix isn't modified.
+	 *
+	 * @param distanceMatrix the distances between the rows
+	 * @return the array of TreeNode's that describe the hierarchical clustering solution
+	 */
+	static TreeNode[] singleLinkage(CondensedDistanceMatrix distanceMatrix) {
+		int nRows = distanceMatrix.size();
+		boolean[] inTree = new boolean[nRows];
+		double[] nearest = new double[nRows];
+		int[] parent = new int[nRows];
+		Arrays.fill(nearest, Double.MAX_VALUE);
+
+		TreeNode[] nodeList = new TreeNode[nRows-1];
+		int current = 0;
+		inTree[0] = true;
+		for (int node = 0; node < nRows-1; node++) {
+			int next = -1;
+			for (int k = 0; k < nRows; k++) {
+				if (inTree[k]) continue;
+				double d = distanceMatrix.get(current, k);
+				if (d < nearest[k]) {
+					nearest[k] = d;
+					parent[k] = current;
+				}
+				if (next < 0 || nearest[k] < nearest[next]) next = k;
+			}
+			nodeList[node] = new TreeNode(parent[next], next, nearest[next]);
+			inTree[next] = true;
+			current = next;
+		}
+		return label(nodeList, nRows);
+	}
+
+	// The Lance-Williams update for the distance from k to the merge of a and b
+	private static double linkage(ClusterMethod clusterMethod, double da, double db, double dab,
+	                              int na, int nb, int nk) {
+		switch (clusterMethod) {
+			case MAXIMUM_LINKAGE:
+				return Math.max(da, db);
+			case WARDS_LINKAGE:
+				return Math.sqrt(((na+nk)*da*da + (nb+nk)*db*db - nk*dab*dab)/(double)(na+nb+nk));
+			default:
+				return (da*na + db*nb)/(double)(na+nb);
+		}
+	}
+
+	/*
+	 * Sort the merges, which are between any rows of the two clusters, by
+	 * distance, and replace the rows by the clusters they were in at the time
+	 */
+	private static TreeNode[] label(TreeNode[] nodeList, int nRows) {
+		// Arrays.sort is stable, so ties stay in the order they were merged
+		Arrays.sort(nodeList, new NodeComparator());
+
+		int[] root = new int[nRows];
+		int[] clusterID = new int[nRows];
+		for (int row = 0; row < nRows; row++) {
+			root[row] = row;
+			clusterID[row] = row;
+		}
+		for (int node = 0; node < nodeList.length; node++) {
+			int a = find(root, nodeList[node].getLeft());
+			int b = find(root, nodeList[node].getRight());
+			nodeList[node].setLeft(clusterID[a]);
+			nodeList[node].setRight(clusterID[b]);
+			root[a] = b;
+			clusterID[b] = -node-1;
+		}
+		return nodeList;
+	}
+
+	private static int find(int[] root, int row) {
+		while (root[row] != row) {
+			root[row] = root[root[row]];
+			row = root[row];
+		}
+		return row;
+	}
+}
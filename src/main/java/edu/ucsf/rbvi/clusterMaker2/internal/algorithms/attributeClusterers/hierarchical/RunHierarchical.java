@@ -47,6 +47,7 @@ import edu.ucsf.rbvi.clusterMaker2.internal.api.ClusterManager;
 // import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.Matrix;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMetric;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.CyMatrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.CondensedDistanceMatrix;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.CyMatrixFactory;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.MatrixUtils;
 import edu.ucsf.rbvi.clusterMaker2.internal.utils.ModelUtils;
@@ -230,7 +231,7 @@ public class RunHierarchical {
 
 		// System.out.println("Getting the distance matrix");
 
-		double[][] distanceMatrix = matrix.getDistanceMatrix(metric).toArray();
+		CondensedDistanceMatrix distanceMatrix = CondensedDistanceMatrix.getDistances(matrix, metric);
 
 		// System.out.println("Done");
 
@@ -247,19 +248,25 @@ public class RunHierarchical {
 			case SINGLE_LINKAGE:
 				if (monitor != null) 
 					monitor.showMessage(TaskMonitor.Level.INFO,"Calculating single linkage hierarchical cluster");
-				result = pslCluster(matrix, distanceMatrix, metric);
+				result = NNChain.singleLinkage(distanceMatrix);
 				break;
 
 			case MAXIMUM_LINKAGE:
 				if (monitor != null) 
 					monitor.showMessage(TaskMonitor.Level.INFO,"Calculating maximum linkage hierarchical cluster");
-				result = pmlcluster(matrix.nRows(), distanceMatrix);
+				result = NNChain.cluster(distanceMatrix, clusterMethod);
 				break;
 
 			case AVERAGE_LINKAGE:
 				if (monitor != null) 
 					monitor.showMessage(TaskMonitor.Level.INFO,"Calculating average linkage hierarchical cluster");
-				result = palcluster(matrix.nRows(), distanceMatrix);
+				result = NNChain.cluster(distanceMatrix, clusterMethod);
+				break;
+
+			case WARDS_LINKAGE:
+				if (monitor != null) 
+					monitor.showMessage(TaskMonitor.Level.INFO,"Calculating Ward's linkage hierarchical cluster");
+				result = NNChain.cluster(distanceMatrix, clusterMethod);
 				break;
 
 			case CENTROID_LINKAGE:
@@ -271,79 +278,6 @@ public class RunHierarchical {
 		return result;
 	}
 
-	/**
- 	 * The pslcluster routine performs single-linkage hierarchical clustering, using
- 	 * either the distance matrix directly, if available, or by calculating the
- 	 * distances from the data array. This implementation is based on the SLINK
- 	 * algorithm, described in:
- 	 * Sibson, R. (1973). SLINK: An optimally efficient algorithm for the single-link
- 	 * cluster method. The Computer Journal, 16(1): 30-34.
- 	 * The output of this algorithm is identical to conventional single-linkage
- 	 * hierarchical clustering, but is much more memory-efficient and faster. Hence,
- 	 * it can be applied to large data sets, for which the conventional single-
- 	 * linkage algorithm fails due to lack of memory.
- 	 *
- 	 * @param matrix the data matrix containing the data and labels
- 	 * @param distanceMatrix the distances that will be used to actually do the clustering.
- 	 * @param metric the distance metric to be used.
- 	 * @return the array of TreeNode's that describe the hierarchical clustering solution, or null if
- 	 * it it files for some reason.
- 	 **/
-
-	private TreeNode[] pslCluster(CyMatrix matrix, double[][] distanceMatrix, DistanceMetric metric) {
-		int nRows = matrix.nRows();
-		int nNodes = nRows-1;
-
-		int[] vector = new int[nNodes];
-		TreeNode[] nodeList = new TreeNode[nNodes]; 
-		// Initialize
-		for (int i = 0; i < nNodes; i++) {
-			vector[i] = i;
-			nodeList[i] = new TreeNode(Double.MAX_VALUE);
-		}
-
-		int k = 0;
-		double[] temp = new double[nNodes];
-
-		for (int row = 0; row < nRows; row++) {
-			if (distanceMatrix != null) {
-				for (int j = 0; j < row; j++) temp[j] = distanceMatrix[row][j];
-			} else {
-				for (int j = 0; j < row; j++)
-					temp[j] = metric.getMetric(matrix, matrix, row, j);
-			}
-			for (int j = 0; j < row; j++) {
-				k = vector[j];
-				if (nodeList[j].getDistance() >= temp[j]) {
-					if (nodeList[j].getDistance() < temp[k]) temp[k] = nodeList[j].getDistance();
-					nodeList[j].setDistance(temp[j]);
-					vector[j] = row;
-				} else if (temp[j] < temp[k]) temp[k] = temp[j];
-			}
-			for (int j = 0; j < row; j++) {
-				if (vector[j] == nNodes || nodeList[j].getDistance() >= nodeList[vector[j]].getDistance()) vector[j] = row;
-			}
-		}
-
-
-		for (int row = 0; row < nNodes; row++)
-			nodeList[row].setLeft(row);
-
-		Arrays.sort(nodeList, new NodeComparator());
-
-		int[] index = new int[nRows];
-		for (int i = 0; i < nRows; i++) index[i] = i;
-		for (int i = 0; i < nNodes; i++) {
-			int j = nodeList[i].getLeft();
-			k = vector[j];
-			nodeList[i].setLeft(index[j]);
-			nodeList[i].setRight(index[k]);
-			index[k] = -i-1;
-		}
-
-		return nodeList;
-	}
-
 	/**
  	 * The pclcluster routine performs clustering, using pairwise centroid-linking
  	 * on a given set of gene expression data, using the distrance metric given by metric.
@@ -354,7 +288,7 @@ public class RunHierarchical {
  	 * @return the array of TreeNode's that describe the hierarchical clustering solution, or null if
  	 * it it files for some reason.
  	 **/
-	private TreeNode[] pclcluster(CyMatrix matrix, double[][] distanceMatrix, DistanceMetric metric) {
+	private TreeNode[] pclcluster(CyMatrix matrix, CondensedDistanceMatrix distanceMatrix, DistanceMetric metric) {
 		int nRows = matrix.nRows();
 		int nColumns = matrix.nColumns();
 		int nNodes = nRows-1;
@@ -418,145 +352,25 @@ public class RunHierarchical {
 			// Fix the distances
 			distID[is] = distID[nNodes-inode];
 			for (int i = 0; i < is; i++) {
-				distanceMatrix[is][i] = distanceMatrix[nNodes-inode][i];
+				distanceMatrix.set(is, i, distanceMatrix.get(nNodes-inode, i));
 			}
 
 			for (int i = is+1; i < nNodes-inode; i++) {
-				distanceMatrix[i][is] = distanceMatrix[nNodes-inode][i];
+				distanceMatrix.set(i, is, distanceMatrix.get(nNodes-inode, i));
 			}
 
 			distID[js] = -inode-1;
 			for (int i = 0; i < js; i++) {
-				distanceMatrix[js][i] = metric.getMetric(newData, newData, js, i);
+				distanceMatrix.set(js, i, metric.getMetric(newData, newData, js, i));
 			}
 			for (int i = js+1; i < nNodes-inode; i++) {
-				distanceMatrix[i][js] = metric.getMetric(newData, newData, js, i);
+				distanceMatrix.set(i, js, metric.getMetric(newData, newData, js, i));
 			}
 		}
 
 		return nodeList;
 	}
 
-	/**
-	 * The pmlcluster routine performs clustering using pairwise maximum- (complete-)
-	 * linking on the given distance matrix.
-	 * 
-	 * @param nRows The number of rows to be clustered
-	 * @param distanceMatrix The distance matrix, with rows rows, each row being filled up to the
-	 * diagonal. The elements on the diagonal are not used, as they are assumed to be
-	 * zero. The distance matrix will be modified by this routine.
-	 * @return the array of TreeNode's that describe the hierarchical clustering solution, or null if
-	 * it fails for some reason.
-	 */
-	private TreeNode[] pmlcluster(int nRows, double[][] distanceMatrix) {
-		int[] clusterID = new int[nRows];
-		TreeNode[] nodeList = new TreeNode[nRows-1]; 
-
-		for (int j = 0; j < nRows; j++) {
-			clusterID[j] = j;
-		}
-
-		int pair[] = new int[2];
-		for (int n = nRows; n > 1; n--) {
-			pair[0] = 1; pair[1] = 2;
-			if (nodeList[nRows-n] == null)
-				nodeList[nRows-n] = new TreeNode(Double.MAX_VALUE);
-			nodeList[nRows-n].setDistance(findClosestPair(n, distanceMatrix, pair));
-			int is = pair[0];
-			int js = pair[1];
-
-			// Fix the distances
-			for (int j = 0; j < js; j++)
-				distanceMatrix[js][j] = Math.max(distanceMatrix[is][j],distanceMatrix[js][j]);
-			for (int j = js+1; j < is; j++)
-				distanceMatrix[j][js] = Math.max(distanceMatrix[is][j],distanceMatrix[j][js]);
-			for (int j = is+1; j < n; j++)
-				distanceMatrix[j][js] = Math.max(distanceMatrix[j][is],distanceMatrix[j][js]);
-			for (int j = 0; j < is; j++)
-				distanceMatrix[is][j] = distanceMatrix[n-1][j];
-			for (int j = is+1; j < n-1; j++)
-				distanceMatrix[j][is] = distanceMatrix[n-1][j];
-
-			// Update cluster IDs
-			nodeList[nRows-n].setLeft(clusterID[is]);
-			nodeList[nRows-n].setRight(clusterID[js]);
-			clusterID[js] = n-nRows-1;
-			clusterID[is] = clusterID[n-1];
-		}
-		return nodeList;
-	}
-
-	/**
-	 * The pmlcluster routine performs clustering using pairwise average
-	 * linking on the given distance matrix.
-	 * 
-	 * @param nRows The number of rows to be clustered
-	 * @param distanceMatrix The distance matrix, with rows rows, each row being filled up to the
-	 * diagonal. The elements on the diagonal are not used, as they are assumed to be
-	 * zero. The distance matrix will be modified by this routine.
-	 * @return the array of TreeNode's that describe the hierarchical clustering solution, or null if
-	 * it fails for some reason.
-	 */
-	private TreeNode[] palcluster(int nRows, double[][] distanceMatrix) {
-		int[] clusterID = new int[nRows];
-		int[] number = new int[nRows];
-		TreeNode[] nodeList = new TreeNode[nRows-1]; 
-
-		// Setup a list specifying to which cluster a gene belongs, and keep track
-		// of the number of elements in each cluster (needed to calculate the
-		// average).
-		for (int j = 0; j < nRows; j++) {
-			number[j] = 1;
-			clusterID[j] = j;
-		}
-
-		int pair[] = new int[2];
-		for (int n = nRows; n > 1; n--) {
-			int sum = 0;
-			pair[IS] = 1; pair[JS] = 0;
-			if (nodeList[nRows-n] == null)
-				nodeList[nRows-n] = new TreeNode(Double.MAX_VALUE);
-			double distance = findClosestPair(n, distanceMatrix, pair);
-			nodeList[nRows-n].setDistance(distance);
-
-			// Save result
-			int is = pair[IS];
-			int js = pair[JS];
-			nodeList[nRows-n].setLeft(clusterID[is]);
-			nodeList[nRows-n].setRight(clusterID[js]);
-
-			// Fix the distances
-			sum = number[is] + number[js];
-			for (int j = 0; j < js; j++) {
-				distanceMatrix[js][j] = (distanceMatrix[is][j]*(double)number[is] + distanceMatrix[js][j]*(double)number[js])/(double)sum;
-			}
-
-			for (int j = js+1; j < is; j++) {
-				distanceMatrix[j][js] = (distanceMatrix[is][j]*(double)number[is] + distanceMatrix[j][js]*(double)number[js])/(double)sum;
-			}
-
-			for (int j = is+1; j < n; j++) {
-				distanceMatrix[j][js] = (distanceMatrix[j][is]*(double)number[is] + distanceMatrix[j][js]*(double)number[js])/(double)sum;
-			}
-
-			for (int j = 0; j < is; j++) {
-				distanceMatrix[is][j] = distanceMatrix[n-1][j];
-			}
-			for (int j = is+1; j < n-1; j++) {
-				distanceMatrix[j][is] = distanceMatrix[n-1][j];
-			}
-
-			// Update number of elements in the clusters
-			number[js] = sum;
-			number[is] = number[n-1];
-
-			// Update cluster IDs
-			clusterID[js] = n-nRows-1;
-			clusterID[is] = clusterID[n-1];
-		}
-		return nodeList;
-	}
-
 	/**
  	 * This function searches the distance matrix to find the pair with the shortest
  	 * distance between them. The indices of the pair are returned in ip and jp; the
@@ -565,22 +379,21 @@ public class RunHierarchical {
  	 * n          (input) int
  	 * The number of elements in the distance matrix.
  	 *
- 	 * distanceMatrix (input) double[][]
- 	 * A ragged array containing the distance matrix. The number of columns in each
- 	 * row is one less than the row index.
+ 	 * distanceMatrix (input) CondensedDistanceMatrix
+ 	 * The distance matrix. Only the lower triangle (j < i) is used.
  	 *
  	 * pair         (output) int[2]
  	 * An array with two values representing the first and second indices of the pair
  	 * with the shortest distance.
  	 */
-	private double findClosestPair(int n, double[][] distanceMatrix, int[] pair) {
+	private double findClosestPair(int n, CondensedDistanceMatrix distanceMatrix, int[] pair) {
 		int ip = 1;
 		int jp = 0;
 		double temp;
-		double distance = distanceMatrix[1][0];
+		double distance = distanceMatrix.get(1, 0);
 		for (int i = 1; i < n; i++) {
 			for (int j = 0; j < i; j++) {
-				temp = distanceMatrix[i][j];
+				temp = distanceMatrix.get(i, j);
 				if (temp < distance) {
 					distance = temp;
 					ip = i;
@@ -0,0 +1,368 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.kmeans;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMetric;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
+
+/**
+ * Lloyd's k-means, using triangle inequality bounds to avoid most of the
+ * distance calculations: Hamerly's single lower bound for small k, and
+ * Elkan's k lower bounds per element for larger k.  The assignment step runs
+ * in parallel over the elements, and the centroids are updated incrementally
+ * from the elements that moved.
+ *
+ * This only works for the EUCLIDEAN and EUCLIDEANSQ metrics on data with no
+ * missing values.  Internally, everything is done with the plain Euclidean
+ * distance (which gives the same assignments), and the total is converted back
+ * to the metric at the end.
+ */
+public class BoundedKMeans {
+	// Above this many clusters, use Elkan's bounds (if they fit)
+	static final int ELKAN_MIN_CLUSTERS = 20;
+	static final long ELKAN_MAX_BOUNDS = 50000000L;
+	static final int MAX_PASSES = 1000;
+
+	private final DistanceMetric metric;
+	private final int nElements;
+	private final int nColumns;
+	private final double[] data;
+
+	public BoundedKMeans(Matrix matrix, DistanceMetric metric) {
+		this.metric = metric;
+		this.nElements = matrix.nRows();
+		this.nColumns = matrix.nColumns();
+		data = new double[nElements*nColumns];
+		for (int row = 0; row < nElements; row++) {
+			for (int column = 0; column < nColumns; column++)
+				data[row*nColumns+column] = matrix.doubleValue(row, column);
+		}
+	}
+
+	/**
+	 * See if we can use bounded k-means for this matrix and metric.
+	 */
+	public static boolean canUse(Matrix matrix, DistanceMetric metric) {
+		if (metric != DistanceMetric.EUCLIDEAN && metric != DistanceMetric.EUCLIDEANSQ)
+			return false;
+		for (int row = 0; row < matrix.nRows(); row++) {
+			for (int column = 0; column < matrix.nColumns(); column++) {
+				if (!matrix.hasValue(row, column))
+					return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Run k-means to convergence, starting from the clusters in clusterID.
+	 *
+	 * @param nClusters the number of clusters
+	 * @param clusterID the initial assignment, which is updated with the result
+	 * @return the sum of the distances of the elements to their centroids
+	 */
+	public double cluster(int nClusters, int[] clusterID) {
+		Centroids centroids = new Centroids(nClusters, clusterID);
+
+		if (nClusters >= ELKAN_MIN_CLUSTERS && (long)nElements*nClusters <= ELKAN_MAX_BOUNDS)
+			elkan(centroids, clusterID);
+		else
+			hamerly(centroids, clusterID);
+
+		double total = IntStream.range(0, nElements).parallel()
+			.mapToDouble(i -> {
+				double d = distance(i, centroids.centers, clusterID[i]);
+				return (metric == DistanceMetric.EUCLIDEANSQ) ? d*d/nColumns : d/Math.sqrt(nColumns);
+			}).sum();
+		return total;
+	}
+
+	private void hamerly(Centroids centroids, int[] clusterID) {
+		int nClusters = centroids.nClusters;
+		double[] upper = new double[nElements];
+		double[] lower = new double[nElements];
+
+		// Initial bounds from a full pass
+		IntStream.range(0, nElements).parallel()
+			.forEach(i -> {
+				double best = Double.MAX_VALUE;
+				double second = Double.MAX_VALUE;
+				int bestCluster = clusterID[i];
+				for (int j = 0; j < nClusters; j++) {
+					double d = distance(i, centroids.centers, j);
+					if (d < best) {
+						second = best;
+						best = d;
+						bestCluster = j;
+					} else if (d < second) {
+						second = d;
+					}
+				}
+				clusterID[i] = bestCluster;
+				upper[i] = best;
+				lower[i] = second;
+			});
+
+		for (int pass = 0; pass < MAX_PASSES; pass++) {
+			if (!centroids.update(clusterID, upper, lower, null))
+				break;
+
+			double[] halfSeparation = centroids.halfSeparation();
+			IntStream.range(0, nElements).parallel()
+				.forEach(i -> {
+					int a = clusterID[i];
+					double bound = Math.max(halfSeparation[a], lower[i]);
+					if (upper[i] <= bound) return;
+
+					upper[i] = distance(i, centroids.centers, a);
+					if (upper[i] <= bound) return;
+
+					double best = upper[i];
+					double second = Double.MAX_VALUE;
+					int bestCluster = a;
+					for (int j = 0; j < nClusters; j++) {
+						if (j == a) continue;
+						double d = distance(i, centroids.centers, j);
+						if (d < best) {
+							second = best;
+							best = d;
+							bestCluster = j;
+						} else if (d < second) {
+							second = d;
+						}
+					}
+					clusterID[i] = bestCluster;
+					upper[i] = best;
+					lower[i] = second;
+				});
+		}
+	}
+
+	private void elkan(Centroids centroids, int[] clusterID) {
+		int nClusters = centroids.nClusters;
+		double[] upper = new double[nElements];
+		double[] lower = new double[nElements*nClusters];
+
+		IntStream.range(0, nElements).parallel()
+			.forEach(i -> {
+				double best = Double.MAX_VALUE;
+				int bestCluster = clusterID[i];
+				for (int j = 0; j < nClusters; j++) {
+					double d = distance(i, centroids.centers, j);
+					lower[i*nClusters+j] = d;
+					if (d < best) {
+						best = d;
+						bestCluster = j;
+					}
+				}
+				clusterID[i] = bestCluster;
+				upper[i] = best;
+			});
+
+		for (int pass = 0; pass < MAX_PASSES; pass++) {
+			if (!centroids.update(clusterID, upper, null, lower))
+				break;
+
+			double[] separation = centroids.separation();
+			double[] halfSeparation = centroids.halfSeparation();
+			IntStream.range(0, nElements).parallel()
+				.forEach(i -> {
+					int a = clusterID[i];
+					if (upper[i] <= halfSeparation[a]) return;
+
+					int offset = i*nClusters;
+					boolean stale = true;
+					for (int j = 0; j < nClusters; j++) {
+						if (j == a) continue;
+						double half = separation[a*nClusters+j]/2;
+						if (upper[i] <= lower[offset+j] || upper[i] <= half) continue;
+						if (stale) {
+							upper[i] = distance(i, centroids.centers, a);
+							lower[offset+a] = upper[i];
+							stale = false;
+							if (upper[i] <= lower[offset+j] || upper[i] <= half) continue;
+						}
+						double d = distance(i, centroids.centers, j);
+						lower[offset+j] = d;
+						if (d < upper[i]) {
+							a = j;
+							upper[i] = d;
+						}
+					}
+					clusterID[i] = a;
+				});
+		}
+	}
+
+	// Euclidean distance between element i and centroid j
+	private double distance(int i, double[] centers, int j) {
+		double sum = 0.0;
+		int offset1 = i*nColumns;
+		int offset2 = j*nColumns;
+		for (int c = 0; c < nColumns; c++) {
+			double term = data[offset1+c] - centers[offset2+c];
+			sum += term*term;
+		}
+		return Math.sqrt(sum);
+	}
+
+	/**
+	 * The centroids, kept as running sums so that only the elements that
+	 * changed clusters need to be looked at.
+	 */
+	class Centroids {
+		final int nClusters;
+		final double[] sums;
+		final int[] counts;
+		final double[] centers;
+		final int[] assigned;	// Cluster each element is counted in
+
+		Centroids(int nClusters, int[] clusterID) {
+			this.nClusters = nClusters;
+			sums = new double[nClusters*nColumns];
+			counts = new int[nClusters];
+			centers = new double[nClusters*nColumns];
+			assigned = Arrays.copyOf(clusterID, nElements);
+			for (int i = 0; i < nElements; i++)
+				add(i, assigned[i], 1.0);
+			for (int j = 0; j < nClusters; j++)
+				setCenter(j);
+		}
+
+		/**
+		 * Move the elements that changed clusters, recalculate the centers,
+		 * and adjust the bounds by how far each center moved.
+		 *
+		 * @return false if nothing changed
+		 */
+		boolean update(int[] clusterID, double[] upper, double[] hamerlyLower, double[] elkanLower) {
+			fillEmptyClusters(clusterID, upper, hamerlyLower);
+
+			boolean[] dirty = new boolean[nClusters];
+			boolean changed = false;
+			for (int i = 0; i < nElements; i++) {
+				int from = assigned[i];
+				int to = clusterID[i];
+				if (from == to) continue;
+				add(i, from, -1.0);
+				add(i, to, 1.0);
+				assigned[i] = to;
+				dirty[from] = dirty[to] = true;
+				changed = true;
+			}
+			if (!changed)
+				return false;
+
+			double[] shift = new double[nClusters];
+			double maxShift = 0.0;
+			double secondShift = 0.0;
+			int maxCluster = -1;
+			for (int j = 0; j < nClusters; j++) {
+				if (!dirty[j]) continue;
+				double[] old = Arrays.copyOfRange(centers, j*nColumns, (j+1)*nColumns);
+				setCenter(j);
+				double sum = 0.0;
+				for (int c = 0; c < nColumns; c++) {
+					double term = old[c] - centers[j*nColumns+c];
+					sum += term*term;
+				}
+				shift[j] = Math.sqrt(sum);
+				if (shift[j] > maxShift) {
+					secondShift = maxShift;
+					maxShift = shift[j];
+					maxCluster = j;
+				} else if (shift[j] > secondShift) {
+					secondShift = shift[j];
+				}
+			}
+
+			double max = maxShift;
+			double second = secondShift;
+			int maxJ = maxCluster;
+			IntStream.range(0, nElements).parallel()
+				.forEach(i -> {
+					int a = clusterID[i];
+					upper[i] += shift[a];
+					if (hamerlyLower != null) {
+						hamerlyLower[i] -= (a == maxJ) ? second : max;
+					} else {
+						int offset = i*nClusters;
+						for (int j = 0; j < nClusters; j++)
+							elkanLower[offset+j] = Math.max(0.0, elkanLower[offset+j] - shift[j]);
+					}
+				});
+			return true;
+		}
+
+		// Don't let a cluster go empty: give it the element that's furthest
+		// from its own center.
+		void fillEmptyClusters(int[] clusterID, double[] upper, double[] hamerlyLower) {
+			int[] newCounts = new int[nClusters];
+			for (int i = 0; i < nElements; i++)
+				newCounts[clusterID[i]]++;
+			for (int j = 0; j < nClusters; j++) {
+				if (newCounts[j] > 0) continue;
+				int furthest = -1;
+				for (int i = 0; i < nElements; i++) {
+					if (newCounts[clusterID[i]] > 1 && (furthest < 0 || upper[i] > upper[furthest]))
+						furthest = i;
+				}
+				if (furthest < 0) return;
+				newCounts[clusterID[furthest]]--;
+				clusterID[furthest] = j;
+				newCounts[j]++;
+				// The element is exactly on the new center, once it's moved, but
+				// we don't know anything about the other centers any more
+				upper[furthest] = 0.0;
+				if (hamerlyLower != null)
+					hamerlyLower[furthest] = 0.0;
+			}
+		}
+
+		double[] separation() {
+			double[] separation = new double[nClusters*nClusters];
+			IntStream.range(0, nClusters).parallel()
+				.forEach(j -> {
+					for (int k = j+1; k < nClusters; k++) {
+						double sum = 0.0;
+						for (int c = 0; c < nColumns; c++) {
+							double term = centers[j*nColumns+c] - centers[k*nColumns+c];
+							sum += term*term;
+						}
+						separation[j*nClusters+k] = separation[k*nClusters+j] = Math.sqrt(sum);
+					}
+				});
+			return separation;
+		}
+
+		// Half of the distance from each center to the closest other center
+		double[] halfSeparation() {
+			double[] separation = separation();
+			double[] half = new double[nClusters];
+			for (int j = 0; j < nClusters; j++) {
+				double min = Double.MAX_VALUE;
+				for (int k = 0; k < nClusters; k++) {
+					if (k != j && separation[j*nClusters+k] < min)
+						min = separation[j*nClusters+k];
+				}
+				half[j] = min/2;
+			}
+			return half;
+		}
+
+		private void add(int i, int cluster, double sign) {
+			int offset = i*nColumns;
+			int cOffset = cluster*nColumns;
+			for (int c = 0; c < nColumns; c++)
+				sums[cOffset+c] += sign*data[offset+c];
+			counts[cluster] += (int)sign;
+		}
+
+		private void setCenter(int j) {
+			if (counts[j] == 0) return;
+			for (int c = 0; c < nColumns; c++)
+				centers[j*nColumns+c] = sums[j*nColumns+c]/counts[j];
+		}
+	}
+}
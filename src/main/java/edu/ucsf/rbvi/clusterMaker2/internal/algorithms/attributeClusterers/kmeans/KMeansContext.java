@@ -75,6 +75,15 @@ public class KMeansContext {
 	         gravity=11)
 	public ListSingleSelection<DistanceMetric> metric = 
 		new ListSingleSelection<DistanceMetric>(DistanceMetric.values());
+
+	@Tunable(description="Use accelerated k-means",
+	         longDescription = "If this is set to true, and the metric is Euclidean with no missing values, "+
+	                           "use Lloyd's k-means with triangle inequality bounds (Hamerly or Elkan) to skip "+
+	                           "most of the distance calculations.  Note that this may give slightly different "+
+	                           "clusters than the default algorithm.",
+	         exampleStringValue = "false",
+	         gravity=12)
+	public boolean useBounds = false;
 	
 	@ContainsTunables
 	public AttributeList attributeList = null;
@@ -138,6 +147,7 @@ public class KMeansContext {
 		kcluster.addParams(params);
 		params.add("iterations="+iterations);
 		params.add("metric="+metric.getSelectedValue().toString());
+		params.add("useBounds="+useBounds);
 		params.add("nodeAttributeList="+attributeList.getNodeAttributeList().toString());
 		params.add("edgeAttribute="+attributeList.getEdgeAttribute());
 		params.add("selectedOnly="+selectedOnly);
@@ -59,6 +59,7 @@ import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMetric;
 
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.AbstractClusterAlgorithm;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.AbstractKClusterAlgorithm;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.CondensedDistanceMatrix;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.CyMatrixFactory;
 
 public class RunKCluster extends AbstractKClusterAlgorithm {
@@ -94,6 +95,16 @@ public class RunKCluster extends AbstractKClusterAlgorithm {
 		// Matrix cData = new Matrix(network, nClusters, matrix.nColumns());
 		CyMatrix cData = CyMatrixFactory.makeSmallMatrix(network, nClusters, matrix.nColumns());
 
+		// Use the bounded (Elkan/Hamerly) version of k-means if we can
+		BoundedKMeans bounded = null;
+		if (context.useBounds && BoundedKMeans.canUse(matrix, metric))
+			bounded = new BoundedKMeans(matrix, metric);
+
+		// The central element initialization uses the same distances for every restart
+		CondensedDistanceMatrix distances = null;
+		if (context.kcluster.initializeNearCenter)
+			distances = CondensedDistanceMatrix.getDistances(matrix, metric);
+
 		// Outer initialization
 		if (nIterations <= 1) {
 			for (int i=0; i < clusterID.length; i++) {
@@ -113,9 +124,7 @@ public class RunKCluster extends AbstractKClusterAlgorithm {
 			if (monitor != null)
 				monitor.setProgress(((double)iteration/(double)nIterations));
 
-			double total = Double.MAX_VALUE;
-			int counter = 0;
-			int period = 10;
+			double total;
 
 			// System.out.println("Assigning elements "+nClusters);
 
@@ -129,76 +138,16 @@ public class RunKCluster extends AbstractKClusterAlgorithm {
 					// if (nIterations != 0) debugAssign(nClusters, nelements, tclusterid);
 				} else {
 					int centers[] = chooseCentralElementsAsCenters(nelements, nClusters, 
-					                                               matrix.getDistanceMatrix(metric).toArray(), tclusterid);
+					                                               distances, tclusterid);
 				}
 			}
 			// System.out.println("Done assigning elements "+nClusters);
 
-			// Initialize
-			for (int i = 0; i < nClusters; i++) counts[i] = 0;
-			for (int i = 0; i < nelements; i++) counts[tclusterid[i]]++;
-
-			// System.out.println("Inner loop starting "+nClusters);
-			while (true) {
-				double previous = total;
-				total = 0.0;
-				if (counter % period == 0) // Save the current cluster assignments
-				{
-					for (int i = 0; i < nelements; i++)
-						saved[i] = tclusterid[i];
-					if (period < Integer.MAX_VALUE / 2) 
-						period *= 2;
-				}
-				counter++;
-
-				// Find the center
-				// System.out.println("Assigning cluster means "+nClusters);
-				getClusterMeans(nClusters, matrix, cData, tclusterid);
-
-				/*
-				for (int i = 0; i < nClusters; i++) {
-					System.out.print("cluster "+i+": ");
-					for (int j = 0; j < matrix.nColumns(); j++) {
-						System.out.print(cData.getValue(i,j)+"\t");
-					}
-					System.out.println();
-				}
-				*/
-
-				for (int i = 0; i < nelements; i++) {
-					// Calculate the distances
-					double distance;
-					int k = tclusterid[i];
-					if (counts[k]==1) continue;
-
-					// Get the distance
-					// distance = metric(ndata,data,cdata,mask,cmask,weight,i,k,transpose);
-					distance = metric.getMetric(matrix, cData, i, k);
-					for (int j = 0; j < nClusters; j++) { 
-						double tdistance;
-						if (j==k) continue;
-						// tdistance = metric(ndata,data,cdata,mask,cmask,weight,i,j,transpose);
-						tdistance = metric.getMetric(matrix, cData, i, j);
-						if (tdistance < distance) 
-						{ 
-							distance = tdistance;
-            	counts[tclusterid[i]]--;
-            	tclusterid[i] = j;
-            	counts[j]++;
-						}
-          }
-        	total += distance;
-        }
-				// System.out.println("total = "+total+", previous = "+previous+" nClusters="+nClusters);
-      	if (total>=previous) break;
-      	/* total>=previous is FALSE on some machines even if total and previous
-				 * are bitwise identical. */
-				int i;
-	      for (i = 0; i < nelements; i++)
-	        if (saved[i]!=tclusterid[i]) break;
-	      if (i==nelements)
-	        break; /* Identical solution found; break out of this loop */
-    	}
+			// The bounded version replaces the Cluster 3.0 inner loop
+			if (bounded != null)
+				total = bounded.cluster(nClusters, tclusterid);
+			else
+				total = assignToCentroids(nClusters, matrix, cData, metric, tclusterid, saved, counts);
 
 			if (nIterations<=1)
 			{ error = total;
@@ -234,6 +183,83 @@ public class RunKCluster extends AbstractKClusterAlgorithm {
   	return ifound;
 	}
 
+	// The Cluster 3.0 inner loop: reassign each element to its closest cluster mean
+	// until the assignments stop changing, and return the total distance
+	private double assignToCentroids(int nClusters, CyMatrix matrix, CyMatrix cData, DistanceMetric metric,
+	                                 int[] tclusterid, int[] saved, int[] counts) {
+		int nelements = matrix.nRows();
+		double total = Double.MAX_VALUE;
+		int counter = 0;
+		int period = 10;
+
+		// Initialize
+		for (int i = 0; i < nClusters; i++) counts[i] = 0;
+		for (int i = 0; i < nelements; i++) counts[tclusterid[i]]++;
+
+		// System.out.println("Inner loop starting "+nClusters);
+		while (true) {
+			double previous = total;
+			total = 0.0;
+			if (counter % period == 0) // Save the current cluster assignments
+			{
+				for (int i = 0; i < nelements; i++)
+					saved[i] = tclusterid[i];
+				if (period < Integer.MAX_VALUE / 2) 
+					period *= 2;
+			}
+			counter++;
+
+			// Find the center
+			// System.out.println("Assigning cluster means "+nClusters);
+			getClusterMeans(nClusters, matrix, cData, tclusterid);
+
+			/*
+			for (int i = 0; i < nClusters; i++) {
+				System.out.print("cluster "+i+": ");
+				for (int j = 0; j < matrix.nColumns(); j++) {
+					System.out.print(cData.getValue(i,j)+"\t");
+				}
+				System.out.println();
+			}
+			*/
+
+			for (int i = 0; i < nelements; i++) {
+				// Calculate the distances
+				double distance;
+				int k = tclusterid[i];
+				if (counts[k]==1) continue;
+
+				// Get the distance
+				// distance = metric(ndata,data,cdata,mask,cmask,weight,i,k,transpose);
+				distance = metric.getMetric(matrix, cData, i, k);
+				for (int j = 0; j < nClusters; j++) { 
+					double tdistance;
+					if (j==k) continue;
+					// tdistance = metric(ndata,data,cdata,mask,cmask,weight,i,j,transpose);
+					tdistance = metric.getMetric(matrix, cData, i, j);
+					if (tdistance < distance) 
+					{ 
+						distance = tdistance;
+						counts[tclusterid[i]]--;
+						tclusterid[i] = j;
+						counts[j]++;
+					}
+				}
+				total += distance;
+			}
+			// System.out.println("total = "+total+", previous = "+previous+" nClusters="+nClusters);
+			if (total>=previous) break;
+			/* total>=previous is FALSE on some machines even if total and previous
+			 * are bitwise identical. */
+			int i;
+			for (i = 0; i < nelements; i++)
+				if (saved[i]!=tclusterid[i]) break;
+			if (i==nelements)
+				break; /* Identical solution found; break out of this loop */
+		}
+		return total;
+	}
+
 	// Debug version of "randomAssign" that isn't random
 	private void debugAssign (int nClusters, int nElements, int[] clusterID) {
 		for (int element = 0; element < nElements; element++) {
@@ -60,6 +60,7 @@ import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMetric;
 
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.AbstractClusterAlgorithm;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.AbstractKClusterAlgorithm;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.CondensedDistanceMatrix;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.CyMatrixFactory;
 
 public class RunKMedoidCluster extends AbstractKClusterAlgorithm {
@@ -80,17 +81,11 @@ public class RunKMedoidCluster extends AbstractKClusterAlgorithm {
 		int iteration = 0;
 
 		// Start by calculating the pairwise distances
-		double[][] distances = new double[matrix.nRows()][matrix.nRows()];
-		for (int i = 0; i < matrix.nRows(); i++) {
-			for (int j = 0; j < matrix.nRows(); j++) {
-				distances[i][j] = metric.getMetric(matrix, matrix, i, j);
-			}
-		}
+		CondensedDistanceMatrix distances = CondensedDistanceMatrix.getDistances(matrix, metric);
 
 		int[] centers;
 		if (context.kcluster.initializeNearCenter) {
-			centers = chooseCentralElementsAsCenters(matrix.nRows(), nClusters, 
-					                                     matrix.getDistanceMatrix(metric).toArray(), clusterID);
+			centers = chooseCentralElementsAsCenters(matrix.nRows(), nClusters, distances, clusterID);
 		} else {
 			chooseRandomElementsAsCenters(matrix.nRows(), nClusters, clusterID);
 			centers = calculateCenters(nClusters, matrix, metric, clusterID);
@@ -115,8 +110,8 @@ public class RunKMedoidCluster extends AbstractKClusterAlgorithm {
 	}
 
 
-	private void assignPointsToClosestCenter(int[] centers, double[][] distances, int[] clusterId) {
-		for (int row = 0; row < distances.length; row++) {
+	private void assignPointsToClosestCenter(int[] centers, CondensedDistanceMatrix distances, int[] clusterId) {
+		for (int row = 0; row < distances.size(); row++) {
 			double minDistance = Double.MAX_VALUE;
 			for (int cluster = 0; cluster < centers.length; cluster++) {
 				// We could have clusters that are also 0 distance from
@@ -126,7 +121,7 @@ public class RunKMedoidCluster extends AbstractKClusterAlgorithm {
 					clusterId[row] = cluster;
 					break;
 				}
-				double distance = distances[row][centers[cluster]];
+				double distance = distances.get(row, centers[cluster]);
 				if (distance < minDistance) {
 					clusterId[row] = cluster;
 					minDistance = distance;
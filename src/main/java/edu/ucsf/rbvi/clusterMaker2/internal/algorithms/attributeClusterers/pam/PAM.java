@@ -1,7 +1,7 @@
 package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.pam;
 
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.stream.IntStream;
 
 import org.cytoscape.model.CyNetwork;
 
@@ -11,6 +11,7 @@ import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
 
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.Clusters;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.hopach.types.KClusterable;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.CondensedDistanceMatrix;
 
 
 
@@ -27,6 +28,9 @@ import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.hopac
  *      whose original Fortran code was translated and augmented as part of the cluster R package.
  *      The cluster results from current implementation can differ from the implementation 
  *      in R's cluster::pam. (See PAMTest for details.)
+ *      The SWAP phase evaluates the swaps of a non-medoid with all of the medoids in one
+ *      pass over the elements, as in FastPAM1 (Schubert and Rousseeuw, 2019), and can
+ *      optionally swap eagerly, as in their FasterPAM.
  * @author djh.shih
  * @comment
  *
@@ -59,15 +63,17 @@ public class PAM implements KClusterable {
 	// next-nearest medoid of each element 
 	int[] nextNearestMedoids;
 	
-	// set of medoids
-	HashSet<Integer> medoids;
+	// medoids, and the position of each element in medoids (-1 for non-medoids)
+	int[] medoids;
+	int nMedoids;
+	int[] medoidSlots;
 	
-	// set of non-meoids (maintain for finding swap candidates)
-	HashSet<Integer> nonmedoids;
+	// distances between the indexed elements, packed into a triangle
+	CondensedDistanceMatrix packedDistances;
 	
-	// set of all indexed elements
-	// required since Java's HashSet cannot use native types
-	Integer[] elements;
+	// swap as soon as a swap improves the cost (FasterPAM), rather than after
+	// finding the best swap
+	boolean eagerSwaps = false;
 	
 	int maxSwaps = 1000;
 	private CyNetwork network;
@@ -106,6 +112,16 @@ public class PAM implements KClusterable {
 		this.clusters = null;
 	}
 
+	/**
+	 * Swap a medoid as soon as a swap that lowers the cost is found (FasterPAM),
+	 * rather than looking for the best swap each time.  This needs far fewer
+	 * passes over the elements, but can give a different result.
+	 * @param eagerSwaps true to swap eagerly
+	 */
+	public void setEagerSwaps(boolean eagerSwaps) {
+		this.eagerSwaps = eagerSwaps;
+	}
+
 	//@Override
 	public Clusters cluster(int k) {
 		int n = size();
@@ -125,6 +141,7 @@ public class PAM implements KClusterable {
 		buildPhase();
 		swapPhase();
 		clusters = new Clusters(nearestMedoids, getCost());
+		packedDistances = null;
 		
 		return clusters;
 	}
@@ -155,22 +172,26 @@ public class PAM implements KClusterable {
 		nearestMedoids = new int[m];
 		nextNearestMedoids = new int[m];
 		
+		// initialize distances to infinity
+		Arrays.fill(nearestDistances, Double.POSITIVE_INFINITY);
+		Arrays.fill(nextNearestDistances, Double.POSITIVE_INFINITY);
+		// initialize medoids to non-valid indices, s.t. unexpected bugs trigger indexing error
+		Arrays.fill(nearestMedoids, -1);
+		Arrays.fill(nextNearestMedoids, -1);
 		
-		elements = new Integer[m];
-		medoids = new HashSet<Integer>();
-		nonmedoids = new HashSet<Integer>();
+		// all (indexed) data elements are initially non-medoids
+		medoids = new int[nClusters];
+		nMedoids = 0;
+		medoidSlots = new int[m];
+		Arrays.fill(medoidSlots, -1);
 		
-		for (int ii = 0; ii < m; ++ii) {
-			// initialize distances to infinity
-			nearestDistances[ii] = nextNearestDistances[ii] = Double.POSITIVE_INFINITY;
-			// initialize medoids to non-valid indices, s.t. unexpected bugs trigger indexing error
-			nearestMedoids[ii] = nextNearestMedoids[ii] = -1;
-			
-			elements[ii] = new Integer(ii);
-			
-			// all (indexed) data elements are initially non-medoids
-			nonmedoids.add( elements[ii] );
-		}
+		// the distance matrix is symmetric, so only keep one triangle
+		packedDistances = new CondensedDistanceMatrix(m, false);
+		IntStream.range(0, m).parallel().forEach(ii -> {
+			for (int jj = 0; jj <= ii; ++jj) {
+				packedDistances.set(ii, jj, distances.doubleValue(ii, jj));
+			}
+		});
 	}
 	
 	/**
@@ -183,17 +204,19 @@ public class PAM implements KClusterable {
 		
 		// find element with minimum total distance to all other elements
 		double[] totalDistances = new double[m];
-		double minDistance = Double.MAX_VALUE;
-		int minIndex = -1;
-		for (int ii = 0; ii < m; ++ii) {
+		IntStream.range(0, m).parallel().forEach(ii -> {
 			// sum distances to all other elements
 			// assume distance to itself is 0
 			double d = 0;
 			for (int jj = 0; jj < m; ++jj) {
-				d += distances.doubleValue(ii, jj);
+				d += packedDistances.get(ii, jj);
 			}
 			totalDistances[ii] = d;
-			if (d < minDistance) {
+		});
+		double minDistance = Double.MAX_VALUE;
+		int minIndex = -1;
+		for (int ii = 0; ii < m; ++ii) {
+			if (totalDistances[ii] < minDistance) {
 				minDistance = totalDistances[ii];
 				minIndex = ii;
 			}
@@ -210,24 +233,25 @@ public class PAM implements KClusterable {
 		for (int kk = 1; kk < nClusters; ++kk) {
 		
 			// consider each i as medoid candidate
-			for (int ii = 0; ii < m; ++ii) {
+			IntStream.range(0, m).parallel().forEach(ii -> {
 				// if ii is already a medoid, it has negative gain to prevent it from being selected again
-				if (medoids.contains(elements[ii])) {
+				if (medoidSlots[ii] >= 0) {
 					gains[ii] = -1.0;
 				} else {
 					double gain = 0;
 					// for each non-medoid j != i, calculate the gain
 					for (int jj = 0; jj < m; ++jj) {
-						if (jj == ii || medoids.contains(elements[jj]) ) continue;
-						if (nearestDistances[jj] > distances.doubleValue(ii, jj)) {
+						if (jj == ii || medoidSlots[jj] >= 0) continue;
+						double d = packedDistances.get(ii, jj);
+						if (nearestDistances[jj] > d) {
 							// add i will improve j's nearest distances
 							// (if selected, i will be the new nearest neighbour of j)
-							gain += nearestDistances[jj] - distances.doubleValue(ii, jj);
+							gain += nearestDistances[jj] - d;
 						}
 					}
 					gains[ii] = gain;
 				}
-			}
+			});
 			// select candidate with maximum gain
 			double maxGain = Double.NEGATIVE_INFINITY;
 			int maxIndex = -1;
@@ -243,7 +267,7 @@ public class PAM implements KClusterable {
 		}
 		
 		// check that the number of medoids match the expected
-		if (nClusters != medoids.size()) {
+		if (nClusters != nMedoids) {
 			throw new RuntimeException("Expected error in BUILD phase: Number of medoids does not match parameter k.");
 		}
 		
@@ -253,86 +277,143 @@ public class PAM implements KClusterable {
 	 * SWAP phase. Attempt to improve clustering quality by exchanging medoids with non-medoids.
 	 */
 	private void swapPhase() {
+		// the BUILD phase already picks the best single medoid
+		if (nMedoids < 2) return;
+		
+		if (eagerSwaps)
+			eagerSwapPhase();
+		else
+			bestSwapPhase();
+	}
+	
+	/*
+	 * Make the swap that lowers the cost the most, until none does
+	 */
+	private void bestSwapPhase() {
+		int m = size();
+		double[] losses = new double[nMedoids];
+		double[] bestChanges = new double[m];
+		int[] bestSlots = new int[m];
 		while (true) {
-			double bestChange = 0;
-			int bestii = -1, besthh = -1;
+			removalLosses(losses);
 			
-			Iterator<Integer> medIt = medoids.iterator();
-			while (medIt.hasNext()) {
-				int ii = medIt.next().intValue();
-				
-				Iterator<Integer> nonmedIt = nonmedoids.iterator();
-				while (nonmedIt.hasNext()) {
-					int hh = nonmedIt.next().intValue();
-
-					// Consider swapping medoid i and nonmedoid h
-					// by calculating gains by all other elements
-					
-					// Calculate cumulative change to distance to nearest medoid for all nonmedoids j != h
-					double change = 0;
-					Integer[] nonmedIt2 = new Integer[nonmedoids.size() + 1];
-					nonmedoids.toArray(nonmedIt2);
-					nonmedIt2[nonmedIt2.length - 1] = ii;
-					for (int jj: nonmedIt2) {
-					//	if (jj == hh) continue;
-						
-						double d = nearestDistances[jj];
-						if (distances.doubleValue(ii, jj) > d) {
-							// if removed, i will have no impact
-							if (distances.doubleValue(jj, hh) < d) {
-								// if selected, h will improve nearest distance for j
-								change += distances.doubleValue(jj, hh) - d;
-							}
-						} else {
-							// i cannot be closer than the nearest neighbour for j;
-							// therefore, distances[i][j] == d
-							// and i is currently the nearest neighbour for j
-							double e = nextNearestDistances[jj];
-							if (distances.doubleValue(jj, hh) < e) {
-								// if i and h are swapped, h will become the nearest neighbour
-								// nearest distance for j may improve or worsen
-								change += distances.doubleValue(jj, hh) - d;
-							} else {
-								// if i is removed, the current next-nearest of j will be promoted to nearest
-								change += e - d;
-							}
-						}
-					}
-					if (change < bestChange) {
-						bestChange = change;
-						bestii = ii;
-						besthh = hh;
-					}
-					
+			// consider swapping each nonmedoid h with every medoid
+			IntStream.range(0, m).parallel().forEach(hh -> {
+				if (medoidSlots[hh] >= 0) {
+					bestChanges[hh] = 0;
+					return;
+				}
+				double[] changes = new double[nMedoids];
+				double change = swapChanges(hh, losses, changes);
+				int slot = bestSlot(changes);
+				bestChanges[hh] = change + changes[slot];
+				bestSlots[hh] = slot;
+			});
+			
+			double bestChange = 0;
+			int besthh = -1;
+			for (int hh = 0; hh < m; ++hh) {
+				if (bestChanges[hh] < bestChange) {
+					bestChange = bestChanges[hh];
+					besthh = hh;
 				}
-				
 			}
 			if (bestChange >= 0) break;// changed from bestChange == 0
 			else {
 			//	System.out.println("bestChange: " + bestChange);
-				swap(besthh,bestii);
+				swap(besthh, medoids[bestSlots[besthh]]);
+			}
+		}
+	}
+	
+	/*
+	 * Go round the nonmedoids, and make the best swap for each nonmedoid
+	 * if it lowers the cost, until a whole round makes no swaps
+	 */
+	private void eagerSwapPhase() {
+		int m = size();
+		double[] losses = new double[nMedoids];
+		double[] changes = new double[nMedoids];
+		removalLosses(losses);
+		int hh = 0;
+		for (int tried = 0; tried < m; ++tried) {
+			if (medoidSlots[hh] < 0) {
+				double change = swapChanges(hh, losses, changes);
+				int slot = bestSlot(changes);
+				if (change + changes[slot] < 0) {
+					swap(hh, medoids[slot]);
+					removalLosses(losses);
+					tried = 0;
+				}
+			}
+			hh = (hh + 1) % m;
+		}
+	}
+	
+	/*
+	 * The change in cost from removing each medoid, if its elements
+	 * went to their next-nearest medoids
+	 */
+	private void removalLosses(double[] losses) {
+		Arrays.fill(losses, 0);
+		for (int jj = 0; jj < size(); ++jj) {
+			losses[medoidSlots[nearestMedoids[jj]]] += nextNearestDistances[jj] - nearestDistances[jj];
+		}
+	}
+	
+	/*
+	 * Calculate the change in cost from swapping nonmedoid h with each of the medoids
+	 * in one pass over the elements.  On return, changes[i] is the part of the change
+	 * for swapping with medoids[i] that depends on i, and the part that doesn't
+	 * depend on i is returned.
+	 */
+	private double swapChanges(int hh, double[] losses, double[] changes) {
+		int m = size();
+		System.arraycopy(losses, 0, changes, 0, nMedoids);
+		double change = 0;
+		for (int jj = 0; jj < m; ++jj) {
+			double dh = packedDistances.get(hh, jj);
+			double d = nearestDistances[jj];
+			double e = nextNearestDistances[jj];
+			if (dh < d) {
+				// h will become the nearest neighbour for j,
+				// whichever medoid is removed
+				change += dh - d;
+				changes[medoidSlots[nearestMedoids[jj]]] += d - e;
+			} else if (dh < e) {
+				// if the nearest neighbour of j is removed, h will replace it
+				// rather than the next-nearest
+				changes[medoidSlots[nearestMedoids[jj]]] += dh - e;
 			}
 		}
+		return change;
+	}
+	
+	private int bestSlot(double[] changes) {
+		int slot = 0;
+		for (int ii = 1; ii < nMedoids; ++ii) {
+			if (changes[ii] < changes[slot]) slot = ii;
+		}
+		return slot;
 	}
 	
 	private void addMedoid(int add) {
-		medoids.add( elements[add] );
-		nonmedoids.remove( elements[add] );
+		medoids[nMedoids] = add;
+		medoidSlots[add] = nMedoids++;
 		updateNearest(add, -1);
 	}
 	
 	private void swap(int add, int remove) {
-		medoids.add( elements[add] );
-		nonmedoids.remove( elements[add] );
-		medoids.remove( elements[remove] );
-		nonmedoids.add( elements[remove] );
+		int slot = medoidSlots[remove];
+		medoids[slot] = add;
+		medoidSlots[add] = slot;
+		medoidSlots[remove] = -1;
 		updateNearest(add, remove);
 	}
 	
 	/**
 	 * Update nearest and next-nearest distances.
 	 * Does not check whether {@code added} or {@ removed} have been added to or removed from the medoid set.
-	 * FIXME  optimize
 	 * @param added Index of element added to medoid set (-1 for none)
 	 * @param removed Index of element removed from medoid set (-1 for none)
 	 */
@@ -363,7 +444,7 @@ public class PAM implements KClusterable {
 			
 			// check if any nearest distance improves
 			for (int ii = 0; ii < m; ++ii) {
-				double d = distances.doubleValue(ii, added);
+				double d = packedDistances.get(ii, added);
 				if (d < nearestDistances[ii]) {
 					// element i is nearer to added medoid than previous nearest: update
 					double oldDistance = nearestDistances[ii];
@@ -381,11 +462,6 @@ public class PAM implements KClusterable {
 			}
 			
 		}
-		Integer [] a = new Integer[medoids.size()];
-	/*	System.out.print("medoids: ");
-		for (int i: medoids.toArray(a))
-			System.out.print(i + " ");
-		System.out.print("\n"); */
 	}
 	
 	/**
@@ -394,18 +470,19 @@ public class PAM implements KClusterable {
 	 * @param ii element index to be updated
 	 */
 	private void updateNextNearest(int ii) {
+		int m = size();
 		int nearestMedoid = nearestMedoids[ii];
 		
 		// find the next-nearest
-		Iterator<Integer> it = medoids.iterator();
 		double minDistance = Double.POSITIVE_INFINITY;
 		int nextNearestMedoid = -1;
-		while (it.hasNext()) {
-			int jj = it.next().intValue();
+		for (int slot = 0; slot < nMedoids; ++slot) {
+			int jj = medoids[slot];
 			// ignore if j is the nearestMedoid, since we are interested in the next-nearest
 			if (jj == nearestMedoid) continue;
-			if (distances.doubleValue(ii, jj) < minDistance) {
-				minDistance = distances.doubleValue(ii, jj);
+			double d = packedDistances.get(ii, jj);
+			if (d < minDistance) {
+				minDistance = d;
 				nextNearestMedoid = jj;
 			}
 		}
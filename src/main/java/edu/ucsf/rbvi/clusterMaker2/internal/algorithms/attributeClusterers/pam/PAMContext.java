@@ -54,6 +54,14 @@ public class PAMContext {
 	         groups={"PAM Parameters"}, gravity=101)
 	public boolean clusterAttributes = false;
 
+	@Tunable(description="Swap medoids eagerly (FasterPAM)",
+	         longDescription = "If this is set to true, a medoid is swapped as soon as a swap that improves the clusters is found, "+
+	                           "rather than after finding the best swap.  This is much faster for large data sets, but "+
+	                           "the clusters can be slightly different.",
+	         exampleStringValue = "false",
+	         groups={"PAM Parameters"}, gravity=102)
+	public boolean eagerSwaps = false;
+
 	@Tunable(description="Create groups from clusters", 
 	         longDescription = "If this is set to true, Cytoscape groups will be created out of each cluster.",
 	         exampleStringValue = "false",
@@ -98,6 +106,7 @@ public class PAMContext {
 		params.add("edgeAttribute="+attributeList.getEdgeAttribute());
 		params.add("selectedOnly="+selectedOnly);
 		params.add("clusterAttributes="+clusterAttributes);
+		params.add("eagerSwaps="+eagerSwaps);
 		params.add("createGroups="+createGroups);
 		return params;
 	}
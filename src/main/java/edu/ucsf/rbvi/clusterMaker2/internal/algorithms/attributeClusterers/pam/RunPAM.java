@@ -26,6 +26,7 @@ public class RunPAM extends AbstractKClusterAlgorithm {
 	public int kcluster(int nClusters, int nIterations, CyMatrix matrix, DistanceMetric metric, int[] clusterId) {
 
 		PAM pam = new PAM(network, matrix, metric);
+		pam.setEagerSwaps(context.eagerSwaps);
 		Clusters c = pam.cluster(nClusters);
 
 		// copy results into clusterId
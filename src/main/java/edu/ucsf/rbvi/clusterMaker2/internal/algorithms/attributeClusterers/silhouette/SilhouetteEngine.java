@@ -0,0 +1,140 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.silhouette;
+
+import java.util.stream.IntStream;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMetric;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.Clusters;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.CondensedDistanceMatrix;
+
+/**
+ * Calculates the silhouettes of many clusterings of the same data, as when
+ * estimating k.  The distances between the rows are calculated once, the
+ * first time they are needed, and the distance sums of each row to each
+ * cluster are calculated in a parallel pass over the rows.  This is safe to
+ * use from multiple threads.
+ * <p>
+ * For very large data, the simplified silhouette uses the distance of each row
+ * to the centroids of the clusters instead of the average distance to their
+ * members (Hruschka et al., 2004), which takes O(nk) rather than O(n^2) time and
+ * doesn't need the distances between the rows.  It isn't available when the
+ * values are the correlations or distances themselves, so those use the full
+ * silhouette.
+ */
+public class SilhouetteEngine {
+	private final Matrix data;
+	private final DistanceMetric metric;
+	private final boolean simplified;
+	private CondensedDistanceMatrix distances = null;
+
+	/**
+	 * @param data the data matrix
+	 * @param metric the distance metric to use
+	 * @param simplified if true, calculate the simplified silhouette
+	 */
+	public SilhouetteEngine(Matrix data, DistanceMetric metric, boolean simplified) {
+		this.data = data;
+		this.metric = metric;
+		this.simplified = simplified && metric != DistanceMetric.VALUE_IS_CORRELATION &&
+		                  metric != DistanceMetric.VALUE_IS_DISTANCE;
+	}
+
+	/**
+	 * Calculate the silhouettes of a clustering
+	 *
+	 * @param labels the cluster of each row
+	 * @return the silhouettes, in the same form as SilhouetteCalculator.calculate
+	 */
+	public Silhouettes calculate(int[] labels) {
+		Clusters clusters = new Clusters(labels);
+		int n = clusters.size();
+		int k = clusters.getNumberOfClusters();
+		int[] sizes = clusters.getSizes();
+		int[] index = new int[n];
+		for (int i = 0; i < n; i++)
+			index[i] = clusters.getClusterIndex(i);
+
+		double[] values = new double[n];
+		int[] neighbors = new int[n];
+		if (simplified) {
+			Matrix centroids = getCentroids(index, k);
+			IntStream.range(0, n).parallel().forEach(i -> {
+				double[] d = new double[k];
+				for (int c = 0; c < k; c++)
+					d[c] = metric.getMetric(data, centroids, i, c);
+				silhouette(i, d, index, sizes, values, neighbors);
+			});
+		} else {
+			CondensedDistanceMatrix dist = getDistances();
+			IntStream.range(0, n).parallel().forEach(i -> {
+				double[] d = new double[k];
+				for (int j = 0; j < n; j++) {
+					if (i == j) continue;
+					double value = dist.get(i, j);
+					if (!Double.isNaN(value))
+						d[index[j]] += value;
+				}
+				// When calculating average distance to all elements in own cluster,
+				// do not consider distance to itself
+				for (int c = 0; c < k; c++)
+					d[c] = c == index[i] ? d[c]/(sizes[c]-1) : d[c]/sizes[c];
+				silhouette(i, d, index, sizes, values, neighbors);
+			});
+		}
+
+		Silhouettes result = new Silhouettes();
+		for (int i = 0; i < n; i++)
+			result.addSilhouette(values[i], neighbors[i]);
+		return result;
+	}
+
+	private synchronized CondensedDistanceMatrix getDistances() {
+		if (distances == null)
+			distances = CondensedDistanceMatrix.getDistances(data, metric);
+		return distances;
+	}
+
+	// The silhouette of row i, given its average distance to each cluster
+	private static void silhouette(int i, double[] d, int[] index, int[] sizes,
+	                               double[] values, int[] neighbors) {
+		int c = index[i];
+		double b = Double.POSITIVE_INFINITY;
+		int nearest = -1;
+		for (int j = 0; j < d.length; j++) {
+			if (j != c && d[j] < b) {
+				b = d[j];
+				nearest = j;
+			}
+		}
+		neighbors[i] = nearest;
+		if (sizes[c] == 1 || nearest < 0) {
+			// element is in singleton cluster, or there's no other cluster:
+			// set silhouette to 0, by definition
+			values[i] = 0;
+			return;
+		}
+		double a = d[c];
+		double max = Math.max(a, b);
+		values[i] = max > 0 ? (b-a)/max : 0;
+	}
+
+	// The mean of each column in each cluster, ignoring missing values
+	private Matrix getCentroids(int[] index, int k) {
+		int nColumns = data.nColumns();
+		double[][] sums = new double[k][nColumns];
+		int[][] counts = new int[k][nColumns];
+		for (int row = 0; row < index.length; row++) {
+			for (int column = 0; column < nColumns; column++) {
+				if (data.hasValue(row, column)) {
+					sums[index[row]][column] += data.doubleValue(row, column);
+					counts[index[row]][column]++;
+				}
+			}
+		}
+		for (int c = 0; c < k; c++) {
+			for (int column = 0; column < nColumns; column++)
+				sums[c][column] = counts[c][column] > 0 ? sums[c][column]/counts[c][column] : Double.NaN;
+		}
+		return data.like(k, nColumns, sums);
+	}
+}
@@ -10,8 +10,10 @@ import org.cytoscape.model.CyNetwork;
 import org.cytoscape.view.model.CyNetworkView;
 import org.cytoscape.work.TaskMonitor;
 
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.DistanceEngine;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.ClusterManager;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.CyMatrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMetric;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
 
 import edu.ucsf.rbvi.clusterMaker2.internal.ui.ScatterPlotDialog;
@@ -19,6 +21,7 @@ import edu.ucsf.rbvi.clusterMaker2.internal.ui.ScatterPlotDialog;
 import com.jujutsu.tsne.FastTSne;
 import com.jujutsu.tsne.TSne;
 import com.jujutsu.tsne.barneshut.BHTSne;
+import com.jujutsu.tsne.barneshut.FitSNE;
 
 public class RuntSNE {
 
@@ -48,7 +51,11 @@ public class RuntSNE {
 		TSne tsne;
 
 		// System.out.println("Is Symmetrical "+matrix.isSymmetrical());
-		if (context.useBarnesHut) {
+		if (context.useFFT) {
+			monitor.setTitle("Running t-Distributed Stochastic Neighbor (tSNE) using FFT-accelerated interpolation");
+			tsne = new FitSNE();
+
+		} else if (context.useBarnesHut) {
 			monitor.setTitle("Running t-Distributed Stochastic Neighbor (tSNE) using Barnes-Hut approximation");
 			tsne = new BHTSne();
 
@@ -57,6 +64,16 @@ public class RuntSNE {
 			tsne = new FastTSne();
 		}
 
+		if (context.approximateNeighbors && tsne instanceof BHTSne) {
+			DistanceMetric metric = context.metric.getSelectedValue();
+			if (metric == DistanceMetric.EUCLIDEAN) {
+				((BHTSne)tsne).setApproximateNeighbors(true, null);
+			} else {
+				DistanceEngine engine = new DistanceEngine(matrix, metric).prepare();
+				((BHTSne)tsne).setApproximateNeighbors(true, engine::getDistance);
+			}
+		}
+
 		double[][] result = tsne.tsne(context, monitor);
 		if (result == null && context.cancelled) {
 			monitor.setStatusMessage("Cancelled by user");
@@ -7,6 +7,7 @@ import org.cytoscape.work.util.BoundedDouble;
 import org.cytoscape.work.util.ListSingleSelection;
 
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.AttributeList;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMetric;
 
 import com.jujutsu.tsne.barneshut.TSneConfiguration;
 
@@ -79,6 +80,39 @@ public class tSNEContext implements TSneConfiguration {
 	         dependsOn="useBarnesHut=true", groups={"t-SNE Parameters"}, gravity=70)
 	public BoundedDouble theta=new BoundedDouble(0.0, 0.9, 2.0, false, false);
 
+	@Tunable(description="Use FFT-accelerated interpolation (FIt-SNE)", 
+	         longDescription="Calculate the repulsive forces by interpolation on a grid, with the interactions "+
+	                         "between the grid points done by FFT convolution (FIt-SNE).  This is much faster than "+
+	                         "Barnes-Hut for large data sets (more than about 100,000 nodes).  If this is "+
+	                         "```true```, the Barnes-Hut settings are ignored",
+	         exampleStringValue="false",
+	         groups={"t-SNE Parameters"}, gravity=71)
+	public boolean useFFT=false;
+
+	@Tunable(description="Use approximate nearest neighbors", 
+	         longDescription="Find the nearest neighbors of each node with NN-descent rather than an exact "+
+	                         "search.  This is much faster for large data sets with many attributes, and "+
+	                         "works with any of the distance metrics, but may miss a few neighbors.  This is "+
+	                         "only used with the Barnes-Hut or FFT-accelerated interpolation",
+	         exampleStringValue="false",
+	         groups={"t-SNE Parameters"}, gravity=72)
+	public boolean approximateNeighbors=false;
+
+	@Tunable(description="Distance metric for the neighbors", 
+	         longDescription="The metric to use to find the nearest neighbors.  With the Euclidean distance, "+
+	                         "the neighbors are found after the initial dimensionality reduction, with "+
+	                         "the other metrics they are found in the original attributes.",
+	         exampleStringValue="Euclidean distance",
+	         dependsOn="approximateNeighbors=true", groups={"t-SNE Parameters"}, gravity=73)
+	public ListSingleSelection<DistanceMetric> metric = 
+		new ListSingleSelection<DistanceMetric>(DistanceMetric.EUCLIDEAN, DistanceMetric.EUCLIDEANSQ,
+		                                        DistanceMetric.CITYBLOCK, DistanceMetric.CHEBYSHEV,
+		                                        DistanceMetric.MINKOWSKI, DistanceMetric.CANBERRA,
+		                                        DistanceMetric.BRAYCURTIS, DistanceMetric.CORRELATION,
+		                                        DistanceMetric.ABS_CORRELATION, DistanceMetric.UNCENTERED_CORRELATION,
+		                                        DistanceMetric.ABS_UNCENTERED_CORRELATION,
+		                                        DistanceMetric.SPEARMANS_RANK, DistanceMetric.KENDALLS_TAU);
+
 	@Tunable(description="Show scatter plot with results",
 	         longDescription="If this is set to ```true```, show the tSNE scatterplot after the calculation is complete",
 	         exampleStringValue="true",
@@ -0,0 +1,116 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.dimensionalityReduction.umap;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.swing.SwingUtilities;
+
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+import org.cytoscape.work.TaskMonitor;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.api.ClusterManager;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.CyMatrix;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.ui.ScatterPlotDialog;
+import edu.ucsf.rbvi.clusterMaker2.internal.utils.ModelUtils;
+
+public class RunUMAP {
+
+	protected CyNetwork network;
+	protected UMAPContext context;
+	protected TaskMonitor monitor;
+	protected CyMatrix matrix;
+
+	private final ClusterManager manager;
+
+	private UMAPEmbedding umap = null;
+	private volatile boolean cancelled = false;
+	private CyNode[] nodes;
+	private double[][] coordinates;
+
+	public RunUMAP(final ClusterManager manager, final CyNetwork network, UMAPContext context,
+	               TaskMonitor monitor, CyMatrix matrix) {
+		this.network = network;
+		this.manager = manager;
+		this.context = context;
+		this.monitor = monitor;
+		this.matrix = matrix;
+	}
+
+	public void run() {
+		monitor.setTitle("Running Uniform Manifold Approximation and Projection (UMAP)");
+
+		double[][] data = matrix.toArray();
+		int nRows = data.length;
+		int nColumns = nRows > 0 ? data[0].length : 0;
+
+		// Missing values are 0, as they are for the remote UMAP
+		for (double[] row: data) {
+			for (int column = 0; column < nColumns; column++) {
+				if (Double.isNaN(row[column])) row[column] = 0.0;
+			}
+		}
+
+		// Scale each column to a mean of 0 and a standard deviation of 1
+		if (context.scale) {
+			for (int column = 0; column < nColumns; column++) {
+				double mean = 0.0;
+				for (double[] row: data) mean += row[column];
+				mean /= nRows;
+				double variance = 0.0;
+				for (double[] row: data) variance += (row[column]-mean)*(row[column]-mean);
+				double sd = Math.sqrt(variance/nRows);
+				for (double[] row: data) {
+					row[column] = sd > 0 ? (row[column]-mean)/sd : 0.0;
+				}
+			}
+		}
+
+		String metric = context.metric.getSelectedValue();
+		if (!Arrays.asList(UMAPEmbedding.METRICS).contains(metric)) {
+			monitor.showMessage(TaskMonitor.Level.WARN, "The "+metric+" metric is only available for the remote UMAP, "+
+			                    "using euclidean instead");
+			metric = "euclidean";
+		}
+
+		synchronized (this) {
+			if (cancelled) return;
+			umap = new UMAPEmbedding(data, context.n_neighbors, context.min_dist, metric,
+			                         context.n_epochs, 2, 42L);
+			umap.setApproximateNeighbors(context.approximateNeighbors);
+		}
+		float[] embedding = umap.run(monitor);
+		if (embedding == null) {
+			monitor.setStatusMessage("Cancelled by user");
+			return;
+		}
+
+		List<CyNode> rowNodes = matrix.getRowNodes();
+		nodes = rowNodes.toArray(new CyNode[0]);
+		coordinates = new double[nRows][2];
+		for (int row = 0; row < nRows; row++) {
+			coordinates[row][0] = embedding[row*2];
+			coordinates[row][1] = embedding[row*2+1];
+		}
+
+		// Save the embedding in the same columns as the remote UMAP
+		for (int row = 0; row < nRows; row++) {
+			ModelUtils.createAndSet(network, nodes[row], "newmap_x", coordinates[row][0], Double.class, null);
+			ModelUtils.createAndSet(network, nodes[row], "newmap_y", coordinates[row][1], Double.class, null);
+		}
+
+		if (context.showScatterPlot) {
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					ScatterPlotDialog dialog = new ScatterPlotDialog(manager, "UMAP", monitor, nodes, coordinates);
+				}
+			});
+		}
+	}
+
+	public synchronized void cancel() {
+		cancelled = true;
+		if (umap != null) umap.cancel();
+	}
+}
@@ -21,8 +21,10 @@ import org.cytoscape.service.util.CyServiceRegistrar;
 import org.cytoscape.work.ContainsTunables;
 import org.cytoscape.work.TaskMonitor;
 
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.CyMatrixFactory;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.AbstractNetworkClusterer;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.ClusterManager;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.CyMatrix;
 import edu.ucsf.rbvi.clusterMaker2.internal.ui.NewNetworkView;
 import edu.ucsf.rbvi.clusterMaker2.internal.utils.remoteUtils.ClusterJob;
 import edu.ucsf.rbvi.clusterMaker2.internal.utils.remoteUtils.ClusterJobHandler;
@@ -36,6 +38,8 @@ public class UMAP extends AbstractNetworkClusterer {
 	
 	@ContainsTunables
 	public UMAPContext context = null;
+
+	private RunUMAP runumap = null;
 	
 	public UMAP(UMAPContext context, ClusterManager manager, CyServiceRegistrar registrar) {
 		super(manager);
@@ -54,6 +58,11 @@ public class UMAP extends AbstractNetworkClusterer {
 	
 	@Override
 	public void run(TaskMonitor taskMonitor) throws Exception {
+		if (!context.useRemote) {
+			runLocal(taskMonitor);
+			return;
+		}
+
 		// Get the execution service
 		CyJobExecutionService executionService = registrar.getService(CyJobExecutionService.class, "(title=ClusterJobExecutor)");
 		CyApplicationManager appManager = registrar.getService(CyApplicationManager.class);
@@ -132,4 +141,42 @@ public class UMAP extends AbstractNetworkClusterer {
 		SUIDUtil.saveSUIDs(job, currentNetwork, currentNetwork.getNodeList());
 
 	}
+
+	/*
+	 * Calculate the embedding in Cytoscape, rather than with the remote service
+	 */
+	private void runLocal(TaskMonitor taskMonitor) {
+		this.monitor = taskMonitor;
+		if (network == null)
+			network = clusterManager.getNetwork();
+		context.setNetwork(network);
+
+		List<String> attributes = context.getnodeAttributeList().getSelectedValues();
+		if (attributes == null || attributes.isEmpty()) {
+			monitor.showMessage(TaskMonitor.Level.ERROR, "Error: no attribute list selected");
+			return;
+		}
+
+		String[] attrArray = new String[attributes.size()];
+		int att = 0;
+		for (String attribute: attributes) {
+			attrArray[att++] = "node."+attribute;
+		}
+
+		CyMatrix matrix = CyMatrixFactory.makeLargeMatrix(network, attrArray, false, false, false, false);
+		if (matrix == null) {
+			monitor.showMessage(TaskMonitor.Level.ERROR,"Can't get distance matrix: no attribute value?");
+			return;
+		}
+
+		runumap = new RunUMAP(clusterManager, network, context, monitor, matrix);
+		runumap.run();
+	}
+
+	@Override
+	public void cancel() {
+		super.cancel();
+		if (runumap != null)
+			runumap.cancel();
+	}
 }
@@ -71,6 +71,39 @@ public class UMAPContext {
 			exampleStringValue = "True",
 			groups = {"UMAP Advanced Settings"}, gravity = 4.0)
     public Boolean scale = true;
+
+	@Tunable(description = "Number of epochs",
+			longDescription = "The number of training epochs used to optimize the embedding.  Larger values "
+			+ "give more accurate embeddings.  If 0, 500 epochs are used for up to 10,000 nodes and 200 "
+			+ "epochs for larger networks.",
+			exampleStringValue = "0",
+			groups = {"UMAP Advanced Settings"}, gravity = 5.0)
+	public int n_epochs = 0;
+
+	@Tunable(description = "Use approximate nearest neighbors",
+			longDescription = "Find the nearest neighbors of each node with NN-descent rather than an exact "
+			+ "search, as umap-learn does.  This is much faster for large data sets with many attributes, "
+			+ "but may miss a few neighbors.  Data sets with fewer than 4096 nodes always use the exact "
+			+ "neighbors.",
+			exampleStringValue = "true",
+			groups = {"UMAP Advanced Settings"}, gravity = 5.5)
+	public boolean approximateNeighbors = true;
+
+	@Tunable(description = "Use remote UMAP",
+			longDescription = "If ```true```, send the data to the remote UMAP service (umap-learn) rather "
+			+ "than calculating the embedding in Cytoscape.  Only the remote UMAP supports all of the metrics; "
+			+ "in Cytoscape the euclidean, manhattan, chebyshev, canberra, cosine and correlation metrics "
+			+ "are supported.",
+			exampleStringValue = "false",
+			groups = {"UMAP Advanced Settings"}, gravity = 6.0)
+	public boolean useRemote = false;
+
+	@Tunable(description="Show scatter plot with results",
+	         longDescription="If this is set to ```true```, show the UMAP scatterplot after the calculation is complete",
+	         exampleStringValue="true",
+	         dependsOn="useRemote=false",
+	         groups={"Result Options"}, gravity=69.0)
+	public boolean showScatterPlot = true;
 	
 	//@ContainsTunables
 	//public AdvancedProperties advancedAttributes;
@@ -94,6 +127,10 @@ public class UMAPContext {
 		min_dist = origin.min_dist;
 		metric = origin.metric;
 		scale = origin.scale;
+		n_epochs = origin.n_epochs;
+		approximateNeighbors = origin.approximateNeighbors;
+		useRemote = origin.useRemote;
+		showScatterPlot = origin.showScatterPlot;
 	}
 
 	public void setNetwork(CyNetwork network) {
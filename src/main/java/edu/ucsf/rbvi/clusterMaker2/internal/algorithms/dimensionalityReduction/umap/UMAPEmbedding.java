@@ -0,0 +1,812 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.dimensionalityReduction.umap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.function.IntBinaryOperator;
+import java.util.stream.IntStream;
+
+import org.cytoscape.work.TaskMonitor;
+
+import com.jujutsu.tsne.barneshut.DataPoint;
+import com.jujutsu.tsne.barneshut.NNDescent;
+import com.jujutsu.tsne.barneshut.VpTree;
+
+/**
+ * An in-process implementation of UMAP (McInnes, Healy and Melville, 2018),
+ * following the reference implementation in umap-learn:
+ * <ol>
+ * <li>the k nearest neighbors of every point are found with NN-descent or,
+ * for small data or if asked for, exactly with a vantage point tree, searched
+ * in parallel,</li>
+ * <li>the fuzzy simplicial set is built from the neighbors: each point gets
+ * a local distance scale (rho and sigma), and the directed memberships are
+ * combined with the fuzzy union w + w' - w w',</li>
+ * <li>the embedding, kept in a flat float[] (point i, dimension d is at
+ * i*dims+d), is initialised with a spectral layout of each connected
+ * component of the graph and then optimised with stochastic gradient descent
+ * with negative sampling.  The edges are split into chunks that are updated
+ * in parallel without locking, as umap-learn does.</li>
+ * </ol>
+ */
+public class UMAPEmbedding {
+	public static final String[] METRICS = {"euclidean", "manhattan", "chebyshev", "canberra",
+	                                        "cosine", "correlation"};
+
+	private static final int SMOOTH_ITERATIONS = 64;
+	private static final double SMOOTH_TOLERANCE = 1e-5;
+	private static final double MIN_K_DIST_SCALE = 1e-3;
+	private static final int NEGATIVE_SAMPLE_RATE = 5;
+	private static final double INITIAL_ALPHA = 1.0;
+	private static final double GAMMA = 1.0;
+	private static final float CLIP = 4.0f;
+	private static final int EDGES_PER_CHUNK = 4096;
+	private static final int MAX_SPECTRAL_ITERATIONS = 1000;
+	private static final double SPECTRAL_TOLERANCE = 1e-4;
+	// Below this, the neighbors are always exact, as in umap-learn
+	private static final int SMALL_DATA = 4096;
+
+	private final double[][] data;
+	private final int n;
+	private final int nNeighbors;
+	private final double minDist;
+	private final double spread = 1.0;
+	private final String metric;
+	private final int dims;
+	private final long seed;
+	private int nEpochs;
+	private boolean approximateNeighbors = true;
+	private volatile boolean cancelled = false;
+
+	// The curve 1/(1+a*d^(2b)) that approximates the membership in the embedding
+	private double a;
+	private double b;
+
+	// The fuzzy graph, with both directions of every edge
+	private int[] heads;
+	private int[] tails;
+	private double[] epochsPerSample;
+
+	/**
+	 * @param data the points, one per row, with no missing values
+	 * @param nNeighbors the size of the local neighborhood, including the point itself
+	 * @param minDist the minimum distance between points in the embedding
+	 * @param metric one of METRICS
+	 * @param nEpochs the number of optimization epochs, or 0 to choose by the size of the data
+	 * @param dims the dimensions of the embedding
+	 * @param seed the seed for the initialisation and the negative sampling
+	 */
+	public UMAPEmbedding(double[][] data, int nNeighbors, double minDist, String metric,
+	                     int nEpochs, int dims, long seed) {
+		this.data = data;
+		this.n = data.length;
+		this.nNeighbors = Math.max(2, Math.min(nNeighbors, n));
+		this.minDist = minDist;
+		this.metric = metric;
+		this.nEpochs = nEpochs > 0 ? nEpochs : (n <= 10000 ? 500 : 200);
+		this.dims = dims;
+		this.seed = seed;
+	}
+
+	public void cancel() { cancelled = true; }
+
+	/**
+	 * Find the nearest neighbors with NN-descent rather than a vantage point
+	 * tree, which is much faster for large, high dimensional data but may
+	 * miss a few of the neighbors.  Data with fewer than 4096 points always
+	 * uses the exact neighbors.
+	 *
+	 * @param approximate whether to use NN-descent
+	 */
+	public void setApproximateNeighbors(boolean approximate) {
+		this.approximateNeighbors = approximate;
+	}
+
+	/**
+	 * Calculate the embedding.
+	 *
+	 * @return the embedding (point i, dimension d is at i*dims+d), or null if
+	 * the calculation was cancelled
+	 */
+	public float[] run(TaskMonitor monitor) {
+		if (n < 2) {
+			return new float[n*dims];
+		}
+
+		monitor.setStatusMessage("Finding the "+(nNeighbors-1)+" nearest neighbors of "+n+" points");
+		int k = nNeighbors;
+		int[] knnIndices = new int[n*k];
+		double[] knnDistances = new double[n*k];
+		nearestNeighbors(knnIndices, knnDistances);
+		if (cancelled) return null;
+
+		monitor.setStatusMessage("Building the fuzzy simplicial set");
+		double[] memberships = smoothKnnDistances(knnIndices, knnDistances);
+		buildGraph(knnIndices, memberships);
+		if (cancelled) return null;
+
+		findABParams();
+		float[] embedding = initialEmbedding();
+
+		monitor.setStatusMessage("Optimizing the embedding ("+heads.length/2+" edges, "+nEpochs+" epochs)");
+		optimize(embedding, monitor);
+		if (cancelled) return null;
+		return embedding;
+	}
+
+	/*
+	 * The k nearest neighbors of every point, including the point itself,
+	 * which is always first
+	 */
+	private void nearestNeighbors(int[] knnIndices, double[] knnDistances) {
+		int k = nNeighbors;
+		int d = data[0].length;
+		boolean angular = metric.equals("cosine") || metric.equals("correlation");
+
+		// Cosine and correlation are found as euclidean distances between
+		// (centered and) normalised points, which have the same order
+		final double[][] points;
+		if (angular) {
+			points = new double[n][];
+			boolean center = metric.equals("correlation");
+			IntStream.range(0, n).parallel().forEach(i -> {
+				double[] p = data[i].clone();
+				if (center) {
+					double mean = 0;
+					for (double v: p) mean += v;
+					mean /= d;
+					for (int j = 0; j < d; j++) p[j] -= mean;
+				}
+				double norm = 0;
+				for (double v: p) norm += v*v;
+				norm = Math.sqrt(norm);
+				if (norm > 0)
+					for (int j = 0; j < d; j++) p[j] /= norm;
+				points[i] = p;
+			});
+		} else {
+			points = data;
+		}
+
+		NNDescent.PointDistance distance = getDistance(angular ? "euclidean" : metric, points);
+		if (approximateNeighbors && n >= SMALL_DATA) {
+			approximateNeighbors(distance, angular, knnIndices, knnDistances);
+			return;
+		}
+
+		DataPoint[] items = new DataPoint[n];
+		for (int i = 0; i < n; i++)
+			items[i] = new DataPoint(d, i, points[i]);
+		VpTree<DataPoint> tree = new VpTree<DataPoint>((p1, p2) -> distance.distance(p1.index(), p2.index()));
+		tree.create(items);
+
+		IntStream.range(0, n).parallel().forEach(i -> {
+			if (cancelled) return;
+			List<DataPoint> results = new ArrayList<DataPoint>(k);
+			List<Double> distances = new ArrayList<Double>(k);
+			tree.search(items[i], k, results, distances);
+
+			// The point itself goes first, even if it has duplicates
+			knnIndices[i*k] = i;
+			knnDistances[i*k] = 0;
+			int m = 1;
+			for (int r = 0; r < results.size() && m < k; r++) {
+				int j = results.get(r).index();
+				if (j == i) continue;
+				double dist = distances.get(r);
+				if (angular) dist = dist*dist/2;	// 1 - cos
+				knnIndices[i*k+m] = j;
+				knnDistances[i*k+m] = dist;
+				m++;
+			}
+			for (; m < k; m++) {
+				knnIndices[i*k+m] = -1;
+				knnDistances[i*k+m] = Double.POSITIVE_INFINITY;
+			}
+		});
+	}
+
+	/*
+	 * The k nearest neighbors by NN-descent, with the point itself first
+	 */
+	private void approximateNeighbors(NNDescent.PointDistance distance, boolean angular,
+	                                  int[] knnIndices, double[] knnDistances) {
+		int k = nNeighbors;
+		NNDescent nnDescent = new NNDescent(n, k-1, distance, seed);
+		nnDescent.run(0);
+		int[] indices = nnDescent.getIndices();
+		double[] distances = nnDescent.getDistances();
+		IntStream.range(0, n).parallel().forEach(i -> {
+			knnIndices[i*k] = i;
+			knnDistances[i*k] = 0;
+			for (int m = 1; m < k; m++) {
+				double dist = distances[i*(k-1)+m-1];
+				knnIndices[i*k+m] = indices[i*(k-1)+m-1];
+				knnDistances[i*k+m] = angular ? dist*dist/2 : dist;	// 1 - cos
+			}
+		});
+	}
+
+	private static NNDescent.PointDistance getDistance(String metric, double[][] points) {
+		switch (metric) {
+			case "manhattan":
+				return (p, q) -> {
+					double[] x = points[p], y = points[q];
+					double sum = 0;
+					for (int j = 0; j < x.length; j++) sum += Math.abs(x[j]-y[j]);
+					return sum;
+				};
+			case "chebyshev":
+				return (p, q) -> {
+					double[] x = points[p], y = points[q];
+					double max = 0;
+					for (int j = 0; j < x.length; j++) max = Math.max(max, Math.abs(x[j]-y[j]));
+					return max;
+				};
+			case "canberra":
+				return (p, q) -> {
+					double[] x = points[p], y = points[q];
+					double sum = 0;
+					for (int j = 0; j < x.length; j++) {
+						double denominator = Math.abs(x[j]) + Math.abs(y[j]);
+						if (denominator > 0) sum += Math.abs(x[j]-y[j])/denominator;
+					}
+					return sum;
+				};
+			default:
+				return (p, q) -> {
+					double[] x = points[p], y = points[q];
+					double sum = 0;
+					for (int j = 0; j < x.length; j++) {
+						double diff = x[j]-y[j];
+						sum += diff*diff;
+					}
+					return Math.sqrt(sum);
+				};
+		}
+	}
+
+	/*
+	 * Find rho (the distance to the nearest neighbor) and sigma for every
+	 * point, so that the memberships of its neighbors sum to log2(k), and
+	 * return the memberships (umap-learn smooth_knn_dist with
+	 * local_connectivity = 1)
+	 */
+	private double[] smoothKnnDistances(int[] knnIndices, double[] knnDistances) {
+		int k = nNeighbors;
+		double target = Math.log(k)/Math.log(2);
+		double meanDistance = 0;
+		for (int i = 0; i < n*k; i++)
+			if (knnIndices[i] >= 0) meanDistance += knnDistances[i];
+		meanDistance /= n*k;
+		final double globalMean = meanDistance;
+
+		double[] memberships = new double[n*k];
+		IntStream.range(0, n).parallel().forEach(i -> {
+			int offset = i*k;
+			double rho = 0;
+			double localMean = 0;
+			int count = 0;
+			for (int m = 1; m < k; m++) {
+				if (knnIndices[offset+m] < 0) continue;
+				double dist = knnDistances[offset+m];
+				if (rho == 0 && dist > 0) rho = dist;
+				localMean += dist;
+				count++;
+			}
+			if (count > 0) localMean /= count;
+
+			double lo = 0, hi = Double.POSITIVE_INFINITY, mid = 1.0;
+			for (int iteration = 0; iteration < SMOOTH_ITERATIONS; iteration++) {
+				double sum = 0;
+				for (int m = 1; m < k; m++) {
+					if (knnIndices[offset+m] < 0) continue;
+					double dist = knnDistances[offset+m] - rho;
+					sum += dist > 0 ? Math.exp(-dist/mid) : 1.0;
+				}
+				if (Math.abs(sum - target) < SMOOTH_TOLERANCE)
+					break;
+				if (sum > target) {
+					hi = mid;
+					mid = (lo + hi)/2;
+				} else {
+					lo = mid;
+					if (hi == Double.POSITIVE_INFINITY)
+						mid *= 2;
+					else
+						mid = (lo + hi)/2;
+				}
+			}
+			double sigma = mid;
+			if (rho > 0) {
+				sigma = Math.max(sigma, MIN_K_DIST_SCALE*localMean);
+			} else {
+				sigma = Math.max(sigma, MIN_K_DIST_SCALE*globalMean);
+			}
+
+			for (int m = 1; m < k; m++) {
+				if (knnIndices[offset+m] < 0) continue;
+				double dist = knnDistances[offset+m] - rho;
+				memberships[offset+m] = dist > 0 ? Math.exp(-dist/sigma) : 1.0;
+			}
+		});
+		return memberships;
+	}
+
+	/*
+	 * Combine the directed memberships with the fuzzy union, drop the edges
+	 * that would be sampled less than once, and store both directions of
+	 * each edge
+	 */
+	private void buildGraph(int[] knnIndices, double[] memberships) {
+		int k = nNeighbors;
+		// The membership of j in the neighborhood of i, or 0
+		IntBinaryOperator position = (i, j) -> {
+			for (int m = 1; m < k; m++)
+				if (knnIndices[i*k+m] == j) return i*k+m;
+			return -1;
+		};
+
+		// Each undirected edge is kept at the first of its directed edges
+		double[] weights = new double[n*k];
+		IntStream.range(0, n).parallel().forEach(i -> {
+			for (int m = 1; m < k; m++) {
+				int j = knnIndices[i*k+m];
+				if (j < 0) continue;
+				int reverse = position.applyAsInt(j, i);
+				if (reverse >= 0 && j < i) continue;
+				double w = memberships[i*k+m];
+				double wr = reverse >= 0 ? memberships[reverse] : 0;
+				weights[i*k+m] = w + wr - w*wr;
+			}
+		});
+
+		double max = 0;
+		for (double w: weights) max = Math.max(max, w);
+		double minWeight = max/nEpochs;
+
+		int edges = 0;
+		for (double w: weights)
+			if (w > 0 && w >= minWeight) edges++;
+		heads = new int[2*edges];
+		tails = new int[2*edges];
+		epochsPerSample = new double[2*edges];
+		int e = 0;
+		for (int i = 0; i < n; i++) {
+			for (int m = 1; m < k; m++) {
+				double w = weights[i*k+m];
+				if (w <= 0 || w < minWeight) continue;
+				int j = knnIndices[i*k+m];
+				heads[e] = i; tails[e] = j; epochsPerSample[e++] = max/w;
+				heads[e] = j; tails[e] = i; epochsPerSample[e++] = max/w;
+			}
+		}
+	}
+
+	/*
+	 * Fit a and b, so that 1/(1+a*d^(2b)) is close to 1 below minDist and
+	 * exp(-(d-minDist)/spread) above it (umap-learn find_ab_params), with
+	 * Gauss-Newton steps
+	 */
+	private void findABParams() {
+		int points = 300;
+		double[] x = new double[points];
+		double[] y = new double[points];
+		for (int i = 0; i < points; i++) {
+			x[i] = (i+1)*spread*3/points;
+			y[i] = x[i] < minDist ? 1.0 : Math.exp(-(x[i]-minDist)/spread);
+		}
+
+		double aa = 1.8, bb = 0.8;
+		double lambda = 1e-3;
+		double error = abError(x, y, aa, bb);
+		for (int iteration = 0; iteration < 200; iteration++) {
+			// Normal equations for the residuals r = f - y
+			double jaa = 0, jab = 0, jbb = 0, ga = 0, gb = 0;
+			for (int i = 0; i < points; i++) {
+				double x2b = Math.pow(x[i], 2*bb);
+				double denominator = 1 + aa*x2b;
+				double f = 1/denominator;
+				double r = f - y[i];
+				double da = -x2b/(denominator*denominator);
+				double db = -aa*x2b*2*Math.log(x[i])/(denominator*denominator);
+				jaa += da*da; jab += da*db; jbb += db*db;
+				ga += da*r; gb += db*r;
+			}
+			double a11 = jaa*(1+lambda), a22 = jbb*(1+lambda);
+			double det = a11*a22 - jab*jab;
+			if (det == 0) break;
+			double stepA = -(a22*ga - jab*gb)/det;
+			double stepB = -(a11*gb - jab*ga)/det;
+			double newA = aa + stepA, newB = bb + stepB;
+			double newError = (newA > 0 && newB > 0) ? abError(x, y, newA, newB) : Double.MAX_VALUE;
+			if (newError < error) {
+				boolean converged = error - newError < 1e-12;
+				aa = newA; bb = newB; error = newError;
+				lambda /= 10;
+				if (converged) break;
+			} else {
+				lambda *= 10;
+				if (lambda > 1e10) break;
+			}
+		}
+		a = aa;
+		b = bb;
+	}
+
+	private static double abError(double[] x, double[] y, double a, double b) {
+		double error = 0;
+		for (int i = 0; i < x.length; i++) {
+			double r = 1/(1 + a*Math.pow(x[i], 2*b)) - y[i];
+			error += r*r;
+		}
+		return error;
+	}
+
+	/*
+	 * Initialise the embedding with a spectral layout of the fuzzy graph
+	 * (umap-learn spectral_layout and multi_component_layout).  Each connected
+	 * component is laid out on its own with the eigenvectors of its
+	 * D^-1/2 W D^-1/2 with the largest eigenvalues after the trivial one,
+	 * found by subspace iteration, and placed around its own point of a layout
+	 * of the components.  The result is scaled to [-10, 10], plus a little
+	 * noise to separate duplicates.
+	 */
+	private float[] initialEmbedding() {
+		// The graph by head, so the products are parallel across points.  The
+		// weights are only needed up to a constant, which epochsPerSample has.
+		int edges = heads.length;
+		int[] start = new int[n+1];
+		for (int e = 0; e < edges; e++)
+			start[heads[e]+1]++;
+		for (int i = 0; i < n; i++)
+			start[i+1] += start[i];
+		int[] neighbors = new int[edges];
+		double[] weights = new double[edges];
+		int[] next = Arrays.copyOf(start, n);
+		for (int e = 0; e < edges; e++) {
+			neighbors[next[heads[e]]] = tails[e];
+			weights[next[heads[e]]++] = 1.0/epochsPerSample[e];
+		}
+
+		// The connected components, with the points of component c at
+		// members[memberStart[c]..memberStart[c+1]-1]
+		int[] component = new int[n];
+		Arrays.fill(component, -1);
+		int[] members = new int[n];
+		List<Integer> memberStart = new ArrayList<Integer>();
+		int found = 0;
+		for (int i = 0; i < n; i++) {
+			if (component[i] >= 0) continue;
+			int c = memberStart.size();
+			memberStart.add(found);
+			component[i] = c;
+			members[found++] = i;
+			for (int m = found-1; m < found; m++) {
+				int p = members[m];
+				for (int e = start[p]; e < start[p+1]; e++) {
+					if (component[neighbors[e]] < 0) {
+						component[neighbors[e]] = c;
+						members[found++] = neighbors[e];
+					}
+				}
+			}
+		}
+		int nComponents = memberStart.size();
+		memberStart.add(n);
+
+		SplittableRandom random = new SplittableRandom(seed);
+		double[][] meta = componentLayout(component, nComponents, random);
+
+		double[] layout = new double[n*dims];
+		int[] local = new int[n];
+		for (int c = 0; c < nComponents; c++) {
+			int from = memberStart.get(c);
+			int size = memberStart.get(c+1) - from;
+			int[] points = Arrays.copyOfRange(members, from, from + size);
+
+			// Keep the components half way from their nearest neighbors
+			double range = Double.MAX_VALUE;
+			for (int other = 0; other < nComponents; other++) {
+				double distance = 0;
+				for (int d = 0; d < dims; d++)
+					distance += (meta[c][d] - meta[other][d])*(meta[c][d] - meta[other][d]);
+				if (distance > 0) range = Math.min(range, Math.sqrt(distance)/2);
+			}
+			if (range == Double.MAX_VALUE) range = 1.0;
+
+			if (size < 2*dims || size <= dims+1) {
+				// Too small for the eigenvectors, so place the points at random
+				for (int point: points)
+					for (int d = 0; d < dims; d++)
+						layout[point*dims+d] = meta[c][d] + (2*random.nextDouble() - 1)*range;
+				continue;
+			}
+
+			for (int m = 0; m < size; m++)
+				local[points[m]] = m;
+			double[][] vectors = spectralLayout(points, local, start, neighbors, weights, random);
+			double max = 0;
+			for (double[] vector: vectors)
+				for (double value: vector) max = Math.max(max, Math.abs(value));
+			double expansion = max > 0 ? range/max : 0;
+			for (int m = 0; m < size; m++)
+				for (int d = 0; d < dims; d++)
+					layout[points[m]*dims+d] = meta[c][d] + vectors[d][m]*expansion;
+		}
+
+		float[] embedding = new float[n*dims];
+		for (int d = 0; d < dims; d++) {
+			double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+			for (int i = 0; i < n; i++) {
+				min = Math.min(min, layout[i*dims+d]);
+				max = Math.max(max, layout[i*dims+d]);
+			}
+			double range = max - min;
+			for (int i = 0; i < n; i++) {
+				double value = range > 0 ? 20*(layout[i*dims+d] - min)/range - 10 : 0;
+				embedding[i*dims+d] = (float)(value + random.nextGaussian()*1e-4*10);
+			}
+		}
+		return embedding;
+	}
+
+	/*
+	 * The eigenvectors for the spectral layout of one connected component,
+	 * one for each dimension, found by subspace iteration until the residuals
+	 * are below SPECTRAL_TOLERANCE
+	 */
+	private double[][] spectralLayout(int[] points, int[] local, int[] start, int[] neighbors,
+	                                  double[] weights, SplittableRandom random) {
+		int size = points.length;
+
+		// D^-1/2, and the trivial eigenvector D^1/2 1
+		double[] scale = new double[size];
+		double[] trivial = new double[size];
+		for (int m = 0; m < size; m++) {
+			int i = points[m];
+			double degree = 0;
+			for (int e = start[i]; e < start[i+1]; e++) degree += weights[e];
+			scale[m] = degree > 0 ? 1/Math.sqrt(degree) : 0;
+			trivial[m] = Math.sqrt(degree);
+		}
+		normalise(trivial);
+
+		// Multiply by (I + D^-1/2 W D^-1/2)/2, which has the same eigenvectors
+		// and no negative eigenvalues
+		double[][] vectors = new double[dims][size];
+		for (int d = 0; d < dims; d++)
+			for (int m = 0; m < size; m++) vectors[d][m] = random.nextDouble() - 0.5;
+		orthonormalise(vectors, trivial, random);
+		for (int iteration = 0; iteration < MAX_SPECTRAL_ITERATIONS; iteration++) {
+			if (cancelled) break;
+			double residual = 0;
+			for (int d = 0; d < dims; d++) {
+				double[] x = vectors[d];
+				double[] y = new double[size];
+				IntStream.range(0, size).parallel().forEach(m -> {
+					int i = points[m];
+					double sum = 0;
+					for (int e = start[i]; e < start[i+1]; e++) {
+						int q = local[neighbors[e]];
+						sum += weights[e]*scale[q]*x[q];
+					}
+					y[m] = (x[m] + scale[m]*sum)/2;
+				});
+				// |y - (x.y) x|^2 for the unit vector x
+				double dot = 0, norm = 0;
+				for (int m = 0; m < size; m++) {
+					dot += x[m]*y[m];
+					norm += y[m]*y[m];
+				}
+				residual = Math.max(residual, norm - dot*dot);
+				vectors[d] = y;
+			}
+			orthonormalise(vectors, trivial, random);
+			if (Math.sqrt(Math.max(residual, 0)) < SPECTRAL_TOLERANCE)
+				break;
+		}
+		return vectors;
+	}
+
+	/*
+	 * Where to put each of the connected components.  As in umap-learn, up to
+	 * 2*dims components go at the ends of the axes.  More components are laid
+	 * out by the first principal components of their centroids, scaled so
+	 * that the largest value is 1.
+	 */
+	private double[][] componentLayout(int[] component, int nComponents, SplittableRandom random) {
+		double[][] meta = new double[nComponents][dims];
+		if (nComponents <= 2*dims) {
+			int half = (nComponents + 1)/2;
+			for (int c = 0; c < nComponents; c++)
+				meta[c][c % half] = c < half ? 1 : -1;
+			return meta;
+		}
+
+		int nColumns = data[0].length;
+		double[][] centroids = new double[nComponents][nColumns];
+		int[] sizes = new int[nComponents];
+		for (int i = 0; i < n; i++) {
+			sizes[component[i]]++;
+			for (int column = 0; column < nColumns; column++)
+				centroids[component[i]][column] += data[i][column];
+		}
+		double[] mean = new double[nColumns];
+		for (int c = 0; c < nComponents; c++) {
+			for (int column = 0; column < nColumns; column++) {
+				centroids[c][column] /= sizes[c];
+				mean[column] += centroids[c][column]/nComponents;
+			}
+		}
+		for (double[] centroid: centroids)
+			for (int column = 0; column < nColumns; column++) centroid[column] -= mean[column];
+
+		// Subspace iteration on the covariance of the centroids
+		double[][] axes = new double[dims][nColumns];
+		for (int d = 0; d < dims; d++)
+			for (int column = 0; column < nColumns; column++) axes[d][column] = random.nextDouble() - 0.5;
+		orthonormalise(axes, null, random);
+		double[] projection = new double[nComponents];
+		for (int iteration = 0; iteration < MAX_SPECTRAL_ITERATIONS; iteration++) {
+			double residual = 0;
+			for (int d = 0; d < dims; d++) {
+				double[] x = axes[d];
+				double[] y = new double[nColumns];
+				for (int c = 0; c < nComponents; c++) {
+					double dot = 0;
+					for (int column = 0; column < nColumns; column++) dot += centroids[c][column]*x[column];
+					for (int column = 0; column < nColumns; column++) y[column] += centroids[c][column]*dot;
+				}
+				double dot = 0, norm = 0;
+				for (int column = 0; column < nColumns; column++) {
+					dot += x[column]*y[column];
+					norm += y[column]*y[column];
+				}
+				residual = Math.max(residual, norm > 0 ? 1 - dot*dot/norm : 0);
+				axes[d] = y;
+			}
+			orthonormalise(axes, null, random);
+			if (Math.sqrt(Math.max(residual, 0)) < SPECTRAL_TOLERANCE)
+				break;
+		}
+
+		double max = 0;
+		for (int c = 0; c < nComponents; c++) {
+			for (int d = 0; d < dims; d++) {
+				double value = 0;
+				for (int column = 0; column < nColumns; column++) value += centroids[c][column]*axes[d][column];
+				meta[c][d] = value;
+				max = Math.max(max, Math.abs(value));
+			}
+		}
+		if (max > 0)
+			for (double[] point: meta)
+				for (int d = 0; d < dims; d++) point[d] /= max;
+		return meta;
+	}
+
+	/*
+	 * Make the vectors orthonormal to the trivial eigenvector, if there is
+	 * one, and each other, starting again from random values if one is lost
+	 */
+	private void orthonormalise(double[][] vectors, double[] trivial, SplittableRandom random) {
+		for (int c = 0; c < vectors.length; c++) {
+			double[] v = vectors[c];
+			for (int attempt = 0; attempt < 2; attempt++) {
+				if (trivial != null)
+					subtract(v, trivial);
+				for (int p = 0; p < c; p++)
+					subtract(v, vectors[p]);
+				if (normalise(v) > 0)
+					break;
+				for (int i = 0; i < v.length; i++) v[i] = random.nextDouble() - 0.5;
+			}
+		}
+	}
+
+	// Remove the component along the unit vector u
+	private static void subtract(double[] v, double[] u) {
+		double dot = 0;
+		for (int i = 0; i < v.length; i++) dot += v[i]*u[i];
+		for (int i = 0; i < v.length; i++) v[i] -= dot*u[i];
+	}
+
+	private static double normalise(double[] v) {
+		double norm = 0;
+		for (double value: v) norm += value*value;
+		norm = Math.sqrt(norm);
+		if (norm > 1e-12)
+			for (int i = 0; i < v.length; i++) v[i] /= norm;
+		else
+			norm = 0;
+		return norm;
+	}
+
+	/*
+	 * Stochastic gradient descent (umap-learn optimize_layout_euclidean).
+	 * The chunks of edges are updated in parallel, and the updates aren't
+	 * synchronized, as in umap-learn's parallel mode.
+	 */
+	private void optimize(float[] embedding, TaskMonitor monitor) {
+		int edges = heads.length;
+		double[] epochOfNextSample = epochsPerSample.clone();
+		double[] epochsPerNegativeSample = new double[edges];
+		for (int e = 0; e < edges; e++)
+			epochsPerNegativeSample[e] = epochsPerSample[e]/NEGATIVE_SAMPLE_RATE;
+		double[] epochOfNextNegativeSample = epochsPerNegativeSample.clone();
+
+		int chunks = (edges + EDGES_PER_CHUNK - 1)/EDGES_PER_CHUNK;
+		for (int epoch = 0; epoch < nEpochs; epoch++) {
+			if (cancelled) return;
+			final int currentEpoch = epoch;
+			final float alpha = (float)(INITIAL_ALPHA*(1.0 - (double)epoch/nEpochs));
+			IntStream.range(0, chunks).parallel().forEach(chunk -> {
+				SplittableRandom random = new SplittableRandom(seed*31 + (long)currentEpoch*chunks + chunk);
+				float[] current = new float[dims];
+				int from = chunk*EDGES_PER_CHUNK;
+				int to = Math.min(edges, from + EDGES_PER_CHUNK);
+				for (int e = from; e < to; e++) {
+					if (epochOfNextSample[e] > currentEpoch) continue;
+					int j = heads[e];
+					int k = tails[e];
+					int jOffset = j*dims, kOffset = k*dims;
+
+					// Attraction along the edge
+					float distanceSquared = 0;
+					for (int d = 0; d < dims; d++) {
+						current[d] = embedding[jOffset+d];
+						float diff = current[d] - embedding[kOffset+d];
+						distanceSquared += diff*diff;
+					}
+					if (distanceSquared > 0) {
+						double gradCoefficient = -2.0*a*b*Math.pow(distanceSquared, b - 1.0) /
+						                         (a*Math.pow(distanceSquared, b) + 1.0);
+						for (int d = 0; d < dims; d++) {
+							float grad = clip((float)(gradCoefficient*(current[d] - embedding[kOffset+d])));
+							current[d] += grad*alpha;
+							embedding[jOffset+d] = current[d];
+							embedding[kOffset+d] -= grad*alpha;
+						}
+					}
+					epochOfNextSample[e] += epochsPerSample[e];
+
+					// Repulsion from random points
+					int negativeSamples = (int)((currentEpoch - epochOfNextNegativeSample[e]) /
+					                            epochsPerNegativeSample[e]);
+					for (int p = 0; p < negativeSamples; p++) {
+						int other = random.nextInt(n);
+						if (other == j) continue;
+						int oOffset = other*dims;
+						distanceSquared = 0;
+						for (int d = 0; d < dims; d++) {
+							float diff = current[d] - embedding[oOffset+d];
+							distanceSquared += diff*diff;
+						}
+						double gradCoefficient = 0;
+						if (distanceSquared > 0) {
+							gradCoefficient = 2.0*GAMMA*b /
+							                  ((0.001 + distanceSquared)*(a*Math.pow(distanceSquared, b) + 1));
+						}
+						for (int d = 0; d < dims; d++) {
+							float grad = gradCoefficient > 0 ?
+							             clip((float)(gradCoefficient*(current[d] - embedding[oOffset+d]))) : CLIP;
+							current[d] += grad*alpha;
+						}
+					}
+					for (int d = 0; d < dims; d++)
+						embedding[jOffset+d] = current[d];
+					epochOfNextNegativeSample[e] += negativeSamples*epochsPerNegativeSample[e];
+				}
+			});
+			monitor.setProgress((double)(epoch+1)/nEpochs);
+		}
+	}
+
+	private static float clip(float value) {
+		if (value > CLIP) return CLIP;
+		if (value < -CLIP) return -CLIP;
+		return value;
+	}
+}
@@ -35,6 +35,7 @@ import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.edgeConverters.NoneConver
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.edgeConverters.SCPSConverter;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.edgeConverters.ThresholdHeuristic;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.CyMatrixFactory;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.CyMatrixFactory.MatrixType;
 
 import edu.ucsf.rbvi.clusterMaker2.internal.ui.HistogramDialog;
 import edu.ucsf.rbvi.clusterMaker2.internal.ui.HistoChangeListener;
@@ -45,6 +46,7 @@ public class EdgeAttributeHandler implements HistoChangeListener, RequestsUIHelp
 
 	private CyMatrix matrix = null;
 	private boolean isSparse = false;
+	private boolean isFloat = false;
 	private CyNetwork network = null;
 
 	// Remember all of our state so we can avoid unnecessary calls
@@ -134,6 +136,14 @@ public class EdgeAttributeHandler implements HistoChangeListener, RequestsUIHelp
 	         groups={"Source for array data", "Array data adjustments"}, gravity=16.0)
 	public boolean adjustLoops = true;
 
+	@Tunable(description = "Use single precision matrix", 
+	         longDescription = "Store the edge matrix as single precision (float) values. "+
+	                           "This halves the memory needed for large networks, at the cost of "+
+	                           "some precision in the edge weights.",
+	         exampleStringValue = "false",
+	         groups={"Source for array data", "Array data adjustments"}, gravity=17.0)
+	public boolean singlePrecision = false;
+
 	private HistogramDialog histo = null;
 
 	// TODO: Convert this to a listener
@@ -165,6 +175,7 @@ public class EdgeAttributeHandler implements HistoChangeListener, RequestsUIHelp
 		                               clone.edgeCutOff.getUpperBound(), false, false);
 		adjustLoops = clone.adjustLoops;
 		undirectedEdges = clone.undirectedEdges;
+		singlePrecision = clone.singlePrecision;
 		edgeWeighter = new ListSingleSelection<EdgeWeightConverter>(clone.edgeWeighter.getPossibleValues());
 		edgeWeighter.setSelectedValue(clone.edgeWeighter.getSelectedValue());
 	}
@@ -281,6 +292,7 @@ public class EdgeAttributeHandler implements HistoChangeListener, RequestsUIHelp
 			                                              selectedOnly, edgeWeighter.getSelectedValue(),
 																										undirectedEdges, edgeCutOff.getValue(), true);
 			this.isSparse = true;
+			this.isFloat = false;
 		}
 
 		if (adjustLoops)
@@ -290,12 +302,14 @@ public class EdgeAttributeHandler implements HistoChangeListener, RequestsUIHelp
 	}
 
 	public CyMatrix getMatrix() {
-		if (this.matrix == null || this.isSparse == true) {
+		if (this.matrix == null || this.isSparse == true || this.isFloat != singlePrecision) {
 			if (attribute.getSelectedValue() == null) return null;
+			MatrixType type = singlePrecision ? MatrixType.FLOAT : MatrixType.LARGE;
 			this.matrix = CyMatrixFactory.makeLargeMatrix(network, attribute.getSelectedValue(), 
 			                                              selectedOnly, edgeWeighter.getSelectedValue(),
-																										undirectedEdges, edgeCutOff.getValue(), false);
+																										undirectedEdges, edgeCutOff.getValue(), type);
 			this.isSparse = false;
+			this.isFloat = singlePrecision;
 		}
 
 		if (adjustLoops)
@@ -10,7 +10,6 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.IntStream;
 
 import org.cytoscape.application.CyUserLog;
 import org.apache.log4j.Logger;
@@ -397,13 +396,7 @@ public class ColtMatrix implements Matrix {
 		mat.rowLabels = Arrays.copyOf(rowLabels, rowLabels.length);
 		mat.columnLabels = Arrays.copyOf(rowLabels, rowLabels.length);
 
-		IntStream.range(0, nRows).parallel()
-			.forEach(row -> IntStream.range(row, nRows)
-				.forEach(column -> {
-						mat.setValue(row, column, metric.getMetric(this, this, row, column));
-						if (row != column)
-							mat.setValue(column, row, metric.getMetric(this, this, row, column));
-				}));
+		DistanceEngine.fill(this, metric, mat);
 		return mat;
 	}
  
@@ -0,0 +1,126 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMetric;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
+
+/**
+ * A symmetric distance matrix that only stores the strict lower triangle,
+ * n(n-1)/2 values, in row order (so that row i holds the distances to
+ * rows 0..i-1 contiguously).  The values are kept in double or, on request,
+ * float pages, so very large matrices don't run into the array size limit.
+ * The diagonal is kept separately since some metrics (e.g. correlations of
+ * constant rows) don't give 0.
+ *
+ * This is what the attribute clusterers use when they need all of the pairwise
+ * distances, rather than a full n x n copy of the result of getDistanceMatrix.
+ */
+public class CondensedDistanceMatrix {
+	private static final int PAGE_SHIFT = 26;
+	private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+	private final int size;
+	private final boolean singlePrecision;
+	private final double[] diagonal;
+	private double[][] doublePages = null;
+	private float[][] floatPages = null;
+
+	/**
+	 * Create an empty (all zero) distance matrix
+	 *
+	 * @param size the number of rows (and columns)
+	 * @param singlePrecision if true, store the values as floats
+	 */
+	public CondensedDistanceMatrix(int size, boolean singlePrecision) {
+		this.size = size;
+		this.singlePrecision = singlePrecision;
+		this.diagonal = new double[size];
+
+		long entries = (long)size*(long)(size-1)/2;
+		int pages = (int)((entries + PAGE_SIZE - 1) >>> PAGE_SHIFT);
+		if (singlePrecision)
+			floatPages = new float[pages][];
+		else
+			doublePages = new double[pages][];
+		for (int page = 0; page < pages; page++) {
+			int length = (int)Math.min(PAGE_SIZE, entries - ((long)page << PAGE_SHIFT));
+			if (singlePrecision)
+				floatPages[page] = new float[length];
+			else
+				doublePages[page] = new double[length];
+		}
+	}
+
+	/**
+	 * Calculate the distances between the rows of a matrix
+	 *
+	 * @param data the data matrix
+	 * @param metric the distance metric to use
+	 * @param singlePrecision if true, store the values as floats
+	 * @return the distances
+	 */
+	public static CondensedDistanceMatrix getDistances(Matrix data, DistanceMetric metric,
+	                                                   boolean singlePrecision) {
+		CondensedDistanceMatrix distances = new CondensedDistanceMatrix(data.nRows(), singlePrecision);
+		new DistanceEngine(data, metric).compute((row, column, distance) -> {
+			distances.set(row, column, distance);
+		});
+		return distances;
+	}
+
+	public static CondensedDistanceMatrix getDistances(Matrix data, DistanceMetric metric) {
+		return getDistances(data, metric, false);
+	}
+
+	public int size() { return size; }
+
+	public boolean isSinglePrecision() { return singlePrecision; }
+
+	/**
+	 * Return the distance between two rows.  The order of the rows doesn't matter.
+	 */
+	public double get(int row, int column) {
+		if (row == column)
+			return diagonal[row];
+		long k = row > column ? index(row, column) : index(column, row);
+		if (singlePrecision)
+			return floatPages[(int)(k >>> PAGE_SHIFT)][(int)(k & PAGE_MASK)];
+		return doublePages[(int)(k >>> PAGE_SHIFT)][(int)(k & PAGE_MASK)];
+	}
+
+	/**
+	 * Set the distance between two rows.  Since the matrix is symmetric,
+	 * this sets both (row, column) and (column, row).
+	 */
+	public void set(int row, int column, double value) {
+		if (row == column) {
+			diagonal[row] = value;
+			return;
+		}
+		long k = row > column ? index(row, column) : index(column, row);
+		if (singlePrecision)
+			floatPages[(int)(k >>> PAGE_SHIFT)][(int)(k & PAGE_MASK)] = (float)value;
+		else
+			doublePages[(int)(k >>> PAGE_SHIFT)][(int)(k & PAGE_MASK)] = value;
+	}
+
+	/**
+	 * Copy a full row of distances into an array
+	 *
+	 * @param row the row to get
+	 * @param values the array to put the values in, or null to allocate a new one
+	 * @return the row
+	 */
+	public double[] getRow(int row, double[] values) {
+		if (values == null)
+			values = new double[size];
+		for (int column = 0; column < size; column++)
+			values[column] = get(row, column);
+		return values;
+	}
+
+	// Index of (row, column) for row > column
+	private static long index(int row, int column) {
+		return (long)row*(long)(row-1)/2 + column;
+	}
+}
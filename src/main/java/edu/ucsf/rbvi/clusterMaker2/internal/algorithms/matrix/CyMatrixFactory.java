@@ -23,7 +23,7 @@ import edu.ucsf.rbvi.clusterMaker2.internal.utils.ModelUtils;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.edgeConverters.EdgeWeightConverter;
 
 public class CyMatrixFactory {
-	public enum MatrixType {SIMPLE, COLT, SPARSE, LARGE, OJALGO};
+	public enum MatrixType {SIMPLE, COLT, SPARSE, LARGE, OJALGO, FLOAT};
 
 	/**
 	 * Create an empty matrix that may be very large
@@ -84,6 +84,26 @@ public class CyMatrixFactory {
 	public static CyMatrix makeLargeMatrix(CyNetwork network, String edgeAttribute, 
 	                                        boolean selectedOnly, EdgeWeightConverter converter,
 																					boolean unDirected, double cutOff, boolean isSparse) {
+		return makeLargeMatrix(network, edgeAttribute, selectedOnly, converter, unDirected, cutOff,
+		                       isSparse ? MatrixType.SPARSE : MatrixType.LARGE);
+	}
+
+	/**
+	 * Create a matrix of the given type populated with data from
+	 * the indicated edge attribute.  Missing edges are 0.
+	 *
+	 * @param network the network that will be the source of the data
+	 * @param edgeAttribute the edge attribute to pull the data from
+	 * @param selectedOnly only include selected edges
+	 * @param converter the edge weight converter to use
+	 * @param unDirected if true, the edges are undirected
+	 * @param cutOff the minimum edge value to consider
+	 * @param type the type of matrix to create (SPARSE, LARGE or FLOAT)
+	 * @return the resulting matrix
+	 */
+	public static CyMatrix makeLargeMatrix(CyNetwork network, String edgeAttribute, 
+	                                        boolean selectedOnly, EdgeWeightConverter converter,
+																					boolean unDirected, double cutOff, MatrixType type) {
 		List<CyNode> nodes;
 		List<CyEdge> edges;
 		double maxAttribute = Double.MIN_VALUE;
@@ -98,11 +118,10 @@ public class CyMatrixFactory {
 			edges.addAll(ModelUtils.getConnectingEdges(network,nodes));
 		}
 
-		CyMatrix matrix;
-	 	if (isSparse)
-			matrix = makeTypedMatrix(network, nodes.size(), nodes.size(), false, MatrixType.SPARSE);
-		else
-			matrix = makeTypedMatrix(network, nodes.size(), nodes.size(), false, MatrixType.LARGE);
+		CyMatrix matrix = makeTypedMatrix(network, nodes.size(), nodes.size(), false, type);
+		// The dense matrices start out as missing, but edge matrices start at 0
+		if (type == MatrixType.FLOAT || type == MatrixType.SIMPLE)
+			matrix.setMissingToZero();
 
 		matrix.setRowNodes(nodes);
 		matrix.setColumnNodes(nodes);
@@ -452,6 +471,10 @@ public class CyMatrixFactory {
 			case OJALGO:
 				matrix = new CyOjAlgoMatrix(network, nrows, ncolumns);
 				break;
+
+			case FLOAT:
+				matrix = new CyFloatMatrix(network, nrows, ncolumns);
+				break;
 		}
 
 		matrix.setTransposed(transpose);
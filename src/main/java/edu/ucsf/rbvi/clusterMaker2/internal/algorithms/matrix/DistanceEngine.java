@@ -0,0 +1,384 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix;
+
+import java.util.stream.IntStream;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMetric;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
+
+/**
+ * Compute the distances between all of the rows of a matrix.
+ *
+ * The rows are copied once into a single contiguous array, with missing values
+ * recorded in a separate bitmask, and the upper triangle of the distance matrix is
+ * computed in square tiles of rows sized so that both blocks of a tile stay in cache.
+ * The tiles are spread across the common ForkJoin pool, and each distance is only
+ * computed once.  Euclidean, city-block, Pearson and uncentered correlation distances
+ * have specialized loops: for rows without missing values the correlations become
+ * a dot product of rows that were centered and normalized up front.  Every other metric
+ * (and any pair of rows with missing values) gives the same results as
+ * {@link DistanceMetric#getMetric}.
+ */
+public class DistanceEngine {
+	// Number of values in one block of a tile (32K bytes)
+	private static final int BLOCK_VALUES = 4096;
+	private static final int MIN_BLOCK = 8;
+	private static final int MAX_BLOCK = 512;
+
+	/**
+	 * Receives each distance in the upper triangle (row &lt;= column)
+	 */
+	public interface DistanceSink {
+		public void setDistance(int row, int column, double distance);
+	}
+
+	private final Matrix data;
+	private final DistanceMetric metric;
+	private final int nRows;
+	private final int nColumns;
+	private final int words;
+
+	private double[] values;       // row major copy of the data, missing values are 0
+	private double[] normalized;   // centered and/or normalized rows for the correlations
+	private boolean[] degenerate;  // rows with no variance (correlations)
+	private long[] missing;        // bit set for each missing value
+	private boolean[] hasMissing;
+	private boolean packed = false;
+
+	public DistanceEngine(Matrix data, DistanceMetric metric) {
+		this.data = data;
+		this.metric = metric;
+		this.nRows = data.nRows();
+		this.nColumns = data.nColumns();
+		this.words = (nColumns+63) >>> 6;
+	}
+
+	/**
+	 * Fill a (symmetric) nRows x nRows matrix with the distances between the rows of data
+	 *
+	 * @param data the data matrix
+	 * @param metric the metric to use
+	 * @param target the matrix to fill in
+	 */
+	public static void fill(Matrix data, DistanceMetric metric, Matrix target) {
+		new DistanceEngine(data, metric).compute((row, column, distance) -> {
+			target.setValue(row, column, distance);
+			if (row != column)
+				target.setValue(column, row, distance);
+		});
+	}
+
+	/**
+	 * Compute all of the distances, handing each one in the upper
+	 * triangle (including the diagonal) to the sink.  The sink is
+	 * called from multiple threads, but never twice for the same cell.
+	 *
+	 * @param sink where to put the distances
+	 */
+	public void compute(DistanceSink sink) {
+		boolean specialized = isSpecialized() && nColumns > 0 &&
+		                      (long)nRows*(long)nColumns < Integer.MAX_VALUE;
+		if (specialized)
+			pack();
+
+		int block = Math.max(MIN_BLOCK, Math.min(MAX_BLOCK, BLOCK_VALUES/Math.max(1, nColumns)));
+		int blocks = (nRows+block-1)/block;
+		int tiles = blocks*(blocks+1)/2;
+		int[] tileRow = new int[tiles];
+		int[] tileColumn = new int[tiles];
+		int t = 0;
+		for (int bi = 0; bi < blocks; bi++) {
+			for (int bj = bi; bj < blocks; bj++) {
+				tileRow[t] = bi;
+				tileColumn[t++] = bj;
+			}
+		}
+
+		IntStream.range(0, tiles).parallel()
+			.forEach(tile -> {
+				int rowStart = tileRow[tile]*block;
+				int rowEnd = Math.min(nRows, rowStart+block);
+				int columnStart = tileColumn[tile]*block;
+				int columnEnd = Math.min(nRows, columnStart+block);
+				for (int row = rowStart; row < rowEnd; row++) {
+					for (int column = Math.max(row, columnStart); column < columnEnd; column++) {
+						double d = specialized ? distance(row, column)
+						                       : metric.getMetric(data, data, row, column);
+						sink.setDistance(row, column, d);
+					}
+				}
+			});
+	}
+
+	/**
+	 * Prepare for {@link #getDistance}, for callers that need some of the
+	 * distances (for example a nearest neighbor search) rather than all of them.
+	 *
+	 * @return this engine
+	 */
+	public DistanceEngine prepare() {
+		if (isSpecialized() && nColumns > 0 && (long)nRows*(long)nColumns < Integer.MAX_VALUE) {
+			pack();
+			packed = true;
+		}
+		return this;
+	}
+
+	/**
+	 * The distance between two rows, as {@link #compute} would give it.
+	 * {@link #prepare} must be called first.  This may be called from
+	 * multiple threads.
+	 *
+	 * @param row1 the first row
+	 * @param row2 the second row
+	 * @return the distance
+	 */
+	public double getDistance(int row1, int row2) {
+		return packed ? distance(row1, row2) : metric.getMetric(data, data, row1, row2);
+	}
+
+	private boolean isSpecialized() {
+		switch (metric) {
+			case EUCLIDEAN:
+			case EUCLIDEANSQ:
+			case CITYBLOCK:
+			case CORRELATION:
+			case ABS_CORRELATION:
+			case UNCENTERED_CORRELATION:
+			case ABS_UNCENTERED_CORRELATION:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Copy the data into our arrays and prepare the normalized rows
+	 */
+	private void pack() {
+		values = new double[nRows*nColumns];
+		missing = new long[nRows*words];
+		hasMissing = new boolean[nRows];
+		IntStream.range(0, nRows).parallel()
+			.forEach(row -> {
+				int offset = row*nColumns;
+				for (int col = 0; col < nColumns; col++) {
+					if (data.hasValue(row, col)) {
+						values[offset+col] = data.doubleValue(row, col);
+					} else {
+						missing[row*words+(col >>> 6)] |= 1L << (col & 63);
+						hasMissing[row] = true;
+					}
+				}
+			});
+
+		boolean centered = metric == DistanceMetric.CORRELATION || metric == DistanceMetric.ABS_CORRELATION;
+		boolean uncentered = metric == DistanceMetric.UNCENTERED_CORRELATION ||
+		                     metric == DistanceMetric.ABS_UNCENTERED_CORRELATION;
+		if (!centered && !uncentered)
+			return;
+
+		normalized = new double[nRows*nColumns];
+		degenerate = new boolean[nRows];
+		IntStream.range(0, nRows).parallel()
+			.forEach(row -> {
+				if (hasMissing[row]) return;
+				int offset = row*nColumns;
+				double mean = 0.0;
+				if (centered) {
+					for (int col = 0; col < nColumns; col++)
+						mean += values[offset+col];
+					mean /= nColumns;
+				}
+				double sum2 = 0.0;
+				for (int col = 0; col < nColumns; col++) {
+					double v = values[offset+col]-mean;
+					normalized[offset+col] = v;
+					sum2 += v*v;
+				}
+				if (sum2 <= 0.0) {
+					degenerate[row] = true;
+					return;
+				}
+				double scale = 1.0/Math.sqrt(sum2);
+				for (int col = 0; col < nColumns; col++)
+					normalized[offset+col] *= scale;
+			});
+	}
+
+	private double distance(int row1, int row2) {
+		boolean masked = hasMissing[row1] || hasMissing[row2];
+		int a = row1*nColumns;
+		int b = row2*nColumns;
+		switch (metric) {
+			case EUCLIDEAN:
+				return Math.sqrt(masked ? maskedSquares(row1, row2) : squares(a, b)/nColumns);
+			case EUCLIDEANSQ:
+				return masked ? maskedSquares(row1, row2) : squares(a, b)/nColumns;
+			case CITYBLOCK:
+				return masked ? maskedCityblock(row1, row2) : cityblock(a, b)/nColumns;
+			case CORRELATION:
+			case ABS_CORRELATION:
+				if (masked)
+					return maskedCorrelation(row1, row2, metric == DistanceMetric.ABS_CORRELATION);
+				return correlation(row1, row2, metric == DistanceMetric.ABS_CORRELATION);
+			case UNCENTERED_CORRELATION:
+			case ABS_UNCENTERED_CORRELATION:
+				if (masked)
+					return maskedUncentered(row1, row2, metric == DistanceMetric.ABS_UNCENTERED_CORRELATION);
+				return correlation(row1, row2, metric == DistanceMetric.ABS_UNCENTERED_CORRELATION);
+			default:
+				return metric.getMetric(data, data, row1, row2);
+		}
+	}
+
+	/*
+	 * The loops for rows without missing values.  These use independent
+	 * partial sums so that the JIT can pipeline (and vectorize) them.
+	 */
+	private double squares(int a, int b) {
+		double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+		int col = 0;
+		for (; col+3 < nColumns; col += 4) {
+			double d0 = values[a+col]-values[b+col];
+			double d1 = values[a+col+1]-values[b+col+1];
+			double d2 = values[a+col+2]-values[b+col+2];
+			double d3 = values[a+col+3]-values[b+col+3];
+			s0 += d0*d0; s1 += d1*d1; s2 += d2*d2; s3 += d3*d3;
+		}
+		for (; col < nColumns; col++) {
+			double d = values[a+col]-values[b+col];
+			s0 += d*d;
+		}
+		return (s0+s1)+(s2+s3);
+	}
+
+	private double cityblock(int a, int b) {
+		double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+		int col = 0;
+		for (; col+3 < nColumns; col += 4) {
+			s0 += Math.abs(values[a+col]-values[b+col]);
+			s1 += Math.abs(values[a+col+1]-values[b+col+1]);
+			s2 += Math.abs(values[a+col+2]-values[b+col+2]);
+			s3 += Math.abs(values[a+col+3]-values[b+col+3]);
+		}
+		for (; col < nColumns; col++)
+			s0 += Math.abs(values[a+col]-values[b+col]);
+		return (s0+s1)+(s2+s3);
+	}
+
+	private double correlation(int row1, int row2, boolean absolute) {
+		if (degenerate[row1] || degenerate[row2]) return 1;
+		int a = row1*nColumns;
+		int b = row2*nColumns;
+		double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+		int col = 0;
+		for (; col+3 < nColumns; col += 4) {
+			s0 += normalized[a+col]*normalized[b+col];
+			s1 += normalized[a+col+1]*normalized[b+col+1];
+			s2 += normalized[a+col+2]*normalized[b+col+2];
+			s3 += normalized[a+col+3]*normalized[b+col+3];
+		}
+		for (; col < nColumns; col++)
+			s0 += normalized[a+col]*normalized[b+col];
+		double result = (s0+s1)+(s2+s3);
+		if (absolute) result = Math.abs(result);
+		return 1.0 - result;
+	}
+
+	/*
+	 * The loops for rows with missing values.  These only look at the columns
+	 * where both rows have a value, and match DistanceMetric exactly.
+	 */
+	private boolean present(int row1, int row2, int col) {
+		int w = col >>> 6;
+		return ((missing[row1*words+w] | missing[row2*words+w]) & (1L << (col & 63))) == 0;
+	}
+
+	private double maskedSquares(int row1, int row2) {
+		int a = row1*nColumns;
+		int b = row2*nColumns;
+		double result = 0.0;
+		int count = 0;
+		for (int col = 0; col < nColumns; col++) {
+			if (present(row1, row2, col)) {
+				double term = values[a+col]-values[b+col];
+				result += term*term;
+				count++;
+			}
+		}
+		if (count == 0) return 0;
+		return result/count;
+	}
+
+	private double maskedCityblock(int row1, int row2) {
+		int a = row1*nColumns;
+		int b = row2*nColumns;
+		double result = 0.0;
+		int count = 0;
+		for (int col = 0; col < nColumns; col++) {
+			if (present(row1, row2, col)) {
+				result += Math.abs(values[a+col]-values[b+col]);
+				count++;
+			}
+		}
+		if (count == 0) return 0;
+		return result/count;
+	}
+
+	private double maskedCorrelation(int row1, int row2, boolean absolute) {
+		int a = row1*nColumns;
+		int b = row2*nColumns;
+		double result = 0.0;
+		double sum1 = 0.0;
+		double sum2 = 0.0;
+		double denom1 = 0.0;
+		double denom2 = 0.0;
+		int count = 0;
+		for (int col = 0; col < nColumns; col++) {
+			if (present(row1, row2, col)) {
+				double term1 = values[a+col];
+				double term2 = values[b+col];
+				sum1 += term1;
+				sum2 += term2;
+				result += term1*term2;
+				denom1 += term1*term1;
+				denom2 += term2*term2;
+				count++;
+			}
+		}
+		if (count == 0) return 0;
+		result -= sum1 * sum2 / count;
+		denom1 -= sum1 * sum1 / count;
+		denom2 -= sum2 * sum2 / count;
+		if (denom1 <= 0) return 1;
+		if (denom2 <= 0) return 1;
+		result = result / Math.sqrt(denom1*denom2);
+		if (absolute) result = Math.abs(result);
+		return 1.0 - result;
+	}
+
+	private double maskedUncentered(int row1, int row2, boolean absolute) {
+		int a = row1*nColumns;
+		int b = row2*nColumns;
+		double result = 0.0;
+		double denom1 = 0.0;
+		double denom2 = 0.0;
+		boolean flag = false;
+		for (int col = 0; col < nColumns; col++) {
+			if (present(row1, row2, col)) {
+				double term1 = values[a+col];
+				double term2 = values[b+col];
+				result += term1*term2;
+				denom1 += term1*term1;
+				denom2 += term2*term2;
+				flag = true;
+			}
+		}
+		if (!flag) return 0.0;
+		if (denom1 == 0) return 1;
+		if (denom2 == 0) return 1;
+		result = result / Math.sqrt(denom1*denom2);
+		if (absolute) result = Math.abs(result);
+		return 1.0 - result;
+	}
+}
@@ -0,0 +1,603 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.cytoscape.application.CyUserLog;
+import org.apache.log4j.Logger;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.api.DistanceMetric;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.MatrixOps;
+
+import cern.colt.matrix.tdouble.DoubleFactory2D;
+import cern.colt.matrix.tdouble.DoubleMatrix2D;
+
+/**
+ * A dense, single precision Matrix.  The values are kept in one row-major float[],
+ * which halves the memory (and memory bandwidth) of the double precision
+ * implementations.  Missing values are stored as Float.NaN.  All of the values
+ * are returned as doubles, so callers don't need to know about the storage.
+ */
+public class FloatMatrix implements Matrix {
+	protected float[] data;
+	protected FloatMatrix distanceMatrix = null;
+	protected DistanceMetric distanceMetric = null;
+	protected int[] index;
+	protected int nRows;
+	protected int nColumns;
+	protected String[] rowLabels;
+	protected String[] columnLabels;
+	protected double maxValue = Double.MIN_VALUE;
+	protected double minValue = Double.MAX_VALUE;
+	protected boolean symmetric = false;
+	protected boolean transposed = false;
+	final Logger logger = Logger.getLogger(CyUserLog.NAME);
+	public final FloatOps ops;
+
+	public FloatMatrix() {
+		ops = new FloatOps(this);
+	}
+
+	public FloatMatrix(FloatMatrix mat) {
+		this();
+		nRows = mat.nRows;
+		nColumns = mat.nColumns;
+		transposed = mat.transposed;
+		symmetric = mat.symmetric;
+		minValue = mat.minValue;
+		maxValue = mat.maxValue;
+		if (mat.index != null)
+			index = Arrays.copyOf(mat.index, mat.index.length);
+		if (mat.rowLabels != null)
+			rowLabels = Arrays.copyOf(mat.rowLabels, mat.rowLabels.length);
+		if (mat.columnLabels != null)
+			columnLabels = Arrays.copyOf(mat.columnLabels, mat.columnLabels.length);
+		data = Arrays.copyOf(mat.data, mat.data.length);
+	}
+
+	public FloatMatrix(SimpleMatrix mat) {
+		this();
+		nRows = mat.nRows();
+		nColumns = mat.nColumns();
+		data = allocate(nRows, nColumns);
+		copyIn(mat.toArray());
+		transposed = mat.transposed;
+		symmetric = mat.symmetric;
+		minValue = mat.minValue;
+		maxValue = mat.maxValue;
+		if (mat.index != null)
+			index = Arrays.copyOf(mat.index, mat.index.length);
+		rowLabels = mat.rowLabels != null ? Arrays.copyOf(mat.rowLabels, mat.rowLabels.length) : new String[nRows];
+		columnLabels = mat.columnLabels != null ? Arrays.copyOf(mat.columnLabels, mat.columnLabels.length) : new String[nColumns];
+	}
+
+	public FloatMatrix(int rows, int columns) {
+		this(rows, columns, Double.NaN);
+	}
+
+	public FloatMatrix(int rows, int columns, double initialValue) {
+		this();
+		data = allocate(rows, columns);
+		nRows = rows;
+		nColumns = columns;
+		rowLabels = new String[rows];
+		columnLabels = new String[columns];
+		Arrays.fill(data, (float)initialValue);
+		index = null;
+	}
+
+	public FloatMatrix(FloatMatrix mat, double[][] inputData) {
+		this();
+		transposed = mat.transposed;
+		symmetric = mat.symmetric;
+		rowLabels = Arrays.copyOf(mat.rowLabels, mat.rowLabels.length);
+		columnLabels = Arrays.copyOf(mat.columnLabels, mat.columnLabels.length);
+		nRows = inputData.length;
+		nColumns = inputData[0].length;
+		data = allocate(nRows, nColumns);
+		copyIn(inputData);
+		updateMinMax();
+	}
+
+	public void initialize(int rows, int columns, double[][] arrayData) {
+		nRows = rows;
+		nColumns = columns;
+		data = allocate(rows, columns);
+		copyIn(arrayData);
+		transposed = false;
+		symmetric = false;
+		index = null;
+		rowLabels = new String[nRows];
+		columnLabels = new String[nColumns];
+	}
+
+	public void initialize(int rows, int columns, Double[][] arrayData) {
+		nRows = rows;
+		nColumns = columns;
+		data = allocate(rows, columns);
+		if (arrayData != null) {
+			IntStream.range(0, rows).parallel()
+				.forEach(r -> {
+					int offset = r*columns;
+					for (int c = 0; c < columns; c++) {
+						if (arrayData[r][c] == null)
+							data[offset+c] = Float.NaN;
+						else
+							data[offset+c] = arrayData[r][c].floatValue();
+					}
+				});
+		}
+		transposed = false;
+		symmetric = false;
+		index = null;
+		rowLabels = new String[nRows];
+		columnLabels = new String[nColumns];
+	}
+
+	public MatrixOps ops() { return ops; }
+
+	public Matrix like() {
+		return new FloatMatrix();
+	}
+
+	public Matrix like(int rows, int columns) {
+		return new FloatMatrix(rows, columns);
+	}
+
+	public Matrix like(int rows, int columns, double initialValue) {
+		return new FloatMatrix(rows, columns, initialValue);
+	}
+
+	public Matrix like(int rows, int columns, DISTRIBUTION dist) {
+		OjAlgoMatrix ojMat = new OjAlgoMatrix(rows, columns, dist);
+		Matrix newMat = like();
+		newMat.initialize(rows, columns, ojMat.toArray());
+		return newMat;
+	}
+
+	public Matrix like(Matrix initial) {
+		Matrix newMat = like();
+		newMat.initialize(initial.nRows(), initial.nColumns(), initial.toArray());
+		return newMat;
+	}
+
+	public Matrix like(int rows, int columns, double[][] initial) {
+		Matrix newMat = like();
+		newMat.initialize(rows, columns, initial);
+		return newMat;
+	}
+
+	/**
+	 * Return the number of rows in this matrix.
+	 *
+	 * @return number of rows
+	 */
+	public int nRows() {
+		if (index != null)
+			return index.length;
+		return nRows;
+	}
+
+	/**
+	 * Return the number of columns in this matrix.
+	 *
+	 * @return number of columns
+	 */
+	public int nColumns() { return nColumns; }
+
+	/**
+	 * Return the value at a specific location.
+	 *
+	 * @param row the row number of the value
+	 * @param column the coulmn number of the value
+	 * @return the (possibly null) value at that location
+	 */
+	public Double getValue(int row, int column) {
+		double v = doubleValue(row, column);
+		if (Double.isNaN(v))
+			return null;
+		return v;
+	}
+
+	/**
+	 * Return the value at a specific location.
+	 *
+	 * @param row the row number of the value
+	 * @param column the coulmn number of the value
+	 * @return the value at that location, if it was set, otherwise, return Double.NaN.
+	 */
+	public double doubleValue(int row, int column) {
+		if (index == null)
+			return data[row*nColumns+column];
+		return data[index[row]*nColumns+index[column]];
+	}
+
+	/**
+	 * Set the value at a specific location.
+	 *
+	 * @param row the row number of the value
+	 * @param column the coulmn number of the value
+	 * @param value the value to set
+	 */
+	public void setValue(int row, int column, double value) {
+		if (value < minValue) minValue = value;
+		if (value > maxValue) maxValue = value;
+		if (index != null) {
+			row = index[row];
+			column = index[column];
+		}
+		data[row*nColumns+column] = (float)value;
+	}
+
+	/**
+	 * Set the value at a specific location.
+	 *
+	 * @param row the row number of the value
+	 * @param column the coulmn number of the value
+	 * @param value the value to set
+	 */
+	public void setValue(int row, int column, Double value) {
+		if (value == null)
+			setValue(row, column, Double.NaN);
+		else
+			setValue(row, column, value.doubleValue());
+	}
+
+	/**
+	 * Return true if the location has a value
+	 *
+	 * @param row the row number of the value
+	 * @param column the coulmn number of the value
+	 * @return true if this location has a value, false otherwise
+	 */
+	public boolean hasValue(int row, int column) {
+		return !Double.isNaN(doubleValue(row, column));
+	}
+
+	public String[] getColumnLabels() {
+		return columnLabels;
+	}
+
+	public String getColumnLabel(int col) {
+		if (index != null)
+			col = index[col];
+		return columnLabels[col];
+	}
+
+	public void setColumnLabel(int col, String label) {
+		if (index != null)
+			col = index[col];
+		columnLabels[col] = label;
+	}
+
+	public void setColumnLabels(List<String>labelList) {
+		columnLabels = labelList.toArray(new String[0]);
+	}
+
+	public String[] getRowLabels() {
+		return rowLabels;
+	}
+
+	public String getRowLabel(int row) {
+		if (index != null)
+			row = index[row];
+		return rowLabels[row];
+	}
+
+	public void setRowLabel(int row, String label) {
+		if (index != null)
+			row = index[row];
+		rowLabels[row] = label;
+	}
+
+	public void setRowLabels(List<String>labelList) {
+		rowLabels = labelList.toArray(new String[0]);
+	}
+
+	/**
+	 * Return the distance between rows based on the metric.  The
+	 * distances are also kept in single precision.
+	 *
+	 * @param metric the metric to use to calculate the distances
+	 * @return a new Matrix of the distances between the rows
+	 */
+	public Matrix getDistanceMatrix(DistanceMetric metric) {
+		// First, see if we've already got the distance matrix
+		if (distanceMatrix != null && metric == distanceMetric)
+			return distanceMatrix;
+
+		FloatMatrix mat = new FloatMatrix(nRows(), nRows());
+		mat.transposed = false;
+		mat.symmetric = true;
+		mat.rowLabels = Arrays.copyOf(rowLabels, rowLabels.length);
+		mat.columnLabels = Arrays.copyOf(rowLabels, rowLabels.length);
+
+		DistanceEngine.fill(this, metric, mat);
+		distanceMatrix = mat;
+		distanceMetric = metric;
+		return mat;
+	}
+
+	/**
+	 * Return a 2D array with all of the values in the matrix.  The missing
+	 * values are set to Double.NaN
+	 *
+	 * @return the data in the matrix
+	 */
+	public double[][] toArray() {
+		int rows = nRows();
+		double doubleData[][] = new double[rows][nColumns];
+		IntStream.range(0, rows).parallel()
+			.forEach(row -> {
+				for (int col = 0; col < nColumns; col++)
+					doubleData[row][col] = doubleValue(row, col);
+			});
+		return doubleData;
+	}
+
+	public double[] getRow(int row) {
+		double rowData[] = new double[nColumns];
+		for (int col = 0; col < nColumns; col++)
+			rowData[col] = doubleValue(row, col);
+		return rowData;
+	}
+
+	public double[] getColumn(int col) {
+		int rows = nRows();
+		double columnData[] = new double[rows];
+		for (int row = 0; row < rows; row++)
+			columnData[row] = doubleValue(row, col);
+		return columnData;
+	}
+
+	public double getMaxValue() {
+		return maxValue;
+	}
+
+	public double getMinValue() {
+		return minValue;
+	}
+
+	public boolean isTransposed() {
+		return transposed;
+	}
+
+	public void setTransposed(boolean transposed) {
+		this.transposed = transposed;
+	}
+
+	public boolean isSymmetrical() {
+		return symmetric;
+	}
+
+	public void setSymmetrical(boolean symmetrical) {
+		this.symmetric = symmetrical;
+	}
+
+	/**
+	 * Set all missing values to zero
+	 */
+	public void setMissingToZero() {
+		IntStream.range(0, data.length).parallel()
+			.forEach(i -> {
+				if (Float.isNaN(data[i]))
+					data[i] = 0.0f;
+			});
+	}
+
+	/**
+	 * Adjust the diagonals
+	 */
+	public void adjustDiagonals() {
+		for (int col = 0; col < nColumns; col++ ) {
+			data[col*nColumns+col] = (float)maxValue;
+		}
+	}
+
+	/**
+	 * Return the rank order of the columns in a row
+	 *
+	 * @param row the row to rank the columns in
+	 * @return the rank order of the columns
+	 */
+	public double[] getRank(int row) {
+		// Get the masked row
+		double[] tData = new double[nColumns()];
+		int nVals = 0;
+		for (int column = 0; column < nColumns(); column++) {
+			if (hasValue(row,column))
+				tData[nVals++] = doubleValue(row, column);
+		}
+		if (nVals == 0)
+			return null;
+
+		// Sort the data
+		Integer index[] = MatrixUtils.indexSort(tData,nVals);
+
+		// Build a rank table
+		double[] rank = new double[nVals];
+		for (int i = 0; i < nVals; i++) rank[index[i]] = i;
+
+		// Fix for equal ranks
+		int i = 0;
+		while (i < nVals) {
+			int m = 0;
+			double value = tData[index[i]];
+			int j = i+1;
+			while (j < nVals && tData[index[j]] == value) j++;
+			m = j - i; // Number of equal ranks found
+			value = rank[index[i]] + (m-1)/2.0;
+			for (j = i; j < i+m; j++) rank[index[j]] = value;
+			i += m;
+		}
+
+		return rank;
+	}
+
+	/**
+	 * Create an index on the matrix
+	 */
+	public void index() {
+		if (!symmetric) {
+			// Can't index a non-symmetric matrix!
+			logger.warn("clusterMaker2 FloatMatrix: attempt to index an assymetric network");
+			return;
+		}
+
+		// initialize indexing array to original order
+		index = new int[nRows];
+		for (int i = 0; i < nRows; ++i) {
+			index[i] = i;
+		}
+	}
+
+	/**
+	 * Create a shallow copy of the matrix with an alternative
+	 * index.  This is an efficient way to access submatrices
+	 */
+	public Matrix submatrix(int[] index) {
+		FloatMatrix mat = new FloatMatrix();
+		mat.data = data;
+		mat.index = index;
+		mat.nRows = nRows;
+		mat.nColumns = nColumns;
+		mat.symmetric = symmetric;
+		mat.transposed = transposed;
+		mat.rowLabels = rowLabels;
+		mat.columnLabels = columnLabels;
+		mat.maxValue = maxValue;
+		mat.minValue = minValue;
+		return mat;
+	}
+
+	/**
+	 * Return a submatrix
+	 *
+	 * @param row the starting row of the submatrix
+	 * @param col the starting column of the submatrix
+	 * @param rows the number of rows
+	 * @param cols the number of columnss
+	 * @return submatrix
+	 */
+	public Matrix submatrix(int row, int col, int rows, int cols) {
+		FloatMatrix newMatrix = new FloatMatrix(rows, cols);
+		for (int r = 0; r < rows; r++) {
+			newMatrix.setRowLabel(r, rowLabels[r+row]);
+			System.arraycopy(data, (r+row)*nColumns+col, newMatrix.data, r*cols, cols);
+		}
+		for (int c = 0; c < cols; c++)
+			newMatrix.setColumnLabel(c, columnLabels[c+col]);
+		newMatrix.updateMinMax();
+
+		if (transposed)
+			newMatrix.setTransposed(transposed);
+		if (symmetric && rows == cols && row == col)
+			newMatrix.setSymmetrical(symmetric);
+		return newMatrix;
+	}
+
+	/**
+	 * Return a copy of the Matrix
+	 *
+	 * @return matrix copy
+	 */
+	public Matrix copy() {
+		return new FloatMatrix(this);
+	}
+
+	public DoubleMatrix2D getColtMatrix() {
+		DoubleMatrix2D mat = DoubleFactory2D.dense.make(nRows(), nColumns);
+		mat.assign(toArray());
+		return mat;
+	}
+
+	public String printMatrixInfo() {
+		String s = "Float Matrix("+nRows+", "+nColumns+")\n";
+		s += " cardinality is "+ops.cardinality()+"\n";
+		return s;
+	}
+
+	public String printMatrix() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("FloatMatrix("+nRows+", "+nColumns+")\n\t");
+		for (int col = 0; col < nColumns; col++) {
+			sb.append(getColumnLabel(col)+"\t");
+		}
+		sb.append("\n");
+		for (int row = 0; row < nRows(); row++) {
+			sb.append(getRowLabel(row)+":\t");
+			for (int col = 0; col < nColumns; col++) {
+				sb.append(""+doubleValue(row,col)+"\t");
+			}
+			sb.append("\n");
+		}
+		return sb.toString();
+	}
+
+	public void writeMatrix(String fileName) {
+		String tmpDir = System.getProperty("java.io.tmpdir");
+		try{
+			File file = new File(tmpDir + fileName);
+			if(!file.exists()) {
+				file.createNewFile();
+			}
+			PrintWriter writer = new PrintWriter(tmpDir + fileName, "UTF-8");
+			writer.write(printMatrix());
+			writer.close();
+		}catch(IOException e){
+			e.printStackTrace(System.out);
+		}
+	}
+
+	protected Matrix copyDataFromMatrix(DoubleMatrix2D matrix2D) {
+		FloatMatrix mat = new FloatMatrix();
+		mat.initialize(matrix2D.rows(), matrix2D.columns(), matrix2D.toArray());
+		mat.symmetric = true;
+		mat.transposed = this.transposed;
+		String[] labels;
+		if (this.transposed)
+			labels = rowLabels;
+		else
+			labels = columnLabels;
+		if (labels != null) {
+			mat.rowLabels = Arrays.copyOf(labels, labels.length);
+			mat.columnLabels = Arrays.copyOf(labels, labels.length);
+		}
+		mat.updateMinMax();
+		return mat;
+	}
+
+	public void updateMinMax() {
+		double max = Double.MIN_VALUE;
+		double min = Double.MAX_VALUE;
+		for (int i = 0; i < data.length; i++) {
+			float d = data[i];
+			if (d > max) max = d;
+			if (d < min) min = d;
+		}
+		maxValue = max;
+		minValue = min;
+	}
+
+	private void copyIn(double[][] arrayData) {
+		int columns = nColumns;
+		IntStream.range(0, nRows).parallel()
+			.forEach(r -> {
+				int offset = r*columns;
+				for (int c = 0; c < columns; c++)
+					data[offset+c] = (float)arrayData[r][c];
+			});
+	}
+
+	private static float[] allocate(int rows, int columns) {
+		long size = (long)rows*(long)columns;
+		if (size > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException("FloatMatrix: a "+rows+"x"+columns+" matrix is too large");
+		return new float[(int)size];
+	}
+}
@@ -0,0 +1,489 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix;
+
+import java.util.stream.IntStream;
+
+import org.cytoscape.application.CyUserLog;
+import org.apache.log4j.Logger;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.MatrixOps;
+
+import cern.colt.matrix.tdouble.DoubleMatrix2D;
+import cern.colt.matrix.tdouble.algo.decomposition.DenseDoubleEigenvalueDecomposition;
+import cern.colt.matrix.tdouble.algo.decomposition.DenseDoubleSingularValueDecomposition;
+import cern.colt.matrix.tdouble.algo.DenseDoubleAlgebra;
+import cern.colt.matrix.tdouble.algo.DoubleStatistic;
+
+/**
+ * MatrixOps for {@link FloatMatrix}.  The element-wise operations, sums and
+ * multiplication work directly on the float[] storage (accumulating in double
+ * precision), in parallel over rows.  The decompositions are done by Colt on a
+ * double precision copy, as in SimpleOps.
+ */
+public class FloatOps implements MatrixOps {
+	private DenseDoubleEigenvalueDecomposition decomp = null;
+	private DenseDoubleSingularValueDecomposition svdDecomp = null;
+	private static double EPSILON=Math.sqrt(Math.pow(2, -52));//get tolerance to reduce eigens
+	final Logger logger = Logger.getLogger(CyUserLog.NAME);
+	private final FloatMatrix matrix;
+
+	public FloatOps(FloatMatrix mat) {
+		this.matrix = mat;
+	}
+
+	private interface CellFunction {
+		float apply(float value);
+	}
+
+	/**
+	 * Apply a function to every value (missing values are skipped)
+	 * and update the min and max values.
+	 */
+	private void apply(CellFunction function) {
+		float[] data = matrix.data;
+		int nColumns = matrix.nColumns;
+		IntStream.range(0, matrix.nRows).parallel()
+			.forEach(row -> {
+				int offset = row*nColumns;
+				for (int i = offset; i < offset+nColumns; i++) {
+					float v = data[i];
+					if (!Float.isNaN(v))
+						data[i] = function.apply(v);
+				}
+			});
+		matrix.updateMinMax();
+	}
+
+	public void threshold() {
+		threshold(EPSILON);
+	}
+
+	public void threshold(double thresh) {
+		apply(v -> v <= thresh ? 0.0f : v);
+	}
+
+	/**
+	 * Create a transposed matrix
+	 */
+	public Matrix transpose() {
+		int nRows = matrix.nRows();
+		int nColumns = matrix.nColumns();
+		FloatMatrix result = new FloatMatrix(nColumns, nRows);
+		IntStream.range(0, nRows).parallel()
+			.forEach(row -> {
+				for (int column = 0; column < nColumns; column++)
+					result.data[column*nRows+row] = (float)matrix.doubleValue(row, column);
+			});
+		result.rowLabels = matrix.columnLabels;
+		result.columnLabels = matrix.rowLabels;
+		result.symmetric = matrix.symmetric;
+		result.transposed = true;
+		result.minValue = matrix.minValue;
+		result.maxValue = matrix.maxValue;
+		return result;
+	}
+
+	/**
+	 * Invert the matrix in place
+	 */
+	public void invertMatrix() {
+		if (matrix.nRows() != matrix.nColumns()) {
+			logger.warn("clusterMaker2 FloatMatrix: attempt to invert an assymetric network");
+		}
+		DoubleMatrix2D inverse = new DenseDoubleAlgebra().inverse(getColtMatrix());
+		matrix.initialize(inverse.rows(), inverse.columns(), inverse.toArray());
+		matrix.updateMinMax();
+	}
+
+	/**
+	 * Normalize the matrix in place
+	 */
+	public void normalize() {
+		double min = matrix.minValue;
+		double span = matrix.maxValue - matrix.minValue;
+		apply(v -> (float)((v-min)/span));
+	}
+
+	/**
+	 * Normalize the matrix in place.  This is actual matrix normalization,
+	 * i.e. all cells sum to 1.0
+	 */
+	public void normalizeMatrix() {
+		double sum = sum();
+		apply(v -> (float)(v/sum));
+	}
+
+	/**
+	 * Normalize a matrix row in place (all columns in the row sum to 1.0)
+	 *
+	 * @param row the row to normalize
+	 */
+	public double normalizeRow(int row) {
+		double sum = rowSum(row);
+		for (int column = 0; column < matrix.nColumns(); column++) {
+			double val = matrix.doubleValue(row, column);
+			if (!Double.isNaN(val))
+				matrix.setValue(row, column, val/sum);
+		}
+		return sum;
+	}
+
+	/**
+	 * Normalize a matrix column in place (all rows in the column sum to 1.0)
+	 *
+	 * @param column the column to normalize
+	 */
+	public double normalizeColumn(int column) {
+		double sum = columnSum(column);
+		divideScalarColumn(column, sum);
+		return sum;
+	}
+
+	public void standardizeRow(int row) {
+		double mean = rowMean(row);
+		double stdev = Math.sqrt(rowVariance(row, mean));
+		for (int column = 0; column < matrix.nColumns(); column++) {
+			double cell = matrix.doubleValue(row, column);
+			matrix.setValue(row, column, (cell-mean)/stdev);
+		}
+	}
+
+	public void standardizeColumn(int column) {
+		double mean = columnMean(column);
+		double stdev = Math.sqrt(columnVariance(column, mean));
+		for (int row = 0; row < matrix.nRows(); row++) {
+			double cell = matrix.doubleValue(row, column);
+			matrix.setValue(row, column, (cell-mean)/stdev);
+		}
+	}
+
+	public void centralizeColumns() {
+		int nRows = matrix.nRows();
+		IntStream.range(0, matrix.nColumns()).parallel()
+			.forEach(column -> {
+				double mean = 0.0;
+				for (int row = 0; row < nRows; row++) {
+					double cell = matrix.doubleValue(row, column);
+					if (!Double.isNaN(cell))
+						mean += cell;
+				}
+				mean /= nRows;
+				for (int row = 0; row < nRows; row++) {
+					double cell = matrix.doubleValue(row, column);
+					setRaw(row, column, Double.isNaN(cell) ? 0.0 : cell-mean);
+				}
+			});
+		matrix.updateMinMax();
+	}
+
+	public void centralizeRows() {
+		int nColumns = matrix.nColumns();
+		IntStream.range(0, matrix.nRows()).parallel()
+			.forEach(row -> {
+				double mean = 0.0;
+				for (int column = 0; column < nColumns; column++) {
+					double cell = matrix.doubleValue(row, column);
+					if (!Double.isNaN(cell))
+						mean += cell;
+				}
+				mean /= nColumns;
+				for (int column = 0; column < nColumns; column++) {
+					double cell = matrix.doubleValue(row, column);
+					setRaw(row, column, Double.isNaN(cell) ? 0.0 : cell-mean);
+				}
+			});
+		matrix.updateMinMax();
+	}
+
+	public double columnSum(int column) {
+		double sum = 0.0;
+		for (int row = 0; row < matrix.nRows(); row++) {
+			double v = matrix.doubleValue(row, column);
+			if (!Double.isNaN(v)) sum += v;
+		}
+		return sum;
+	}
+
+	public double columnSum2(int column) {
+		double sum = 0.0;
+		for (int row = 0; row < matrix.nRows(); row++) {
+			double v = matrix.doubleValue(row, column);
+			if (!Double.isNaN(v)) sum += v*v;
+		}
+		return sum;
+	}
+
+	public double rowSum(int row) {
+		double sum = 0.0;
+		for (int column = 0; column < matrix.nColumns(); column++) {
+			double v = matrix.doubleValue(row, column);
+			if (!Double.isNaN(v)) sum += v;
+		}
+		return sum;
+	}
+
+	public double rowSum2(int row) {
+		double sum = 0.0;
+		for (int column = 0; column < matrix.nColumns(); column++) {
+			double v = matrix.doubleValue(row, column);
+			if (!Double.isNaN(v)) sum += v*v;
+		}
+		return sum;
+	}
+
+	public double columnMean(int column) {
+		double sum = 0.0;
+		int count = 0;
+		for (int row = 0; row < matrix.nRows(); row++) {
+			double v = matrix.doubleValue(row, column);
+			if (!Double.isNaN(v)) { sum += v; count++; }
+		}
+		return sum/count;
+	}
+
+	public double rowMean(int row) {
+		double sum = 0.0;
+		int count = 0;
+		for (int column = 0; column < matrix.nColumns(); column++) {
+			double v = matrix.doubleValue(row, column);
+			if (!Double.isNaN(v)) { sum += v; count++; }
+		}
+		return sum/count;
+	}
+
+	public double columnVariance(int column) {
+		return columnVariance(column, columnMean(column));
+	}
+
+	public double columnVariance(int column, double mean) {
+		double variance = 0.0;
+		for (int row = 0; row < matrix.nRows(); row++) {
+			double cell = matrix.doubleValue(row, column);
+			if (!Double.isNaN(cell))
+				variance += (cell-mean)*(cell-mean);
+		}
+		return variance/matrix.nRows();
+	}
+
+	public double rowVariance(int row) {
+		return rowVariance(row, rowMean(row));
+	}
+
+	public double rowVariance(int row, double mean) {
+		double variance = 0.0;
+		for (int column = 0; column < matrix.nColumns(); column++) {
+			double cell = matrix.doubleValue(row, column);
+			if (!Double.isNaN(cell))
+				variance += (cell-mean)*(cell-mean);
+		}
+		return variance/matrix.nColumns();
+	}
+
+	public DoubleMatrix2D getColtMatrix() {
+		return matrix.getColtMatrix();
+	}
+
+	public Matrix multiplyMatrix(Matrix b) {
+		return mult(b);
+	}
+
+	public void addScalar(double v) {
+		apply(value -> (float)(value+v));
+	}
+
+	public void addElement(Matrix addend) {
+		elementwise(addend, true);
+	}
+
+	public void subtractScalar(double v) {
+		apply(value -> (float)(value-v));
+	}
+
+	public void subtractElement(Matrix subtrahend) {
+		elementwise(subtrahend, false);
+	}
+
+	public void multiplyScalar(double v) {
+		apply(value -> (float)(value*v));
+	}
+
+	public void divideScalar(double v) {
+		apply(value -> (float)(value/v));
+	}
+
+	public void divideScalarColumn(int column, double sum) {
+		for (int row = 0; row < matrix.nRows(); row++) {
+			double val = matrix.doubleValue(row, column);
+			if (!Double.isNaN(val))
+				matrix.setValue(row, column, val/sum);
+		}
+	}
+
+	public void powScalar(double v) {
+		if (v == 2.0)
+			apply(value -> value*value);
+		else
+			apply(value -> (float)Math.pow(value, v));
+	}
+
+	public Matrix covariance() {
+		DoubleMatrix2D matrix2D = DoubleStatistic.covariance(getColtMatrix());
+		return matrix.copyDataFromMatrix(matrix2D);
+	}
+
+	public Matrix correlation() {
+		DoubleMatrix2D matrix2D = DoubleStatistic.covariance(getColtMatrix());
+		matrix2D = DoubleStatistic.correlation(matrix2D);
+		return matrix.copyDataFromMatrix(matrix2D);
+	}
+
+	public void eigenInit() {
+		decomp = null;
+	}
+
+	public double[] eigenValues(boolean nonZero){
+		if (decomp == null)
+			decomp = new DenseDoubleEigenvalueDecomposition(getColtMatrix());
+
+		double[] allValues = decomp.getRealEigenvalues().toArray();
+		if (!nonZero)
+			return allValues;
+
+		int size = 0;
+		for (double d: allValues) {
+			if (Math.abs(d) > EPSILON)size++;
+		}
+		double [] nonZ = new double[size];
+		int index = 0;
+		for (double d: allValues) {
+			if (Math.abs(d) > EPSILON)
+				nonZ[index++] = d;
+		}
+
+		return nonZ;
+	}
+
+	public double[][] eigenVectors(){
+		if (decomp == null)
+			decomp = new DenseDoubleEigenvalueDecomposition(getColtMatrix());
+		return decomp.getV().toArray();
+	}
+
+	public void svdInit() {
+		svdDecomp = null;
+	}
+
+	public Matrix svdU() {
+		if (svdDecomp == null) {
+			svdDecomp= new DenseDoubleSingularValueDecomposition(getColtMatrix(), true, false);
+		}
+		return wrap(svdDecomp.getU());
+	}
+
+	public Matrix svdS() {
+		if (svdDecomp == null) {
+			svdDecomp= new DenseDoubleSingularValueDecomposition(getColtMatrix(), true, false);
+		}
+		return wrap(svdDecomp.getS());
+	}
+
+	public Matrix svdV() {
+		if (svdDecomp == null) {
+			svdDecomp= new DenseDoubleSingularValueDecomposition(getColtMatrix(), true, false);
+		}
+		return wrap(svdDecomp.getV());
+	}
+
+	private Matrix wrap(DoubleMatrix2D mat) {
+		Matrix result = new FloatMatrix();
+		result.initialize(mat.rows(), mat.columns(), mat.toArray());
+		return result;
+	}
+
+	/**
+	 * Multiply this matrix by b.  Each row of the result is accumulated
+	 * in double precision, walking the rows of b so that the inner loop
+	 * is sequential in memory.
+	 */
+	public Matrix mult(Matrix b) {
+		int nRows = matrix.nRows();
+		int inner = matrix.nColumns();
+		int nColumns = b.nColumns();
+		float[] bData;
+		if (b instanceof FloatMatrix && ((FloatMatrix)b).index == null) {
+			bData = ((FloatMatrix)b).data;
+		} else {
+			float[] copy = new float[b.nRows()*nColumns];
+			IntStream.range(0, b.nRows()).parallel()
+				.forEach(row -> {
+					for (int column = 0; column < nColumns; column++)
+						copy[row*nColumns+column] = (float)b.doubleValue(row, column);
+				});
+			bData = copy;
+		}
+
+		FloatMatrix result = new FloatMatrix(nRows, nColumns);
+		IntStream.range(0, nRows).parallel()
+			.forEach(row -> {
+				double[] sums = new double[nColumns];
+				for (int k = 0; k < inner; k++) {
+					double a = matrix.doubleValue(row, k);
+					if (a == 0.0) continue;
+					int offset = k*nColumns;
+					for (int column = 0; column < nColumns; column++)
+						sums[column] += a*bData[offset+column];
+				}
+				int offset = row*nColumns;
+				for (int column = 0; column < nColumns; column++)
+					result.data[offset+column] = (float)sums[column];
+			});
+		result.rowLabels = matrix.rowLabels;
+		result.columnLabels = b.getColumnLabels();
+		result.transposed = matrix.transposed;
+		result.updateMinMax();
+		return result;
+	}
+
+	public int cardinality() {
+		float[] data = matrix.data;
+		return (int)IntStream.range(0, data.length).parallel()
+		                 .filter(i -> !Float.isNaN(data[i]))
+		                 .count();
+	}
+
+	public double sum() {
+		float[] data = matrix.data;
+		int nColumns = matrix.nColumns;
+		return IntStream.range(0, matrix.nRows).parallel()
+			.mapToDouble(row -> {
+				double sum = 0.0;
+				for (int i = row*nColumns; i < (row+1)*nColumns; i++) {
+					if (!Float.isNaN(data[i]))
+						sum += data[i];
+				}
+				return sum;
+			}).sum();
+	}
+
+	private void setRaw(int row, int column, double value) {
+		if (matrix.index != null) {
+			row = matrix.index[row];
+			column = matrix.index[column];
+		}
+		matrix.data[row*matrix.nColumns+column] = (float)value;
+	}
+
+	private void elementwise(Matrix other, boolean add) {
+		int nColumns = matrix.nColumns();
+		IntStream.range(0, matrix.nRows()).parallel()
+			.forEach(row -> {
+				for (int column = 0; column < nColumns; column++) {
+					double value = matrix.doubleValue(row, column);
+					double o = other.doubleValue(row, column);
+					if (!Double.isNaN(value) && !Double.isNaN(o))
+						setRaw(row, column, add ? value+o : value-o);
+				}
+			});
+		matrix.updateMinMax();
+	}
+}
@@ -66,6 +66,7 @@ public class APCluster extends AbstractNetworkClusterer  {
 	public final static String GROUP_ATTRIBUTE = SHORTNAME;
 	
 	RunAP runAP = null;
+	SparseAP sparseAP = null;
 
 	@Tunable(description="Network to cluster", context="nogui")
 	public CyNetwork network = null;
@@ -102,7 +103,11 @@ public class APCluster extends AbstractNetworkClusterer  {
 
 		NodeCluster.init();
 		
-		CyMatrix matrix = context.edgeAttributeHandler.getMatrix();
+		CyMatrix matrix;
+		if (context.sparseEngine)
+			matrix = context.edgeAttributeHandler.getSparseMatrix();
+		else
+			matrix = context.edgeAttributeHandler.getMatrix();
 		if (matrix == null) {
 			monitor.showMessage(TaskMonitor.Level.ERROR,"Can't get distance matrix: no attribute value?");
 			return;
@@ -115,13 +120,23 @@ public class APCluster extends AbstractNetworkClusterer  {
 		if (canceled) return;
 
 		//Cluster the nodes
-		runAP = new RunAP(matrix, context.lambda, context.preference, context.rNumber, monitor, debug);
+		List<NodeCluster> clusters;
+		if (context.sparseEngine) {
+			sparseAP = new SparseAP(matrix, context.lambda, context.preference, context.rNumber,
+			                        context.convergenceIterations, monitor, debug);
 
-		if (canceled) return;
+			if (canceled) return;
+
+			monitor.showMessage(TaskMonitor.Level.INFO,"Clustering...");
+			clusters = sparseAP.run(network, monitor);
+		} else {
+			runAP = new RunAP(matrix, context.lambda, context.preference, context.rNumber, monitor, debug);
 
-		monitor.showMessage(TaskMonitor.Level.INFO,"Clustering...");
+			if (canceled) return;
 
-		List<NodeCluster> clusters = runAP.run(network, monitor);
+			monitor.showMessage(TaskMonitor.Level.INFO,"Clustering...");
+			clusters = runAP.run(network, monitor);
+		}
 		if (clusters == null) return; // Canceled?
 
 		monitor.showMessage(TaskMonitor.Level.INFO,"Removing groups");
@@ -151,13 +166,18 @@ public class APCluster extends AbstractNetworkClusterer  {
 
 	public void cancel() {
 		canceled = true;
-		runAP.cancel();
+		if (runAP != null)
+			runAP.cancel();
+		if (sparseAP != null)
+			sparseAP.cancel();
 	}
 
 	public void setParams(List<String>params) {
 		params.add("lambda="+context.lambda);
 		params.add("rNumber="+context.rNumber);
 		params.add("preference="+context.preference);
+		params.add("sparseEngine="+context.sparseEngine);
+		params.add("convergenceIterations="+context.convergenceIterations);
 	}
 
 	@Override
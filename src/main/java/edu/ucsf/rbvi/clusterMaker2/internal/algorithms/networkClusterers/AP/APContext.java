@@ -62,6 +62,21 @@ public class APContext implements ClusterAlgorithmContext {
 	@Tunable(description = "Number of iterations",
 	         groups={"AP Tuning"},gravity=3.0)
 	public int rNumber = 8;
+
+	@Tunable(description = "Use sparse AP engine",
+	         longDescription = "If this value is set to ```true``` AP is run on a compressed sparse copy of the "+
+	                           "similarity matrix, which uses memory proportional to the number of edges rather "+
+	                           "than the square of the number of nodes.",
+	         exampleStringValue = "false",
+	         groups={"AP Tuning"},gravity=4.0)
+	public boolean sparseEngine = false;
+
+	@Tunable(description = "Stop after exemplars are unchanged for",
+	         longDescription = "When using the sparse engine, stop iterating once the exemplars have not changed "+
+	                           "for this many iterations.  If this is set to 0, all of the iterations are run.",
+	         exampleStringValue = "0",
+	         groups={"AP Tuning"}, dependsOn="sparseEngine=true", gravity=5.0)
+	public int convergenceIterations = 0;
 	       
 	@ContainsTunables
 	public EdgeAttributeHandler edgeAttributeHandler;
@@ -87,6 +102,8 @@ public class APContext implements ClusterAlgorithmContext {
 		lambda = origin.lambda;
 		preference = origin.preference;
 		rNumber = origin.rNumber;
+		sparseEngine = origin.sparseEngine;
+		convergenceIterations = origin.convergenceIterations;
 	}
 
 	public void setNetwork(CyNetwork network) {
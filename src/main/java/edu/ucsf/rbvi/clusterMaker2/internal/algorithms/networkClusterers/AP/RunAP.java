@@ -30,7 +30,6 @@ public class RunAP {
 	private List<CyEdge> edges;
 	private boolean canceled = false;
 	private TaskMonitor monitor;
-	protected int clusterCount = 0;
 	private CyMatrix distanceMatrix = null;
 	private ResponsibilityMatrix r_matrix = null;
 	private AvailabilityMatrix a_matrix = null;
@@ -98,23 +97,34 @@ public class RunAP {
 			monitor.setProgress((double)i/(double)number_iterations);
 		}
 
+		int[] exemplars = new int[s_matrix.rows()];
+		for (int i = 0; i < exemplars.length; i++)
+			exemplars[i] = get_exemplar(i);
+
+		return getClusters(nodes, exemplars, monitor, debug);
+	}	
+
+	/**
+	 * Turn the exemplar assignments into clusters.  Each node is joined to
+	 * its exemplar's cluster.
+	 *
+	 * @param nodes the nodes
+	 * @param exemplars the exemplar for each node
+	 * @param monitor the task monitor
+	 * @param debug if true, log the exemplars and clusters
+	 * @return the clusters, or null if there aren't any
+	 */
+	static List<NodeCluster> getClusters(List<CyNode> nodes, int[] exemplars, TaskMonitor monitor,
+	                                     boolean debug) {
 		if (debug) {
-			for (int i = 0; i < s_matrix.rows(); i++) {
-				monitor.showMessage(TaskMonitor.Level.INFO,"Node "+nodes.get(i)+" has exemplar "+get_exemplar(i));
+			for (int i = 0; i < exemplars.length; i++) {
+				monitor.showMessage(TaskMonitor.Level.INFO,"Node "+nodes.get(i)+" has exemplar "+exemplars[i]);
 			}
 		}
 
 		monitor.showMessage(TaskMonitor.Level.INFO,"Assigning nodes to clusters");
 
-		Map<Integer, NodeCluster> clusterMap = getClusterMap();
-
-		//Update node attributes in network to include clusters. Create cygroups from clustered nodes
-		monitor.showMessage(TaskMonitor.Level.INFO,"Created "+clusterMap.size()+" clusters");
-	       
-		if (clusterCount == 0) {
-			monitor.showMessage(TaskMonitor.Level.ERROR,"Created 0 clusters!!!!");
-			return null;
-		}
+		Map<Integer, NodeCluster> clusterMap = getClusterMap(nodes, exemplars);
 
 		int clusterNumber = 1;
 		Map<NodeCluster,NodeCluster> cMap = new HashMap<NodeCluster,NodeCluster>();
@@ -137,9 +147,17 @@ public class RunAP {
 			clusterNumber++;
 		}
 
+		//Update node attributes in network to include clusters. Create cygroups from clustered nodes
+		monitor.showMessage(TaskMonitor.Level.INFO,"Created "+cMap.size()+" clusters");
+	       
+		if (cMap.size() == 0) {
+			monitor.showMessage(TaskMonitor.Level.ERROR,"Created 0 clusters!!!!");
+			return null;
+		}
+
 		Set<NodeCluster>clusters = cMap.keySet();
 		return new ArrayList<NodeCluster>(clusters);
-	}	
+	}
 
 	//Exchange Messages between Responsibility and Availibility Matrix for Single Iteration of Affinity Propogation
 	public void iterate_message_exchange(TaskMonitor monitor, int iteration){
@@ -195,13 +213,16 @@ public class RunAP {
 	  return exemplar;
 	}
 
-	private Map<Integer, NodeCluster> getClusterMap(){
+	private static Map<Integer, NodeCluster> getClusterMap(List<CyNode> nodes, int[] exemplars){
 	    
 		HashMap<Integer, NodeCluster> clusterMap = new HashMap<Integer, NodeCluster>();
+		Map<CyNode, Integer> nodeIndex = new HashMap<CyNode, Integer>();
+		for (int i = 0; i < nodes.size(); i++)
+			nodeIndex.put(nodes.get(i), i);
 
-		for(int i = 0; i < s_matrix.rows(); i++){
+		for(int i = 0; i < exemplars.length; i++){
 		
-			int exemplar = get_exemplar(i);
+			int exemplar = exemplars[i];
 			// System.out.println("Examplar for node "+i+" is "+exemplar);
 		    
 			if (clusterMap.containsKey(exemplar)) {
@@ -217,7 +238,6 @@ public class RunAP {
 					if (iCluster != exemplarCluster) {
 						exemplarCluster.addAll(iCluster);
 						// System.out.println("Combining "+i+"["+iCluster+"] and "+exemplar+" ["+exemplarCluster+"]");
-						clusterCount--;
 						clusterMap.remove(i);
 					}
 				} else {
@@ -226,7 +246,7 @@ public class RunAP {
 				}
 
 				// Update Clusters
-				updateClusters(exemplarCluster, clusterMap);
+				updateClusters(exemplarCluster, clusterMap, nodeIndex);
 			} else {
 				NodeCluster iCluster;
 
@@ -245,17 +265,17 @@ public class RunAP {
 					if (exemplar != i)
 						iCluster.add(nodes, exemplar);
 					// System.out.println("New cluster ["+iCluster+"]");
-					clusterCount++;
 				}
-				updateClusters(iCluster, clusterMap);
+				updateClusters(iCluster, clusterMap, nodeIndex);
 			}
 		}
 		return clusterMap;
 	}
 
-	private void updateClusters(NodeCluster cluster, Map<Integer, NodeCluster> clusterMap) {
+	private static void updateClusters(NodeCluster cluster, Map<Integer, NodeCluster> clusterMap,
+	                                   Map<CyNode, Integer> nodeIndex) {
 		for (CyNode node: cluster) {
-			clusterMap.put(nodes.indexOf(node), cluster);
+			clusterMap.put(nodeIndex.get(node), cluster);
 		}
 	}
 }
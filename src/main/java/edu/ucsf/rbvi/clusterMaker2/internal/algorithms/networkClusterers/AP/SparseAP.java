@@ -0,0 +1,308 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.AP;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+import org.cytoscape.work.TaskMonitor;
+
+import cern.colt.list.tdouble.DoubleArrayList;
+import cern.colt.list.tint.IntArrayList;
+import cern.colt.matrix.tdouble.DoubleMatrix2D;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.NodeCluster;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.ColtMatrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.CyMatrix;
+
+/**
+ * A sparse implementation of the message passing in {@link RunAP}.  The
+ * similarities are kept in compressed sparse rows, and the responsibilities
+ * and availabilities are primitive arrays aligned with the similarities, so
+ * only the edges (and the preferences on the diagonal) are ever stored.  A
+ * second index over the same entries, by column, is used for the column sums.
+ *
+ * The updates are the same as in {@link ResponsibilityMatrix} and
+ * {@link AvailabilityMatrix}, with the row maxima and the responsibility updates
+ * done in a row-parallel pass, and the column positive-sums in a column-parallel
+ * pass.  After each iteration the exemplars are recalculated, and the iteration
+ * stops early once they have been unchanged for convergenceIterations iterations.
+ */
+public class SparseAP {
+	private double lambda; /*lambda value from 0 to 1 dampens messages passed to avoid numberical oscillation*/
+	private double pref; //preference parameter determines cluster density
+	private int number_iterations; //maximum number of message passing iterations
+	private int convergenceIterations; //stop if the exemplars don't change for this many iterations
+	private volatile boolean canceled = false;
+	private boolean debug;
+	private CyMatrix distanceMatrix;
+	private List<CyNode> nodes;
+	private int n;
+
+	// Compressed sparse rows, with the column indices sorted in each row
+	private int[] rowStart;
+	private int[] columns;
+	private double[] similarity;
+	private double[] responsibility;
+	private double[] availability;
+	private int[] diagonal;	// Position of (i,i), or -1
+
+	// The same entries, by column
+	private int[] columnStart;
+	private int[] columnEntries;
+
+	public SparseAP(CyMatrix dMat, double lambdaParameter, double preferenceParameter,
+	                int num_iterations, int convergenceIterations, TaskMonitor monitor, boolean debug) {
+		this.distanceMatrix = dMat;
+		this.pref = preferenceParameter;
+		this.number_iterations = num_iterations;
+		this.convergenceIterations = convergenceIterations;
+		this.debug = debug;
+		this.lambda = Math.min(1.0, Math.max(0.0, lambdaParameter));
+		this.nodes = dMat.getRowNodes();
+		this.n = dMat.nRows();
+	}
+
+	public void cancel () { canceled = true; }
+
+	public List<NodeCluster> run(CyNetwork network, TaskMonitor monitor) {
+		monitor.setProgress(0.01);
+		monitor.setStatusMessage("Building sparse matrix");
+		buildRows(distanceMatrix);
+		monitor.showMessage(TaskMonitor.Level.INFO, "Similarity matrix has "+columns.length+" entries");
+
+		double[] availabilityEvidence = new double[n];
+		double[] responsibilityEvidence = new double[n];
+		int[] exemplars = new int[n];
+		int[] previous = new int[n];
+		Arrays.fill(previous, -1);
+		int stable = 0;
+
+		for (int i = 0; i < number_iterations; i++) {
+			monitor.showMessage(TaskMonitor.Level.INFO,"Exchanging messages: iteration "+i);
+			updateResponsibilities(availabilityEvidence);
+			updateAvailabilities(responsibilityEvidence);
+
+			if (canceled) {
+				monitor.showMessage(TaskMonitor.Level.INFO,"canceled");
+				return null;
+			}
+			monitor.setProgress((double)i/(double)number_iterations);
+
+			if (convergenceIterations > 0) {
+				updateExemplars(exemplars);
+				if (Arrays.equals(exemplars, previous)) {
+					stable++;
+				} else {
+					stable = 0;
+					System.arraycopy(exemplars, 0, previous, 0, n);
+				}
+				if (stable >= convergenceIterations) {
+					monitor.showMessage(TaskMonitor.Level.INFO,"Exemplars unchanged for "+stable+
+					                    " iterations, stopping after iteration "+i);
+					break;
+				}
+			}
+		}
+
+		updateExemplars(exemplars);
+		return RunAP.getClusters(nodes, exemplars, monitor, debug);
+	}
+
+	// Calculate the availability maxima (AvailabilityMatrix.updateEvidence) and then
+	// the new responsibilities (ResponsibilityMatrix.update), one row at a time
+	private void updateResponsibilities(double[] availabilityEvidence) {
+		IntStream.range(0, n).parallel()
+			.forEach(row -> {
+				double max = -Double.MAX_VALUE;
+				for (int k = rowStart[row]; k < rowStart[row+1]; k++) {
+					if (columns[k] != row)
+						max = Math.max(max, availability[k]+similarity[k]);
+				}
+				availabilityEvidence[row] = max;
+
+				for (int k = rowStart[row]; k < rowStart[row+1]; k++) {
+					double newValue = similarity[k] - max;
+					responsibility[k] = responsibility[k]*lambda+newValue*(1-lambda);
+				}
+			});
+	}
+
+	// Sum the positive responsibilities (ResponsibilityMatrix.updateEvidence) one
+	// column at a time, and then update the availabilities (AvailabilityMatrix.update)
+	private void updateAvailabilities(double[] responsibilityEvidence) {
+		IntStream.range(0, n).parallel()
+			.forEach(col -> {
+				double sum = 0.0;
+				for (int e = columnStart[col]; e < columnStart[col+1]; e++) {
+					int k = columnEntries[e];
+					if (k != diagonal[col])
+						sum += Math.max(0.0, responsibility[k]);
+				}
+				responsibilityEvidence[col] = sum;
+			});
+
+		IntStream.range(0, n).parallel()
+			.forEach(row -> {
+				for (int k = rowStart[row]; k < rowStart[row+1]; k++) {
+					int col = columns[k];
+					double newValue;
+					if (row != col) {
+						double self = diagonal[col] >= 0 ? responsibility[diagonal[col]] : 0.0;
+						newValue = Math.min(0.0, self + responsibilityEvidence[col] - Math.max(0.0, responsibility[k]));
+					} else {
+						newValue = responsibilityEvidence[col];
+					}
+					availability[k] = availability[k]*lambda+newValue*(1-lambda);
+				}
+			});
+	}
+
+	// The exemplar for each row is the column that maximizes a(i,k) + r(i,k).  As in
+	// RunAP.get_exemplar, this runs over all of the columns, so the columns that
+	// aren't stored count as 0: only the first of them can win, and only if
+	// nothing stored is larger.
+	private void updateExemplars(int[] exemplars) {
+		IntStream.range(0, n).parallel()
+			.forEach(row -> {
+				double max_value = -1000;
+				int exemplar = 0;
+				int firstMissing = 0;
+				for (int k = rowStart[row]; k < rowStart[row+1]; k++) {
+					int col = columns[k];
+					if (col == firstMissing)
+						firstMissing++;
+					double sum = availability[k] + responsibility[k];
+					if (sum > max_value) {
+						max_value = sum;
+						exemplar = col;
+					}
+				}
+				if (firstMissing < n && (0.0 > max_value || (0.0 == max_value && firstMissing < exemplar)))
+					exemplar = firstMissing;
+				exemplars[row] = exemplar;
+			});
+	}
+
+	private void buildRows(CyMatrix matrix) {
+		IntArrayList rowList = new IntArrayList();
+		IntArrayList columnList = new IntArrayList();
+		DoubleArrayList valueList = new DoubleArrayList();
+		if (matrix instanceof ColtMatrix) {
+			DoubleMatrix2D data = matrix.getColtMatrix();
+			data.getNonZeros(rowList, columnList, valueList);
+		} else {
+			for (int row = 0; row < n; row++) {
+				for (int col = 0; col < n; col++) {
+					double v = matrix.doubleValue(row, col);
+					if (v != 0.0 && !Double.isNaN(v)) {
+						rowList.add(row);
+						columnList.add(col);
+						valueList.add(v);
+					}
+				}
+			}
+		}
+		int nnz = rowList.size();
+		int[] rows = rowList.elements();
+		int[] cols = columnList.elements();
+		double[] vals = valueList.elements();
+
+		// The preferences go on the diagonal (replacing anything that was there),
+		// and like any other zero, a zero preference isn't stored
+		boolean[] keep = new boolean[nnz];
+		int count = 0;
+		for (int k = 0; k < nnz; k++) {
+			keep[k] = rows[k] != cols[k];
+			if (keep[k]) count++;
+		}
+		if (pref != 0.0)
+			count += n;
+
+		rowStart = new int[n+1];
+		for (int k = 0; k < nnz; k++)
+			if (keep[k]) rowStart[rows[k]+1]++;
+		if (pref != 0.0) {
+			for (int row = 0; row < n; row++)
+				rowStart[row+1]++;
+		}
+		for (int row = 0; row < n; row++)
+			rowStart[row+1] += rowStart[row];
+
+		columns = new int[count];
+		similarity = new double[count];
+		int[] next = Arrays.copyOf(rowStart, n);
+		for (int k = 0; k < nnz; k++) {
+			if (!keep[k]) continue;
+			int pos = next[rows[k]]++;
+			columns[pos] = cols[k];
+			similarity[pos] = vals[k];
+		}
+		if (pref != 0.0) {
+			for (int row = 0; row < n; row++) {
+				int pos = next[row]++;
+				columns[pos] = row;
+				similarity[pos] = pref;
+			}
+		}
+
+		// Sort each row by column
+		diagonal = new int[n];
+		IntStream.range(0, n).parallel()
+			.forEach(row -> {
+				sortRow(rowStart[row], rowStart[row+1]);
+				diagonal[row] = -1;
+				for (int k = rowStart[row]; k < rowStart[row+1]; k++) {
+					if (columns[k] == row)
+						diagonal[row] = k;
+				}
+			});
+
+		// Index the entries by column
+		columnStart = new int[n+1];
+		for (int k = 0; k < count; k++)
+			columnStart[columns[k]+1]++;
+		for (int col = 0; col < n; col++)
+			columnStart[col+1] += columnStart[col];
+		columnEntries = new int[count];
+		int[] nextColumn = Arrays.copyOf(columnStart, n);
+		for (int k = 0; k < count; k++)
+			columnEntries[nextColumn[columns[k]]++] = k;
+
+		responsibility = new double[count];
+		availability = new double[count];
+	}
+
+	// Insertion sort for short rows, otherwise sort through a packed key
+	private void sortRow(int from, int to) {
+		if (to - from < 32) {
+			for (int i = from+1; i < to; i++) {
+				int c = columns[i];
+				double v = similarity[i];
+				int j = i-1;
+				while (j >= from && columns[j] > c) {
+					columns[j+1] = columns[j];
+					similarity[j+1] = similarity[j];
+					j--;
+				}
+				columns[j+1] = c;
+				similarity[j+1] = v;
+			}
+			return;
+		}
+		long[] keys = new long[to-from];
+		for (int i = from; i < to; i++)
+			keys[i-from] = ((long)columns[i] << 32) | (i-from);
+		Arrays.sort(keys);
+		int[] sortedColumns = new int[to-from];
+		double[] sortedValues = new double[to-from];
+		for (int i = 0; i < keys.length; i++) {
+			int index = (int)(keys[i] & 0xffffffffL);
+			sortedColumns[i] = columns[from+index];
+			sortedValues[i] = similarity[from+index];
+		}
+		System.arraycopy(sortedColumns, 0, columns, from, keys.length);
+		System.arraycopy(sortedValues, 0, similarity, from, keys.length);
+	}
+}
@@ -0,0 +1,361 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.cytoscape.model.CyColumn;
+import org.cytoscape.model.CyEdge;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.NodeCluster;
+import edu.ucsf.rbvi.clusterMaker2.internal.utils.ModelUtils;
+
+/**
+ * An undirected, weighted graph stored as compressed sparse rows of primitive
+ * arrays.  This is the common input for the in-process community detection
+ * engines (Leiden, Multilevel).  Every undirected edge appears in the rows of
+ * both of its end points, parallel edges are merged by summing their weights and
+ * self loops are kept separately in {@link #selfLoops}.
+ *
+ * Graphs produced by {@link #aggregateInto} represent communities of the graph
+ * they were built from.  The arrays are sized by capacity rather than by the
+ * current node and edge count so that the same instance can be refilled level
+ * after level without allocating a new graph.
+ */
+public class CompressedGraph {
+	/*No encapsulation, the engines walk these arrays directly*/
+	public int nodeCount;
+	public int[] offsets;     // nodeCount+1 row offsets into neighbors/weights
+	public int[] neighbors;
+	public double[] weights;
+	public double[] selfLoops;
+	public double[] strength;  // weighted degree, self loops counted twice
+	public double[] nodeSize;  // number of original nodes represented
+	public double totalWeight; // sum of strength, i.e. 2m
+
+	// The network nodes for a graph built from a network, null for aggregates
+	CyNode[] nodes = null;
+
+	// Scratch space reused by aggregateInto
+	private double[] accumulator = null;
+	private int[] marker = null;
+	private int[] memberStart = null;
+	private int[] members = null;
+
+	/**
+	 * Create an empty graph.  Use this as the target of {@link #aggregateInto}
+	 */
+	public CompressedGraph() {
+		nodeCount = 0;
+		offsets = new int[1];
+		neighbors = new int[0];
+		weights = new double[0];
+		selfLoops = new double[0];
+		strength = new double[0];
+		nodeSize = new double[0];
+		totalWeight = 0.0;
+	}
+
+	/**
+	 * Build the graph for a list of nodes in a network.  Only edges between nodes in
+	 * the list are included.  Edge direction is ignored.
+	 *
+	 * @param network the network the nodes and edges come from
+	 * @param nodeList the nodes to include, in the order used for the node indices
+	 * @param weightAttribute the edge column holding the weights, or null (or "--None--")
+	 * to give every edge a weight of 1.0.  Edges with no value get a weight of 1.0 and
+	 * edges with a non-positive weight are ignored.
+	 */
+	public static CompressedGraph fromNetwork(CyNetwork network, List<CyNode> nodeList,
+	                                          String weightAttribute) {
+		int n = nodeList.size();
+		CompressedGraph graph = new CompressedGraph();
+		graph.ensureNodeCapacity(n);
+		graph.nodeCount = n;
+		graph.nodes = nodeList.toArray(new CyNode[n]);
+
+		Map<CyNode, Integer> nodeIndex = new HashMap<>(n*2);
+		for (int i = 0; i < n; i++) {
+			nodeIndex.put(graph.nodes[i], i);
+			graph.nodeSize[i] = 1.0;
+		}
+
+		CyColumn weightColumn = null;
+		if (weightAttribute != null && !weightAttribute.equals(ModelUtils.NONEATTRIBUTE))
+			weightColumn = network.getDefaultEdgeTable().getColumn(weightAttribute);
+
+		// Gather the edges we are going to use
+		List<CyEdge> edgeList = network.getEdgeList();
+		int[] sources = new int[edgeList.size()];
+		int[] targets = new int[edgeList.size()];
+		double[] edgeWeights = new double[edgeList.size()];
+		int[] degree = new int[n];
+		int edgeCount = 0;
+		for (CyEdge edge: edgeList) {
+			Integer source = nodeIndex.get(edge.getSource());
+			Integer target = nodeIndex.get(edge.getTarget());
+			if (source == null || target == null)
+				continue;
+
+			double weight = 1.0;
+			if (weightColumn != null) {
+				Object value = network.getRow(edge).get(weightColumn.getName(), weightColumn.getType());
+				if (value instanceof Number)
+					weight = ((Number)value).doubleValue();
+			}
+			if (!(weight > 0.0))
+				continue;
+
+			if (source.intValue() == target.intValue()) {
+				graph.selfLoops[source] += weight;
+				continue;
+			}
+			sources[edgeCount] = source;
+			targets[edgeCount] = target;
+			edgeWeights[edgeCount] = weight;
+			degree[source]++;
+			degree[target]++;
+			edgeCount++;
+		}
+
+		// Fill the rows
+		int[] offsets = new int[n+1];
+		for (int i = 0; i < n; i++)
+			offsets[i+1] = offsets[i]+degree[i];
+		int[] neighbors = new int[offsets[n]];
+		double[] weights = new double[offsets[n]];
+		int[] fill = Arrays.copyOf(offsets, n);
+		for (int e = 0; e < edgeCount; e++) {
+			int s = sources[e], t = targets[e];
+			neighbors[fill[s]] = t; weights[fill[s]++] = edgeWeights[e];
+			neighbors[fill[t]] = s; weights[fill[t]++] = edgeWeights[e];
+		}
+
+		// Merge parallel edges in place
+		int[] position = new int[n];
+		Arrays.fill(position, -1);
+		int out = 0;
+		graph.offsets[0] = 0;
+		for (int i = 0; i < n; i++) {
+			int rowStart = out;
+			for (int k = offsets[i]; k < offsets[i+1]; k++) {
+				int j = neighbors[k];
+				if (position[j] >= rowStart) {
+					weights[position[j]] += weights[k];
+				} else {
+					position[j] = out;
+					neighbors[out] = j;
+					weights[out++] = weights[k];
+				}
+			}
+			graph.offsets[i+1] = out;
+		}
+		graph.neighbors = neighbors;
+		graph.weights = weights;
+		graph.computeStrength();
+		return graph;
+	}
+
+	/**
+	 * Return the number of (directed) adjacency entries, i.e. twice the number of
+	 * undirected edges without self loops.
+	 */
+	public int getEntryCount() { return offsets[nodeCount]; }
+
+	/**
+	 * Return the network node for an index.  Only valid for a graph built from a network.
+	 */
+	public CyNode getNode(int index) { return nodes[index]; }
+
+	/**
+	 * Collapse every community of this graph into a single node of <i>target</i>.
+	 * Edges between communities are summed and edges inside a community become self
+	 * loops.  The arrays of <i>target</i> are reused whenever they are big enough.
+	 *
+	 * @param membership the community (0..communityCount-1) of each node of this graph
+	 * @param communityCount the number of communities
+	 * @param target the graph to fill; must not be this graph
+	 * @return target
+	 */
+	public CompressedGraph aggregateInto(int[] membership, int communityCount, CompressedGraph target) {
+		if (target == this)
+			throw new IllegalArgumentException("Can't aggregate a graph into itself");
+
+		int n = nodeCount;
+		target.nodes = null;
+		target.ensureNodeCapacity(communityCount);
+		target.nodeCount = communityCount;
+		if (target.neighbors.length < getEntryCount()) {
+			target.neighbors = new int[getEntryCount()];
+			target.weights = new double[getEntryCount()];
+		}
+
+		// Bucket the nodes by community
+		target.memberStart = ensure(target.memberStart, communityCount+1);
+		target.members = ensure(target.members, n);
+		target.accumulator = ensure(target.accumulator, communityCount);
+		target.marker = ensure(target.marker, communityCount);
+		int[] memberStart = target.memberStart;
+		int[] members = target.members;
+		double[] accumulator = target.accumulator;
+		int[] marker = target.marker;
+
+		Arrays.fill(memberStart, 0, communityCount+1, 0);
+		for (int i = 0; i < n; i++)
+			memberStart[membership[i]+1]++;
+		for (int c = 0; c < communityCount; c++)
+			memberStart[c+1] += memberStart[c];
+		for (int i = 0; i < n; i++)
+			members[memberStart[membership[i]]++] = i;
+		for (int c = communityCount; c > 0; c--)
+			memberStart[c] = memberStart[c-1];
+		memberStart[0] = 0;
+
+		Arrays.fill(marker, 0, communityCount, -1);
+		int out = 0;
+		target.offsets[0] = 0;
+		for (int c = 0; c < communityCount; c++) {
+			int rowStart = out;
+			double self = 0.0;
+			double size = 0.0;
+			for (int m = memberStart[c]; m < memberStart[c+1]; m++) {
+				int v = members[m];
+				self += selfLoops[v];
+				size += nodeSize[v];
+				for (int k = offsets[v]; k < offsets[v+1]; k++) {
+					int d = membership[neighbors[k]];
+					if (d == c) {
+						// Every internal edge is seen from both ends
+						self += weights[k]/2.0;
+					} else if (marker[d] >= rowStart) {
+						accumulator[d] += weights[k];
+					} else {
+						marker[d] = out;
+						target.neighbors[out++] = d;
+						accumulator[d] = weights[k];
+					}
+				}
+			}
+			for (int k = rowStart; k < out; k++)
+				target.weights[k] = accumulator[target.neighbors[k]];
+			target.selfLoops[c] = self;
+			target.nodeSize[c] = size;
+			target.offsets[c+1] = out;
+		}
+		target.computeStrength();
+		return target;
+	}
+
+	/**
+	 * Calculate the modularity of a partition of this graph.
+	 *
+	 * @param membership the community (0..communityCount-1) of each node
+	 * @param communityCount the number of communities
+	 * @param resolution the resolution parameter (1.0 for standard modularity)
+	 */
+	public double modularity(int[] membership, int communityCount, double resolution) {
+		if (totalWeight == 0.0)
+			return 0.0;
+		double[] internal = new double[communityCount];
+		double[] total = new double[communityCount];
+		for (int i = 0; i < nodeCount; i++) {
+			int c = membership[i];
+			total[c] += strength[i];
+			internal[c] += 2.0*selfLoops[i];
+			for (int k = offsets[i]; k < offsets[i+1]; k++) {
+				if (membership[neighbors[k]] == c)
+					internal[c] += weights[k];
+			}
+		}
+		double q = 0.0;
+		for (int c = 0; c < communityCount; c++)
+			q += internal[c] - resolution*total[c]*total[c]/totalWeight;
+		return q/totalWeight;
+	}
+
+	/**
+	 * Turn a membership array into NodeClusters.  Clusters are numbered from 1
+	 * in order of decreasing size, which is the same order the remote service
+	 * returns its partitions in.  Only valid for a graph built from a network.
+	 *
+	 * @param membership the community (0..communityCount-1) of each node
+	 * @param communityCount the number of communities
+	 */
+	public List<NodeCluster> getClusters(int[] membership, int communityCount) {
+		List<List<CyNode>> communities = new ArrayList<>(communityCount);
+		for (int c = 0; c < communityCount; c++)
+			communities.add(new ArrayList<CyNode>());
+		for (int i = 0; i < nodeCount; i++)
+			communities.get(membership[i]).add(nodes[i]);
+
+		communities.sort((a, b) -> Integer.compare(b.size(), a.size()));
+
+		List<NodeCluster> clusters = new ArrayList<>(communityCount);
+		int clusterNumber = 1;
+		for (List<CyNode> community: communities) {
+			if (community.size() == 0)
+				continue;
+			clusters.add(new NodeCluster(clusterNumber++, community));
+		}
+		return clusters;
+	}
+
+	/**
+	 * Renumber a membership array in place so that the communities are
+	 * 0..count-1 in order of first appearance.
+	 *
+	 * @return the number of communities
+	 */
+	public static int renumber(int[] membership, int length) {
+		int max = 0;
+		for (int i = 0; i < length; i++)
+			max = Math.max(max, membership[i]);
+		int[] newIndex = new int[max+1];
+		Arrays.fill(newIndex, -1);
+		int count = 0;
+		for (int i = 0; i < length; i++) {
+			int c = membership[i];
+			if (newIndex[c] < 0)
+				newIndex[c] = count++;
+			membership[i] = newIndex[c];
+		}
+		return count;
+	}
+
+	private void computeStrength() {
+		double total = 0.0;
+		for (int i = 0; i < nodeCount; i++) {
+			double s = 2.0*selfLoops[i];
+			for (int k = offsets[i]; k < offsets[i+1]; k++)
+				s += weights[k];
+			strength[i] = s;
+			total += s;
+		}
+		totalWeight = total;
+	}
+
+	private void ensureNodeCapacity(int n) {
+		if (offsets.length < n+1)
+			offsets = new int[n+1];
+		selfLoops = ensure(selfLoops, n);
+		strength = ensure(strength, n);
+		nodeSize = ensure(nodeSize, n);
+		Arrays.fill(selfLoops, 0, n, 0.0);
+	}
+
+	private static int[] ensure(int[] array, int size) {
+		if (array == null || array.length < size)
+			return new int[size];
+		return array;
+	}
+
+	private static double[] ensure(double[] array, int size) {
+		if (array == null || array.length < size)
+			return new double[size];
+		return array;
+	}
+}
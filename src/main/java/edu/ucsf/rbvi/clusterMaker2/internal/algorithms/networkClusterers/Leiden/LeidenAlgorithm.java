@@ -0,0 +1,478 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.Leiden;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.cytoscape.work.TaskMonitor;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.CompressedGraph;
+
+/**
+ * An in-process implementation of the Leiden algorithm
+ * (Traag, Waltman & van Eck, "From Louvain to Leiden: guaranteeing well-connected
+ * communities", Scientific Reports 9, 5233 (2019)).
+ *
+ * Each level does a queue based local moving phase, a refinement phase that only
+ * merges nodes into well-connected sub-communities, and an aggregation of the
+ * refined partition.  Candidate moves for a batch of nodes are evaluated in
+ * parallel against the current partition and then committed one at a time,
+ * re-checking each gain against the live partition, so the result is the same
+ * regardless of the number of threads.  Refinement is independent for every
+ * community and is done in parallel across communities.
+ */
+public class LeidenAlgorithm {
+	public enum Objective {
+		CPM("CPM"),
+		MODULARITY("modularity");
+
+		String name;
+		Objective(String name) { this.name = name; }
+		public String toString() { return name; }
+
+		public static Objective fromString(String name) {
+			for (Objective o: values()) {
+				if (o.name.equalsIgnoreCase(name))
+					return o;
+			}
+			return CPM;
+		}
+	}
+
+	private static final double EPSILON = 1e-10;
+	private static final int BATCH_SIZE = 4096;
+
+	private final CompressedGraph graph;
+	private final Objective objective;
+	private final double resolution;
+	private final double beta;
+	private final int iterations;
+	private final long seed;
+	private volatile boolean halt = false;
+
+	private int[] membership = null;
+	private int clusterCount = 0;
+	private double quality = 0.0;
+
+	// Per-thread neighbor weight accumulators
+	private ThreadLocal<Accumulator> accumulators;
+
+	/**
+	 * @param graph the graph to partition
+	 * @param objective the quality function to optimize
+	 * @param resolution the resolution parameter of the quality function
+	 * @param beta the randomness of the refinement step
+	 * @param iterations the number of iterations; a negative value iterates until the
+	 * partition no longer changes
+	 * @param seed the seed for the random number generators
+	 */
+	public LeidenAlgorithm(CompressedGraph graph, Objective objective, double resolution,
+	                       double beta, int iterations, long seed) {
+		this.graph = graph;
+		this.objective = objective;
+		this.resolution = resolution;
+		this.beta = beta;
+		this.iterations = iterations;
+		this.seed = seed;
+	}
+
+	public void cancel() { halt = true; }
+
+	/**
+	 * Return the community (0..getClusterCount()-1) of each node of the graph
+	 */
+	public int[] getMembership() { return membership; }
+
+	public int getClusterCount() { return clusterCount; }
+
+	/**
+	 * Return the modularity of the final partition.  For the modularity objective
+	 * this uses the requested resolution, otherwise a resolution of 1.0.
+	 */
+	public double getModularity() { return quality; }
+
+	public void execute(TaskMonitor monitor) {
+		int n = graph.nodeCount;
+		accumulators = ThreadLocal.withInitial(() -> new Accumulator(n));
+		Random random = new Random(seed);
+
+		membership = new int[n];
+		for (int i = 0; i < n; i++)
+			membership[i] = i;
+		clusterCount = n;
+
+		CompressedGraph[] buffers = new CompressedGraph[] {new CompressedGraph(), new CompressedGraph()};
+		int[] nodeToAggregate = new int[n];
+
+		int iteration = 0;
+		while (iterations < 0 || iteration < iterations) {
+			if (halt) return;
+			if (iterations > 0) {
+				monitor.setStatusMessage("Leiden iteration "+(iteration+1)+" of "+iterations);
+				monitor.setProgress((double)iteration/(double)iterations);
+			} else
+				monitor.setStatusMessage("Leiden iteration "+(iteration+1));
+
+			int[] previous = Arrays.copyOf(membership, n);
+			for (int i = 0; i < n; i++)
+				nodeToAggregate[i] = i;
+
+			// The partition of the current level graph
+			int[] partition = Arrays.copyOf(membership, n);
+			CompressedGraph level = graph;
+			int next = 0;
+			while (true) {
+				if (halt) return;
+				Level state = new Level(level, partition);
+				state.moveNodes(random);
+				int communities = CompressedGraph.renumber(partition, level.nodeCount);
+				if (communities == level.nodeCount)
+					break;
+
+				int[] refined = state.refine();
+				int refinedCount = CompressedGraph.renumber(refined, level.nodeCount);
+
+				int[] nextPartition;
+				CompressedGraph aggregate = buffers[next];
+				next = 1-next;
+				if (refinedCount < level.nodeCount) {
+					// Aggregate on the refined partition, but start from the unrefined one
+					nextPartition = new int[refinedCount];
+					for (int v = 0; v < level.nodeCount; v++)
+						nextPartition[refined[v]] = partition[v];
+					level.aggregateInto(refined, refinedCount, aggregate);
+				} else {
+					// Refinement didn't merge anything, so aggregate the partition itself
+					refined = partition;
+					nextPartition = new int[communities];
+					for (int c = 0; c < communities; c++)
+						nextPartition[c] = c;
+					level.aggregateInto(partition, communities, aggregate);
+				}
+
+				for (int i = 0; i < n; i++)
+					nodeToAggregate[i] = refined[nodeToAggregate[i]];
+
+				partition = nextPartition;
+				level = aggregate;
+			}
+
+			for (int i = 0; i < n; i++)
+				membership[i] = partition[nodeToAggregate[i]];
+			clusterCount = CompressedGraph.renumber(membership, n);
+
+			iteration++;
+			if (iterations < 0 && Arrays.equals(previous, membership))
+				break;
+		}
+
+		quality = graph.modularity(membership, clusterCount,
+		                           objective == Objective.MODULARITY ? resolution : 1.0);
+		monitor.setProgress(1.0);
+	}
+
+	/**
+	 * The state of the partition for one level of the graph
+	 */
+	class Level {
+		final CompressedGraph g;
+		final int[] partition;
+		final double[] nodeWeight;
+		final double[] communityWeight;
+		final int[] communityCount;
+		final double factor;  // penalty per unit of node weight
+		final double scale;   // converts a gain into a change of the quality function
+		int[] emptyCommunities;
+		int emptyCount = 0;
+
+		Level(CompressedGraph g, int[] partition) {
+			this.g = g;
+			this.partition = partition;
+			int n = g.nodeCount;
+			if (objective == Objective.MODULARITY) {
+				nodeWeight = g.strength;
+				factor = g.totalWeight > 0.0 ? resolution/g.totalWeight : 0.0;
+				scale = g.totalWeight > 0.0 ? 2.0/g.totalWeight : 1.0;
+			} else {
+				nodeWeight = g.nodeSize;
+				factor = resolution;
+				scale = 1.0;
+			}
+			communityWeight = new double[n];
+			communityCount = new int[n];
+			for (int v = 0; v < n; v++) {
+				communityWeight[partition[v]] += nodeWeight[v];
+				communityCount[partition[v]]++;
+			}
+			emptyCommunities = new int[n];
+			for (int c = n-1; c >= 0; c--) {
+				if (communityCount[c] == 0)
+					emptyCommunities[emptyCount++] = c;
+			}
+		}
+
+		/**
+		 * Queue based local moving.  Returns true if any node changed community.
+		 */
+		boolean moveNodes(Random random) {
+			int n = g.nodeCount;
+			int[] queue = new int[n];
+			for (int v = 0; v < n; v++)
+				queue[v] = v;
+			shuffle(queue, n, random);
+			int queueLength = n;
+			boolean[] queued = new boolean[n];
+			Arrays.fill(queued, true);
+
+			int[] nextQueue = new int[n];
+			int[] batch = new int[Math.min(n, BATCH_SIZE)];
+			int[] targets = new int[batch.length];
+			Accumulator acc = accumulators.get();
+			boolean changed = false;
+
+			while (queueLength > 0) {
+				int nextLength = 0;
+				for (int start = 0; start < queueLength; start += batch.length) {
+					if (halt) return changed;
+					int batchLength = Math.min(batch.length, queueLength-start);
+					System.arraycopy(queue, start, batch, 0, batchLength);
+
+					// Evaluate in parallel against the current partition
+					IntStream.range(0, batchLength).parallel()
+						.forEach(i -> targets[i] = bestMove(batch[i], accumulators.get()));
+
+					// Commit, re-checking the gain against the live partition
+					for (int i = 0; i < batchLength; i++) {
+						int v = batch[i];
+						queued[v] = false;
+						if (targets[i] == partition[v])
+							continue;
+						int target = bestMove(v, acc);
+						if (target == partition[v])
+							continue;
+						if (target < 0)
+							target = emptyCommunities[--emptyCount];
+						move(v, target);
+						changed = true;
+						for (int k = g.offsets[v]; k < g.offsets[v+1]; k++) {
+							int u = g.neighbors[k];
+							if (!queued[u] && partition[u] != target) {
+								queued[u] = true;
+								nextQueue[nextLength++] = u;
+							}
+						}
+					}
+				}
+				int[] t = queue; queue = nextQueue; nextQueue = t;
+				queueLength = nextLength;
+			}
+			return changed;
+		}
+
+		/**
+		 * Find the best community for v.  Returns the current community if there's no
+		 * improvement and -1 if v should move to an empty community.
+		 */
+		int bestMove(int v, Accumulator acc) {
+			int current = partition[v];
+			double w = nodeWeight[v];
+			for (int k = g.offsets[v]; k < g.offsets[v+1]; k++)
+				acc.add(partition[g.neighbors[k]], g.weights[k]);
+
+			double removeCost = acc.get(current) - factor*w*(communityWeight[current]-w);
+			int best = current;
+			double bestGain = EPSILON;
+			for (int t = 0; t < acc.count; t++) {
+				int c = acc.touched[t];
+				if (c == current) continue;
+				double gain = acc.values[c] - factor*w*communityWeight[c] - removeCost;
+				if (gain > bestGain) {
+					bestGain = gain;
+					best = c;
+				}
+			}
+			if (communityCount[current] > 1 && -removeCost > bestGain && emptyCount > 0)
+				best = -1;
+			acc.clear();
+			return best;
+		}
+
+		void move(int v, int target) {
+			int current = partition[v];
+			communityWeight[current] -= nodeWeight[v];
+			if (--communityCount[current] == 0)
+				emptyCommunities[emptyCount++] = current;
+			communityWeight[target] += nodeWeight[v];
+			communityCount[target]++;
+			partition[v] = target;
+		}
+
+		/**
+		 * Refine the (renumbered) partition.  Every community starts as singletons and
+		 * nodes are merged only into sub-communities that are well connected to the
+		 * community.  Returns the refined membership, named by node index.
+		 */
+		int[] refine() {
+			int n = g.nodeCount;
+			int communities = 0;
+			for (int v = 0; v < n; v++)
+				communities = Math.max(communities, partition[v]+1);
+
+			// Bucket the nodes by community
+			int[] start = new int[communities+1];
+			for (int v = 0; v < n; v++)
+				start[partition[v]+1]++;
+			for (int c = 0; c < communities; c++)
+				start[c+1] += start[c];
+			int[] members = new int[n];
+			int[] fill = Arrays.copyOf(start, communities);
+			for (int v = 0; v < n; v++)
+				members[fill[partition[v]]++] = v;
+
+			double[] totalWeight = new double[communities];
+			for (int v = 0; v < n; v++)
+				totalWeight[partition[v]] += nodeWeight[v];
+
+			int[] refined = new int[n];
+			double[] refinedWeight = new double[n];
+			double[] external = new double[n];
+			int[] refinedCount = new int[n];
+			for (int v = 0; v < n; v++) {
+				refined[v] = v;
+				refinedWeight[v] = nodeWeight[v];
+				refinedCount[v] = 1;
+				double e = 0.0;
+				for (int k = g.offsets[v]; k < g.offsets[v+1]; k++) {
+					if (partition[g.neighbors[k]] == partition[v])
+						e += g.weights[k];
+				}
+				external[v] = e;
+			}
+
+			final int nCommunities = communities;
+			IntStream.range(0, nCommunities).parallel().forEach(c -> {
+				if (start[c+1]-start[c] < 2 || halt)
+					return;
+				refineCommunity(c, members, start[c], start[c+1], totalWeight[c], refined,
+				                refinedWeight, external, refinedCount, accumulators.get());
+			});
+			return refined;
+		}
+
+		void refineCommunity(int community, int[] members, int from, int to, double total,
+		                     int[] refined, double[] refinedWeight, double[] external,
+		                     int[] refinedCount, Accumulator acc) {
+			Random random = new Random(seed ^ (community * 0x9E3779B97F4A7C15L));
+			int[] order = Arrays.copyOfRange(members, from, to);
+			shuffle(order, order.length, random);
+			double[] candidateGain = new double[order.length+1];
+			int[] candidates = new int[order.length+1];
+
+			for (int v: order) {
+				// Only consider nodes that are still singletons
+				if (refinedCount[refined[v]] != 1)
+					continue;
+				double w = nodeWeight[v];
+				if (external[v] < factor*w*(total-w))
+					continue;
+
+				for (int k = g.offsets[v]; k < g.offsets[v+1]; k++) {
+					int u = g.neighbors[k];
+					if (partition[u] == community)
+						acc.add(refined[u], g.weights[k]);
+				}
+
+				// Staying on our own has a gain of 0
+				int nCandidates = 0;
+				double maxGain = 0.0;
+				candidates[nCandidates] = refined[v];
+				candidateGain[nCandidates++] = 0.0;
+				for (int t = 0; t < acc.count; t++) {
+					int r = acc.touched[t];
+					if (r == refined[v]) continue;
+					double rw = refinedWeight[r];
+					if (external[r] < factor*rw*(total-rw))
+						continue;
+					double gain = acc.values[r] - factor*w*rw;
+					if (gain < 0.0)
+						continue;
+					candidates[nCandidates] = r;
+					candidateGain[nCandidates++] = gain*scale;
+					maxGain = Math.max(maxGain, gain*scale);
+				}
+
+				int chosen = refined[v];
+				if (nCandidates > 1) {
+					// Choose at random, weighted by exp(gain/beta)
+					double sum = 0.0;
+					for (int i = 0; i < nCandidates; i++) {
+						candidateGain[i] = beta > 0.0 ? Math.exp((candidateGain[i]-maxGain)/beta)
+						                              : (candidateGain[i] == maxGain ? 1.0 : 0.0);
+						sum += candidateGain[i];
+					}
+					double r = random.nextDouble()*sum;
+					for (int i = 0; i < nCandidates; i++) {
+						r -= candidateGain[i];
+						if (r <= 0.0) {
+							chosen = candidates[i];
+							break;
+						}
+					}
+				}
+
+				if (chosen != refined[v]) {
+					double kvt = acc.get(chosen);
+					refinedCount[refined[v]]--;
+					refinedWeight[chosen] += w;
+					refinedCount[chosen]++;
+					external[chosen] += external[v] - 2.0*kvt;
+					refined[v] = chosen;
+				}
+				acc.clear();
+			}
+		}
+	}
+
+	private static void shuffle(int[] array, int length, Random random) {
+		for (int i = length-1; i > 0; i--) {
+			int j = random.nextInt(i+1);
+			int t = array[i]; array[i] = array[j]; array[j] = t;
+		}
+	}
+
+	/**
+	 * A dense accumulator of edge weights keyed by community with a list of the
+	 * touched entries so it can be cleared in time proportional to its use.
+	 */
+	static class Accumulator {
+		final double[] values;
+		final boolean[] used;
+		final int[] touched;
+		int count = 0;
+
+		Accumulator(int size) {
+			values = new double[size];
+			used = new boolean[size];
+			touched = new int[size];
+		}
+
+		void add(int index, double value) {
+			if (!used[index]) {
+				used[index] = true;
+				touched[count++] = index;
+				values[index] = value;
+			} else
+				values[index] += value;
+		}
+
+		double get(int index) {
+			return used[index] ? values[index] : 0.0;
+		}
+
+		void clear() {
+			for (int t = 0; t < count; t++)
+				used[touched[t]] = false;
+			count = 0;
+		}
+	}
+}
@@ -28,6 +28,7 @@ import org.cytoscape.jobs.CyJobStatus.Status;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.AbstractClusterResults;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.NodeCluster;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.AbstractNetworkClusterer;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.CompressedGraph;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.ClusterManager;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.ClusterResults;
 import edu.ucsf.rbvi.clusterMaker2.internal.ui.NewNetworkView;
@@ -44,7 +45,8 @@ public class LeidenCluster extends AbstractNetworkClusterer {
 	public static String SHORTNAME = "leiden";
 	final CyServiceRegistrar registrar;
 	public final static String GROUP_ATTRIBUTE = "__LeidenGroups.SUID";
-	
+	final static long SEED = 42L;
+	LeidenAlgorithm leiden = null;
 
 	@ContainsTunables
 	public LeidenContext context = null;
@@ -66,6 +68,11 @@ public class LeidenCluster extends AbstractNetworkClusterer {
 
 	@Override
 	public void run(TaskMonitor taskMonitor) throws Exception {
+		if (context.runLocally) {
+			runLocal(taskMonitor);
+			return;
+		}
+
 		// Get the execution service
 		CyJobExecutionService executionService = 
 						registrar.getService(CyJobExecutionService.class, "(title=ClusterJobExecutor)");
@@ -128,5 +135,58 @@ public class LeidenCluster extends AbstractNetworkClusterer {
 		SUIDUtil.saveSUIDs(job, currentNetwork, currentNetwork.getNodeList());
 
 	}	
+
+	/**
+	 * Run the Leiden algorithm in-process on a compressed copy of the network
+	 * rather than going through the remote service.
+	 */
+	private void runLocal(TaskMonitor taskMonitor) {
+		this.monitor = taskMonitor;
+		taskMonitor.setTitle("Performing Leiden clustering");
+		clusterAttributeName = context.getClusterAttribute();
+		createGroups = context.advancedAttributes.createGroups;
+		String attribute = context.getattribute().getSelectedValue();
+
+		if (network == null)
+			network = clusterManager.getNetwork();
+
+		NodeCluster.init();
+
+		taskMonitor.setStatusMessage("Building graph");
+		CompressedGraph graph = CompressedGraph.fromNetwork(network, network.getNodeList(), attribute);
+
+		LeidenAlgorithm.Objective objective = 
+			LeidenAlgorithm.Objective.fromString(context.objective_function.getSelectedValue());
+		leiden = new LeidenAlgorithm(graph, objective, context.resolution_parameter, context.beta,
+		                             context.n_iterations, SEED);
+		leiden.execute(taskMonitor);
+		if (canceled)
+			return;
+
+		List<NodeCluster> clusterList = graph.getClusters(leiden.getMembership(), leiden.getClusterCount());
+		taskMonitor.showMessage(TaskMonitor.Level.INFO, "Found "+clusterList.size()+
+		                        " clusters with a modularity of "+leiden.getModularity());
+
+		// Remove any leftover groups from previous runs
+		removeGroups(network, GROUP_ATTRIBUTE);
+
+		taskMonitor.showMessage(TaskMonitor.Level.INFO, "Creating groups");
+		createGroups(network, clusterList, GROUP_ATTRIBUTE);
+
+		results = new AbstractClusterResults(network, clusterList);
+		taskMonitor.showMessage(TaskMonitor.Level.INFO, "Done.  Leiden results:\n"+results);
+
+		if (context.vizProperties.showUI) {
+			taskMonitor.showMessage(TaskMonitor.Level.INFO, "Creating network");
+			insertTasksAfterCurrentTask(new NewNetworkView(network, clusterManager, true, context.vizProperties.restoreEdges, false));
+		}
+	}
+
+	@Override
+	public void cancel() {
+		super.cancel();
+		if (leiden != null)
+			leiden.cancel();
+	}
 	
 }
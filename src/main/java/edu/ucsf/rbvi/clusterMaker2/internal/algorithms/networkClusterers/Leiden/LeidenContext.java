@@ -62,6 +62,12 @@ public class LeidenContext implements ClusterAlgorithmContext {
 			 exampleStringValue = "2",
 			 groups = {"Leiden Advanced Settings"}, gravity = 5.0)
 	public int n_iterations = 2;
+
+	@Tunable(description = "Run locally",
+			 longDescription = "Run the Leiden algorithm inside Cytoscape rather than submitting it to the remote cluster service.",
+			 exampleStringValue = "true",
+			 groups = {"Leiden Advanced Settings"}, gravity = 6.0)
+	public boolean runLocally = true;
 	
 	@ContainsTunables
 	public AdvancedProperties advancedAttributes;
@@ -84,6 +90,7 @@ public class LeidenContext implements ClusterAlgorithmContext {
 		resolution_parameter = origin.resolution_parameter;
 		beta = origin.beta;
 		n_iterations = origin.n_iterations;
+		runLocally = origin.runLocally;
 	}
 
 	public void setNetwork(CyNetwork network) {
@@ -29,6 +29,7 @@ import edu.ucsf.rbvi.clusterMaker2.internal.ui.NewNetworkView;
 
 public class MCLCluster extends AbstractNetworkClusterer   {
 	RunMCL runMCL;
+	SparseMCL sparseMCL;
 	public static String SHORTNAME = "mcl";
 	public static String NAME = "MCL Cluster";
 	public final static String GROUP_ATTRIBUTE = "__MCLGroups.SUID";
@@ -62,7 +63,11 @@ public class MCLCluster extends AbstractNetworkClusterer   {
 
 		NodeCluster.init();
 
-		CyMatrix matrix = context.edgeAttributeHandler.getMatrix();
+		CyMatrix matrix;
+		if (context.sparseEngine)
+			matrix = context.edgeAttributeHandler.getSparseMatrix();
+		else
+			matrix = context.edgeAttributeHandler.getMatrix();
 
 		if (matrix == null) {
 			monitor.showMessage(TaskMonitor.Level.ERROR,"Can't get distance matrix: no attribute value?");
@@ -76,18 +81,31 @@ public class MCLCluster extends AbstractNetworkClusterer   {
 		if (canceled) return;
 
 		//Cluster the nodes
-		runMCL = new RunMCL(matrix, context.inflation_parameter, context.iterations, 
-		                    context.clusteringThresh, context.maxResidual, context.maxThreads, 
-		                    context.forceDecliningResidual, monitor);
+		List<NodeCluster> clusters;
+		if (context.sparseEngine) {
+			sparseMCL = new SparseMCL(matrix, context.inflation_parameter, context.iterations, 
+			                          context.clusteringThresh, context.maxResidual, context.selectionNumber,
+			                          context.recoveryPercent, context.maxThreads, 
+			                          context.forceDecliningResidual, context.freezeColumns, monitor);
 
-		runMCL.setDebug(false);
+			if (canceled) return;
 
-		if (canceled) return;
+			monitor.showMessage(TaskMonitor.Level.INFO,"Clustering...");
+			clusters = sparseMCL.run(network, monitor);
+		} else {
+			runMCL = new RunMCL(matrix, context.inflation_parameter, context.iterations, 
+			                    context.clusteringThresh, context.maxResidual, context.maxThreads, 
+			                    context.forceDecliningResidual, monitor);
+
+			runMCL.setDebug(false);
 
-		monitor.showMessage(TaskMonitor.Level.INFO,"Clustering...");
+			if (canceled) return;
 
-		// results = runMCL.run(monitor);
-		List<NodeCluster> clusters = runMCL.run(network, monitor);
+			monitor.showMessage(TaskMonitor.Level.INFO,"Clustering...");
+
+			// results = runMCL.run(monitor);
+			clusters = runMCL.run(network, monitor);
+		}
 		if (clusters == null) return; // Canceled?
 
 		monitor.showMessage(TaskMonitor.Level.INFO,"Removing groups");
@@ -118,7 +136,10 @@ public class MCLCluster extends AbstractNetworkClusterer   {
 
 	public void cancel() {
 		canceled = true;
-		runMCL.cancel();
+		if (runMCL != null)
+			runMCL.cancel();
+		if (sparseMCL != null)
+			sparseMCL.cancel();
 	}
 
 	@Override
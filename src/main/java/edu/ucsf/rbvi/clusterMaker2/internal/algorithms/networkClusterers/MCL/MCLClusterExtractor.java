@@ -0,0 +1,112 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.MCL;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.cytoscape.model.CyNode;
+
+import cern.colt.list.tdouble.DoubleArrayList;
+import cern.colt.list.tint.IntArrayList;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.NodeCluster;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.ColtMatrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.CyMatrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
+
+/**
+ * Turns a converged MCL matrix into clusters.  Every non-zero off-diagonal
+ * entry (row, column) puts row and column into the same cluster, so the
+ * clusters are the connected components of the non-zero pattern, ignoring
+ * nodes that only have a diagonal value.  The components are tracked with
+ * an int array union-find keyed by row index and the NodeClusters are only
+ * built once at the end, so extraction is linear in the number of non-zeros.
+ */
+class MCLClusterExtractor {
+	private final int[] parent;
+	private final boolean[] clustered;
+
+	MCLClusterExtractor(int size) {
+		parent = new int[size];
+		clustered = new boolean[size];
+		for (int i = 0; i < size; i++)
+			parent[i] = i;
+	}
+
+	/**
+	 * Extract the clusters from a (possibly dense) matrix, visiting only
+	 * its non-zero values when the matrix is sparse.
+	 *
+	 * @param matrix the converged matrix
+	 * @param nodeMatrix the matrix that provides the nodes for each index
+	 * @return the clusters, numbered from 1 in order of decreasing size
+	 */
+	static List<NodeCluster> extract(Matrix matrix, CyMatrix nodeMatrix) {
+		MCLClusterExtractor extractor = new MCLClusterExtractor(matrix.nRows());
+		if (matrix instanceof ColtMatrix) {
+			IntArrayList rowList = new IntArrayList();
+			IntArrayList columnList = new IntArrayList();
+			DoubleArrayList valueList = new DoubleArrayList();
+			matrix.getColtMatrix().getNonZeros(rowList, columnList, valueList);
+			for (int k = 0; k < rowList.size(); k++)
+				extractor.join(rowList.get(k), columnList.get(k), valueList.get(k));
+		} else {
+			for (int row = 0; row < matrix.nRows(); row++) {
+				double[] values = matrix.getRow(row);
+				for (int col = 0; col < values.length; col++)
+					extractor.join(row, col, values[col]);
+			}
+		}
+		return extractor.getClusters(nodeMatrix);
+	}
+
+	/**
+	 * Record a matrix value.  Zero, NaN and diagonal values are ignored.
+	 */
+	void join(int row, int column, double value) {
+		if (row == column || value == 0.0 || Double.isNaN(value))
+			return;
+		clustered[row] = true;
+		clustered[column] = true;
+		int a = find(row);
+		int b = find(column);
+		if (a != b)
+			parent[Math.max(a,b)] = Math.min(a,b);
+	}
+
+	/**
+	 * Build the clusters
+	 *
+	 * @param nodeMatrix the matrix that provides the nodes for each index
+	 * @return the clusters, numbered from 1 in order of decreasing size
+	 */
+	List<NodeCluster> getClusters(CyMatrix nodeMatrix) {
+		int size = parent.length;
+		int[] clusterIndex = new int[size];
+		List<List<CyNode>> memberLists = new ArrayList<>();
+		for (int i = 0; i < size; i++) {
+			if (clustered[i] && find(i) == i) {
+				clusterIndex[i] = memberLists.size();
+				memberLists.add(new ArrayList<CyNode>());
+			}
+		}
+		for (int i = 0; i < size; i++) {
+			if (clustered[i])
+				memberLists.get(clusterIndex[find(i)]).add(nodeMatrix.getRowNode(i));
+		}
+
+		memberLists.sort((a, b) -> Integer.compare(b.size(), a.size()));
+		List<NodeCluster> clusters = new ArrayList<>(memberLists.size());
+		int clusterNumber = 1;
+		for (List<CyNode> members: memberLists)
+			clusters.add(new NodeCluster(clusterNumber++, members));
+		return clusters;
+	}
+
+	private int find(int i) {
+		while (parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+}
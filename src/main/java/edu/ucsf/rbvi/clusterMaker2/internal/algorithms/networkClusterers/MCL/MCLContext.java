@@ -56,6 +56,36 @@ public class MCLContext implements ClusterAlgorithmContext {
 	         longDescription = "The maximum number of threads to use.  If this is set to 0, the algorithm will use all of the available cores.",
 	         groups={"MCL Advanced Settings"}, gravity=24.0)
 	public int maxThreads = 0;
+
+	@Tunable(description = "Use sparse MCL engine", 
+	         longDescription = "If this value is set to ```true``` MCL is run on a compressed sparse copy of the "+
+	                           "matrix, which uses memory proportional to the number of non-zero values rather "+
+	                           "than the square of the number of nodes.",
+	         exampleStringValue = "false",
+	         groups={"MCL Advanced Settings"}, gravity=25.0)
+	public boolean sparseEngine = false;
+
+	@Tunable(description = "Maximum entries per column (selection)", 
+	         longDescription = "When using the sparse engine, only keep this many of the largest values in each column "+
+	                           "after inflation.  If this is set to 0, all values above the pruning threshold are kept.",
+	         exampleStringValue = "1100",
+	         groups={"MCL Advanced Settings"}, dependsOn="sparseEngine=true", gravity=26.0)
+	public int selectionNumber = 1100;
+
+	@Tunable(description = "Recovery percentage", 
+	         longDescription = "When using the sparse engine, if pruning removes more than this fraction of the mass of "+
+	                           "a column, the largest pruned values are recovered until this fraction is kept.",
+	         exampleStringValue = "0.9",
+	         groups={"MCL Advanced Settings"}, dependsOn="sparseEngine=true", gravity=27.0)
+	public double recoveryPercent = 0.9;
+
+	@Tunable(description = "Freeze converged columns", 
+	         longDescription = "When using the sparse engine, stop recomputing columns that, along with every column "+
+	                           "they draw from, did not change in the last iteration.  Converged columns are idempotent, "+
+	                           "so late iterations only do work for the part of the matrix that is still changing.",
+	         exampleStringValue = "true",
+	         groups={"MCL Advanced Settings"}, dependsOn="sparseEngine=true", gravity=28.0)
+	public boolean freezeColumns = true;
     
 	@ContainsTunables
 	public AdvancedProperties advancedAttributes;
@@ -80,6 +110,11 @@ public class MCLContext implements ClusterAlgorithmContext {
 		iterations = origin.iterations;
 		maxResidual = origin.maxResidual;
 		maxThreads = origin.maxThreads;
+		forceDecliningResidual = origin.forceDecliningResidual;
+		sparseEngine = origin.sparseEngine;
+		selectionNumber = origin.selectionNumber;
+		recoveryPercent = origin.recoveryPercent;
+		freezeColumns = origin.freezeColumns;
 	}
 
 	public void setNetwork(CyNetwork network) {
@@ -1,30 +1,10 @@
 package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.MCL;
 
 import java.text.DecimalFormat;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collection;
-import java.util.Comparator;
-import java.util.concurrent.Callable;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.TimeUnit;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 import java.lang.Math;
 
-import org.cytoscape.model.CyColumn;
-import org.cytoscape.model.CyEdge;
 import org.cytoscape.model.CyNetwork;
-import org.cytoscape.model.CyNode;
-import org.cytoscape.model.CyNetworkManager;
-import org.cytoscape.model.CyRow;
-import org.cytoscape.model.CyTable;
-import org.cytoscape.work.Tunable;
-import org.cytoscape.work.TunableHandler;
 import org.cytoscape.work.TaskMonitor;
 
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.NodeCluster;
@@ -42,7 +22,6 @@ public class RunMCL {
 	private boolean createMetaNodes = false;
 	private CyMatrix distanceMatrix = null;
 	private CyMatrix matrix = null;
-	private List<CyNode> nodes = null;
 	private boolean forceDecliningResidual = true;
 	private boolean debug = true;
 	private int nThreads = Runtime.getRuntime().availableProcessors()-1;
@@ -59,7 +38,6 @@ public class RunMCL {
 		this.clusteringThresh = clusteringThresh;
 		this.maxResidual = maxResidual;
 		this.forceDecliningResidual = forceDecliningResidual;
-		nodes = distanceMatrix.getRowNodes();
 		if (maxThreads > 0)
 			nThreads = maxThreads;
 		else
@@ -168,43 +146,25 @@ public class RunMCL {
 
 		monitor.setStatusMessage("Assigning nodes to clusters");	//monitor.setStatusMessage
 
-		clusterCount = 0;
-		HashMap<Integer, NodeCluster> clusterMap = new HashMap<Integer, NodeCluster>();
-		ClusterMatrix clusterMat = new ClusterMatrix(clusterMap);
-		for (int row = 0; row < matrix.nRows(); row++) {
-			for (int col = 0; col < matrix.nColumns(); col++) {
-				clusterMat.apply(row, col, matrix.doubleValue(row, col));
-			}
+		List<NodeCluster> clusters = MCLClusterExtractor.extract(matrix, distanceMatrix);
+		clusterCount = clusters.size();
+		if (canceled) {
+			monitor.setStatusMessage("canceled");
+			return null;
 		}
 
 		//Update node attributes in network to include clusters. Create cygroups from clustered nodes
 		monitor.setStatusMessage("Created "+clusterCount+" clusters");
-		monitor.setStatusMessage("Cluster map has "+clusterMap.keySet().size()+" clusters");
 		// debugln("Created "+clusterCount+" clusters:");
 		//
 		if (clusterCount == 0) {
 			monitor.setStatusMessage("Created 0 clusters!!!!");
-			monitor.setStatusMessage("Cluster map has "+clusterMap.keySet().size()+" clusters");
 			return null;
 		}
 
-		int clusterNumber = 1;
-		HashMap<NodeCluster,NodeCluster> cMap = new HashMap<NodeCluster, NodeCluster>();
-		for (NodeCluster cluster: NodeCluster.sortMap(clusterMap)) {
-
-			if (cMap.containsKey(cluster))
-				continue;
-
-			cMap.put(cluster,cluster);
-
-			cluster.setClusterNumber(clusterNumber);
-			clusterNumber++;
-		}
-
 		monitor.setStatusMessage("Total runtime = "+(System.currentTimeMillis()-startTime)+"ms");
 
-		Set<NodeCluster>clusters = cMap.keySet();
-		return new ArrayList<NodeCluster>(clusters);
+		return clusters;
 	}
 	
 	
@@ -277,65 +237,4 @@ public class RunMCL {
 	private void debug(String message) {
 		if (debug) System.out.print(message);
 	}
-
-	
-	private class ClusterMatrix {
-		Map<Integer, NodeCluster> clusterMap;
-
-		public ClusterMatrix(Map<Integer,NodeCluster> clusterMap) {
-			this.clusterMap = clusterMap;
-		}
-
-		public double apply(int row, int column, double value) {
-			if (canceled || value == 0.0 || Double.isNaN(value)) { return 0.0; }
-
-			if (row == column) 
-				return value;
-
-			if (clusterMap.containsKey(column)) {
-				// Already seen "column" -- get the cluster and add column
-				NodeCluster columnCluster = clusterMap.get(column);
-				if (clusterMap.containsKey(row)) {
-					// We've already seen row also -- join them
-					NodeCluster rowCluster = clusterMap.get(row);
-					if (rowCluster == columnCluster) 
-						return value;
-					clusterCount--;
-					// logger.debug("Joining cluster "+columnCluster.getClusterNumber()+" and "+rowCluster.getClusterNumber());
-					// logger.debug("clusterCount = "+clusterCount);
-					columnCluster.addAll(rowCluster);
-				} else {
-					// logger.debug("Adding "+row+" to "+columnCluster.getClusterNumber());
-					// logger.debug("clusterCount = "+clusterCount);
-					columnCluster.add(distanceMatrix.getRowNode(row));
-				}
-				updateClusters(columnCluster);
-			} else {
-				NodeCluster rowCluster;
-				// First time we've seen "column" -- have we already seen "row"
-				if (clusterMap.containsKey(row)) {
-					// Yes, just add column to row's cluster
-					rowCluster = clusterMap.get(row);
-					// logger.debug("Adding "+column+" to "+rowCluster.getClusterNumber());
-					// logger.debug("clusterCount = "+clusterCount);
-					rowCluster.add(distanceMatrix.getColumnNode(column));
-				} else {
-					clusterCount++;
-					rowCluster = new NodeCluster();
-					// logger.debug("Created new cluster "+rowCluster.getClusterNumber()+" with "+row+" and "+column);
-					// logger.debug("clusterCount = "+clusterCount);
-					rowCluster.add(distanceMatrix.getColumnNode(column));
-					rowCluster.add(distanceMatrix.getRowNode(row));
-				}
-				updateClusters(rowCluster);
-			}
-			return value;
-		}
-
-		private void updateClusters(NodeCluster cl) {
-			for (CyNode node: cl) {
-				clusterMap.put(nodes.indexOf(node), cl);
-			}
-		}
-	}
 }
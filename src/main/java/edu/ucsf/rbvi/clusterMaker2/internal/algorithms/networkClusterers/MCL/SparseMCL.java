@@ -0,0 +1,463 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.MCL;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.work.TaskMonitor;
+
+import cern.colt.list.tdouble.DoubleArrayList;
+import cern.colt.list.tint.IntArrayList;
+import cern.colt.matrix.tdouble.DoubleMatrix2D;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.NodeCluster;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.ColtMatrix;
+import edu.ucsf.rbvi.clusterMaker2.internal.api.CyMatrix;
+
+/**
+ * A sparse implementation of MCL.  The column stochastic matrix is kept as
+ * compressed sparse columns (one primitive row index array and one value array
+ * per column), so memory is bounded by the number of non-zeros rather than by n&sup2;.
+ *
+ * Each iteration computes every column of the squared matrix independently with a
+ * sparse accumulator, in parallel across columns.  Inflation, threshold pruning,
+ * selection/recovery pruning and normalization are then applied to the column in
+ * the same pass.  Pruning follows the original MCL implementation (van Dongen): entries
+ * below the threshold are removed, but if that loses more than the recovery
+ * percentage of the column mass the largest entries are recovered, and at most
+ * <i>selectionNumber</i> of the largest entries are kept in each column.
+ *
+ * Column j of the next matrix only depends on column j and the columns in its
+ * support, so if none of those changed in the last iteration column j will not
+ * change either.  When column freezing is enabled those columns are carried over
+ * as they are (along with their residual) instead of being expanded again.  As the
+ * matrix converges to its idempotent limit most columns freeze, so late iterations
+ * only pay for the columns that are still moving, and once every column is frozen
+ * the iteration stops.
+ */
+public class SparseMCL {
+	private static final double CHANGE_TOLERANCE = 1e-12;
+
+	private double inflationParameter; //density parameter
+	private int number_iterations; //number of inflation/expansion cycles
+	private double clusteringThresh; //Threshold used to remove weak edges between distinct clusters
+	private double maxResidual; //The maximum residual to look for
+	private int selectionNumber; //The maximum number of entries to keep in a column
+	private double recoveryPercent; //The fraction of the column mass to keep when pruning
+	private boolean forceDecliningResidual = true;
+	private boolean freezeColumns = true;
+	private volatile boolean canceled = false;
+	private int nThreads;
+	private CyMatrix distanceMatrix = null;
+	private int n;
+
+	// The column stochastic matrix
+	private int[][] columnRows;
+	private double[][] columnValues;
+
+	// Convergence state for each column
+	private boolean[] changed;
+	private double[] columnResiduals;
+	private int activeColumns;
+
+	private ThreadLocal<Workspace> workspaces;
+
+	public SparseMCL(CyMatrix dMat, double inflationParameter, int num_iterations,
+	                 double clusteringThresh, double maxResidual, int selectionNumber,
+	                 double recoveryPercent, int maxThreads, boolean forceDecliningResidual,
+	                 boolean freezeColumns, TaskMonitor monitor) {
+		this.distanceMatrix = dMat;
+		this.inflationParameter = inflationParameter;
+		this.number_iterations = num_iterations;
+		this.clusteringThresh = clusteringThresh;
+		this.maxResidual = maxResidual;
+		this.selectionNumber = selectionNumber > 0 ? selectionNumber : Integer.MAX_VALUE;
+		this.recoveryPercent = recoveryPercent;
+		this.forceDecliningResidual = forceDecliningResidual;
+		this.freezeColumns = freezeColumns;
+		this.n = dMat.nColumns();
+		if (maxThreads > 0)
+			nThreads = maxThreads;
+		else
+			nThreads = Math.max(1, Runtime.getRuntime().availableProcessors()-1);
+
+		monitor.showMessage(TaskMonitor.Level.INFO,"InflationParameter = "+inflationParameter);
+		monitor.showMessage(TaskMonitor.Level.INFO,"Iterations = "+num_iterations);
+		monitor.showMessage(TaskMonitor.Level.INFO,"Clustering Threshold = "+clusteringThresh);
+		monitor.showMessage(TaskMonitor.Level.INFO,"Selection number = "+selectionNumber);
+		monitor.showMessage(TaskMonitor.Level.INFO,"Threads = "+nThreads);
+	}
+
+	public void cancel () { canceled = true; }
+
+	public List<NodeCluster> run(CyNetwork network, TaskMonitor monitor) {
+		long startTime = System.currentTimeMillis();
+		workspaces = ThreadLocal.withInitial(() -> new Workspace(n));
+
+		monitor.setStatusMessage("Building sparse matrix");
+		buildColumns(distanceMatrix);
+
+		ForkJoinPool pool = new ForkJoinPool(nThreads);
+		try {
+			double residual = 1.0;
+			for (int i=0; (i<number_iterations)&&(residual>maxResidual); i++) {
+				monitor.setProgress((double)i/(double)number_iterations);
+				monitor.setStatusMessage("Iteration: "+(i+1)+" expanding and inflating ("+
+				                         activeColumns+" active columns)");
+				long t = System.currentTimeMillis();
+
+				double newResidual = iterate(pool);
+				if (canceled) {
+					monitor.setStatusMessage("canceled");
+					return null;
+				}
+
+				monitor.showMessage(TaskMonitor.Level.INFO,"Iteration "+(i+1)+" took "+
+				                    (System.currentTimeMillis()-t)+"ms.  Non-zeros="+nonZeros()+
+				                    ", active columns="+activeColumns);
+
+				if (forceDecliningResidual && newResidual >= residual) break;
+				residual = newResidual;
+				monitor.showMessage(TaskMonitor.Level.INFO,"Iteration "+(i+1)+" complete.  Residual="+residual);
+				if (freezeColumns && !anyChanged()) {
+					monitor.showMessage(TaskMonitor.Level.INFO,"All columns converged");
+					break;
+				}
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			monitor.showMessage(TaskMonitor.Level.ERROR, "MCL iteration failed: "+e.getMessage());
+			return null;
+		} finally {
+			pool.shutdown();
+		}
+
+		monitor.setStatusMessage("Assigning nodes to clusters");
+		MCLClusterExtractor extractor = new MCLClusterExtractor(n);
+		for (int col = 0; col < n; col++) {
+			for (int k = 0; k < columnRows[col].length; k++)
+				extractor.join(columnRows[col][k], col, columnValues[col][k]);
+		}
+		List<NodeCluster> clusters = extractor.getClusters(distanceMatrix);
+		monitor.setStatusMessage("Created "+clusters.size()+" clusters");
+		monitor.setStatusMessage("Total runtime = "+(System.currentTimeMillis()-startTime)+"ms");
+		return clusters;
+	}
+
+	/**
+	 * Return the number of non-zero entries in the current matrix
+	 */
+	public long nonZeros() {
+		long nnz = 0;
+		for (int col = 0; col < n; col++)
+			nnz += columnRows[col].length;
+		return nnz;
+	}
+
+	/**
+	 * Return the number of columns that were recomputed in the last iteration
+	 */
+	public int getActiveColumns() { return activeColumns; }
+
+	/**
+	 * Pull the non-zero values out of the matrix into our columns and
+	 * normalize them.
+	 */
+	private void buildColumns(CyMatrix matrix) {
+		IntArrayList rowList = new IntArrayList();
+		IntArrayList columnList = new IntArrayList();
+		DoubleArrayList valueList = new DoubleArrayList();
+		if (matrix instanceof ColtMatrix) {
+			DoubleMatrix2D data = matrix.getColtMatrix();
+			data.getNonZeros(rowList, columnList, valueList);
+		} else {
+			for (int row = 0; row < matrix.nRows(); row++) {
+				for (int col = 0; col < n; col++) {
+					double v = matrix.doubleValue(row, col);
+					if (v != 0.0 && !Double.isNaN(v)) {
+						rowList.add(row);
+						columnList.add(col);
+						valueList.add(v);
+					}
+				}
+			}
+		}
+		int nnz = rowList.size();
+		int[] rows = rowList.elements();
+		int[] cols = columnList.elements();
+		double[] vals = valueList.elements();
+
+		int[] counts = new int[n];
+		for (int k = 0; k < nnz; k++)
+			counts[cols[k]]++;
+		columnRows = new int[n][];
+		columnValues = new double[n][];
+		for (int col = 0; col < n; col++) {
+			columnRows[col] = new int[counts[col]];
+			columnValues[col] = new double[counts[col]];
+			counts[col] = 0;
+		}
+		for (int k = 0; k < nnz; k++) {
+			int col = cols[k];
+			columnRows[col][counts[col]] = rows[k];
+			columnValues[col][counts[col]++] = vals[k];
+		}
+
+		for (int col = 0; col < n; col++) {
+			double sum = 0.0;
+			for (double v: columnValues[col])
+				sum += v;
+			if (sum == 0.0) {
+				columnRows[col] = new int[] {col};
+				columnValues[col] = new double[] {1.0};
+			} else {
+				for (int k = 0; k < columnValues[col].length; k++)
+					columnValues[col][k] /= sum;
+			}
+		}
+
+		changed = new boolean[n];
+		Arrays.fill(changed, true);
+		columnResiduals = new double[n];
+		activeColumns = n;
+	}
+
+	/**
+	 * Do one expansion and inflation step.  Returns the residual.
+	 */
+	private double iterate(ForkJoinPool pool) throws InterruptedException, ExecutionException {
+		int[][] newRows = new int[n][];
+		double[][] newValues = new double[n][];
+		boolean[] newChanged = new boolean[n];
+		boolean[] active = new boolean[n];
+
+		pool.submit(() -> IntStream.range(0, n).parallel().forEach(col -> {
+			if (canceled) return;
+			if (freezeColumns && !isActive(col)) {
+				newRows[col] = columnRows[col];
+				newValues[col] = columnValues[col];
+				return;
+			}
+			active[col] = true;
+			columnResiduals[col] = expandColumn(col, workspaces.get(), newRows, newValues);
+			newChanged[col] = !sameColumn(columnRows[col], columnValues[col], newRows[col], newValues[col]);
+		})).get();
+
+		columnRows = newRows;
+		columnValues = newValues;
+		changed = newChanged;
+
+		activeColumns = 0;
+		double residual = 0.0;
+		for (int col = 0; col < n; col++) {
+			if (active[col]) activeColumns++;
+			residual = Math.max(residual, columnResiduals[col]);
+		}
+		return residual;
+	}
+
+	/**
+	 * A column needs to be recomputed if it, or any of the columns
+	 * in its support, changed in the last iteration.
+	 */
+	private boolean isActive(int col) {
+		if (changed[col]) return true;
+		for (int row: columnRows[col]) {
+			if (changed[row]) return true;
+		}
+		return false;
+	}
+
+	private boolean anyChanged() {
+		for (int col = 0; col < n; col++) {
+			if (changed[col]) return true;
+		}
+		return false;
+	}
+
+	private static boolean sameColumn(int[] oldRows, double[] oldValues, int[] rows, double[] values) {
+		if (oldRows.length != rows.length)
+			return false;
+		for (int k = 0; k < rows.length; k++) {
+			if (oldRows[k] != rows[k] || Math.abs(oldValues[k]-values[k]) > CHANGE_TOLERANCE)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Compute a column of the squared matrix, then inflate, prune and normalize it.
+	 * Returns the residual of the column.
+	 */
+	private double expandColumn(int col, Workspace ws, int[][] newRows, double[][] newValues) {
+		int count = ws.accumulate(col, columnRows, columnValues);
+
+		// Inflate
+		double total = 0.0;
+		double expansionSum = 0.0;
+		for (int k = 0; k < count; k++)
+			expansionSum += ws.values[k];
+		if (expansionSum > 0.0) {
+			for (int k = 0; k < count; k++) {
+				double v = Math.pow(ws.values[k]/expansionSum, inflationParameter);
+				ws.values[k] = v;
+				total += v;
+			}
+		}
+
+		// Threshold pruning
+		int kept = 0;
+		double keptMass = 0.0;
+		for (int k = 0; k < count; k++) {
+			if (ws.values[k] > clusteringThresh) {
+				kept++;
+				keptMass += ws.values[k];
+			}
+		}
+
+		int length;
+		if (kept <= selectionNumber && (total == 0.0 || keptMass >= recoveryPercent*total)) {
+			// Just drop the small entries
+			length = 0;
+			for (int k = 0; k < count; k++) {
+				if (ws.values[k] > clusteringThresh) {
+					ws.indices[length] = ws.indices[k];
+					ws.values[length++] = ws.values[k];
+				}
+			}
+		} else {
+			// Selection and recovery: sort by value and keep the largest entries
+			sortDescending(ws.values, ws.indices, count);
+			length = Math.min(kept, selectionNumber);
+			if (keptMass < recoveryPercent*total) {
+				double mass = 0.0;
+				for (int k = 0; k < length; k++)
+					mass += ws.values[k];
+				while (length < count && length < selectionNumber && mass < recoveryPercent*total)
+					mass += ws.values[length++];
+			}
+		}
+
+		// Normalize
+		double sum = 0.0;
+		for (int k = 0; k < length; k++)
+			sum += ws.values[k];
+
+		if (sum == 0.0) {
+			newRows[col] = new int[] {col};
+			newValues[col] = new double[] {1.0};
+			return 0.0;
+		}
+
+		int[] rows = new int[length];
+		double[] values = new double[length];
+		double sumSquares = 0.0;
+		for (int k = 0; k < length; k++) {
+			rows[k] = ws.indices[k];
+			double v = ws.values[k]/sum;
+			values[k] = v;
+			sumSquares += v*v;
+		}
+		newRows[col] = rows;
+		newValues[col] = values;
+		return 1.0 - sumSquares;
+	}
+
+	/**
+	 * Sort values (and their indices) in descending order
+	 */
+	static void sortDescending(double[] values, int[] indices, int length) {
+		quickSort(values, indices, 0, length-1);
+	}
+
+	private static void quickSort(double[] values, int[] indices, int lo, int hi) {
+		while (hi - lo > 16) {
+			double pivot = values[(lo+hi) >>> 1];
+			int i = lo, j = hi;
+			while (i <= j) {
+				while (values[i] > pivot) i++;
+				while (values[j] < pivot) j--;
+				if (i <= j) {
+					swap(values, indices, i++, j--);
+				}
+			}
+			// Recurse into the smaller half
+			if (j - lo < hi - i) {
+				quickSort(values, indices, lo, j);
+				lo = i;
+			} else {
+				quickSort(values, indices, i, hi);
+				hi = j;
+			}
+		}
+		for (int i = lo+1; i <= hi; i++) {
+			for (int j = i; j > lo && values[j-1] < values[j]; j--)
+				swap(values, indices, j, j-1);
+		}
+	}
+
+	private static void swap(double[] values, int[] indices, int i, int j) {
+		double v = values[i]; values[i] = values[j]; values[j] = v;
+		int t = indices[i]; indices[i] = indices[j]; indices[j] = t;
+	}
+
+	/**
+	 * Per-thread sparse accumulator
+	 */
+	static class Workspace {
+		final double[] dense;
+		final int[] stamp;
+		int generation = 0;
+		int[] indices;
+		double[] values;
+
+		Workspace(int n) {
+			dense = new double[n];
+			stamp = new int[n];
+			indices = new int[Math.min(n, 1024)];
+			values = new double[indices.length];
+		}
+
+		/**
+		 * Compute column col of M*M into indices/values.  Returns the number of entries.
+		 */
+		int accumulate(int col, int[][] columnRows, double[][] columnValues) {
+			if (++generation == Integer.MAX_VALUE) {
+				Arrays.fill(stamp, 0);
+				generation = 1;
+			}
+			int count = 0;
+			int[] rows = columnRows[col];
+			double[] vals = columnValues[col];
+			for (int p = 0; p < rows.length; p++) {
+				int k = rows[p];
+				double a = vals[p];
+				int[] kRows = columnRows[k];
+				double[] kVals = columnValues[k];
+				for (int q = 0; q < kRows.length; q++) {
+					int i = kRows[q];
+					if (stamp[i] != generation) {
+						stamp[i] = generation;
+						dense[i] = 0.0;
+						if (count == indices.length)
+							grow();
+						indices[count++] = i;
+					}
+					dense[i] += a*kVals[q];
+				}
+			}
+			for (int k = 0; k < count; k++)
+				values[k] = dense[indices[k]];
+			return count;
+		}
+
+		private void grow() {
+			int size = Math.min(dense.length, indices.length*2);
+			indices = Arrays.copyOf(indices, size);
+			values = Arrays.copyOf(values, size);
+		}
+	}
+}
@@ -0,0 +1,220 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.Multilevel;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.cytoscape.work.TaskMonitor;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.CompressedGraph;
+
+/**
+ * An in-process implementation of the multilevel (Louvain) modularity optimization
+ * of Blondel et al. ("Fast unfolding of communities in large networks",
+ * J. Stat. Mech. P10008 (2008)).
+ *
+ * Each level sweeps over the nodes, moving every node to the neighboring community
+ * with the largest modularity gain, until a sweep no longer improves the modularity.
+ * The communities are then collapsed into the nodes of the next level.  Within a
+ * sweep, the best move for a batch of nodes is computed in parallel and the moves
+ * are committed one at a time after re-checking the gain, so the result does not
+ * depend on the number of threads.  The level graphs and all of the per-level arrays
+ * are allocated once for the size of the input and reused as the graph shrinks.
+ */
+public class MultilevelAlgorithm {
+	private static final double EPSILON = 1e-10;
+	private static final double MIN_IMPROVEMENT = 1e-7;
+	private static final int BATCH_SIZE = 4096;
+
+	private final CompressedGraph graph;
+	private final double resolution;
+	private final long seed;
+	private volatile boolean halt = false;
+
+	private int[] membership = null;
+	private int clusterCount = 0;
+	private double modularity = 0.0;
+	private int levels = 0;
+
+	// Per-level state, sized for the input graph and reused for every level
+	private int[] partition;
+	private double[] communityWeight;
+	private int[] order;
+	private int[] targets;
+	private ThreadLocal<double[]> neighborWeights;
+	private ThreadLocal<int[]> touched;
+
+	/**
+	 * @param graph the graph to partition
+	 * @param resolution the modularity resolution parameter (1.0 for standard modularity)
+	 * @param seed the seed for the node order
+	 */
+	public MultilevelAlgorithm(CompressedGraph graph, double resolution, long seed) {
+		this.graph = graph;
+		this.resolution = resolution;
+		this.seed = seed;
+	}
+
+	public void cancel() { halt = true; }
+
+	/**
+	 * Return the community (0..getClusterCount()-1) of each node of the graph
+	 */
+	public int[] getMembership() { return membership; }
+
+	public int getClusterCount() { return clusterCount; }
+
+	public double getModularity() { return modularity; }
+
+	public int getLevels() { return levels; }
+
+	public void execute(TaskMonitor monitor) {
+		int n = graph.nodeCount;
+		Random random = new Random(seed);
+
+		partition = new int[n];
+		communityWeight = new double[n];
+		order = new int[n];
+		targets = new int[Math.min(n, BATCH_SIZE)];
+		neighborWeights = ThreadLocal.withInitial(() -> {
+			double[] w = new double[n];
+			Arrays.fill(w, -1.0);
+			return w;
+		});
+		touched = ThreadLocal.withInitial(() -> new int[n+1]);
+
+		membership = new int[n];
+		for (int i = 0; i < n; i++)
+			membership[i] = i;
+		clusterCount = n;
+
+		// Two graphs that we alternate between as we coarsen
+		CompressedGraph[] buffers = new CompressedGraph[] {new CompressedGraph(), new CompressedGraph()};
+		CompressedGraph level = graph;
+		int next = 0;
+		levels = 0;
+		while (level.nodeCount > 0) {
+			if (halt) return;
+			monitor.setStatusMessage("Level "+(levels+1)+": "+level.nodeCount+" nodes");
+
+			boolean moved = optimizeLevel(level, random);
+			int communities = CompressedGraph.renumber(partition, level.nodeCount);
+			if (!moved || communities == level.nodeCount)
+				break;
+
+			for (int i = 0; i < n; i++)
+				membership[i] = partition[membership[i]];
+			clusterCount = communities;
+			levels++;
+
+			CompressedGraph aggregate = buffers[next];
+			next = 1-next;
+			level = level.aggregateInto(partition, communities, aggregate);
+			monitor.setProgress(1.0-(double)communities/(double)n);
+		}
+
+		modularity = graph.modularity(membership, clusterCount, resolution);
+		monitor.setProgress(1.0);
+	}
+
+	/**
+	 * Run sweeps of local moves over a level until the modularity stops improving.
+	 * Returns true if any node changed community.
+	 */
+	private boolean optimizeLevel(CompressedGraph g, Random random) {
+		int n = g.nodeCount;
+		double m2 = g.totalWeight;
+		if (m2 == 0.0)
+			return false;
+
+		for (int v = 0; v < n; v++) {
+			partition[v] = v;
+			communityWeight[v] = g.strength[v];
+			order[v] = v;
+		}
+		for (int i = n-1; i > 0; i--) {
+			int j = random.nextInt(i+1);
+			int t = order[i]; order[i] = order[j]; order[j] = t;
+		}
+
+		double factor = resolution/m2;
+		double[] localWeights = neighborWeights.get();
+		int[] localTouched = touched.get();
+		boolean moved = false;
+		while (true) {
+			double improvement = 0.0;
+			int moves = 0;
+			for (int start = 0; start < n; start += targets.length) {
+				if (halt) return moved;
+				final int from = start;
+				int batchLength = Math.min(targets.length, n-start);
+
+				// Evaluate in parallel against the current partition
+				IntStream.range(0, batchLength).parallel()
+					.forEach(i -> targets[i] = bestCommunity(g, order[from+i], factor,
+					                                         neighborWeights.get(), touched.get(), null));
+
+				// Commit, re-checking the gain against the live partition
+				double[] gain = new double[1];
+				for (int i = 0; i < batchLength; i++) {
+					int v = order[from+i];
+					if (targets[i] == partition[v])
+						continue;
+					int target = bestCommunity(g, v, factor, localWeights, localTouched, gain);
+					if (target == partition[v])
+						continue;
+					communityWeight[partition[v]] -= g.strength[v];
+					communityWeight[target] += g.strength[v];
+					partition[v] = target;
+					improvement += gain[0];
+					moves++;
+				}
+			}
+			if (moves == 0)
+				break;
+			moved = true;
+			if (improvement*2.0/m2 < MIN_IMPROVEMENT)
+				break;
+		}
+		return moved;
+	}
+
+	/**
+	 * Find the neighboring community that gives the largest modularity gain for v,
+	 * or the current community if no move improves the modularity.  The weights
+	 * array must be filled with -1.0, and is returned that way.
+	 */
+	private int bestCommunity(CompressedGraph g, int v, double factor,
+	                          double[] weights, int[] used, double[] gain) {
+		int current = partition[v];
+		double kv = g.strength[v];
+		int count = 0;
+		weights[current] = 0.0;
+		used[count++] = current;
+		for (int k = g.offsets[v]; k < g.offsets[v+1]; k++) {
+			int c = partition[g.neighbors[k]];
+			if (weights[c] < 0.0) {
+				weights[c] = 0.0;
+				used[count++] = c;
+			}
+			weights[c] += g.weights[k];
+		}
+
+		double removeCost = weights[current] - factor*kv*(communityWeight[current]-kv);
+		int best = current;
+		double bestGain = EPSILON;
+		for (int t = 1; t < count; t++) {
+			int c = used[t];
+			double delta = weights[c] - factor*kv*communityWeight[c] - removeCost;
+			if (delta > bestGain) {
+				bestGain = delta;
+				best = c;
+			}
+		}
+		for (int t = 0; t < count; t++)
+			weights[used[t]] = -1.0;
+		if (gain != null)
+			gain[0] = bestGain;
+		return best;
+	}
+}
@@ -17,7 +17,10 @@ package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.Multil
 	import org.cytoscape.work.ContainsTunables;
 	import org.cytoscape.work.TaskMonitor;
 
+	import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.AbstractClusterResults;
+	import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.NodeCluster;
 	import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.AbstractNetworkClusterer;
+	import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.CompressedGraph;
 	import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.Multilevel.MultilevelContext;
 	import edu.ucsf.rbvi.clusterMaker2.internal.api.ClusterManager;
 	import edu.ucsf.rbvi.clusterMaker2.internal.ui.NewNetworkView;
@@ -31,6 +34,8 @@ package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.Multil
 		public static String SHORTNAME = "multilevel";
 		final CyServiceRegistrar registrar;
 		public final static String GROUP_ATTRIBUTE = "__Multilevel.SUID";
+		final static long SEED = 42L;
+		MultilevelAlgorithm multilevel = null;
 		
 		@ContainsTunables
 		public MultilevelContext context = null;
@@ -52,6 +57,11 @@ package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.Multil
 
 		@Override
 		public void run(TaskMonitor taskMonitor) throws Exception {
+			if (context.runLocally) {
+				runLocal(taskMonitor);
+				return;
+			}
+
 			// Get the execution service
 			CyJobExecutionService executionService = 
 							registrar.getService(CyJobExecutionService.class, "(title=ClusterJobExecutor)");
@@ -115,4 +125,55 @@ package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.Multil
 
 		}	
 
+		/**
+		 * Run the multilevel algorithm in-process rather than going through the
+		 * remote service.
+		 */
+		private void runLocal(TaskMonitor taskMonitor) {
+			this.monitor = taskMonitor;
+			taskMonitor.setTitle("Performing multilevel clustering");
+			clusterAttributeName = context.getClusterAttribute();
+			createGroups = context.advancedAttributes.createGroups;
+			String attribute = context.getattribute().getSelectedValue();
+
+			if (network == null)
+				network = clusterManager.getNetwork();
+
+			NodeCluster.init();
+
+			taskMonitor.setStatusMessage("Building graph");
+			CompressedGraph graph = CompressedGraph.fromNetwork(network, network.getNodeList(), attribute);
+
+			multilevel = new MultilevelAlgorithm(graph, 1.0, SEED);
+			multilevel.execute(taskMonitor);
+			if (canceled)
+				return;
+
+			List<NodeCluster> clusterList = graph.getClusters(multilevel.getMembership(), 
+			                                                  multilevel.getClusterCount());
+			taskMonitor.showMessage(TaskMonitor.Level.INFO, "Found "+clusterList.size()+" clusters in "+
+			                        multilevel.getLevels()+" levels with a modularity of "+multilevel.getModularity());
+
+			// Remove any leftover groups from previous runs
+			removeGroups(network, GROUP_ATTRIBUTE);
+
+			taskMonitor.showMessage(TaskMonitor.Level.INFO, "Creating groups");
+			createGroups(network, clusterList, GROUP_ATTRIBUTE);
+
+			results = new AbstractClusterResults(network, clusterList);
+			taskMonitor.showMessage(TaskMonitor.Level.INFO, "Done.  Multilevel results:\n"+results);
+
+			if (context.vizProperties.showUI) {
+				taskMonitor.showMessage(TaskMonitor.Level.INFO, "Creating network");
+				insertTasksAfterCurrentTask(new NewNetworkView(network, clusterManager, true, context.vizProperties.restoreEdges, false));
+			}
+		}
+
+		@Override
+		public void cancel() {
+			super.cancel();
+			if (multilevel != null)
+				multilevel.cancel();
+		}
+
 	}
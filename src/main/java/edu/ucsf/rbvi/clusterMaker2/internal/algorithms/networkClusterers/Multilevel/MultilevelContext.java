@@ -28,6 +28,12 @@ package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.Multil
 			return attribute;
 		}
 		public void setattribute(ListSingleSelection<String> attr) { }
+
+		@Tunable(description = "Run locally", groups={"Multilevel Advanced Settings"},
+		         longDescription = "Run the multilevel algorithm inside Cytoscape rather than submitting it to the remote cluster service.",
+		         exampleStringValue = "true",
+		         gravity = 2.0)
+		public boolean runLocally = true;
 		
 		@ContainsTunables
 		public AdvancedProperties advancedAttributes;
@@ -46,6 +52,7 @@ package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.Multil
 				advancedAttributes = new AdvancedProperties("MultilevelCluster", false);
 
 			attribute = origin.attribute;
+			runLocally = origin.runLocally;
 		}
 
 		public void setNetwork(CyNetwork network) {
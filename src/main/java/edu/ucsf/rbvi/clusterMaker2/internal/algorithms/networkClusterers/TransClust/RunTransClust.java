@@ -11,6 +11,7 @@ import cern.colt.matrix.tdouble.DoubleMatrix2D;
 import edu.ucsf.rbvi.clusterMaker2.internal.utils.ModelUtils;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.NodeCluster;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.TransClust.de.costmatrixcreation.dataTypes.Edges;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.TransClust.de.costmatrixcreation.main.InOut;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.TransClust.de.layclust.iterativeclustering.IteratorThread;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.TransClust.de.layclust.taskmanaging.TaskConfig;
 import edu.ucsf.rbvi.clusterMaker2.internal.api.CyMatrix;
@@ -54,22 +55,38 @@ public class RunTransClust {
 			count++;
 		}
 		
-		Edges es = new Edges(this.nodes.size()*this.nodes.size(), this.nodes.size());
+		// Only the values that can matter are kept: a zero never passes a
+		// threshold that isn't negative, and getEdgeValue returns InOut.min
+		// (here 0) for the values that aren't kept.  This keeps the edges
+		// small for sparse matrices, so that the large components can use
+		// a sparse cost structure.
+		int n = this.nodes.size();
+		boolean skipZeros = threshold >= 0;
+		InOut.min = 0;
+		int stored = 0;
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				double val = distanceMatrix.doubleValue(i, j);
+				if (!Double.isNaN(val) && !(skipZeros && val == 0.0))
+					stored++;
+			}
+		}
+
+		Edges es = new Edges(stored, n);
 		count = 0;
-		for (int i = 0; i < this.nodes.size(); i++) {
+		for (int i = 0; i < n; i++) {
 			CyNode cyNodeI = this.nodes.get(i);
 			es.startPositions[integers2proteins.get(ModelUtils.getNodeName(network, cyNodeI))] = count;
-			for (int j = 0; j < this.nodes.size(); j++) {
-				CyNode cyNodeJ = this.nodes.get(j);
+			for (int j = 0; j < n; j++) {
+				double val = distanceMatrix.doubleValue(i, j);
+				if (!Double.isNaN(val) && !(skipZeros && val == 0.0)) {
 					es.sources[count] = i;
 					es.targets[count] = j;
-					Double val = distanceMatrix.getValue(i, j);
-					if (val != null) {
-						es.values[count] = val.floatValue();
-						count++;
-					}
+					es.values[count] = (float) val;
+					count++;
+				}
 			}
-			es.endPositions[integers2proteins.get(ModelUtils.getNodeName(network, cyNodeI))] = count-1;
+			es.endPositions[integers2proteins.get(ModelUtils.getNodeName(network, cyNodeI))] = count;
 		}
 		
 		Semaphore s = new Semaphore(1);
@@ -33,6 +33,24 @@ public class TransClusterContext implements ClusterAlgorithmContext {
 
 	@Tunable(description= "Number of Processors:",groups={"Advanced Tuning Parameters","Parallelization"}, gravity=15.0)
 	public int processors = 1;
+
+	@Tunable(description= "Approximate forces for large components",
+	         longDescription="If true, the layout of connected components with at least 1000 nodes "+
+	                         "approximates the forces from the pairs with the most common cost "+
+	                         "(usually the missing edges) using a Barnes-Hut tree, and only calculates "+
+	                         "the other pairs exactly.  This is much faster for large components.",
+	         exampleStringValue="false",
+	         groups={"Advanced Tuning Parameters","Large Components"}, gravity=16.0)
+	public boolean approximateForces = false;
+
+	@Tunable(description= "Approximation accuracy (theta)",
+	         longDescription="The Barnes-Hut opening criterion: groups of nodes are approximated "+
+	                         "by their center if their size is less than theta times their distance.  "+
+	                         "Smaller values are more accurate, but slower.",
+	         exampleStringValue="0.5",
+	         groups={"Advanced Tuning Parameters","Large Components"},
+	         dependsOn="approximateForces=true", gravity=17.0)
+	public double theta = 0.5;
 	
 	@ContainsTunables
 	public AdvancedProperties advancedAttributes;
@@ -58,6 +76,8 @@ public class TransClusterContext implements ClusterAlgorithmContext {
 		mergeSimilar = origin.mergeSimilar;
 		mergeThreshold = origin.mergeThreshold;
 		processors = origin.processors;
+		approximateForces = origin.approximateForces;
+		theta = origin.theta;
 	}
 
 	public void setNetwork(CyNetwork network) {
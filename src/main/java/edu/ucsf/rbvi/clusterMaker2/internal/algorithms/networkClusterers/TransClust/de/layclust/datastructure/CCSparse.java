@@ -0,0 +1,543 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.TransClust.de.layclust.datastructure;
+
+import java.util.Arrays;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.TransClust.de.layclust.taskmanaging.TaskConfig;
+
+/**
+ * This class is a realisation of the ICCEdges interface for large components
+ * where most of the pairs have the same (default) cost, usually the cost of a
+ * missing edge. Only the other costs are saved, in compressed sparse rows:
+ * the costs for the edges of node i are at rowStart[i]..rowStart[i+1]-1,
+ * sorted by the other node, and both (i,j) and (j,i) are saved. The cost of an
+ * edge is found by a binary search in its row.
+ * <p>
+ * Until the first cost is read, the costs are being loaded: each cost that
+ * isn't the default is appended to a packed list, and the rows are built
+ * from it in one count pass and one fill pass, after which the list is
+ * dropped. If a pair is set more than once while loading, the last cost
+ * that isn't the default is kept. Costs that are set after that for edges
+ * that aren't in the rows yet are collected in a small open addressing
+ * table, and merged into the rows the next time a cost is read. Setting the
+ * default cost for such an edge doesn't take any space.
+ * <p>
+ * The rows take 16 bytes for each pair with its own cost, and loading takes
+ * another 12 bytes per pair while the rows are built, so this only saves
+ * memory over {@link CCSymmetricArray} (4 bytes per pair) for components
+ * where few of the pairs have their own cost.
+ */
+public class CCSparse implements ICCEdges {
+
+	/* the smallest component for which CCSparse is chosen automatically */
+	public static final int MIN_SPARSE_SIZE = 1000;
+	/* the largest fraction of pairs with their own cost for which CCSparse is chosen */
+	public static final double MAX_SPARSE_DENSITY = 0.1;
+
+	private static final long EMPTY = -1L;
+
+	private int size;
+	private float defaultCost;
+
+	/* compressed sparse rows, in both directions */
+	private int[] rowStart;
+	private int[] columns;
+	private float[] costs;
+
+	/* costs that are being loaded, keyed by i*size+j with i<j */
+	private long[] loadKeys;
+	private float[] loadCosts;
+	private int loadCount;
+
+	/* costs set after loading that haven't been merged into the rows */
+	private long[] pendingKeys;
+	private float[] pendingCosts;
+	private int pendingCount;
+	private volatile boolean merged = true;
+
+	private float maxFromNormalisation, minFromNormalisation;
+	private double l, r, minFromNormalisationWithThreshold, maxFromNormalisationWithThreshold;
+
+	/**
+	 * Creates an empty CCSparse, where every edge has the default cost 0.
+	 *
+	 * @param size
+	 *            The number of nodes in the component.
+	 */
+	public CCSparse(int size) {
+		this(size, 0);
+	}
+
+	/**
+	 * Creates an empty CCSparse, where every edge has the default cost.
+	 *
+	 * @param size
+	 *            The number of nodes in the component.
+	 * @param defaultCost
+	 *            The cost of the edges that aren't set.
+	 */
+	public CCSparse(int size, float defaultCost) {
+		this(size, defaultCost, 16);
+	}
+
+	/**
+	 * Creates an empty CCSparse, where every edge has the default cost, with
+	 * room to load the given number of costs.
+	 *
+	 * @param size
+	 *            The number of nodes in the component.
+	 * @param defaultCost
+	 *            The cost of the edges that aren't set.
+	 * @param expectedCosts
+	 *            The (estimated) number of pairs that don't have the default
+	 *            cost.
+	 */
+	public CCSparse(int size, float defaultCost, long expectedCosts) {
+		this.defaultCost = defaultCost;
+		initCCEdges(size);
+		long pairs = (long) size * (size - 1) / 2;
+		int capacity = (int) Math.max(16, Math.min(Math.min(expectedCosts, pairs), Integer.MAX_VALUE - 8));
+		loadKeys = new long[capacity];
+		loadCosts = new float[capacity];
+	}
+
+	/**
+	 * Creates the {@link ICCEdges} for a component, using a CCSparse if the
+	 * component is large and most of its pairs have the default cost, and the
+	 * implementation in {@link TaskConfig} otherwise.
+	 *
+	 * @param size
+	 *            The number of nodes in the component.
+	 * @param explicitPairs
+	 *            The (estimated) number of pairs that don't have the default
+	 *            cost.
+	 * @param defaultCost
+	 *            The cost of most of the pairs.
+	 * @return The {@link ICCEdges}, with no costs set yet.
+	 */
+	public static ICCEdges createCCEdges(int size, long explicitPairs, float defaultCost) {
+		long pairs = (long) size * (size - 1) / 2;
+		if (size >= MIN_SPARSE_SIZE && explicitPairs <= MAX_SPARSE_DENSITY * pairs)
+			return new CCSparse(size, defaultCost, explicitPairs);
+		return TaskConfig.ccEdgesEnum.createCCEdges(size);
+	}
+
+	public CCSparse clone() {
+		mergePending();
+		CCSparse clone = new CCSparse(this.size, this.defaultCost);
+		clone.rowStart = this.rowStart.clone();
+		clone.columns = this.columns.clone();
+		clone.costs = this.costs.clone();
+		clone.loadKeys = null;
+		clone.loadCosts = null;
+		clone.l = this.l;
+		clone.r = this.r;
+		clone.minFromNormalisation = this.minFromNormalisation;
+		clone.maxFromNormalisation = this.maxFromNormalisation;
+		clone.minFromNormalisationWithThreshold = this.minFromNormalisationWithThreshold;
+		clone.maxFromNormalisationWithThreshold = this.maxFromNormalisationWithThreshold;
+		return clone;
+	}
+
+	/**
+	 * Here the (empty) rows are initialised, but costs still need to be added.
+	 *
+	 * @param size
+	 *            The number of nodes in the component.
+	 */
+	public void initCCEdges(int size) {
+		this.size = size;
+		rowStart = new int[size + 1];
+		columns = new int[0];
+		costs = new float[0];
+		loadKeys = new long[16];
+		loadCosts = new float[16];
+		loadCount = 0;
+		pendingKeys = new long[16];
+		Arrays.fill(pendingKeys, EMPTY);
+		pendingCosts = new float[16];
+		pendingCount = 0;
+		merged = true;
+	}
+
+	/**
+	 * Sets the cost for deleting the edge between node i and node j.
+	 *
+	 * @param node_i
+	 *            The value of the first edge node.
+	 * @param node_j
+	 *            The value of the seciond edge node.
+	 * @param cost
+	 *            The cost of adding or deleting the edge (i,j).
+	 */
+	public void setEdgeCost(int node_i, int node_j, float cost) {
+		if (node_i == node_j) return;
+
+		if (loadKeys != null) {
+			if (cost == defaultCost) return;
+			if (loadCount == loadKeys.length)
+				growLoad();
+			loadKeys[loadCount] = key(node_i, node_j);
+			loadCosts[loadCount++] = cost;
+			merged = false;
+			return;
+		}
+
+		/* already in the rows, so just change it */
+		int k = find(node_i, node_j);
+		if (k >= 0) {
+			costs[k] = cost;
+			costs[find(node_j, node_i)] = cost;
+			return;
+		}
+
+		long key = key(node_i, node_j);
+		int slot = slot(key);
+		if (pendingKeys[slot] == key) {
+			pendingCosts[slot] = cost;
+		} else if (cost != defaultCost) {
+			pendingKeys[slot] = key;
+			pendingCosts[slot] = cost;
+			pendingCount++;
+			merged = false;
+			if (pendingCount * 2 > pendingKeys.length)
+				growPending();
+		}
+	}
+
+	/**
+	 * Gets the cost for adding or deleting the edge (i,j).
+	 *
+	 * @param node_i
+	 *            The value of the first edge node.
+	 * @param node_j
+	 *            The value of the seciond edge node.
+	 * @return cost The cost of adding or deleting the edge (i,j).
+	 */
+	public float getEdgeCost(int node_i, int node_j) {
+		if (!merged) mergePending();
+		if (node_i == node_j) return 0;
+		int k = find(node_i, node_j);
+		return k >= 0 ? costs[k] : defaultCost;
+	}
+
+	/**
+	 * @return The cost of the edges that aren't saved.
+	 */
+	public float getDefaultCost() {
+		return defaultCost;
+	}
+
+	/**
+	 * The start of the row for each node, followed by the number of saved
+	 * costs. The arrays returned by this and {@link #getColumns()} and
+	 * {@link #getCosts()} must not be changed.
+	 */
+	public int[] getRowStarts() {
+		if (!merged) mergePending();
+		return rowStart;
+	}
+
+	/**
+	 * @return The other node for each saved cost.
+	 */
+	public int[] getColumns() {
+		if (!merged) mergePending();
+		return columns;
+	}
+
+	/**
+	 * @return The saved costs.
+	 */
+	public float[] getCosts() {
+		if (!merged) mergePending();
+		return costs;
+	}
+
+	/**
+	 * Normalises the values, in the same way as {@link CC2DArray}.
+	 */
+	public void normalise() {
+		if (size < 2) return;
+		mergePending();
+		float max = Math.abs(getEdgeCost(0, 1));
+		float min = getEdgeCost(0, 1);
+		if (hasDefaultPairs()) {
+			max = Math.max(max, Math.abs(defaultCost));
+			min = Math.min(min, defaultCost);
+		}
+		for (int k = 0; k < costs.length; k++) {
+			if (Math.abs(costs[k]) > max) max = Math.abs(costs[k]);
+			if (costs[k] < min) min = costs[k];
+		}
+		maxFromNormalisation = max;
+		minFromNormalisation = min;
+
+		if (max == 0) return;
+		for (int k = 0; k < costs.length; k++)
+			costs[k] = costs[k] / max;
+		defaultCost = defaultCost / max;
+	}
+
+	/**
+	 * Normalises the values between -1 and 1, in the same way as
+	 * {@link CC2DArray}.
+	 */
+	public void normaliseWithThreshold(double alpha) {
+		if (size < 2) return;
+		mergePending();
+		float min = getEdgeCost(0, 1);
+		float max = min;
+		if (hasDefaultPairs()) {
+			max = Math.max(max, defaultCost);
+			min = Math.min(min, defaultCost);
+		}
+		for (int k = 0; k < costs.length; k++) {
+			if (costs[k] > max) max = costs[k];
+			if (costs[k] < min) min = costs[k];
+		}
+		maxFromNormalisationWithThreshold = max;
+		minFromNormalisationWithThreshold = min;
+		//range of the normalised values: l & r
+		if (Math.abs(min) < Math.abs(max)) {
+			l = -alpha * Math.abs(min) / max;
+			r = 1;
+		} else {
+			l = -1;
+			r = alpha * max / Math.abs(min);
+		}
+		for (int k = 0; k < costs.length; k++) {
+			if (costs[k] > 0) {
+				costs[k] = (float) r * costs[k] / max;
+			} else {
+				costs[k] = (float) l * costs[k] / min;
+			}
+		}
+		if (defaultCost > 0) {
+			defaultCost = (float) r * defaultCost / max;
+		} else {
+			defaultCost = (float) l * defaultCost / min;
+		}
+	}
+
+	/**
+	 * Undo the normalisation done by normalise()
+	 */
+	public void denormalise() {
+		mergePending();
+		for (int k = 0; k < costs.length; k++)
+			costs[k] = costs[k] * maxFromNormalisation;
+		defaultCost = defaultCost * maxFromNormalisation;
+	}
+
+	/**
+	 * Undo the normalisation done by normaliseWithThreshold
+	 */
+	public void denormaliseWithThreshold() {
+		mergePending();
+		for (int k = 0; k < costs.length; k++) {
+			if (costs[k] > 0) {
+				costs[k] = (float) (costs[k] / r * maxFromNormalisationWithThreshold);
+			} else {
+				costs[k] = (float) (costs[k] / l * minFromNormalisationWithThreshold);
+			}
+		}
+		if (defaultCost > 0) {
+			defaultCost = (float) (defaultCost / r * maxFromNormalisationWithThreshold);
+		} else {
+			defaultCost = (float) (defaultCost / l * minFromNormalisationWithThreshold);
+		}
+	}
+
+	/* whether any pair isn't saved, and so has the default cost */
+	private boolean hasDefaultPairs() {
+		return columns.length / 2 < (long) size * (size - 1) / 2;
+	}
+
+	/* the position of (i,j) in the rows, or -1 */
+	private int find(int node_i, int node_j) {
+		int k = Arrays.binarySearch(columns, rowStart[node_i], rowStart[node_i + 1], node_j);
+		return k >= 0 ? k : -1;
+	}
+
+	private long key(int node_i, int node_j) {
+		return node_i < node_j ? (long) node_i * size + node_j : (long) node_j * size + node_i;
+	}
+
+	/* the slot for the key, or the empty slot where it should go */
+	private int slot(long key) {
+		int mask = pendingKeys.length - 1;
+		int shift = 64 - Integer.numberOfTrailingZeros(pendingKeys.length);
+		int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+		while (pendingKeys[slot] != EMPTY && pendingKeys[slot] != key)
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	private void growLoad() {
+		int capacity = (int) Math.min((long) loadKeys.length * 3 / 2 + 1, Integer.MAX_VALUE - 8);
+		if (capacity <= loadKeys.length)
+			throw new OutOfMemoryError("Too many costs for a CCSparse");
+		loadKeys = Arrays.copyOf(loadKeys, capacity);
+		loadCosts = Arrays.copyOf(loadCosts, capacity);
+	}
+
+	private void growPending() {
+		long[] oldKeys = pendingKeys;
+		float[] oldCosts = pendingCosts;
+		pendingKeys = new long[oldKeys.length * 2];
+		Arrays.fill(pendingKeys, EMPTY);
+		pendingCosts = new float[oldKeys.length * 2];
+		for (int s = 0; s < oldKeys.length; s++) {
+			if (oldKeys[s] == EMPTY) continue;
+			int slot = slot(oldKeys[s]);
+			pendingKeys[slot] = oldKeys[s];
+			pendingCosts[slot] = oldCosts[s];
+		}
+	}
+
+	/*
+	 * Merges the pending costs into the rows. This is synchronized, because
+	 * the layouters read the costs from several threads.
+	 */
+	private synchronized void mergePending() {
+		if (merged) return;
+		if (loadKeys != null) {
+			buildRows();
+			return;
+		}
+
+		int[] counts = new int[size + 1];
+		for (int i = 0; i < size; i++)
+			counts[i + 1] = rowStart[i + 1] - rowStart[i];
+		for (int s = 0; s < pendingKeys.length; s++) {
+			if (pendingKeys[s] == EMPTY || pendingCosts[s] == defaultCost) continue;
+			int i = (int) (pendingKeys[s] / size);
+			int j = (int) (pendingKeys[s] % size);
+			counts[i + 1]++;
+			counts[j + 1]++;
+		}
+		int[] newRowStart = new int[size + 1];
+		for (int i = 0; i < size; i++)
+			newRowStart[i + 1] = newRowStart[i] + counts[i + 1];
+
+		int[] newColumns = new int[newRowStart[size]];
+		float[] newCosts = new float[newRowStart[size]];
+		int[] next = Arrays.copyOf(newRowStart, size);
+		for (int i = 0; i < size; i++) {
+			for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+				newColumns[next[i]] = columns[k];
+				newCosts[next[i]++] = costs[k];
+			}
+		}
+		for (int s = 0; s < pendingKeys.length; s++) {
+			if (pendingKeys[s] == EMPTY || pendingCosts[s] == defaultCost) continue;
+			int i = (int) (pendingKeys[s] / size);
+			int j = (int) (pendingKeys[s] % size);
+			newColumns[next[i]] = j;
+			newCosts[next[i]++] = pendingCosts[s];
+			newColumns[next[j]] = i;
+			newCosts[next[j]++] = pendingCosts[s];
+		}
+
+		/* sort each row by column */
+		for (int i = 0; i < size; i++)
+			sortRow(newColumns, newCosts, newRowStart[i], newRowStart[i + 1]);
+
+		rowStart = newRowStart;
+		columns = newColumns;
+		costs = newCosts;
+		pendingKeys = new long[16];
+		Arrays.fill(pendingKeys, EMPTY);
+		pendingCosts = new float[16];
+		pendingCount = 0;
+		merged = true;
+	}
+
+	/*
+	 * Builds the rows from the loaded costs, counting the costs of each row
+	 * and then filling them in, and drops the list of loaded costs.
+	 */
+	private void buildRows() {
+		int[] newRowStart = new int[size + 1];
+		for (int k = 0; k < loadCount; k++) {
+			newRowStart[(int) (loadKeys[k] / size) + 1]++;
+			newRowStart[(int) (loadKeys[k] % size) + 1]++;
+		}
+		for (int i = 0; i < size; i++)
+			newRowStart[i + 1] += newRowStart[i];
+
+		int[] newColumns = new int[newRowStart[size]];
+		float[] newCosts = new float[newRowStart[size]];
+		int[] next = Arrays.copyOf(newRowStart, size);
+		for (int k = 0; k < loadCount; k++) {
+			int i = (int) (loadKeys[k] / size);
+			int j = (int) (loadKeys[k] % size);
+			newColumns[next[i]] = j;
+			newCosts[next[i]++] = loadCosts[k];
+			newColumns[next[j]] = i;
+			newCosts[next[j]++] = loadCosts[k];
+		}
+		loadKeys = null;
+		loadCosts = null;
+		loadCount = 0;
+		next = null;
+
+		/* sort each row by column, keeping the last cost of a pair set twice */
+		int length = 0;
+		for (int i = 0; i < size; i++) {
+			int from = newRowStart[i];
+			int to = sortRowStable(newColumns, newCosts, from, newRowStart[i + 1]);
+			newRowStart[i] = length;
+			for (int k = from; k < to; k++) {
+				newColumns[length] = newColumns[k];
+				newCosts[length++] = newCosts[k];
+			}
+		}
+		newRowStart[size] = length;
+		if (length < newColumns.length) {
+			newColumns = Arrays.copyOf(newColumns, length);
+			newCosts = Arrays.copyOf(newCosts, length);
+		}
+
+		rowStart = newRowStart;
+		columns = newColumns;
+		costs = newCosts;
+		merged = true;
+	}
+
+	/*
+	 * Sorts a row by column, keeping the order of the costs for the same
+	 * column, and removes all but the last of them.
+	 *
+	 * @return the end of the sorted row
+	 */
+	private static int sortRowStable(int[] columns, float[] costs, int from, int to) {
+		if (to - from < 2) return to;
+		long[] keys = new long[to - from];
+		for (int k = from; k < to; k++)
+			keys[k - from] = ((long) columns[k] << 32) | (k - from);
+		Arrays.sort(keys);
+		float[] rowCosts = Arrays.copyOfRange(costs, from, to);
+		int end = from;
+		for (int k = 0; k < keys.length; k++) {
+			int column = (int) (keys[k] >>> 32);
+			if (k + 1 < keys.length && (int) (keys[k + 1] >>> 32) == column) continue;
+			columns[end] = column;
+			costs[end++] = rowCosts[(int) keys[k]];
+		}
+		return end;
+	}
+
+	// Sort through a packed key, since the rows can be long
+	private static void sortRow(int[] columns, float[] costs, int from, int to) {
+		if (to - from < 2) return;
+		long[] keys = new long[to - from];
+		for (int k = from; k < to; k++)
+			keys[k - from] = ((long) columns[k] << 32) | Float.floatToRawIntBits(costs[k]) & 0xffffffffL;
+		Arrays.sort(keys);
+		for (int k = from; k < to; k++) {
+			columns[k] = (int) (keys[k - from] >>> 32);
+			costs[k] = Float.intBitsToFloat((int) keys[k - from]);
+		}
+	}
+}
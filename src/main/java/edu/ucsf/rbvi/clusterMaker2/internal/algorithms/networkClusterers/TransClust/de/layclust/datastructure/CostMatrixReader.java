@@ -4,8 +4,9 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
-
-import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.TransClust.de.layclust.taskmanaging.TaskConfig;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
 
 /**
  * This class is used to read a Cost-Matrix from a .cm-file.
@@ -76,8 +77,15 @@ public class CostMatrixReader {
 	 * @throws LayoutTypeException If an incorrect type for ICCEdges is given in TaskConfig.
 	 */
 	public ConnectedComponent getConnectedComponent(){
-		//create ICCedges:
-		ICCEdges ccEdges = TaskConfig.ccEdgesEnum.createCCEdges(node_no);
+		//create ICCedges, sparse if most of the costs are the same:
+		float defaultCost = getMostCommonCost();
+		long explicitPairs = 0;
+		for (int i = 0; i < values.length; i++) {
+			for (float value : (float[]) values[i]) {
+				if (value != defaultCost) explicitPairs++;
+			}
+		}
+		ICCEdges ccEdges = CCSparse.createCCEdges(node_no, explicitPairs, defaultCost);
 		for (int i = 0; i < values.length; i++) {
 			float[] vals = (float[]) values[i];
 			for (int j = 0; j < vals.length; j++) {
@@ -88,5 +96,30 @@ public class CostMatrixReader {
 			comp.setReductionCost(this.reductionCost);
 		return comp;
 	}
+
+	/**
+	 * Finds the most common cost in a sample of the costs, which is usually
+	 * the cost of a missing edge.
+	 *
+	 * @return The most common cost, or 0 if there are no costs.
+	 */
+	private float getMostCommonCost() {
+		Map<Float, Integer> frequencies = new HashMap<Float, Integer>();
+		Random random = new Random(node_no);
+		for (int s = 0; s < 10000 && values.length > 0; s++) {
+			float[] row = (float[]) values[random.nextInt(values.length)];
+			if (row.length == 0) continue;
+			frequencies.merge(row[random.nextInt(row.length)], 1, Integer::sum);
+		}
+		float mostCommon = 0;
+		int best = 0;
+		for (Map.Entry<Float, Integer> entry : frequencies.entrySet()) {
+			if (entry.getValue() > best) {
+				best = entry.getValue();
+				mostCommon = entry.getKey();
+			}
+		}
+		return mostCommon;
+	}
 	
 }
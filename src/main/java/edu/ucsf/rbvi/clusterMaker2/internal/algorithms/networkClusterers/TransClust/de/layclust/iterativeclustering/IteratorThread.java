@@ -24,6 +24,7 @@ import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.TransCl
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.TransClust.de.costmatrixcreation.main.Config;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.TransClust.de.costmatrixcreation.main.InOut;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.TransClust.de.costmatrixcreation.main.Splitter;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.TransClust.de.layclust.datastructure.CCSparse;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.TransClust.de.layclust.datastructure.ConnectedComponent;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.TransClust.de.layclust.datastructure.ICCEdges;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.TransClust.de.layclust.taskmanaging.ClusteringManager;
@@ -237,7 +238,8 @@ public class IteratorThread extends Thread {
 								count++;
 							}
 						}
-						ICCEdges cc2d2 = TaskConfig.ccEdgesEnum.createCCEdges(count);
+						ICCEdges cc2d2 = createCCEdges(representants, mergedNodes, es,
+								InOut.min < TaskConfig.lowerBound ? -100000 : (float) (InOut.min - threshold));
 						String[] ids = new String[count];
 						Arrays.fill(ids, "");
 						for (int i = 0; i < representants.size(); i++) {
@@ -598,6 +600,22 @@ public class IteratorThread extends Thread {
 	 }
 
 
+	/*
+	 * Creates the ICCEdges for a component. Large components where most of
+	 * the pairs have no edge get a CCSparse, with the cost of a missing edge
+	 * as the default.
+	 */
+	private static ICCEdges createCCEdges(Vector<Integer> representants,
+			Hashtable<Integer, Vector<Integer>> mergedNodes, Edges es, float missingCost) {
+		long edges = 0;
+		for (Integer representant : representants) {
+			for (Integer node : mergedNodes.get(representant))
+				edges += Math.max(0, es.getEndPosition(node) - es.getStartPosition(node));
+		}
+		/* every edge is saved in both directions */
+		return CCSparse.createCCEdges(representants.size(), edges / 2, missingCost);
+	}
+
 	private void rearrange(
 			Hashtable<String, Hashtable<String, Boolean>> clusters, Edges es,
 			HashMap<String, Integer> integers2proteins) {
@@ -734,7 +752,7 @@ public class IteratorThread extends Thread {
 						count++;
 					}
 				}
-				ICCEdges cc2d2 = TaskConfig.ccEdgesEnum.createCCEdges(count);
+				ICCEdges cc2d2 = createCCEdges(representants, mergedNodes, es, (float) (InOut.min - threshold));
 				String[] ids = new String[count];
 				Arrays.fill(ids, "");
 				for (int i = 0; i < representants.size(); i++) {
@@ -797,7 +815,7 @@ public class IteratorThread extends Thread {
 						count++;
 					}
 				}
-				ICCEdges cc2d2 =TaskConfig.ccEdgesEnum.createCCEdges(count);
+				ICCEdges cc2d2 = createCCEdges(representants, mergedNodes, es, (float) (InOut.min - threshold));
 				String[] ids = new String[count];
 				Arrays.fill(ids, "");
 				for (int i = 0; i < representants.size(); i++) {
@@ -1025,7 +1043,7 @@ public class IteratorThread extends Thread {
 						count++;
 					}
 				}
-				ICCEdges cc2d2 = TaskConfig.ccEdgesEnum.createCCEdges(count);
+				ICCEdges cc2d2 = createCCEdges(representants, mergedNodes, es, (float) (InOut.min - threshold));
 				String[] ids = new String[count];
 				Arrays.fill(ids, "");
 				for (int i = 0; i < representants.size(); i++) {
@@ -1074,7 +1092,7 @@ public class IteratorThread extends Thread {
 						count++;
 					}
 				}
-				ICCEdges cc2d2 = TaskConfig.ccEdgesEnum.createCCEdges(count);
+				ICCEdges cc2d2 = createCCEdges(representants, mergedNodes, es, (float) (InOut.min - threshold));
 				String[] ids = new String[count];
 				Arrays.fill(ids, "");
 				for (int i = 0; i < representants.size(); i++) {
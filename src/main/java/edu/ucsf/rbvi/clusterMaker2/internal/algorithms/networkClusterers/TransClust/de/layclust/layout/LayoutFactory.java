@@ -7,6 +7,7 @@ package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.TransC
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.TransClust.de.layclust.datastructure.CC1DArray;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.TransClust.de.layclust.datastructure.CC2DArray;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.TransClust.de.layclust.datastructure.CCHash;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.TransClust.de.layclust.datastructure.CCSparse;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.TransClust.de.layclust.datastructure.CCSymmetricArray;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.TransClust.de.layclust.datastructure.ICCEdges;
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.TransClust.de.layclust.layout.forcend.FORCEnDLayouter;
@@ -139,7 +140,8 @@ public class LayoutFactory {
 	public enum EnumCCEdgesStructure {
 		CC2DARRAY("CC2DArray", 0),
 		CCSYMMETRICARRAY("CCSymmetricArray", 1),
-		CCHASH("CCHash", 2),CC1DARRAY("CC1DArray", 3);
+		CCHASH("CCHash", 2),CC1DARRAY("CC1DArray", 3),
+		CCSPARSE("CCSparse", 4);
 		
 		// ==================================//
 		// ADD ADDITIONAL CC EDGES IMPLEMENTATIONS HERE!!	   //
@@ -165,6 +167,7 @@ public class LayoutFactory {
 			else if(intvalue == 1){ return new CCSymmetricArray(size); }
 			else if(intvalue == 2){ return new CCHash(size); }
 			else if(intvalue == 3){ return new CC1DArray(size); }
+			else if(intvalue == 4){ return new CCSparse(size); }
 			// ==================================//
 			// ADD ADDITIONAL CC EDGES IMPLEMENTATIONS HERE!!	   //
 			// ==================================//
@@ -0,0 +1,365 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.TransClust.de.layclust.layout.forcend;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.TransClust.de.layclust.datastructure.CCSparse;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.TransClust.de.layclust.datastructure.ICCEdges;
+
+/**
+ * Approximate FORCEnD forces for large connected components. In a large
+ * component most of the pairs have the same (background) cost, usually the
+ * cost of a missing edge, and only a few pairs have a cost of their own.
+ * <p>
+ * The force between every pair is split into the background force, as if the
+ * pair had the background cost, plus a correction for the pairs with their
+ * own cost. The background force is approximated with a Barnes-Hut
+ * traversal of a KD-tree over the positions, so it works in any dimension:
+ * a node of the tree that is small compared to its distance from a point
+ * (size &lt; theta x distance) acts on it as if all of its nodes were at
+ * its center of mass. The corrections are calculated exactly. Each
+ * iteration takes O(n log n + E) rather than O(n^2) time.
+ */
+public class FORCEnDApproximateForces {
+
+	/* below this many nodes the exact forces are used */
+	public static final int MIN_NODES = 1000;
+
+	/* the background cost must be at least this fraction of the sampled pairs */
+	private static final double MIN_BACKGROUND_FRACTION = 0.5;
+	private static final int SAMPLE_SIZE = 100000;
+	private static final int LEAF_SIZE = 8;
+
+	private final int node_no;
+	private final int dim;
+	private final double theta;
+	private final float backgroundCost;
+
+	// The pairs with their own cost, in both directions, by row
+	private final int[] pairStart;
+	private final int[] pairNode;
+	private final float[] pairCost;
+
+	// The tree, rebuilt for every iteration
+	private final int[] order;
+	private int nNodes;
+	private final int[] start;
+	private final int[] end;
+	private final int[] left;	// -1 for leaves
+	private final int[] right;
+	private final double[] center;	// center of mass, node*dim+d
+	private final double[] size;	// longest side of the bounding box
+	private final double[] min;
+	private final double[] max;
+	private final int stackSize;
+
+	private double attraction;
+	private double repulsion;
+
+	private FORCEnDApproximateForces(int node_no, int dim, double theta,
+			float backgroundCost, int[] pairStart, int[] pairNode, float[] pairCost) {
+		this.node_no = node_no;
+		this.dim = dim;
+		this.theta = theta;
+		this.backgroundCost = backgroundCost;
+		this.pairStart = pairStart;
+		this.pairNode = pairNode;
+		this.pairCost = pairCost;
+
+		order = new int[node_no];
+		// Every leaf has at least LEAF_SIZE/2 nodes
+		int maxNodes = 2 * (node_no / (LEAF_SIZE / 2) + 1);
+		start = new int[maxNodes];
+		end = new int[maxNodes];
+		left = new int[maxNodes];
+		right = new int[maxNodes];
+		center = new double[maxNodes * dim];
+		size = new double[maxNodes];
+		min = new double[maxNodes * dim];
+		max = new double[maxNodes * dim];
+		// The tree is split at the median, so it is at most log2(node_no)
+		// deep, and a traversal keeps at most one node per level waiting
+		stackSize = Integer.SIZE - Integer.numberOfLeadingZeros(node_no) + 2;
+	}
+
+	/**
+	 * The scratch space for calculating displacements, one for each thread.
+	 */
+	public class Workspace {
+		private final double[] result = new double[dim];
+		private final int[] stack = new int[stackSize];
+	}
+
+	public Workspace newWorkspace() {
+		return new Workspace();
+	}
+
+	/**
+	 * Sets up the approximation for a component, if it has a background cost.
+	 *
+	 * @param edges
+	 *            The (normalised) edge costs of the component.
+	 * @param node_no
+	 *            The number of nodes.
+	 * @param dim
+	 *            The dimension the layouting is run in.
+	 * @param theta
+	 *            The Barnes-Hut opening criterion, between 0 (exact) and 1.
+	 * @return The approximation, or null if no single cost covers most of
+	 *         the pairs, in which case the exact forces should be used.
+	 */
+	public static FORCEnDApproximateForces create(ICCEdges edges, int node_no,
+			int dim, double theta) {
+		if (node_no < 2)
+			return null;
+		theta = Math.max(0, Math.min(1, theta));
+
+		// A CCSparse already has its pairs by row, with the default cost as
+		// the background
+		if (edges instanceof CCSparse) {
+			CCSparse sparse = (CCSparse) edges;
+			return new FORCEnDApproximateForces(node_no, dim, theta,
+					sparse.getDefaultCost(), sparse.getRowStarts(),
+					sparse.getColumns(), sparse.getCosts());
+		}
+
+		// Find the most common cost in a sample of the pairs
+		Map<Float, Integer> frequencies = new HashMap<Float, Integer>();
+		Random random = new Random(node_no);
+		long pairs = (long) node_no * (node_no - 1) / 2;
+		int samples = (int) Math.min(SAMPLE_SIZE, pairs);
+		for (int s = 0; s < samples; s++) {
+			int i = random.nextInt(node_no);
+			int j = random.nextInt(node_no - 1);
+			if (j >= i) j++;
+			frequencies.merge(edges.getEdgeCost(i, j), 1, Integer::sum);
+		}
+		float background = 0;
+		int best = 0;
+		for (Map.Entry<Float, Integer> entry : frequencies.entrySet()) {
+			if (entry.getValue() > best) {
+				best = entry.getValue();
+				background = entry.getKey();
+			}
+		}
+		if (best < MIN_BACKGROUND_FRACTION * samples)
+			return null;
+
+		// Collect the pairs that don't have the background cost
+		final float backgroundCost = background;
+		int[] counts = new int[node_no + 1];
+		IntStream.range(0, node_no).parallel().forEach(i -> {
+			int count = 0;
+			for (int j = 0; j < node_no; j++) {
+				if (j != i && edges.getEdgeCost(i, j) != backgroundCost)
+					count++;
+			}
+			counts[i + 1] = count;
+		});
+		int[] pairStart = new int[node_no + 1];
+		for (int i = 0; i < node_no; i++)
+			pairStart[i + 1] = pairStart[i] + counts[i + 1];
+		int[] pairNode = new int[pairStart[node_no]];
+		float[] pairCost = new float[pairStart[node_no]];
+		IntStream.range(0, node_no).parallel().forEach(i -> {
+			int pos = pairStart[i];
+			for (int j = 0; j < node_no; j++) {
+				if (j == i) continue;
+				float cost = edges.getEdgeCost(i, j);
+				if (cost != backgroundCost) {
+					pairNode[pos] = j;
+					pairCost[pos] = cost;
+					pos++;
+				}
+			}
+		});
+
+		return new FORCEnDApproximateForces(node_no, dim, theta, background,
+				pairStart, pairNode, pairCost);
+	}
+
+	/**
+	 * @return The number of pairs (counted once) with their own cost.
+	 */
+	public int getExplicitPairs() {
+		return pairNode.length / 2;
+	}
+
+	/**
+	 * Sets the force factors, see
+	 * {@link FORCEnDLayoutUtility#calculateDisplacementVectors}.
+	 */
+	public void setFactors(double attraction, double repulsion) {
+		this.attraction = attraction;
+		this.repulsion = repulsion;
+	}
+
+	/**
+	 * Builds the tree over the current positions. This must be called
+	 * before the forces are calculated in each iteration.
+	 *
+	 * @param positions
+	 *            The flat positions, node i, dimension d is at i*dim+d.
+	 */
+	public void build(double[] positions) {
+		for (int i = 0; i < node_no; i++)
+			order[i] = i;
+		nNodes = 0;
+		build(positions, 0, node_no);
+	}
+
+	/**
+	 * Calculates the displacement of node i from all of the other nodes.
+	 *
+	 * @param i
+	 *            The node.
+	 * @param positions
+	 *            The flat positions.
+	 * @param displacement
+	 *            The flat displacements, where the displacement of node i is
+	 *            stored (only node i is written).
+	 * @param workspace
+	 *            The scratch space of the calling thread.
+	 */
+	public void calculateDisplacement(int i, double[] positions, double[] displacement,
+			Workspace workspace) {
+		int offset_i = i * dim;
+		double[] result = workspace.result;
+		Arrays.fill(result, 0);
+
+		// The background force, from the tree
+		int[] stack = workspace.stack;
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int node = stack[--top];
+			if (left[node] < 0) {
+				for (int k = start[node]; k < end[node]; k++) {
+					int j = order[k];
+					if (j != i)
+						addForce(positions, offset_i, positions, j * dim, backgroundCost, 1, result);
+				}
+				continue;
+			}
+
+			double distance = distance(positions, offset_i, center, node * dim);
+			if (size[node] < theta * distance) {
+				addForce(positions, offset_i, center, node * dim, backgroundCost,
+						end[node] - start[node], result);
+			} else {
+				stack[top++] = left[node];
+				stack[top++] = right[node];
+			}
+		}
+
+		// The corrections for the pairs with their own cost
+		for (int k = pairStart[i]; k < pairStart[i + 1]; k++) {
+			int offset_j = pairNode[k] * dim;
+			addForce(positions, offset_i, positions, offset_j, pairCost[k], 1, result);
+			addForce(positions, offset_i, positions, offset_j, backgroundCost, -1, result);
+		}
+
+		System.arraycopy(result, 0, displacement, offset_i, dim);
+	}
+
+	/*
+	 * Adds weight times the force on the node at offset_i from the point at
+	 * offset_j with the given cost.
+	 */
+	private void addForce(double[] positions, int offset_i, double[] points,
+			int offset_j, float cost, double weight, double[] result) {
+		double distance = distance(positions, offset_i, points, offset_j);
+		if (distance < FORCEnDLayoutConfig.MIN_DISTANCE) return;
+		double force;
+		if (cost > 0) {
+			force = (Math.log(distance + 1) * cost * attraction) / distance;
+		} else {
+			force = ((cost * repulsion) / Math.log(distance + 1)) / distance;
+		}
+		force *= weight;
+		for (int d = 0; d < dim; d++)
+			result[d] += (points[offset_j + d] - positions[offset_i + d]) * force;
+	}
+
+	private double distance(double[] a, int offset_a, double[] b, int offset_b) {
+		double distance = 0;
+		for (int d = 0; d < dim; d++) {
+			double dummy = a[offset_a + d] - b[offset_b + d];
+			distance += dummy * dummy;
+		}
+		return Math.sqrt(distance);
+	}
+
+	private int build(double[] positions, int from, int to) {
+		int node = nNodes++;
+		start[node] = from;
+		end[node] = to;
+		left[node] = -1;
+
+		int offset = node * dim;
+		Arrays.fill(min, offset, offset + dim, Double.MAX_VALUE);
+		Arrays.fill(max, offset, offset + dim, -Double.MAX_VALUE);
+		Arrays.fill(center, offset, offset + dim, 0);
+		for (int k = from; k < to; k++) {
+			int p = order[k] * dim;
+			for (int d = 0; d < dim; d++) {
+				double v = positions[p + d];
+				center[offset + d] += v;
+				if (v < min[offset + d]) min[offset + d] = v;
+				if (v > max[offset + d]) max[offset + d] = v;
+			}
+		}
+		int widest = -1;
+		double widestLength = 0;
+		for (int d = 0; d < dim; d++) {
+			center[offset + d] /= (to - from);
+			double length = max[offset + d] - min[offset + d];
+			if (length > widestLength) {
+				widestLength = length;
+				widest = d;
+			}
+		}
+		size[node] = widestLength;
+
+		// All of the points are the same, or small enough to check directly
+		if (to - from <= LEAF_SIZE || widest < 0)
+			return node;
+
+		int mid = (from + to) >>> 1;
+		select(positions, from, to - 1, mid, widest);
+		int l = build(positions, from, mid);
+		int r = build(positions, mid, to);
+		left[node] = l;
+		right[node] = r;
+		return node;
+	}
+
+	// Quickselect, so that order[k] holds the k'th smallest value in dimension d
+	private void select(double[] positions, int lo, int hi, int k, int d) {
+		while (hi > lo) {
+			double pivot = positions[order[(lo + hi) >>> 1] * dim + d];
+			int i = lo;
+			int j = hi;
+			while (i <= j) {
+				while (positions[order[i] * dim + d] < pivot) i++;
+				while (positions[order[j] * dim + d] > pivot) j--;
+				if (i <= j) {
+					int tmp = order[i];
+					order[i] = order[j];
+					order[j] = tmp;
+					i++;
+					j--;
+				}
+			}
+			if (k <= j)
+				hi = j;
+			else if (k >= i)
+				lo = i;
+			else
+				return;
+		}
+	}
+}
@@ -37,6 +37,10 @@ public class FORCEnDLayoutConfig {
 //	public static double maximalDisplacement = 1000;
 	public static int iterations = 100;
 	public static float temperature = 100;
+	/* approximate the background forces in large components (Barnes-Hut) */
+	public static boolean approximateForces = false;
+	/* the Barnes-Hut opening criterion, 0 is exact */
+	public static double theta = 0.5;
 //	public static double influenceOfGraphSizeToForces = 1.3198015648987826 ;
 	// ------------------------------------------------------------------- //
 	
@@ -59,6 +63,11 @@ public class FORCEnDLayoutConfig {
 //				"forcend.maximalDisplacement").trim());
 		iterations = Integer.parseInt(rb.getString("forcend.iterations").trim());
 		temperature = Float.parseFloat(rb.getString("forcend.temperature").trim());
+		/* optional, older config files don't have these */
+		if (rb.containsKey("forcend.approximateForces"))
+			approximateForces = Boolean.parseBoolean(rb.getString("forcend.approximateForces").trim());
+		if (rb.containsKey("forcend.theta"))
+			theta = Double.parseDouble(rb.getString("forcend.theta").trim());
 //		influenceOfGraphSizeToForces = Double.parseDouble(rb.getString(
 //				"forcend.influenceOfGraphSizeToForces").trim());
 	}
@@ -76,6 +85,8 @@ public class FORCEnDLayoutConfig {
 //		confile.printParameter("forcend.maximalDisplacement", ""+FORCEnDLayoutConfig.maximalDisplacement);
 		confile.printParameter("forcend.iterations", ""+FORCEnDLayoutConfig.iterations);
 		confile.printParameter("forcend.temperature", ""+FORCEnDLayoutConfig.temperature);
+		confile.printParameter("forcend.approximateForces", ""+FORCEnDLayoutConfig.approximateForces);
+		confile.printParameter("forcend.theta", ""+FORCEnDLayoutConfig.theta);
 //		confile.printParameter("forcend.influenceOfGraphSizeToForces", ""+FORCEnDLayoutConfig.influenceOfGraphSizeToForces);
 	}
 	
@@ -0,0 +1,280 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.TransClust.de.layclust.layout.forcend;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.TransClust.de.layclust.datastructure.ConnectedComponent;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.TransClust.de.layclust.datastructure.ICCEdges;
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.TransClust.de.layclust.taskmanaging.TaskConfig;
+
+/**
+ * The multi-threaded version of the FORCEnD layout loop.  This does the same
+ * calculation as {@link FORCEnDLayoutUtility#calculateDisplacementVectors} and
+ * {@link FORCEnDLayoutUtility#moveAllNodesByDisplacement}, but:
+ * <ul>
+ * <li>the threads come from one pool that is shared by all of the layouts,
+ * rather than a new pool for every iteration,</li>
+ * <li>the pairs (i,j) with j &gt; i are split into pieces with about the same
+ * number of pairs, rather than the same number of rows,</li>
+ * <li>each piece adds its forces into its own displacement buffer, so there
+ * is no locking, and the buffers are summed when the nodes are moved,</li>
+ * <li>the positions and displacements are kept in flat arrays
+ * (node i, dimension d is at i*dim+d), and only copied back into the
+ * {@link ConnectedComponent} at the end.</li>
+ * </ul>
+ * If the parameters ask for approximate forces, and the component is large
+ * enough, the forces come from {@link FORCEnDApproximateForces} instead. Each
+ * task then calculates the complete displacement of its own nodes, so one
+ * buffer is enough.
+ */
+public class FORCEnDLayoutEngine {
+
+	/* below this many nodes the threads cost more than they save */
+	public static final int MIN_PARALLEL_NODES = 200;
+
+	private static ForkJoinPool pool = null;
+
+	private final ConnectedComponent cc;
+	private final ICCEdges edges;
+	private final int dim;
+	private final int node_no;
+	private final FORCEnDParameters parameters;
+
+	private final FORCEnDApproximateForces approximation;	// null for the exact forces
+	private final FORCEnDApproximateForces.Workspace[] workspaces;	// One per piece
+
+	private final double[] positions;
+	private final double[][] displacements;	// One buffer per piece
+	private final int[] pieceStart;				// Piece p has rows pieceStart[p]..pieceStart[p+1]-1
+	private final int[] nodeStart;				// The same for moving the nodes
+
+	private double attraction;
+	private double repulsion;
+	private double temperature;
+
+	/**
+	 * Sets up the flat position array and the work split for the given
+	 * {@link ConnectedComponent}. The positions must already be initialised.
+	 *
+	 * @param cc
+	 *            The connected Component.
+	 * @param dim
+	 *            The dimension the layouting is run in.
+	 * @param parameters
+	 *            The parameters for FORCEnD.
+	 */
+	public FORCEnDLayoutEngine(ConnectedComponent cc, int dim,
+			FORCEnDParameters parameters) {
+		this.cc = cc;
+		this.edges = cc.getCCEdges();
+		this.dim = dim;
+		this.node_no = cc.getNodeNumber();
+		this.parameters = parameters;
+
+		positions = new double[node_no * dim];
+		double[][] node_pos = cc.getCCPositions();
+		for (int i = 0; i < node_no; i++)
+			System.arraycopy(node_pos[i], 0, positions, i * dim, dim);
+
+		if (useApproximation(node_no, parameters))
+			approximation = FORCEnDApproximateForces.create(edges, node_no, dim,
+					parameters.getTheta());
+		else
+			approximation = null;
+
+		int pieces = Math.max(1, Math.min(getPool().getParallelism(), node_no / 2));
+		pieceStart = balancedPieces(node_no, pieces);
+		nodeStart = new int[pieces + 1];
+		for (int p = 0; p <= pieces; p++)
+			nodeStart[p] = (int) ((long) node_no * p / pieces);
+		displacements = new double[approximation == null ? pieces : 1][node_no * dim];
+		workspaces = new FORCEnDApproximateForces.Workspace[approximation == null ? 0 : pieces];
+		for (int p = 0; p < workspaces.length; p++)
+			workspaces[p] = approximation.newWorkspace();
+	}
+
+	/**
+	 * Whether the engine should be used for a component with the given number
+	 * of nodes.
+	 */
+	public static boolean useEngine(int node_no, FORCEnDParameters parameters) {
+		if (useApproximation(node_no, parameters))
+			return true;
+		return TaskConfig.useThreads && TaskConfig.maxNoThreads > 1
+				&& node_no >= MIN_PARALLEL_NODES;
+	}
+
+	private static boolean useApproximation(int node_no, FORCEnDParameters parameters) {
+		return parameters.isApproximateForces()
+				&& node_no >= FORCEnDApproximateForces.MIN_NODES;
+	}
+
+	/**
+	 * The pool shared by all of the layouts. A new one is made if the maximal
+	 * number of threads has been changed since it was created (the idle
+	 * threads of the old one time out by themselves, so layouts still using
+	 * it aren't disturbed).
+	 */
+	static synchronized ForkJoinPool getPool() {
+		int threads = Math.max(1, TaskConfig.maxNoThreads);
+		if (pool == null || pool.getParallelism() != threads)
+			pool = new ForkJoinPool(threads);
+		return pool;
+	}
+
+	/**
+	 * Splits the rows of the upper triangle into pieces, so that every piece
+	 * has about the same number of pairs: row i has node_no-1-i of them.
+	 *
+	 * @return The first row of each piece, followed by node_no.
+	 */
+	static int[] balancedPieces(int node_no, int pieces) {
+		int[] start = new int[pieces + 1];
+		long total = (long) node_no * (node_no - 1) / 2;
+		long pairs = 0;
+		int row = 0;
+		for (int p = 1; p < pieces; p++) {
+			long target = total * p / pieces;
+			while (row < node_no && pairs + (node_no - 1 - row) <= target) {
+				pairs += node_no - 1 - row;
+				row++;
+			}
+			start[p] = row;
+		}
+		start[pieces] = node_no;
+		return start;
+	}
+
+	/**
+	 * Runs all of the FORCEnD iterations and stores the final positions in
+	 * the {@link ConnectedComponent}.
+	 */
+	public void run() {
+		attraction = parameters.getAttractionFactor() / node_no;
+		repulsion = parameters.getRepulsionFactor() / node_no;
+
+		int pieces = nodeStart.length - 1;
+		List<Callable<Void>> forceTasks = new ArrayList<Callable<Void>>(pieces);
+		List<Callable<Void>> moveTasks = new ArrayList<Callable<Void>>(pieces);
+		for (int p = 0; p < pieces; p++) {
+			final int piece = p;
+			if (approximation == null)
+				forceTasks.add(() -> { calculateForces(piece); return null; });
+			else
+				forceTasks.add(() -> { calculateApproximateForces(piece); return null; });
+			moveTasks.add(() -> { moveNodes(nodeStart[piece], nodeStart[piece + 1]); return null; });
+		}
+
+		if (approximation != null)
+			approximation.setFactors(attraction, repulsion);
+
+		ForkJoinPool forkJoinPool = getPool();
+		for (int it = 0; it < parameters.getIterations(); it++) {
+			temperature = FORCEnDLayoutUtility.calculateTemperature(it, node_no, parameters);
+			if (approximation != null)
+				approximation.build(positions);
+			invokeAll(forkJoinPool, forceTasks);
+			invokeAll(forkJoinPool, moveTasks);
+		}
+
+		double[][] node_pos = cc.getCCPositions();
+		for (int i = 0; i < node_no; i++)
+			System.arraycopy(positions, i * dim, node_pos[i], 0, dim);
+	}
+
+	private static void invokeAll(ForkJoinPool forkJoinPool, List<Callable<Void>> tasks) {
+		try {
+			for (Future<Void> future : forkJoinPool.invokeAll(tasks))
+				future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/*
+	 * The forces for the rows of one piece, see
+	 * FORCEnDLayoutUtility.calculateDisplacementVectors
+	 */
+	private void calculateForces(int piece) {
+		double[] displacement = displacements[piece];
+		Arrays.fill(displacement, 0);
+		for (int i = pieceStart[piece]; i < pieceStart[piece + 1]; i++) {
+			int offset_i = i * dim;
+			for (int j = i + 1; j < node_no; j++) {
+				int offset_j = j * dim;
+				double distance = 0;
+				for (int d = 0; d < dim; d++) {
+					double dummy = positions[offset_i + d] - positions[offset_j + d];
+					distance += dummy * dummy;
+				}
+				distance = Math.sqrt(distance);
+				if (distance < FORCEnDLayoutConfig.MIN_DISTANCE) continue;
+
+				double cost = edges.getEdgeCost(i, j);
+				double force;
+				if (cost > 0) {
+					force = (Math.log(distance + 1) * cost * attraction) / distance;
+				} else {
+					force = ((cost * repulsion) / Math.log(distance + 1)) / distance;
+				}
+				for (int d = 0; d < dim; d++) {
+					double value = (positions[offset_j + d] - positions[offset_i + d]) * force;
+					displacement[offset_i + d] += value;
+					displacement[offset_j + d] -= value;
+				}
+			}
+		}
+	}
+
+	/*
+	 * The approximate forces for the nodes of one piece
+	 */
+	private void calculateApproximateForces(int piece) {
+		FORCEnDApproximateForces.Workspace workspace = workspaces[piece];
+		for (int i = nodeStart[piece]; i < nodeStart[piece + 1]; i++)
+			approximation.calculateDisplacement(i, positions, displacements[0], workspace);
+	}
+
+	/*
+	 * Sums the buffers for the nodes from..to-1 and moves them, see
+	 * FORCEnDLayoutUtility.moveAllNodesByDisplacement
+	 */
+	private void moveNodes(int from, int to) {
+		double[] total = new double[dim];
+		for (int i = from; i < to; i++) {
+			int offset = i * dim;
+			Arrays.fill(total, 0);
+			for (double[] displacement : displacements) {
+				for (int d = 0; d < dim; d++)
+					total[d] += displacement[offset + d];
+			}
+
+			double norm = 0;
+			for (int d = 0; d < dim; d++)
+				norm += total[d] * total[d];
+			norm = Math.sqrt(norm);
+
+			for (int d = 0; d < dim; d++) {
+				if (norm > temperature)
+					total[d] = (total[d] / norm) * temperature;
+
+				double newPos = positions[offset + d] + total[d];
+				if (newPos > Integer.MAX_VALUE) {
+					positions[offset + d] = Integer.MAX_VALUE;
+				} else if (newPos < Integer.MIN_VALUE) {
+					positions[offset + d] = Integer.MIN_VALUE;
+				} else {
+					positions[offset + d] = newPos;
+				}
+			}
+		}
+	}
+}
@@ -5,10 +5,8 @@
 package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.TransClust.de.layclust.layout.forcend;
 
 import java.util.Arrays;
-import java.util.concurrent.ExecutorService;
 
 import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.TransClust.de.layclust.datastructure.ConnectedComponent;
-import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.networkClusterers.TransClust.de.layclust.taskmanaging.TaskConfig;
 
 /**
  * This class is a collection of static methods that are used for the layouting
@@ -78,166 +76,53 @@ public class FORCEnDLayoutUtility {
 		setDisplacementsToZero(allDisplacements, cc.getNodeNumber(), dim);
 		double attraction = param.getAttractionFactor()/cc.getNodeNumber();
 		double repulsion = param.getRepulsionFactor()/cc.getNodeNumber();
-		int[] list = new int[cc.getNodeNumber()];
-		if(TaskConfig.useThreads){
-//			if(false){
-			ExecutorService es = java.util.concurrent.Executors.newFixedThreadPool(TaskConfig.maxNoThreads);
-			for (int i = 0; i < TaskConfig.maxNoThreads; i++) {
-				DisplacementCalculator s = new DisplacementCalculator(attraction,repulsion,allDisplacements,cc,dim,list,(int) Math.rint((double) cc.getNodeNumber()/TaskConfig.maxNoThreads)*i,Math.min((int) Math.rint((double) cc.getNodeNumber()/TaskConfig.maxNoThreads)*(i+1)-1,cc.getNodeNumber()-1));
-				
-				es.execute(s);
-			}
-//			for (int i = 0; i < cc.getNodeNumber(); i++) {
-//				int start = i;
-//				int end = i;
-//				int estimatedOperation = cc.getNodeNumber()-i;
-//				while(estimatedOperation<((cc.getNodeNumber()*(cc.getNodeNumber()-1))/2)/TaskConfig.maxNoThreads){
-//					if(i==cc.getNodeNumber()) break;
-//					end++;
-//					i++;
-//					estimatedOperation+=cc.getNodeNumber()-i;
-//				}
-//				DisplacementCalculator s = new DisplacementCalculator(attraction,repulsion,allDisplacements,cc,dim,list,start,end);
-//				es.execute(s);
-//			}
+		double distance,force,displacement;
+		for (int i = 0; i < cc.getNodeNumber(); i++) {
+			/*
+			 * only need to calculate the forces for j<i, because force(i,j) =
+			 * force(j,i)
+			 * if it should at some stage not be the case, then change
+			 * this!
+			 */
 			
-			es.shutdown(); 
-			try {
-				es.awaitTermination(5, java.util.concurrent.TimeUnit.HOURS);
-			} catch (InterruptedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}	
-		}else{
-			double distance,force,displacement;
-			for (int i = 0; i < cc.getNodeNumber(); i++) {
+			for (int j = i+1; j < cc.getNodeNumber(); j++) {
+				
+				distance = calculateEuclideanDistance(cc.getCCPositions(), dim, i,j);
+				if(distance<FORCEnDLayoutConfig.MIN_DISTANCE) continue;
 				/*
-				 * only need to calculate the forces for j<i, because force(i,j) =
-				 * force(j,i)
-				 * if it should at some stage not be the case, then change
-				 * this!
+				 * calculate attraction or repulsion force 
+				 * 
+				 * attraction:
+				 * 				log(d(i,j)+1) x cost(i,j) x attraction factor
+				 * 				--------------------------------------------- 
+				 * 	  		   	          number of nodes 
+				 * 
+				 * repulsion: 
+				 * 				cost(i,j) x repulsion factor
+				 *             -------------------------------
+				 *             log(d(i,j)+1) x number of nodes 
+				 * 
 				 */
 				
-				for (int j = i+1; j < cc.getNodeNumber(); j++) {
-					
-					distance = calculateEuclideanDistance(cc.getCCPositions(), dim, i,j);
-					if(distance<FORCEnDLayoutConfig.MIN_DISTANCE) continue;
-					/*
-					 * calculate attraction or repulsion force 
-					 * 
-					 * attraction:
-					 * 				log(d(i,j)+1) x cost(i,j) x attraction factor
-					 * 				--------------------------------------------- 
-					 * 	  		   	          number of nodes 
-					 * 
-					 * repulsion: 
-					 * 				cost(i,j) x repulsion factor
-					 *             -------------------------------
-					 *             log(d(i,j)+1) x number of nodes 
-					 * 
-					 */
-					
-					if (cc.getCCEdges().getEdgeCost(i, j)>0) {
-						force =  (Math.log(distance + 1) * cc.getCCEdges().getEdgeCost(i, j) * attraction)/distance;
-						for (int d = 0; d < dim; d++) {
-							displacement = (cc.getCCPositions()[j][d] - cc.getCCPositions()[i][d])*force;
-							allDisplacements[i][d] += displacement;
-							allDisplacements[j][d] -= displacement;
-						}
-					}else{
-						force = ((cc.getCCEdges().getEdgeCost(i, j) * repulsion)/Math.log(distance + 1))/distance;
-						for (int d = 0; d < dim; d++) {
-							displacement = (cc.getCCPositions()[j][d] - cc.getCCPositions()[i][d])*force;
-							allDisplacements[i][d] += displacement;
-							allDisplacements[j][d] -= displacement;
-						}
-					}
-				}
-			}	
-		}
-		
-//		
-	}
-	
-	public class DisplacementTask implements Runnable {
-		
-		private static final long serialVersionUID = 1L;
-		private double[][] allDisplacements;
-		private ConnectedComponent cc;
-		private int dim;
-		private int[] list;
-		private double attraction;
-		private double repulsion;
-		private int start;
-		private int end;
-		
-		public DisplacementTask(double attraction, double repulsion,
-				double[][] allDisplacements, ConnectedComponent cc, int dim,
-				int[] list,int start, int end) {
-			super();
-			this.allDisplacements = allDisplacements;
-			this.cc = cc;
-			this.dim = dim;
-			this.attraction = attraction;
-			this.repulsion = repulsion;
-			this.list = list;
-			this.start = start;
-			this.end = end;
-		}
-
-		public void run(){
-			for (int i = start; i <= end; i++) {
-				for (int j = i+1; j < cc.getNodeNumber(); j++) {
-					
-//					double distance = calculateEuclideanDistance(cc.getCCPositions(), dim, i,j);
-					double distance=0;
-					double dummy = 0;
-					for (int d = 0; d < dim; d++) {	
-						dummy = (cc.getCCPositions()[i][d] - cc.getCCPositions()[j][d]);
-						distance += (dummy*dummy);
+				if (cc.getCCEdges().getEdgeCost(i, j)>0) {
+					force =  (Math.log(distance + 1) * cc.getCCEdges().getEdgeCost(i, j) * attraction)/distance;
+					for (int d = 0; d < dim; d++) {
+						displacement = (cc.getCCPositions()[j][d] - cc.getCCPositions()[i][d])*force;
+						allDisplacements[i][d] += displacement;
+						allDisplacements[j][d] -= displacement;
 					}
-					distance = Math.sqrt(distance);
-					if(distance<FORCEnDLayoutConfig.MIN_DISTANCE) continue;
-					/*
-					 * calculate attraction or repulsion force 
-					 * 
-					 * attraction:
-					 * 				log(d(i,j)+1) x cost(i,j) x attraction factor
-					 * 				--------------------------------------------- 
-					 * 	  		   	          number of nodes 
-					 * 
-					 * repulsion: 
-					 * 				cost(i,j) x repulsion factor
-					 *             -------------------------------
-					 *             log(d(i,j)+1) x number of nodes 
-					 * 
-					 */
-					
-					if (cc.getCCEdges().getEdgeCost(i, j)>0) {
-						double force =  (Math.log(distance + 1) * cc.getCCEdges().getEdgeCost(i, j) * attraction)/distance;
-						for (int d = 0; d < dim; d++) {
-							double displacement = (cc.getCCPositions()[j][d] - cc.getCCPositions()[i][d])*force;
-							synchronized (allDisplacements) {
-								allDisplacements[i][d] += displacement;
-								allDisplacements[j][d] -= displacement;
-							}
-							
-						}
-					}else{
-						double force = ((cc.getCCEdges().getEdgeCost(i, j) * repulsion)/Math.log(distance + 1))/distance;
-						for (int d = 0; d < dim; d++) {
-							double displacement = (cc.getCCPositions()[j][d] - cc.getCCPositions()[i][d])*force;
-							synchronized (allDisplacements) {
-								allDisplacements[i][d] += displacement;
-								allDisplacements[j][d] -= displacement;
-							}
-						}
+				}else{
+					force = ((cc.getCCEdges().getEdgeCost(i, j) * repulsion)/Math.log(distance + 1))/distance;
+					for (int d = 0; d < dim; d++) {
+						displacement = (cc.getCCPositions()[j][d] - cc.getCCPositions()[i][d])*force;
+						allDisplacements[i][d] += displacement;
+						allDisplacements[j][d] -= displacement;
 					}
 				}
 			}
 		}
-		
 	}
+	
 	/**
 	 * Calculates the euclidean distance between two nodes.
 	 * 
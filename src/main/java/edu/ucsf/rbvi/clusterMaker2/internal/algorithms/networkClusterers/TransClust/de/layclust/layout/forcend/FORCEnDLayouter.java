@@ -98,6 +98,17 @@ public class FORCEnDLayouter implements ILayouter {
 	public void run() {
 		this.cc.getCCEdges().normalise();
 		int node_no = this.cc.getNodeNumber();
+
+		/*
+		 * large components are laid out by the multi-threaded engine, which
+		 * also does the approximate forces
+		 */
+		if (FORCEnDLayoutEngine.useEngine(node_no, this.parameters)) {
+			new FORCEnDLayoutEngine(this.cc, this.dim, this.parameters).run();
+			this.cc.getCCEdges().denormalise();
+			return;
+		}
+
 		double[][] node_pos = this.cc.getCCPositions();
 
 		double[][] allDisplacements = new double[node_no][this.dim];
@@ -26,6 +26,10 @@ public class FORCEnDParameters implements IParameters {
 	private float temperature = 0;
 //	private double influenceOfGraphSizeToForces = 0;
 
+	/* not trained, so these always start from the config */
+	private boolean approximateForces = FORCEnDLayoutConfig.approximateForces;
+	private double theta = FORCEnDLayoutConfig.theta;
+
 	private double score = 0;
 	
 
@@ -197,6 +201,8 @@ public class FORCEnDParameters implements IParameters {
 //		this.maximalDisplacement = FORCEnDLayoutConfig.maximalDisplacement;
 		this.iterations = FORCEnDLayoutConfig.iterations;
 		this.temperature = FORCEnDLayoutConfig.temperature;
+		this.approximateForces = FORCEnDLayoutConfig.approximateForces;
+		this.theta = FORCEnDLayoutConfig.theta;
 		//TODO add extra param here
 	}
 
@@ -210,6 +216,8 @@ public class FORCEnDParameters implements IParameters {
 		FORCEnDLayoutConfig.repulsionFactor = this.repulsionFactor;
 		FORCEnDLayoutConfig.iterations = this.iterations;
 		FORCEnDLayoutConfig.temperature = this.temperature;
+		FORCEnDLayoutConfig.approximateForces = this.approximateForces;
+		FORCEnDLayoutConfig.theta = this.theta;
 		//TODO add extra param here
 	}
 	
@@ -310,6 +318,35 @@ public class FORCEnDParameters implements IParameters {
 		this.temperature = temperature;
 	}
 
+	/**
+	 * @return whether the background forces are approximated in large
+	 *         components, see {@link FORCEnDApproximateForces}
+	 */
+	public boolean isApproximateForces() {
+		return approximateForces;
+	}
+
+	/**
+	 * @param approximateForces whether to approximate the background forces
+	 */
+	public void setApproximateForces(boolean approximateForces) {
+		this.approximateForces = approximateForces;
+	}
+
+	/**
+	 * @return the Barnes-Hut opening criterion for the approximate forces
+	 */
+	public double getTheta() {
+		return theta;
+	}
+
+	/**
+	 * @param theta the Barnes-Hut opening criterion, between 0 (exact) and 1
+	 */
+	public void setTheta(double theta) {
+		this.theta = theta;
+	}
+
 	/**
 	 * Gets the score for the clustering with these parameter values.
 	 * @return the score The clustering cost for these set of parameters.
@@ -348,6 +385,10 @@ public class FORCEnDParameters implements IParameters {
 //		paramString.append(this.maximalDisplacement);
 		paramString.append("\n temperature - ");
 		paramString.append(this.temperature);
+		if (this.approximateForces) {
+			paramString.append("\n theta - ");
+			paramString.append(this.theta);
+		}
 				
 		return paramString.toString();
 	}
@@ -158,32 +158,8 @@ public class DoubleArrayDrawer extends ArrayDrawer {
 				}
 
 				try {
-					double val   = 0;
-					int count    = 0;
-					for (int i = geneFirst; i <= gene; i++) {
-						for (int j = arrayFirst; j <= array; j++) {
-							int actualGene = source.y + i;
-							if (geneOrder != null) actualGene = geneOrder[actualGene];
-							double thisVal  = dataMatrix.getValue(j + source.x,  actualGene);
-
-							if (thisVal == DataModel.EMPTY) {
-								val = DataModel.EMPTY;
-								count =1;
-								break;
-							}
-							if (thisVal != DataModel.NODATA) {
-								count++;
-								val += thisVal;
-							}
-						}
-						if (val == DataModel.EMPTY) break;
-					}
-					if (count == 0) {
-						val = DataModel.NODATA;
-					} else {
-						val /= count;
-					}
-					int t_color  = colorExtractor.getARGBColor(val);
+					int t_color  = getBlockColor(arrayFirst + source.x, array + source.x,
+					                             geneFirst + source.y, gene + source.y, geneOrder);
 					for (int x = xstart; x < xnext; x++) {
 						for (int y = ystart; y < ynext; y++) {
 							pixels[x + y * scanSize] = t_color;
@@ -198,6 +174,47 @@ public class DoubleArrayDrawer extends ArrayDrawer {
 		}
 	}
 
+	/**
+	 *  Get the color for a block of array elements that map to the same pixels.
+	 *  The color is that of the average of the values in the block, or of
+	 *  EMPTY if any of them is empty.
+	 *
+	 * @param  arrayFirst  first array (x coordinate) of the block
+	 * @param  arrayLast   last array of the block
+	 * @param  geneFirst   first gene (y coordinate) of the block
+	 * @param  geneLast    last gene of the block
+	 * @param  geneOrder   the order of the genes, as in paint(), or null
+	 * @return             the ARGB color for the block
+	 */
+	public int getBlockColor(int arrayFirst, int arrayLast, int geneFirst, int geneLast, int [] geneOrder) {
+		double val   = 0;
+		int count    = 0;
+		for (int i = geneFirst; i <= geneLast; i++) {
+			for (int j = arrayFirst; j <= arrayLast; j++) {
+				int actualGene = i;
+				if (geneOrder != null) actualGene = geneOrder[actualGene];
+				double thisVal  = dataMatrix.getValue(j,  actualGene);
+
+				if (thisVal == DataModel.EMPTY) {
+					val = DataModel.EMPTY;
+					count =1;
+					break;
+				}
+				if (thisVal != DataModel.NODATA) {
+					count++;
+					val += thisVal;
+				}
+			}
+			if (val == DataModel.EMPTY) break;
+		}
+		if (count == 0) {
+			val = DataModel.NODATA;
+		} else {
+			val /= count;
+		}
+		return colorExtractor.getARGBColor(val);
+	}
+
 	/**
 	 *  Get value for a given array element
 	 *
@@ -42,6 +42,15 @@ class GlobalView extends ModelViewProduced
 
 	private ArrayDrawer drawer;
 
+	/**
+	 * The tile cache for DoubleArrayDrawers, which repaints us when the
+	 * missing tiles have been drawn
+	 */
+	private TiledArrayRenderer tiles = new TiledArrayRenderer(() -> {
+		offscreenValid = false;
+		repaint();
+	});
+
 	/**
 	 * Points to track candidate selected rows/cols
 	 * should reflect where the mouse has actually been
@@ -155,6 +164,7 @@ class GlobalView extends ModelViewProduced
 			drawer.deleteObserver(this);	
 		drawer = arrayDrawer;
 		drawer.addObserver(this);
+		tiles.invalidate();
 	}
 
 	/** 
@@ -304,8 +314,12 @@ class GlobalView extends ModelViewProduced
 			                           xmap.getIndex(destRect.width) - xmap.getIndex(0), 
 			                           ymap.getIndex(destRect.height) - ymap.getIndex(0));
 
-			if ((sourceRect.x >= 0) && (sourceRect.y >= 0))
-				drawer.paint(offscreenPixels, sourceRect, destRect, offscreenScanSize);
+			if ((sourceRect.x >= 0) && (sourceRect.y >= 0)) {
+				if (drawer instanceof DoubleArrayDrawer)
+					tiles.paint((DoubleArrayDrawer)drawer, offscreenPixels, sourceRect, destRect, offscreenScanSize);
+				else
+					drawer.paint(offscreenPixels, sourceRect, destRect, offscreenScanSize);
+			}
 			offscreenSource.newPixels();
 		}
 	}
@@ -438,6 +452,7 @@ class GlobalView extends ModelViewProduced
 			/* signal from drawer means that it need to
 			 * draw something different. 
 			 */
+			tiles.invalidate();
 			offscreenValid = false;
 		} else {
 			// CyLogger.getLogger(GlobalView.class).warn("GlobalView got weird update : " + o);
@@ -0,0 +1,299 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.treeview.dendroview;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.SwingUtilities;
+
+/**
+ *  Paints the pixels of a {@link DoubleArrayDrawer} from a cache of tiles.
+ *
+ *      The tiles are TILE_SIZE x TILE_SIZE pixels of the whole matrix drawn at
+ *      the current scale, so scrolling the view reuses the tiles that are still
+ *      visible, and going back to an earlier zoom level reuses the tiles drawn
+ *      at that level.  The pixels of a tile are exactly those that
+ *      ArrayDrawer.paint() would draw, including the averaging of the values
+ *      that share a pixel. <p>
+ *
+ *      Tiles that aren't cached yet are drawn on a pool of worker threads rather
+ *      than on the event dispatch thread, and are left blank until they are done.
+ *      Once a batch of tiles is done, the listener is called on the event dispatch
+ *      thread so that the view can paint again.  The least recently used tiles are
+ *      dropped once the cache is full, and invalidate() drops all of them when the
+ *      data or the colors change.
+ */
+class TiledArrayRenderer {
+	static final int TILE_SIZE = 128;
+	private static final int MAX_TILES = 512;	// 32MB of pixels
+	private static final int BACKGROUND = 0xffffffff;
+
+	private static ExecutorService pool = null;
+
+	private final Runnable tilesReady;
+	private final AtomicBoolean notifyPending = new AtomicBoolean(false);
+	private final Set<TileKey> pending = ConcurrentHashMap.newKeySet();
+	private final Map<TileKey, int[]> tiles = new LinkedHashMap<TileKey, int[]>(64, 0.75f, true) {
+		protected boolean removeEldestEntry(Map.Entry<TileKey, int[]> eldest) {
+			return size() > MAX_TILES;
+		}
+	};
+	private volatile int generation = 0;
+
+	/**
+	 * @param tilesReady called on the event dispatch thread when tiles that
+	 *                   were missing in paint() have been drawn
+	 */
+	TiledArrayRenderer(Runnable tilesReady) {
+		this.tilesReady = tilesReady;
+	}
+
+	private static synchronized ExecutorService getPool() {
+		if (pool == null) {
+			pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+				Thread thread = new Thread(r, "TreeView tile renderer");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return pool;
+	}
+
+	/**
+	 * Drop all of the tiles, because the data or the colors have changed.
+	 * Tiles that are being drawn at the moment are dropped when they are done.
+	 */
+	void invalidate() {
+		generation++;
+		synchronized (tiles) {
+			tiles.clear();
+		}
+	}
+
+	/**
+	 *  Paint the array values onto pixels, in the same way as
+	 *  ArrayDrawer.paint(pixels, source, dest, scanSize).  Only the tiles that
+	 *  are cached are painted, the others are drawn in the background.
+	 *
+	 * @param  drawer    The drawer that provides the colors
+	 * @param  pixels    The pixel buffer to draw to.
+	 * @param  source    Specifies Rectangle of values to draw from
+	 * @param  dest      Specifies Rectangle of pixels to draw to
+	 * @param  scanSize  The scansize for the pixels array (in other words, the width of the image)
+	 * @return           true if all of the tiles were cached
+	 */
+	boolean paint(DoubleArrayDrawer drawer, int[] pixels, Rectangle source, Rectangle dest, int scanSize) {
+		if (source.width <= 0 || source.height <= 0 || dest.width <= 0 || dest.height <= 0)
+			return true;
+
+		Axis xAxis = new Axis(source.x, source.width, dest.width, drawer.getNumCol());
+		Axis yAxis = new Axis(source.y, source.height, dest.height, drawer.getNumRow());
+
+		// The tiles that cover the destination, in the pixels of the whole matrix
+		int firstTileX = (int) Math.floorDiv(xAxis.offset, TILE_SIZE);
+		int lastTileX = (int) Math.floorDiv(xAxis.offset + dest.width - 1, TILE_SIZE);
+		int firstTileY = (int) Math.floorDiv(yAxis.offset, TILE_SIZE);
+		int lastTileY = (int) Math.floorDiv(yAxis.offset + dest.height - 1, TILE_SIZE);
+
+		boolean complete = true;
+		int gen = generation;
+		for (int tileY = firstTileY; tileY <= lastTileY; tileY++) {
+			for (int tileX = firstTileX; tileX <= lastTileX; tileX++) {
+				TileKey key = new TileKey(xAxis, yAxis, tileX, tileY, gen);
+				int[] tile;
+				synchronized (tiles) {
+					tile = tiles.get(key);
+				}
+				// The part of the tile that is in the destination
+				int tileLeft = (int) ((long) tileX * TILE_SIZE - xAxis.offset) + dest.x;
+				int tileTop = (int) ((long) tileY * TILE_SIZE - yAxis.offset) + dest.y;
+				int x0 = Math.max(tileLeft, dest.x);
+				int x1 = Math.min(tileLeft + TILE_SIZE, dest.x + dest.width);
+				int y0 = Math.max(tileTop, dest.y);
+				int y1 = Math.min(tileTop + TILE_SIZE, dest.y + dest.height);
+
+				if (tile == null) {
+					// Blank it, so the pixels of the last view don't show through
+					for (int y = y0; y < y1; y++)
+						Arrays.fill(pixels, y * scanSize + x0, y * scanSize + x1, BACKGROUND);
+					complete = false;
+					request(drawer, key);
+					continue;
+				}
+
+				for (int y = y0; y < y1; y++) {
+					System.arraycopy(tile, (y - tileTop) * TILE_SIZE + (x0 - tileLeft),
+					                 pixels, y * scanSize + x0, x1 - x0);
+				}
+			}
+		}
+		return complete;
+	}
+
+	private void request(DoubleArrayDrawer drawer, TileKey key) {
+		if (!pending.add(key))
+			return;
+		getPool().execute(() -> {
+			try {
+				if (key.generation != generation)
+					return;
+				int[] tile = render(drawer, key);
+				if (key.generation != generation)
+					return;
+				synchronized (tiles) {
+					tiles.put(key, tile);
+				}
+			} finally {
+				pending.remove(key);
+			}
+			// Repaint once for all of the tiles that are done by then
+			if (notifyPending.compareAndSet(false, true)) {
+				SwingUtilities.invokeLater(() -> {
+					notifyPending.set(false);
+					tilesReady.run();
+				});
+			}
+		});
+	}
+
+	private static int[] render(DoubleArrayDrawer drawer, TileKey key) {
+		int[] tile = new int[TILE_SIZE * TILE_SIZE];
+		Arrays.fill(tile, BACKGROUND);
+		long left = (long) key.tileX * TILE_SIZE;
+		long top = (long) key.tileY * TILE_SIZE;
+		long[] columns = key.xAxis.blocks(left, left + TILE_SIZE);
+		long[] rows = key.yAxis.blocks(top, top + TILE_SIZE);
+		for (int r = 0; r < rows.length; r += 4) {
+			int y0 = (int) (Math.max(rows[r + 2], top) - top);
+			int y1 = (int) (Math.min(rows[r + 3], top + TILE_SIZE) - top);
+			for (int c = 0; c < columns.length; c += 4) {
+				int x0 = (int) (Math.max(columns[c + 2], left) - left);
+				int x1 = (int) (Math.min(columns[c + 3], left + TILE_SIZE) - left);
+				int color;
+				try {
+					color = drawer.getBlockColor((int) columns[c], (int) columns[c + 1],
+					                             (int) rows[r], (int) rows[r + 1], null);
+				} catch (java.lang.ArrayIndexOutOfBoundsException e) {
+					continue;
+				}
+				for (int y = y0; y < y1; y++)
+					Arrays.fill(tile, y * TILE_SIZE + x0, y * TILE_SIZE + x1, color);
+			}
+		}
+		return tile;
+	}
+
+	/**
+	 * The mapping between the indexes and the pixels along one axis.  As in
+	 * ArrayDrawer.paint(), the block of pixels for the source index
+	 * first + j ends at pixel (j+1) * pixels / count, and indexes that don't
+	 * get a pixel of their own are averaged with the next ones.  Within the
+	 * whole matrix, the pixel where index i ends is
+	 * floor((i + 1 - phase) * num / den), where num/den is pixels/count in
+	 * lowest terms and phase = first mod den, so the pixels don't depend on
+	 * where the view is scrolled to, except for the phase.
+	 */
+	private static final class Axis {
+		final long num;
+		final long den;
+		final long phase;
+		final long offset;	// The pixel of the first index of the view
+		final int size;	// The number of indexes in the matrix
+
+		Axis(int first, int count, int pixels, int size) {
+			long gcd = gcd(pixels, count);
+			this.num = pixels / gcd;
+			this.den = count / gcd;
+			this.phase = Math.floorMod((long) first, den);
+			this.offset = (first - phase) / den * num;
+			this.size = size;
+		}
+
+		private static long gcd(long a, long b) {
+			while (b != 0) {
+				long t = a % b;
+				a = b;
+				b = t;
+			}
+			return a;
+		}
+
+		// The first pixel of index i
+		long pixel(long i) {
+			return Math.floorDiv((i - phase) * num, den);
+		}
+
+		// The last index of the block that covers pixel p
+		long lastIndex(long p) {
+			return -Math.floorDiv(-(p + 1) * den, num) + phase - 1;
+		}
+
+		/*
+		 * The blocks that cover the pixels from..to-1, each as the first and
+		 * last index (limited to the matrix) and the first and next pixel
+		 */
+		long[] blocks(long from, long to) {
+			long[] blocks = new long[64];
+			int n = 0;
+			long p = from;
+			while (p < to) {
+				long last = lastIndex(p);
+				long first = lastIndex(pixel(last) - 1) + 1;
+				long end = pixel(last + 1);
+				if (last >= 0 && first < size) {
+					if (n + 4 > blocks.length)
+						blocks = Arrays.copyOf(blocks, blocks.length * 2);
+					blocks[n++] = Math.max(first, 0);
+					blocks[n++] = Math.min(last, size - 1);
+					blocks[n++] = pixel(last);
+					blocks[n++] = end;
+				}
+				p = end;
+			}
+			return Arrays.copyOf(blocks, n);
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof Axis)) return false;
+			Axis a = (Axis) o;
+			return num == a.num && den == a.den && phase == a.phase && size == a.size;
+		}
+
+		public int hashCode() {
+			return (int) (num * 31 * 31 + den * 31 + phase) * 31 + size;
+		}
+	}
+
+	private static final class TileKey {
+		final Axis xAxis;
+		final Axis yAxis;
+		final int tileX;
+		final int tileY;
+		final int generation;
+
+		TileKey(Axis xAxis, Axis yAxis, int tileX, int tileY, int generation) {
+			this.xAxis = xAxis;
+			this.yAxis = yAxis;
+			this.tileX = tileX;
+			this.tileY = tileY;
+			this.generation = generation;
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof TileKey)) return false;
+			TileKey k = (TileKey) o;
+			return tileX == k.tileX && tileY == k.tileY && generation == k.generation &&
+			       xAxis.equals(k.xAxis) && yAxis.equals(k.yAxis);
+		}
+
+		public int hashCode() {
+			return ((xAxis.hashCode() * 31 + yAxis.hashCode()) * 31 + tileX) * 31 + tileY;
+		}
+	}
+}
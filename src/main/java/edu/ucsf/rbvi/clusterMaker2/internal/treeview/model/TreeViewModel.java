@@ -33,8 +33,11 @@
 package edu.ucsf.rbvi.clusterMaker2.internal.treeview.model;
 
 // System imports
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
@@ -150,7 +153,7 @@ public class TreeViewModel extends TVModel {
 			// Matrix is symmetrical.
 
 			// Initialize the data
-			for (int row = 0; row < nGene; row++) {
+			IntStream.range(0, nGene).parallel().forEach(row -> {
 				for (int col = 0; col < nExpr; col++) {
 					int cell = row * nExpr + col;
 					if (diagonalValue != null && row == col)
@@ -160,26 +163,20 @@ public class TreeViewModel extends TVModel {
 					else
 						exprData[cell] = DataModel.NODATA;
 				}
-			}
-
-			Class attributeType = network.getDefaultEdgeTable().getColumn(edgeAttribute).getType();
-			for (CyEdge edge: network.getEdgeList()) {
-				CyNode source = edge.getSource();
-				CyNode target = edge.getTarget();
-				if (!geneList.contains(ModelUtils.getName(network, source)) || 
-				    !geneList.contains(ModelUtils.getName(network, target)))
+			});
+
+			List<CyEdge> edgeList = network.getEdgeList();
+			int[] genes = new int[edgeList.size()];
+			int[] exprs = new int[edgeList.size()];
+			double[] values = new double[edgeList.size()];
+			getEdgeValues(edgeList, geneList, geneList, edgeAttribute, genes, exprs, values);
+			for (int e = 0; e < genes.length; e++) {
+				int gene = genes[e];
+				int expr = exprs[e];
+				if (gene < 0 || expr < 0 || Double.isNaN(values[e]))
 					continue;
-
-				Double val = ModelUtils.getNumericValue(network, edge, edgeAttribute);
-
-				int gene = geneList.indexOf(ModelUtils.getName(network, source));
-				int expr = geneList.indexOf(ModelUtils.getName(network, target));
-				// System.out.println("Edge "+source.getIdentifier()+"("+gene+") "+
-				//                    target.getIdentifier()+"("+expr+") = "+val);
-				if (val != null) {
-					exprData[gene*nExpr + expr] = val;
-					exprData[expr*nExpr + gene] = val;
-				}
+				exprData[gene*nExpr + expr] = values[e];
+				exprData[expr*nExpr + gene] = values[e];
 			}
 			isSymmetrical = true;
 		} else if (edgeAttribute != null && (assymetric||clusterParams==null)) {
@@ -195,22 +192,21 @@ public class TreeViewModel extends TVModel {
 						exprData[cell] = DataModel.NODATA;
 				}
 			}
-			for (CyEdge edge: network.getEdgeList()) {
-				CyNode source = edge.getSource();
-				CyNode target = edge.getTarget();
-				if (!geneList.contains(ModelUtils.getName(network, source)) || 
-				    !arrayList.contains(ModelUtils.getName(network, target)))
+			List<CyEdge> edgeList = network.getEdgeList();
+			int[] genes = new int[edgeList.size()];
+			int[] exprs = new int[edgeList.size()];
+			double[] values = new double[edgeList.size()];
+			getEdgeValues(edgeList, geneList, arrayList, edgeAttribute, genes, exprs, values);
+			for (int e = 0; e < genes.length; e++) {
+				int gene = genes[e];
+				int expr = exprs[e];
+				if (gene < 0 || expr < 0)
 					continue;
 
-				Double val = ModelUtils.getNumericValue(network, edge, edgeAttribute);
-
-				int gene = geneList.indexOf(ModelUtils.getName(network, source));
-				int expr = arrayList.indexOf(ModelUtils.getName(network, target));
-
-				if (val == null) {
+				if (Double.isNaN(values[e])) {
 					exprData[gene*nExpr + expr] = DataModel.NODATA;
 				} else {
-					exprData[gene*nExpr + expr] = val.doubleValue();
+					exprData[gene*nExpr + expr] = values[e];
 				}
 			}
 		} else if (bicluster) {
@@ -334,6 +330,58 @@ public class TreeViewModel extends TVModel {
 		return new String [] {"NODEID", "LEFT", "RIGHT", "CORRELATION"};
 	}
 
+	/**
+	 * Look up the row, the column and the value for each edge.  The names are
+	 * hashed once, and each node's name is only looked up once, rather than
+	 * searching the lists for every edge.  The values are fetched in parallel.
+	 *
+	 * @param edges the edges to look up
+	 * @param rowNames the node names for the rows
+	 * @param columnNames the node names for the columns
+	 * @param edgeAttribute the (numeric) edge attribute with the values
+	 * @param rows returns the row of each edge's source, or -1 if it isn't in rowNames
+	 * @param columns returns the column of each edge's target, or -1 if it isn't in columnNames
+	 * @param values returns the value of each edge, or NaN if it doesn't have one
+	 */
+	private void getEdgeValues(List<CyEdge> edges, List<String> rowNames, List<String> columnNames,
+	                           String edgeAttribute, int[] rows, int[] columns, double[] values) {
+		Map<String, Integer> rowIndex = indexNames(rowNames);
+		Map<String, Integer> columnIndex = (columnNames == rowNames) ? rowIndex : indexNames(columnNames);
+
+		Map<CyNode, Integer> nodeRows = new HashMap<CyNode, Integer>();
+		Map<CyNode, Integer> nodeColumns = new HashMap<CyNode, Integer>();
+		for (CyNode node: network.getNodeList()) {
+			String name = ModelUtils.getName(network, node);
+			Integer row = rowIndex.get(name);
+			if (row != null) nodeRows.put(node, row);
+			Integer column = columnIndex.get(name);
+			if (column != null) nodeColumns.put(node, column);
+		}
+
+		Class<?> type = network.getDefaultEdgeTable().getColumn(edgeAttribute).getType();
+		boolean numeric = Number.class.isAssignableFrom(type);
+		IntStream.range(0, edges.size()).parallel().forEach(e -> {
+			CyEdge edge = edges.get(e);
+			rows[e] = nodeRows.getOrDefault(edge.getSource(), -1);
+			columns[e] = nodeColumns.getOrDefault(edge.getTarget(), -1);
+			values[e] = Double.NaN;
+			if (!numeric || rows[e] < 0 || columns[e] < 0)
+				return;
+			Object val = network.getRow(edge).get(edgeAttribute, type);
+			if (val != null)
+				values[e] = ((Number)val).doubleValue();
+		});
+	}
+
+	// Map each name to its first position in the list, like List.indexOf
+	private static Map<String, Integer> indexNames(List<String> names) {
+		Map<String, Integer> index = new HashMap<String, Integer>(names.size()*2);
+		int i = 0;
+		for (String name: names)
+			index.putIfAbsent(name, i++);
+		return index;
+	}
+
 	private void parseGroupHeaders (List<String>groupList, String [][] headers) {
 
 		// Parse the group data: format is NAME\tID1\tID2\tdistance
@@ -0,0 +1,133 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.ChengChurch;
+
+import java.util.List;
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class ChengChurchEngineTest {
+
+	double DELTA = 0.000001;
+	int rows = 12;
+	int columns = 10;
+
+	@Test
+	public void multipleNodeDeletionTest() {
+		double[][] arr = initialize();
+		ChengChurchEngine engine = new ChengChurchEngine(arr, 0.05, 1.2);
+
+		engine.reset();
+		assertScores(arr, engine);
+		assertEquals(rows, engine.getRows().size());
+		assertEquals(columns, engine.getCols().size());
+
+		engine.multipleNodeDeletion();
+		assertScores(arr, engine);
+		int size = engine.getRows().size()*engine.getCols().size();
+		assertTrue("nothing was deleted", size < rows*columns);
+
+		engine.nodeAddition();
+		assertScores(arr, engine);
+		assertTrue("nothing was added", engine.getRows().size()*engine.getCols().size() > size);
+
+		// The next bicluster starts from all of the data again
+		engine.reset();
+		assertScores(arr, engine);
+	}
+
+	@Test
+	public void singleNodeDeletionTest() {
+		// Too large an alpha for multiple node deletion to do anything
+		double[][] arr = initialize();
+		ChengChurchEngine engine = new ChengChurchEngine(arr, 0.05, 100);
+
+		engine.reset();
+		assertFalse(engine.multipleNodeDeletion());
+		assertScores(arr, engine);
+
+		engine.singleNodeDeletion();
+		assertScores(arr, engine);
+		int size = engine.getRows().size()*engine.getCols().size();
+		assertTrue("nothing was deleted", size < rows*columns);
+
+		engine.nodeAddition();
+		assertScores(arr, engine);
+		assertTrue("nothing was added", engine.getRows().size()*engine.getCols().size() > size);
+	}
+
+	// An additive bicluster in the first rows and columns, with one inverted
+	// row, in noise
+	double[][] initialize() {
+		Random random = new Random(7);
+		double[] rowEffect = new double[rows];
+		double[] colEffect = new double[columns];
+		for (int i = 0; i < rows; i++) rowEffect[i] = 4*random.nextDouble();
+		for (int j = 0; j < columns; j++) colEffect[j] = 4*random.nextDouble();
+
+		double[][] arr = new double[rows][columns];
+		for (int i = 0; i < rows; i++) {
+			for (int j = 0; j < columns; j++) {
+				if (i < 7 && j < 6)
+					arr[i][j] = rowEffect[i] + colEffect[j] + 0.1*random.nextGaussian();
+				else if (i == 7 && j < 6)
+					arr[i][j] = rowEffect[i] - colEffect[j] + 0.1*random.nextGaussian();
+				else
+					arr[i][j] = 4*random.nextGaussian();
+			}
+		}
+		return arr;
+	}
+
+	// Compare the bicluster's mean squared residue and the scores of every
+	// row and column with those recalculated from the data
+	void assertScores(double[][] arr, ChengChurchEngine engine) {
+		List<Integer> biRows = engine.getRows();
+		List<Integer> biCols = engine.getCols();
+
+		double[] rowMeans = new double[rows];
+		double[] colMeans = new double[columns];
+		double mean = 0;
+		for (int i = 0; i < rows; i++) {
+			for (int j: biCols) rowMeans[i] += arr[i][j];
+			rowMeans[i] /= biCols.size();
+		}
+		for (int j = 0; j < columns; j++) {
+			for (int i: biRows) colMeans[j] += arr[i][j];
+			colMeans[j] /= biRows.size();
+		}
+		for (int i: biRows)
+			for (int j: biCols) mean += arr[i][j];
+		mean /= biRows.size()*biCols.size();
+
+		double msr = 0;
+		for (int i: biRows) {
+			for (int j: biCols) {
+				double residue = arr[i][j] - rowMeans[i] - colMeans[j] + mean;
+				msr += residue*residue;
+			}
+		}
+		msr /= biRows.size()*biCols.size();
+		assertEquals("bicluster", msr, engine.calcMSR(), DELTA);
+
+		for (int i = 0; i < rows; i++) {
+			double score = 0, inverted = 0;
+			for (int j: biCols) {
+				double residue = arr[i][j] - rowMeans[i] - colMeans[j] + mean;
+				double invertedResidue = -arr[i][j] + rowMeans[i] - colMeans[j] + mean;
+				score += residue*residue;
+				inverted += invertedResidue*invertedResidue;
+			}
+			assertEquals("row "+i, score/biCols.size(), engine.rowScore(i, false), DELTA);
+			assertEquals("inverted row "+i, inverted/biCols.size(), engine.rowScore(i, true), DELTA);
+		}
+
+		for (int j = 0; j < columns; j++) {
+			double score = 0;
+			for (int i: biRows) {
+				double residue = arr[i][j] - rowMeans[i] - colMeans[j] + mean;
+				score += residue*residue;
+			}
+			assertEquals("column "+j, score/biRows.size(), engine.colScore(j), DELTA);
+		}
+	}
+}
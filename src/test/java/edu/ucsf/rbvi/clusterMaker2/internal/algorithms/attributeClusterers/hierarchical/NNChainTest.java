@@ -0,0 +1,89 @@
+package edu.ucsf.rbvi.clusterMaker2.internal.algorithms.attributeClusterers.hierarchical;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import edu.ucsf.rbvi.clusterMaker2.internal.algorithms.matrix.CondensedDistanceMatrix;
+
+public class NNChainTest {
+
+	double DELTA = 0.000001;
+
+	// Points on a line, where single linkage joins the clusters in a different
+	// order from the others
+	double[][] line = {{0}, {2}, {3}, {7}, {8.5}, {13}};
+
+	// The corners of the unit square, where every merge is a tie
+	double[][] square = {{0, 0}, {1, 0}, {0, 1}, {1, 1}};
+
+	@Test
+	public void singleLinkageTest() {
+		assertTree(new int[][] {{1, 2}, {3, 4}, {-1, 0}, {-3, -2}, {-4, 5}},
+		           new double[] {1, 1.5, 2, 4, 4.5},
+		           NNChain.singleLinkage(distances(line)));
+	}
+
+	@Test
+	public void maximumLinkageTest() {
+		assertTree(new int[][] {{1, 2}, {3, 4}, {-1, 0}, {-2, 5}, {-4, -3}},
+		           new double[] {1, 1.5, 3, 6, 13},
+		           NNChain.cluster(distances(line), ClusterMethod.MAXIMUM_LINKAGE));
+	}
+
+	@Test
+	public void averageLinkageTest() {
+		assertTree(new int[][] {{1, 2}, {3, 4}, {-1, 0}, {-2, 5}, {-4, -3}},
+		           new double[] {1, 1.5, 2.5, 5.25, 47.0/6},
+		           NNChain.cluster(distances(line), ClusterMethod.AVERAGE_LINKAGE));
+	}
+
+	@Test
+	public void wardsLinkageTest() {
+		// sqrt(2 na nb/(na+nb)) times the distance between the centroids
+		assertTree(new int[][] {{1, 2}, {3, 4}, {-1, 0}, {-2, 5}, {-4, -3}},
+		           new double[] {1, 1.5, 2.5*Math.sqrt(4.0/3), 5.25*Math.sqrt(4.0/3), (9.5-5.0/3)*Math.sqrt(3)},
+		           NNChain.cluster(distances(line), ClusterMethod.WARDS_LINKAGE));
+	}
+
+	@Test
+	public void tiesTest() {
+		assertTree(new int[][] {{0, 1}, {-1, 2}, {-2, 3}},
+		           new double[] {1, 1, 1},
+		           NNChain.singleLinkage(distances(square)));
+		assertTree(new int[][] {{0, 1}, {2, 3}, {-2, -1}},
+		           new double[] {1, 1, Math.sqrt(2)},
+		           NNChain.cluster(distances(square), ClusterMethod.MAXIMUM_LINKAGE));
+		assertTree(new int[][] {{0, 1}, {2, 3}, {-2, -1}},
+		           new double[] {1, 1, (1+Math.sqrt(2))/2},
+		           NNChain.cluster(distances(square), ClusterMethod.AVERAGE_LINKAGE));
+		assertTree(new int[][] {{0, 1}, {2, 3}, {-2, -1}},
+		           new double[] {1, 1, Math.sqrt(2)},
+		           NNChain.cluster(distances(square), ClusterMethod.WARDS_LINKAGE));
+	}
+
+	// The euclidean distances between the points
+	CondensedDistanceMatrix distances(double[][] points) {
+		CondensedDistanceMatrix distances = new CondensedDistanceMatrix(points.length, false);
+		for (int row = 0; row < points.length; row++) {
+			for (int column = 0; column < row; column++) {
+				double sum = 0;
+				for (int d = 0; d < points[row].length; d++)
+					sum += (points[row][d]-points[column][d])*(points[row][d]-points[column][d]);
+				distances.set(row, column, Math.sqrt(sum));
+			}
+		}
+		return distances;
+	}
+
+	// Which of the two children is left or right doesn't matter, so compare
+	// them in order
+	void assertTree(int[][] children, double[] distance, TreeNode[] nodes) {
+		assertEquals(children.length, nodes.length);
+		for (int node = 0; node < nodes.length; node++) {
+			int left = Math.min(nodes[node].getLeft(), nodes[node].getRight());
+			int right = Math.max(nodes[node].getLeft(), nodes[node].getRight());
+			assertArrayEquals("node "+node, children[node], new int[] {left, right});
+			assertEquals("node "+node, distance[node], nodes[node].getDistance(), DELTA);
+		}
+	}
+}
@@ -9,6 +9,8 @@ import edu.ucsf.rbvi.clusterMaker2.internal.api.Matrix;
 public class MatrixTest {
 
 	double DELTA = 0.000001;
+	// The float matrix rounds its values to single precision
+	double FLOAT_DELTA = 0.0001;
 	int rows = 100;
 	int columns = 100;
 	Matrix coltMatrix;
@@ -17,6 +19,8 @@ public class MatrixTest {
 	Matrix simpleMatrix2;
 	Matrix ojAlgoMatrix;
 	Matrix ojAlgoMatrix2;
+	Matrix floatMatrix;
+	Matrix floatMatrix2;
 	long time;
 
 	@Test
@@ -38,6 +42,11 @@ public class MatrixTest {
 		ojAlgoMatrix.ops().multiplyScalar(scalarValue);
 		timeEnd("multiply ojAlgo matrix by scalar");
 		assertArrayEquals(simpleMatrix.toArray(), ojAlgoMatrix.toArray(), DELTA);
+
+		timeStart();
+		floatMatrix.ops().multiplyScalar(scalarValue);
+		timeEnd("multiply float matrix by scalar");
+		assertArrayEquals(simpleMatrix.toArray(), floatMatrix.toArray(), FLOAT_DELTA);
 	}
 
 	@Test
@@ -62,6 +71,11 @@ public class MatrixTest {
 		timeEnd("multiply ojAlgo matrix");
 		assertArrayEquals(resultSimple.toArray(), resultAlgo.toArray(), DELTA);
 
+		timeStart();
+		Matrix resultFloat = floatMatrix.ops().multiplyMatrix(floatMatrix2);
+		timeEnd("multiply float matrix");
+		assertArrayEquals(resultSimple.toArray(), resultFloat.toArray(), FLOAT_DELTA);
+
 	}
 
 	@Test
@@ -86,6 +100,11 @@ public class MatrixTest {
 		// System.out.println("resultOjAlgo: "+ resultAlgo.printMatrixInfo());
 		assertArrayEquals(resultSimple.toArray(), resultAlgo.toArray(), DELTA);
 
+		timeStart();
+		Matrix resultFloat = floatMatrix.ops().multiplyMatrix(floatMatrix);
+		timeEnd("square multiply float matrix");
+		assertArrayEquals(resultSimple.toArray(), resultFloat.toArray(), FLOAT_DELTA);
+
 	}
 
 	@Test
@@ -107,6 +126,12 @@ public class MatrixTest {
 		timeEnd("centralizeColumns ojAlgo matrix");
 
 		assertArrayEquals(simpleMatrix.toArray(), ojAlgoMatrix.toArray(), DELTA);
+
+		timeStart();
+		floatMatrix.ops().centralizeColumns();
+		timeEnd("centralizeColumns float matrix");
+
+		assertArrayEquals(simpleMatrix.toArray(), floatMatrix.toArray(), FLOAT_DELTA);
 	}
 
 	@Test
@@ -145,6 +170,17 @@ public class MatrixTest {
 		timeStart();
 		System.out.println("ojAlgo sum by columns: "+sumByColumns(ojAlgoMatrix));
 		timeEnd("ojAlgo sum by columns");
+
+		timeStart();
+		floatMatrix.ops().normalizeMatrix();
+		timeEnd("normalize float matrix");
+
+		timeStart();
+		System.out.println("float sum by rows: "+sumByRows(floatMatrix));
+		timeEnd("float sum by rows");
+		timeStart();
+		System.out.println("float sum by columns: "+sumByColumns(floatMatrix));
+		timeEnd("float sum by columns");
 	}
 	
 	@Test
@@ -185,6 +221,17 @@ public class MatrixTest {
       }
     }
 		timeEnd("normalize columns ojAlgo matrix");
+
+		timeStart();
+    for (int col = 0; col < floatMatrix.nColumns(); col++) {
+      sums[col] = floatMatrix.ops().columnSum(col);
+      if (sums[col] == 0.0) {
+        floatMatrix.setValue(col,col,1.0);
+      } else {
+        floatMatrix.ops().normalizeColumn(col);
+      }
+    }
+		timeEnd("normalize columns float matrix");
 	}
 
 	@Test
@@ -206,6 +253,12 @@ public class MatrixTest {
 		timeEnd("ojAlgo matrix covariance");
 
 		assertArrayEquals(simpleCov.toArray(), ojAlgoCov.toArray(), DELTA);
+
+		timeStart();
+		Matrix floatCov = floatMatrix.ops().covariance();
+		timeEnd("float matrix covariance");
+
+		assertArrayEquals(simpleCov.toArray(), floatCov.toArray(), FLOAT_DELTA);
 	}
 
 	@Test
@@ -227,6 +280,12 @@ public class MatrixTest {
 		timeEnd("ojAlgo matrix correlation");
 
 		assertArrayEquals(simpleCorr.toArray(), ojAlgoCorr.toArray(), DELTA);
+
+		timeStart();
+		Matrix floatCorr = floatMatrix.ops().correlation();
+		timeEnd("float matrix correlation");
+
+		assertArrayEquals(simpleCorr.toArray(), floatCorr.toArray(), FLOAT_DELTA);
 	}
 
 	@Test
@@ -269,6 +328,13 @@ public class MatrixTest {
 		timeEnd("ojAlgo matrix eigen");
 
 		assertArrayEquals(simpleVectors, ojAlgoVectors, DELTA);
+
+		timeStart();
+		double[][] floatVectors = floatMatrix.ops().eigenVectors();
+		double[]  floatValues = floatMatrix.ops().eigenValues(false);
+		timeEnd("float matrix eigen");
+
+		assertArrayEquals(simpleVectors, floatVectors, FLOAT_DELTA);
 	}
 
 	public void	assertArrayEquals(double[][] temparray, double[][] arratmp, double DELTA) {
@@ -298,6 +364,7 @@ public class MatrixTest {
 		// simpleMatrix.setValue(rows/3, columns/5, Double.NaN);
 		coltMatrix = new ColtMatrix((SimpleMatrix)simpleMatrix);
 		ojAlgoMatrix = new OjAlgoMatrix((SimpleMatrix)simpleMatrix);
+		floatMatrix = new FloatMatrix((SimpleMatrix)simpleMatrix);
 
 		simpleMatrix2 = new SimpleMatrix(rows, columns);
 		for(int row=0;row<rows;row++){
@@ -308,6 +375,7 @@ public class MatrixTest {
 		}
 		coltMatrix2 = new ColtMatrix((SimpleMatrix)simpleMatrix2);
 		ojAlgoMatrix2 = new OjAlgoMatrix((SimpleMatrix)simpleMatrix2);
+		floatMatrix2 = new FloatMatrix((SimpleMatrix)simpleMatrix2);
 	}
 
 	private double sumByRows(Matrix mat) {